@@ -1,10 +1,11 @@
 #version 310 es
-in vec3 aPosition;
-in vec2 aTexCoord;
+layout(location = 0) in vec3 aPosition;
+layout(location = 1) in vec2 aTexCoord;
 out vec2 vTexCoord;
 uniform mat4 uTransform;
 void main()
 {
     gl_Position = vec4(aPosition, 1.0);
-    vTexCoord = aTexCoord;
+    // SurfaceTexture's transform, identity for offscreen stages
+    vTexCoord = (uTransform * vec4(aTexCoord, 0.0, 1.0)).xy;
 }
\ No newline at end of file
@@ -1,19 +1,34 @@
 package com.example.flamvr;
 
 
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.ConfigurationInfo;
 import android.opengl.GLSurfaceView;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.Surface;
+import android.view.SurfaceView;
 import android.view.View;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
 import com.example.flamvr.core.IOInterface;
 import com.example.flamvr.core.MediaCodecPlayer;
 import com.example.flamvr.core.StateHandler;
+import com.example.flamvr.core.codec.DecodeMode;
+import com.example.flamvr.core.thumbnail.ThumbnailEngine;
+import com.example.flamvr.core.trace.TraceRecorder;
 import com.example.flamvr.databinding.ActivityMainBinding;
+import com.example.flamvr.globals.StreamDataInterface;
 import com.example.flamvr.input.InputController;
+import com.example.flamvr.platform.canvas.CanvasRenderer;
 import com.example.flamvr.platform.opengl.OpenGLRenderer;
 import com.example.flamvr.ui.UIHandler;
 
@@ -24,14 +39,21 @@ import com.example.flamvr.ui.UIHandler;
  */
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = MainActivity.class.getSimpleName();
+    // Launch with "adb shell am start -n com.example.flamvr/.MainActivity --ez trace true" to record a trace,
+    // written to trace.json in the app's external files dir whenever the activity is paused
+    public static final String EXTRA_TRACE = "trace";
+    // Launch with "--ez asyncDecode true" to drive the codecs through MediaCodec callbacks instead of
+    // polling them; ignored below API 23
+    public static final String EXTRA_ASYNC_DECODE = "asyncDecode";
     private GLSurfaceView glSurfaceView; // OpenGL rendering surface view
-    private OpenGLRenderer renderer; // Custom OpenGL renderer
+    private OpenGLRenderer renderer; // Custom OpenGL renderer, null without OpenGL ES 3.1
+    private CanvasRenderer canvasRenderer; // Filters on the CPU when OpenGL ES 3.1 is missing, null otherwise
     private MediaCodecPlayer mediaCodecPlayer; // Media player handling video/audio decoding and playback
     private InputController inputController; // Controller for user input events
     private StateHandler stateHandler; // State manager handling app state and event streams
     private IOInterface ioInterface; // Interface for IO operations, listens to state changes
     private UIHandler uiHandler; // Handles UI updates and interactions
-    private boolean surfaceReady = false; // Flag to track if OpenGL surface is ready for rendering
+    private ThumbnailEngine thumbnailEngine; // Decodes seek bar previews in the background
 
     private ActivityMainBinding binding; // View binding for activity_main layout
 
@@ -43,6 +65,7 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        TraceRecorder.setEnabled(getIntent() != null && getIntent().getBooleanExtra(EXTRA_TRACE, false));
         setContentView(R.layout.activity_main);
         //setting up full screen render
         View decorView = getWindow().getDecorView();
@@ -58,22 +81,44 @@ public class MainActivity extends AppCompatActivity {
         binding = ActivityMainBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
 
-        //setting up OpenGL context and renderer
-        glSurfaceView = findViewById(R.id.surfaceView);
-        glSurfaceView.setEGLContextClientVersion(3); // OpenGL ES 3.1
-        renderer = new OpenGLRenderer(this);
-        glSurfaceView.setRenderer(renderer);
-        glSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+        //setting up OpenGL context and renderer, or the CPU fallback on older GPUs
+        StreamDataInterface.VideoInfoStream videoRenderer;
+        if (supportsGles31()) {
+            glSurfaceView = findViewById(R.id.surfaceView);
+            glSurfaceView.setEGLContextClientVersion(3); // OpenGL ES 3.1
+            // keep the video SurfaceTexture across pause; if the context is lost anyway the player swaps surfaces
+            glSurfaceView.setPreserveEGLContextOnPause(true);
+            renderer = new OpenGLRenderer(this);
+            renderer.setRenderRequester(glSurfaceView::requestRender);
+            renderer.setRefreshRate(getWindowManager().getDefaultDisplay().getRefreshRate());
+            glSurfaceView.setRenderer(renderer);
+            // draw only when a new video frame arrives or the filter/aspect changes
+            glSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+            videoRenderer = renderer;
+        } else {
+            Log.w(TAG, "OpenGL ES 3.1 unavailable, filtering on the CPU");
+            findViewById(R.id.surfaceView).setVisibility(View.GONE);
+            SurfaceView softwareView = findViewById(R.id.softwareView);
+            softwareView.setVisibility(View.VISIBLE);
+            canvasRenderer = new CanvasRenderer(softwareView);
+            videoRenderer = canvasRenderer;
+        }
 
         //setting up UIHandler
         uiHandler = new UIHandler(this);
 
+        //setting up seek bar previews: 160 px wide, at most 1/16 of the heap
+        thumbnailEngine = new ThumbnailEngine(this, 160, (int) Math.min(16L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 16));
+        uiHandler.setThumbnailEngine(thumbnailEngine);
+
         //setting up stateManager
         stateHandler = new StateHandler();
-        stateHandler.addListener(uiHandler);
+        // views are only touched on the main thread; the renderer and player take commands on the bus thread
+        Executor mainThread = new Handler(Looper.getMainLooper())::post;
+        stateHandler.addListener(uiHandler, mainThread);
         stateHandler.addStream(uiHandler);
-        stateHandler.addStreamVS(uiHandler);
-        stateHandler.addStreamVS(renderer);
+        stateHandler.addStreamVS(uiHandler, mainThread);
+        stateHandler.addStreamVS(videoRenderer);
         //setting up IOInterface
         ioInterface = new IOInterface(this, stateHandler);
         stateHandler.addListener(ioInterface);
@@ -81,48 +126,78 @@ public class MainActivity extends AppCompatActivity {
         //setting up input controller
         inputController = new InputController(binding, stateHandler);
 
+        //setting up the player before the GL surface exists, so a file can be prepared meanwhile
+        mediaCodecPlayer = new MediaCodecPlayer(this, null);
+        boolean asyncDecode = getIntent() != null && getIntent().getBooleanExtra(EXTRA_ASYNC_DECODE, false);
+        mediaCodecPlayer.setDecodeMode(asyncDecode ? DecodeMode.ASYNC : DecodeMode.SYNC);
+        stateHandler.addListener(mediaCodecPlayer);
+        mediaCodecPlayer.addStream(stateHandler);
+        mediaCodecPlayer.addStream(videoRenderer);
+        mediaCodecPlayer.setThumbnailEngine(thumbnailEngine);
+        uiHandler.setTelemetry(mediaCodecPlayer.getTelemetry());
 
         Log.e(TAG, "Activity created");
 
         //listen to surface creation callbacks
-        renderer.setOnSurfaceReadyCallback(this::onSurfaceReady);
+        if (renderer != null) {
+            renderer.setOnSurfaceReadyCallback(this::onSurfaceReady);
+        } else {
+            canvasRenderer.setOnSurfaceReadyCallback(this::onSurfaceReady);
+        }
+    }
+
+    // The filter shaders need OpenGL ES 3.1, the glEsVersion feature in the manifest is optional
+    private boolean supportsGles31() {
+        ActivityManager activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+        ConfigurationInfo info = activityManager.getDeviceConfigurationInfo();
+        return info.reqGlEsVersion >= 0x30001;
     }
 
     /*
      * Called when the OpenGL rendering surface is ready.
-     * Initializes MediaCodecPlayer if not created, or updates surface if already created.
+     * Hands it to the player, whose prepare waits for it to configure the video codec.
      */
     public void onSurfaceReady(Surface surface) {
-        if(mediaCodecPlayer == null){
-            mediaCodecPlayer = new MediaCodecPlayer(this, surface);
-            stateHandler.addListener(mediaCodecPlayer);
-            mediaCodecPlayer.addStream(stateHandler);
-            mediaCodecPlayer.addStream(renderer);
-        } else {
-            mediaCodecPlayer.UpdateSurface(surface);
-        }
+        mediaCodecPlayer.UpdateSurface(surface);
         Log.e(TAG,"SURFACE CREATED!!!!!!!!!!!!");
-        surfaceReady = true;
     }
     /*
      * Called when the activity goes into the background or is partially obscured.
-     * Stops media playback and pauses OpenGL rendering to save resources.
+     * Pauses media playback, keeping the decoders and position, and pauses OpenGL rendering.
+     * Rotation does not get here, the activity handles configuration changes itself.
      */
     @Override
     protected void onPause() {
         Log.e(TAG, "Activity Paused");
-        if (mediaCodecPlayer != null && mediaCodecPlayer.isPlaying) {
-            mediaCodecPlayer.stop();
-        }
+        mediaCodecPlayer.suspend();
         if (glSurfaceView != null) {
             glSurfaceView.onPause();
         }
-        surfaceReady = false;
+        uiHandler.stopTelemetry();
+        if (TraceRecorder.isEnabled()) {
+            exportTrace();
+        }
         super.onPause();
     }
+
+    /*
+     * Writes the recorded trace off the UI thread, see EXTRA_TRACE.
+     */
+    private void exportTrace() {
+        File dir = getExternalFilesDir(null);
+        File file = new File(dir != null ? dir : getFilesDir(), "trace.json");
+        new Thread(() -> {
+            try {
+                TraceRecorder.writeChromeJson(file);
+                Log.d(TAG, "Trace written to " + file);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not write trace", e);
+            }
+        }, "TraceExport").start();
+    }
     /*
      * Called when the activity becomes visible and ready to interact.
-     * Resumes OpenGL rendering and restarts media playback if surface is ready.
+     * Resumes OpenGL rendering and continues media playback from where it was paused.
      */
     @Override
     protected void onResume() {
@@ -131,9 +206,17 @@ public class MainActivity extends AppCompatActivity {
         if (glSurfaceView != null) {
             glSurfaceView.onResume();
         }
-        if(mediaCodecPlayer != null && surfaceReady){
-            mediaCodecPlayer.onInitiate(stateHandler.getFileUri());
-        }
+        uiHandler.startTelemetry();
+        mediaCodecPlayer.resume();
+    }
+    /*
+     * Called when the system asks the app to free memory.
+     * Seek bar previews are dropped first since they can be decoded again.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        thumbnailEngine.trimMemory(level);
     }
     /*
      * Called when the activity is being destroyed.
@@ -142,8 +225,11 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         Log.e(TAG, "Activity DESTROYED");
-        if (mediaCodecPlayer != null && mediaCodecPlayer.isPlaying) {
-            mediaCodecPlayer.stop();
+        // the player outlives pause, so it is stopped here whether playing or not
+        mediaCodecPlayer.stop();
+        thumbnailEngine.release();
+        if (canvasRenderer != null) {
+            canvasRenderer.release();
         }
         super.onDestroy();
     }
@@ -10,49 +10,178 @@ import android.media.MediaFormat;
 import android.media.PlaybackParams;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Debug;
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
 import android.util.Log;
 import android.view.Surface;
 
+import com.example.flamvr.core.audio.AudioOutputStage;
+import com.example.flamvr.core.audio.AudioTrackSink;
+import com.example.flamvr.core.audio.AudioTransport;
+import com.example.flamvr.core.clock.AudioTrackPositionSource;
+import com.example.flamvr.core.clock.ChoreographerVsyncSource;
+import com.example.flamvr.core.codec.AsyncCodecAdapter;
+import com.example.flamvr.core.codec.CodecLatencyTracker;
+import com.example.flamvr.core.codec.DecodeMode;
+import com.example.flamvr.core.clock.FrameScheduler;
+import com.example.flamvr.core.clock.PlaybackClock;
+import com.example.flamvr.core.clock.TimeSource;
+import com.example.flamvr.core.clock.VsyncPredictor;
+import com.example.flamvr.core.demux.DemuxConfig;
+import com.example.flamvr.core.demux.Demuxer;
+import com.example.flamvr.core.demux.SampleQueue;
+import com.example.flamvr.core.metrics.PlaybackMetrics;
+import com.example.flamvr.core.metrics.TelemetryChannel;
+import com.example.flamvr.core.mp4.Mp4File;
+import com.example.flamvr.core.mp4.SampleIndex;
+import com.example.flamvr.core.mp4.SampleIndexCache;
+import com.example.flamvr.core.seek.SeekController;
+import com.example.flamvr.core.state.PlayerStateMachine;
+import com.example.flamvr.core.thumbnail.ThumbnailEngine;
+import com.example.flamvr.core.trace.TraceRecorder;
+import com.example.flamvr.globals.SeekMode;
 import com.example.flamvr.globals.StreamDataInterface;
 import com.example.flamvr.globals.VideoPlaybackContract;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MediaCodecPlayer implements VideoPlaybackContract {
 
-    private Surface surface; // Surface where video frames will be rendered
+    private volatile Surface surface; // Surface where video frames will be rendered, null until the GL surface is up
+    private final Object surfaceLock = new Object(); // Signalled when a surface is set
+    private Surface configuredSurface; // Surface the video codec renders to, null while none is configured; guarded by surfaceLock
+    // Interval at which a decoder waiting for its surface re-checks whether it was stopped
+    private static final long SURFACE_WAIT_MS = 50;
     private final Context ctx;
 
-    // MediaExtractor instances for extracting video and audio tracks
-    private MediaExtractor videoExtractor;
-    private MediaExtractor audioExtractor;
+    // Demux stage reading video and audio samples ahead into in-memory queues, shared by both decoders
+    private volatile Demuxer demuxer;
+    private SampleQueue videoQueue;
+    private SampleQueue audioQueue;
+    private DemuxConfig demuxConfig = DemuxConfig.DEFAULT;
+
+    // Keyframe/sample index of the video track, null if the file is not an indexable MP4
+    private volatile SampleIndex videoIndex;
+
+    // Parsed sample tables persisted across sessions so reopening a file skips the moov parse
+    private final SampleIndexCache indexCache;
+    private static final long INDEX_CACHE_BYTES = 32L * 1024 * 1024;
+
+    // Seek bar preview decoder, told about each opened file (optional)
+    private volatile ThumbnailEngine thumbnailEngine;
 
     // MediaCodec instances for decoding video and audio streams
 
     private MediaCodec videoDecoder;
     private MediaCodec audioDecoder;
+
+    // Polling or callback-driven codecs, applied to subsequently started files
+    private volatile DecodeMode decodeMode = DecodeMode.SYNC;
+    // Queue-to-output time of video samples, for comparing the decode modes
+    private final CodecLatencyTracker videoLatency = new CodecLatencyTracker();
+    // Samples queued into the video codec and not decoded yet, video decode thread only
+    private int videoInFlight = 0;
+    // Startup, pacing, drop and underrun telemetry of the current file
+    private final PlaybackMetrics metrics = new PlaybackMetrics();
+    // AudioTrack underruns are read at most this often
+    private static final long UNDERRUN_POLL_INTERVAL_NS = 100_000_000L;
+    private long lastUnderrunPollNs = 0; // audio decode thread only
+
+    // Tracks still decoding ahead (first video frame, first chunk of audio); the last one ends PREPARING
+    private final AtomicInteger prerollPending = new AtomicInteger();
+    private final AtomicBoolean audioPrerolled = new AtomicBoolean();
+    // PCM decoded and handed to the stopped AudioTrack before playback starts
+    private static final int AUDIO_PREROLL_MS = 100;
+    // Prepare/play timing: play latency is counted from the later of the play request and the end of prepare
+    private volatile long preparedNs = -1;
+    private volatile long playRequestedNs = -1;
+
+    // File being played, reopened when the surface changes and cannot be swapped
+    private volatile Uri currentUri;
+    // Position the reopened file seeks to once prepared, -1 if none, and whether it then plays
+    private volatile long resumeAtUs = -1;
+    private volatile boolean resumePlay = false;
+    // Whether playback continues when the activity returns, see suspend()
+    private volatile boolean resumeOnReturn = false;
+    // Time allowed for the previous session's threads to release their codecs before a reopen
+    private static final long REOPEN_JOIN_MS = 500;
+    // Runs reopens one at a time off the caller's thread; its thread exits when idle
+    private final ThreadPoolExecutor reopenWorker = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "PlayerReopen");
+                thread.setDaemon(true);
+                return thread;
+            });
+    // Latest reopen waiting on reopenWorker, null once it opened or a stop or new file cancelled it
+    private final Object reopenLock = new Object();
+    private Object pendingReopen; // guarded by reopenLock
+    // Position, frame, read-ahead and state for the UI, published by the thread driving the video codec
+    private final TelemetryChannel telemetry = new TelemetryChannel();
+    private long shownPtsUs = 0; // video codec thread only
+    private PlayerStateMachine.State publishedState = PlayerStateMachine.State.IDLE; // video codec thread only
     private AudioTrack audioTrack; // AudioTrack for PCM audio playback
+    private AudioTrackPositionSource audioPosition; // Audio master position derived from audioTrack
+    private AudioOutputStage audioOutput; // Preallocated PCM ring between audio decoder and audioTrack
+    private AudioTransport audioTransport; // Starts and stops audioTrack with playback
+
+    // Minimum PCM ring size; the ring is also at least twice the AudioTrack buffer
+    private static final int MIN_PCM_RING_BYTES = 256 * 1024;
 
     // Threads for decoding video and audio streams concurrently
-    private Thread videodecodeThread;
-    private Thread audiodecodeThread;
+    private volatile Thread videodecodeThread;
+    private volatile Thread audiodecodeThread;
 
     // Flags to indicate if decoders are ready
     private boolean videodecoderReady = false;
     private boolean audiodecoderReady = false;
 
-    // Playback control variables
-    public boolean isPlaying;
-    private int seekToProgress;
-    private boolean performSeek = false;
+    // Playback control variables: decode threads block on the state machine while paused
+    private final PlayerStateMachine state = new PlayerStateMachine();
     private long totalDurationMs;
-    private int frameRate;
 
-    // Playback timing variables
-    private long playbackStartTimeNs = -1;
-    private float playBackSpeed = 1.0f;
+    // Playback timing: audio-master clock (wall clock for video-only files) and video frame pacing
+    private final PlaybackClock clock = new PlaybackClock(TimeSource.SYSTEM);
+    private final FrameScheduler frameScheduler = new FrameScheduler();
+    // Display vsync timing: frames are released with an explicit render time on a predicted vsync
+    private final VsyncPredictor vsync = new VsyncPredictor();
+    private final ChoreographerVsyncSource vsyncSource = new ChoreographerVsyncSource(vsync);
+    private volatile float playBackSpeed = 1.0f;
+
+    // Upper bound for a single wait on an early frame so the clock is re-read regularly
+    private static final long MAX_FRAME_WAIT_US = 10_000;
+
+    // Trace events of the decode paths
+    private static final int TRACE_VIDEO_DEQUEUE_INPUT = TraceRecorder.event("video.dequeueInputBuffer");
+    private static final int TRACE_VIDEO_QUEUE_INPUT = TraceRecorder.event("video.queueInputBuffer");
+    private static final int TRACE_VIDEO_DEQUEUE_OUTPUT = TraceRecorder.event("video.dequeueOutputBuffer");
+    private static final int TRACE_VIDEO_WAIT = TraceRecorder.event("video.waitForFrame");
+    private static final int TRACE_VIDEO_RELEASE = TraceRecorder.event("video.releaseOutputBuffer");
+    private static final int TRACE_VIDEO_DROP = TraceRecorder.event("video.drop");
+    private static final int TRACE_VIDEO_SEEK_DONE = TraceRecorder.event("video.seekDone");
+    private static final int TRACE_AUDIO_DEQUEUE_INPUT = TraceRecorder.event("audio.dequeueInputBuffer");
+    private static final int TRACE_AUDIO_QUEUE_INPUT = TraceRecorder.event("audio.queueInputBuffer");
+    private static final int TRACE_AUDIO_DEQUEUE_OUTPUT = TraceRecorder.event("audio.dequeueOutputBuffer");
+    private static final int TRACE_AUDIO_WRITE = TraceRecorder.event("audio.write");
     private volatile boolean stopRequested = false;
 
+    // Latest-wins seek requests of the current file; its generations tag the demuxer's samples
+    private volatile SeekController seekController;
+    // Time from the last seek request to its first displayed frame, -1 if none completed yet
+    private volatile long lastSeekLatencyUs = -1;
+
     // Listeners for updating UI or playback progress
     private StreamDataInterface.ProgressBarStream progressBarStream;
     private StreamDataInterface.VideoInfoStream videoInfoStream;
@@ -60,6 +189,10 @@ public class MediaCodecPlayer implements VideoPlaybackContract {
     public void addStream(StreamDataInterface.ProgressBarStream listener){
         progressBarStream = listener;
     }
+    // Set the thumbnail engine that should follow the opened file
+    public void setThumbnailEngine(ThumbnailEngine engine){
+        thumbnailEngine = engine;
+    }
     // Add listener to receive video dimension info
     public void addStream(StreamDataInterface.VideoInfoStream listener){
         videoInfoStream = listener;
@@ -68,44 +201,208 @@ public class MediaCodecPlayer implements VideoPlaybackContract {
     public MediaCodecPlayer(Context ctx, Surface surface) {
         this.surface = surface;
         this.ctx = ctx;
-        isPlaying = false;
+        this.indexCache = new SampleIndexCache(new File(ctx.getCacheDir(), "seek-index"), INDEX_CACHE_BYTES);
+        frameScheduler.setVsyncPredictor(vsync);
+        reopenWorker.allowCoreThreadTimeOut(true);
+        // The clock only advances while playing; vsyncs are tracked only while frames are released
+        state.addListener((from, to) -> {
+            if (to == PlayerStateMachine.State.PLAYING) {
+                clock.resume();
+            } else if (from == PlayerStateMachine.State.PLAYING) {
+                clock.pause();
+            }
+            if (to == PlayerStateMachine.State.PLAYING || to == PlayerStateMachine.State.SEEKING) {
+                vsyncSource.start();
+            } else {
+                vsyncSource.stop();
+            }
+        });
+    }
+    // Whether playback is running (not paused, seeking, stopped or ended)
+    public boolean isPlaying() {
+        return state.isPlaying();
+    }
+    // Playback state, e.g. to observe transitions
+    public PlayerStateMachine getStateMachine() {
+        return state;
+    }
+    // Select how the codecs are driven for subsequently started files; ASYNC needs API 23
+    public void setDecodeMode(DecodeMode mode) {
+        decodeMode = mode;
+    }
+    // Set read-ahead limits used by the demux stage for subsequently started files
+    public void setDemuxConfig(DemuxConfig config) {
+        demuxConfig = config;
     }
-    // Update the rendering Surface (e.g. if SurfaceView recreated)
+    // Video sample queue, exposed for occupancy metrics (null before start)
+    public SampleQueue getVideoQueue() {
+        return videoQueue;
+    }
+    // Audio sample queue, exposed for occupancy metrics (null before start or for video-only files)
+    public SampleQueue getAudioQueue() {
+        return audioQueue;
+    }
+    // Sample index of the current video track (null until parsed or for non-MP4 files)
+    public SampleIndex getVideoIndex() {
+        return videoIndex;
+    }
+    // Update the rendering Surface (e.g. if SurfaceView recreated). A running video codec switches to it
+    // in place on API 23+; otherwise the session is stopped and the file reopened at the current position
+    // in the background, so the caller (the GL thread) never waits for the decode threads to exit.
     public void UpdateSurface(Surface surface) {
-        this.surface = surface;
+        boolean swapped = true;
+        synchronized (surfaceLock) {
+            this.surface = surface;
+            surfaceLock.notifyAll();
+            if (configuredSurface != null && configuredSurface != surface) {
+                swapped = swapOutputSurface(surface);
+            }
+        }
+        if (!swapped) {
+            TelemetryChannel.Snapshot position = new TelemetryChannel.Snapshot();
+            // A read only fails while a publish overlaps it; publishes are short, so retry rather than
+            // reopen at 0
+            while (!telemetry.read(position)) {
+                Thread.yield();
+            }
+            reopen(position.getPositionUs(), state.isPlayWhenReady());
+        }
+    }
+
+    // Points the configured video codec at a new surface, keeping its decoded frames; caller holds surfaceLock
+    private boolean swapOutputSurface(Surface surface) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return false;
+        }
+        try {
+            long startNs = System.nanoTime();
+            videoDecoder.setOutputSurface(surface);
+            configuredSurface = surface;
+            Log.d("MediaCodecPlayer", "Output surface swapped in " + (System.nanoTime() - startNs) / 1000 + " us");
+            return true;
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            Log.w("MediaCodecPlayer", "Output surface swap failed, reopening", e);
+            return false;
+        }
+    }
+
+    // Restarts the current file at a position, for when its codec cannot follow a new surface.
+    // The running session is stopped right away, the wait for its threads and the open run on reopenWorker.
+    private void reopen(long positionUs, boolean play) {
+        Uri uri = currentUri;
+        if (uri == null) {
+            return;
+        }
+        Thread video = videodecodeThread;
+        Thread audio = audiodecodeThread;
+        stopSession();
+        Object token = new Object();
+        synchronized (reopenLock) {
+            pendingReopen = token;
+        }
+        reopenWorker.execute(() -> {
+            try {
+                // The next session shares the codec fields, let this one release its codecs first
+                if (video != null) {
+                    video.join(REOPEN_JOIN_MS);
+                }
+                if (audio != null) {
+                    audio.join(REOPEN_JOIN_MS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (reopenLock) {
+                // A later reopen, a stop or another file supersedes this one
+                if (pendingReopen != token) {
+                    return;
+                }
+                pendingReopen = null;
+                Log.d("MediaCodecPlayer", "Reopening at " + positionUs + " us");
+                resumeAtUs = positionUs;
+                resumePlay = play;
+                open(uri, false);
+            }
+        });
+    }
+
+    // Pauses for the activity going to the background; codecs, position and the decoded frame are kept
+    public void suspend() {
+        resumeOnReturn = state.isPlayWhenReady();
+        state.pause();
+    }
+
+    // Continues after suspend(), playing again if it was playing then
+    public void resume() {
+        if (resumeOnReturn) {
+            resumeOnReturn = false;
+            onPlay();
+        }
+    }
+    // Opens a file and decodes ahead to its first frame and first audio, ready for an instant play()
+    public void prepare(Uri uri) {
+        cancelReopen();
+        open(uri, false);
     }
     // Starts playback of a video from the given URI
     public void start(Uri uri) {
-        // Start video decoding thread
+        cancelReopen();
+        open(uri, true);
+    }
+    // Parses the container, creates the codecs and prerolls on fresh threads; PREPARING ends after the preroll
+    private void open(Uri uri, boolean playWhenReady) {
+        long nowNs = System.nanoTime();
+        currentUri = uri;
+        // Nothing of the previous file's audio may carry over, whether it had audio or failed to open
+        audioQueue = null;
+        metrics.startSession(nowNs);
+        preparedNs = -1;
+        playRequestedNs = playWhenReady ? nowNs : -1;
+        // Start video decoding thread; it also opens the container and starts the audio thread
         videodecodeThread = new Thread(() -> {
             try {
-                // Setup video extractor and find video track
-                videoExtractor = new MediaExtractor();
-                videoExtractor.setDataSource(ctx, uri, null);
+                // Parse the container once and find video and audio tracks
+                MediaExtractor extractor = new MediaExtractor();
+                extractor.setDataSource(ctx, uri, null);
+                metrics.markStage(PlaybackMetrics.Stage.DATA_SOURCE, System.nanoTime());
+                videoIndex = loadVideoIndex(uri);
+                ThumbnailEngine thumbnails = thumbnailEngine;
+                if (thumbnails != null) {
+                    thumbnails.open(uri, videoIndex);
+                }
 
                 int videoTrackIndex = -1;
                 MediaFormat videoTrackFormat = null;
+                int audioTrackIndex = -1;
+                MediaFormat audioTrackFormat = null;
 
-                for (int i = 0; i < videoExtractor.getTrackCount(); i++) {
-                    MediaFormat TrackFormat = videoExtractor.getTrackFormat(i);
+                for (int i = 0; i < extractor.getTrackCount(); i++) {
+                    MediaFormat TrackFormat = extractor.getTrackFormat(i);
                     String mime = TrackFormat.getString(MediaFormat.KEY_MIME);
                     if (mime != null && mime.startsWith("video/")) {
                         videoTrackIndex = i;
                         videoTrackFormat = TrackFormat;
+                    } else if (mime != null && mime.startsWith("audio/")) {
+                        audioTrackIndex = i;
+                        audioTrackFormat = TrackFormat;
                     }
                 }
 
+                // One demuxer routes the samples of both tracks to their decoders
+                demuxer = new Demuxer(extractor, demuxConfig);
+                seekController = new SeekController(demuxer.getGeneration());
                 if (videoTrackIndex < 0 || videoTrackFormat == null) {
                     Log.e("MediaCodecPlayer", "No video track found");
+                    demuxer.release();
+                    state.stop();
                     return;
                 }
-                // Select the video track for extraction
-                videoExtractor.selectTrack(videoTrackIndex);
-
-                // Get frame rate if available, default to 30 fps
-                frameRate = 30; // default
-                if (videoTrackFormat.containsKey(MediaFormat.KEY_FRAME_RATE)) {
-                    frameRate = videoTrackFormat.getInteger(MediaFormat.KEY_FRAME_RATE);
+                videoQueue = demuxer.addTrack(videoTrackIndex);
+                if (audioTrackIndex >= 0) {
+                    audioQueue = demuxer.addTrack(audioTrackIndex);
+                } else {
+                    // Video-only file: the clock keeps running off the wall clock
+                    Log.d("MediaCodecPlayer", "No audio track found");
                 }
 
                 // Get MIME type and total duration (in microseconds)
@@ -117,255 +414,912 @@ public class MediaCodecPlayer implements VideoPlaybackContract {
                 videoInfoStream.getVideoDim(videoTrackFormat.getInteger(MediaFormat.KEY_WIDTH), videoTrackFormat.getInteger(MediaFormat.KEY_HEIGHT));
                 Log.d("MediaCodecPlayer", "Configuring decoder for: " + mime);
 
-                // Ensure the surface is valid for rendering
-                if (surface == null || !surface.isValid()) {
-                    Log.e("MediaCodecPlayer", "Surface is invalid or null");
-                    return;
+                // Read ahead and preroll audio right away, only the video codec needs the surface
+                prerollPending.set(audioTrackIndex >= 0 ? 2 : 1);
+                audioPrerolled.set(false);
+                demuxer.start();
+                if (audioTrackIndex >= 0) {
+                    demuxer.acquire(); // released by the audio thread
+                    startAudioThread(audioTrackIndex, audioTrackFormat);
                 }
 
-                // Create and configure video decoder with output surface
+                // Create the video decoder; callbacks must be set before configure
                 videoDecoder = MediaCodec.createDecoderByType(mime);
-                videoDecoder.configure(videoTrackFormat, surface, null, 0);
-                videoDecoder.start();
+                AsyncVideoDecoder async = isAsync() ? new AsyncVideoDecoder(videoDecoder, demuxer, seekController) : null;
+                // Configure it with the output surface as soon as the GL surface is up
+                if (!configureWithSurface(videoTrackFormat)) {
+                    Log.e("MediaCodecPlayer", "Stopped before a surface was available");
+                    videoDecoder.release();
+                    videoDecoder = null;
+                    if (async != null) {
+                        async.quit();
+                    }
+                    demuxer.release();
+                    state.stop();
+                    return;
+                }
+                if (async == null) {
+                    videoDecoder.start();
+                }
+                metrics.markStage(PlaybackMetrics.Stage.CONFIGURE, System.nanoTime());
 
                 // Enter the main video decode loop
+                shownPtsUs = 0;
+                publishTelemetry();
                 videodecoderReady = true;
-                videodecodeLoop();
+                videodecodeLoop(async);
             } catch (Exception e) {
                 Log.e("MediaCodecPlayer", "Playback error", e);
+                state.stop();
             }
         });
-        // Start audio decoding thread
-        audiodecodeThread = new Thread(() -> {
-            try {
-                // Setup audio extractor and find audio track
-                audioExtractor = new MediaExtractor();
-                audioExtractor.setDataSource(ctx, uri, null);
 
-                int audioTrackIndex = -1;
-                MediaFormat audioTrackFormat = null;
+        state.prepare(playWhenReady);
+        videodecodeThread.start();
+        Log.e("MediaCodecPlayer", "PLAY STARTED!!!");
+    }
 
-                for (int i = 0; i < audioExtractor.getTrackCount(); i++) {
-                    MediaFormat TrackFormat = audioExtractor.getTrackFormat(i);
-                    String mime = TrackFormat.getString(MediaFormat.KEY_MIME);
-                    if (mime != null && mime.startsWith("audio/")) {
-                        audioTrackIndex = i;
-                        audioTrackFormat = TrackFormat;
-                    }
+    // Waits for a valid surface and configures the video codec with it; false if the player was stopped meanwhile
+    private boolean configureWithSurface(MediaFormat format) {
+        synchronized (surfaceLock) {
+            while (surface == null || !surface.isValid()) {
+                if (state.getState() == PlayerStateMachine.State.IDLE) {
+                    return false;
                 }
-                if (audioTrackIndex >= 0 && audioTrackFormat != null) {
-                    Log.e("MediaCodecPlayer", "Audio track found");
+                try {
+                    surfaceLock.wait(SURFACE_WAIT_MS);
+                } catch (InterruptedException e) {
+                    return false;
                 }
-                // Select the audio track for extraction
-                audioExtractor.selectTrack(audioTrackIndex);
+            }
+            // Under the lock so a surface change cannot slip in between
+            videoDecoder.configure(format, surface, null, 0);
+            configuredSurface = surface;
+            return true;
+        }
+    }
+
+    // A track has decoded ahead for an instant start; the last one ends PREPARING
+    private void onTrackPrerolled() {
+        if (prerollPending.decrementAndGet() == 0) {
+            long nowNs = System.nanoTime();
+            preparedNs = nowNs;
+            metrics.markStage(PlaybackMetrics.Stage.PREPARED, nowNs);
+            state.prepared();
+            Log.d("MediaCodecPlayer", "Prepared in " + metrics.snapshot().getStageUs(PlaybackMetrics.Stage.PREPARED) + " us");
+            long resumeUs = resumeAtUs;
+            if (resumeUs >= 0) {
+                // Reopened after a surface change: continue from the frame that was on screen
+                resumeAtUs = -1;
+                onSeek(resumeUs, SeekMode.EXACT);
+                if (resumePlay) {
+                    onPlay();
+                }
+            }
+        }
+    }
+
+    // Whether more audio may be decoded. The demuxer feeds both queues from one thread, so audio must
+    // keep draining while video decodes to a seek target or a full audio queue would starve video.
+    // With the track stopped, PCM piles up in the ring; decoding stops at half of it so the ring never
+    // blocks on the stopped track. Samples before an exact seek target are trimmed and take no room.
+    private boolean canQueueAudio(boolean playing) {
+        return playing || audioOutput.getBufferedBytes() < audioOutput.getCapacity() / 2;
+    }
+
+    // Whether enough PCM was decoded to start audio without an underrun; capped well below what the
+    // ring holds, as a full ring would block the decoder on the stopped track
+    private boolean isAudioPrerolled(int sampleRate, int bytesPerFrame) {
+        long prerollBytes = Math.min((long) sampleRate * bytesPerFrame * AUDIO_PREROLL_MS / 1000,
+                audioOutput.getCapacity() / 2);
+        return audioOutput.getBytesQueued() >= prerollBytes;
+    }
+
+    // The audio track's share of the preroll, given up once whether it succeeded or not
+    private void onAudioPrerolled() {
+        if (audioPrerolled.compareAndSet(false, true)) {
+            onTrackPrerolled();
+        }
+    }
 
+    // Whether the codecs of the file being started are driven through callbacks
+    private boolean isAsync() {
+        return decodeMode == DecodeMode.ASYNC && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    // Builds the video sample index from the MP4 sample tables, or returns null if that is not possible
+    private SampleIndex loadVideoIndex(Uri uri) {
+        long startNs = System.nanoTime();
+        try (ParcelFileDescriptor pfd = ctx.getContentResolver().openFileDescriptor(uri, "r");
+             FileInputStream input = new FileInputStream(pfd.getFileDescriptor())) {
+            // Size and mtime make the key change whenever the file behind the URI is replaced
+            StructStat stat = Os.fstat(pfd.getFileDescriptor());
+            String key = SampleIndexCache.key(uri.toString(), stat.st_size, stat.st_mtime);
+            List<SampleIndex> tracks = indexCache.get(key);
+            boolean hit = tracks != null;
+            if (!hit) {
+                try (Mp4File file = Mp4File.open(input.getChannel())) {
+                    tracks = file.getTracks();
+                }
+                try {
+                    indexCache.put(key, tracks);
+                } catch (IOException e) {
+                    Log.w("MediaCodecPlayer", "Could not cache sample index: " + e.getMessage());
+                }
+            }
+            SampleIndex index = null;
+            for (SampleIndex track : tracks) {
+                if (SampleIndex.TYPE_VIDEO.equals(track.getHandlerType())) {
+                    index = track;
+                    break;
+                }
+            }
+            Log.d("MediaCodecPlayer", "Sample index " + (hit ? "cache hit" : "built") + " in "
+                    + (System.nanoTime() - startNs) / 1000 + " us, hit rate " + indexCache.getHitRate());
+            if (index != null) {
+                Log.d("MediaCodecPlayer", "Indexed " + index.getSampleCount() + " samples, " + index.getKeyframeCount() + " keyframes");
+            }
+            return index;
+        } catch (IOException | ErrnoException | RuntimeException e) {
+            Log.w("MediaCodecPlayer", "No sample index, seeking via MediaExtractor: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Statistics of the persistent sample index cache
+    public SampleIndexCache getIndexCache() {
+        return indexCache;
+    }
+
+    // Starts the audio decoding thread fed from the shared demuxer
+    private void startAudioThread(int audioTrackIndex, MediaFormat audioTrackFormat) {
+        final Demuxer source = demuxer;
+        final SampleQueue queue = audioQueue; // this session's queue, the field is cleared by the next open
+        final SeekController seeks = seekController;
+        audiodecodeThread = new Thread(() -> {
+            try {
                 // Audio decoder doesn't require a surface
                 String mime = audioTrackFormat.getString(MediaFormat.KEY_MIME);
                 Log.d("MediaCodecPlayer", "Configuring decoder for: " + mime);
 
-                if (surface == null || !surface.isValid()) {
-                    Log.e("MediaCodecPlayer", "Surface is invalid or null");
-                    return;
-                }
                 // Setup AudioTrack for PCM output
-                audioDecoder = MediaCodec.createDecoderByType(audioTrackFormat.getString(MediaFormat.KEY_MIME));
-                audioDecoder.configure(audioTrackFormat, null, null, 0);
-                audioDecoder.start();
                 int sampleRate = audioTrackFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
                 int channelCount = audioTrackFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                audioDecoder = MediaCodec.createDecoderByType(mime);
+                AsyncAudioDecoder async = isAsync()
+                        ? new AsyncAudioDecoder(audioDecoder, source, queue, seeks, sampleRate, channelCount * 2) : null;
+                audioDecoder.configure(audioTrackFormat, null, null, 0);
+                if (async == null) {
+                    audioDecoder.start();
+                }
                 int channelConfig = channelCount == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
 
                 // Calculate minimum buffer size and create AudioTrack in streaming mode
                 int bufferSize = AudioTrack.getMinBufferSize(sampleRate, channelConfig, AudioFormat.ENCODING_PCM_16BIT);
                 audioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, channelConfig,
                         AudioFormat.ENCODING_PCM_16BIT, bufferSize, AudioTrack.MODE_STREAM);
-                audioTrack.play();
+                audioPosition = new AudioTrackPositionSource(audioTrack, sampleRate, channelCount * 2); // 16-bit PCM
+                AudioTrackSink sink = new AudioTrackSink(audioTrack, audioPosition);
+                audioOutput = new AudioOutputStage(sink, Math.max(MIN_PCM_RING_BYTES, bufferSize * 2));
+                audioTransport = new AudioTransport(sink);
+                clock.setAudioSource(audioPosition);
+                // The track stays stopped while PCM is prerolled into it; the loops start it on play
                 // Enter the main audio decode loop
                 audiodecoderReady = true;
-                audiodecodeLoop();
+                audiodecodeLoop(source, queue, seeks, sampleRate, channelCount * 2, async);
             } catch (Exception e) {
                 Log.e("MediaCodecPlayer", "Playback error", e);
+                // Keep an undrained audio queue or a missing preroll from blocking the video track
+                onAudioPrerolled();
+                if (audioTrackIndex >= 0) {
+                    source.disableTrack(audioTrackIndex);
+                }
+            } finally {
+                // The reference acquired for this thread, released however it ends
+                source.release();
             }
         });
-
-        // Start both decode threads concurrently
-        videodecodeThread.start();
         audiodecodeThread.start();
-        isPlaying = true;
-        Log.e("MediaCodecPlayer", "PLAY STARTED!!!");
     }
 
-    // Main loop for decoding and rendering video frames
-    private void videodecodeLoop() {
+    // Main loop for decoding and rendering video frames; async drives the codec through callbacks instead
+    private void videodecodeLoop(AsyncVideoDecoder async) {
+        final Demuxer source = demuxer; // this session's demuxer, even if a new file is started
+        final SeekController seeks = seekController;
+        long startNs = System.nanoTime();
+        long cpuStartNs = Debug.threadCpuTimeNanos();
+        long cpuNs;
+        clock.reset();
+        frameScheduler.reset();
+        if (async != null) {
+            async.run();
+            cpuNs = async.getCpuTimeNs();
+        } else {
+            syncVideoLoop(source, seeks);
+            cpuNs = Debug.threadCpuTimeNanos() - cpuStartNs;
+        }
+        // Cleanup video decoder and demuxer on exit; the surface lock keeps a swap off the released codec
+        synchronized (surfaceLock) {
+            if (videoDecoder != null) {
+                videoDecoder.stop();
+                videoDecoder.release();
+                videoDecoder = null;
+            }
+            configuredSurface = null;
+        }
+        if (async != null) {
+            async.quit();
+        }
+        Log.d("MediaCodecPlayer", "video decode " + (async != null ? DecodeMode.ASYNC : DecodeMode.SYNC)
+                + ": codec latency avg " + videoLatency.getAverageUs() + " us, max " + videoLatency.getMaxUs()
+                + " us over " + videoLatency.getCount() + " frames, CPU " + cpuNs / 1_000_000L + " ms in "
+                + (System.nanoTime() - startNs) / 1_000_000L + " ms");
+        Log.d("MediaCodecPlayer", "frames rendered: " + frameScheduler.getFramesRendered()
+                + ", dropped late: " + frameScheduler.getFramesDropped(FrameScheduler.DropReason.LATE)
+                + ", dropped vsync taken: " + frameScheduler.getFramesDropped(FrameScheduler.DropReason.VSYNC_TAKEN)
+                + ", vsync period: " + vsync.getPeriodNs() + " ns");
+        Log.d("MediaCodecPlayer", "playback metrics: " + metrics.snapshot());
+        Log.d("MediaCodecPlayer", "video queue high water mark: " + videoQueue.getHighWaterMark() + "/" + videoQueue.getCapacity());
+        Log.d("MediaCodecPlayer", "seeks requested: " + seeks.getRequested() + ", coalesced: " + seeks.getCoalesced()
+                + ", superseded: " + seeks.getSuperseded() + ", track flushes: " + seeks.getApplied());
+        source.release();
+        videodecoderReady = false;
+        videodecodeThread = null;
+        stopRequested = false;
+        Log.e("MediaCodecPlayer", "video Decoder thread ended");
+
+    }
+
+    // Polling video loop: dequeues buffers with timeouts on the video thread
+    private void syncVideoLoop(Demuxer source, SeekController seeks) {
         MediaCodec.BufferInfo videoInfo = new MediaCodec.BufferInfo();
         boolean videoEOS = false;
-        playbackStartTimeNs = -1; // reset playback start time
+        // Decoded frame waiting for its presentation time, -1 if none
+        int pendingOutIndex = -1;
+        long pendingPtsUs = 0;
+        boolean pendingEOS = false;
+        long videoGeneration = source.getGeneration();
+        // Seek being completed: frames before its target are decoded but not shown
+        SeekController.Request seek = null;
+        int framesDiscarded = 0;
+        boolean prerolled = false;
         while (true) {
-            if (!isPlaying) {
+            // While PREPARING the codec runs until the first frame is decoded, which is then held for play
+            boolean preroll = !prerolled && state.getState() == PlayerStateMachine.State.PREPARING;
+            if (!state.isDecoding() && !preroll) {
+                if (state.getState() != publishedState) {
+                    publishTelemetry();
+                }
                 try {
-                    Thread.sleep(50); // Sleep briefly while paused
-                    playbackStartTimeNs = -1;
+                    state.awaitDecoding(); // Block while paused, woken by play or seek
                     continue;
                 } catch (InterruptedException e) {
                     break;
                 }
             }
-            if(performSeek){
-                // Seek video extractor to desired progress time (converted to microseconds)
-                videoExtractor.seekTo(seekToProgress*totalDurationMs * 10L, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
-                playbackStartTimeNs = -1;
+            SeekController.Request nextSeek = seeks.poll(videoGeneration);
+            if(nextSeek != null){
+                // Jump straight to the newest seek, abandoning any unfinished decode-to-target:
+                // drop everything decoded from before it
+                videoGeneration = nextSeek.getGeneration();
+                videoEOS = false;
+                pendingOutIndex = -1; // flush returns the held buffer to the codec
                 videoDecoder.flush(); // Flush decoder buffers
-                performSeek = false;
+                videoLatency.clear();
+                videoInFlight = 0;
+                clock.reset();
+                frameScheduler.reset();
+                seek = nextSeek;
+                framesDiscarded = 0;
             }
-            // Feed video input
-            if (!videoEOS) {
+            // Feed video input from the read-ahead queue; samples from before the last seek are skipped
+            SampleQueue.Sample sample = videoEOS ? null : videoQueue.peek(videoGeneration);
+            if (sample != null) {
+                TraceRecorder.begin(TRACE_VIDEO_DEQUEUE_INPUT);
                 int inIndex = videoDecoder.dequeueInputBuffer(10000);
+                TraceRecorder.end(TRACE_VIDEO_DEQUEUE_INPUT);
                 if (inIndex >= 0) {
-                    ByteBuffer buffer = videoDecoder.getInputBuffer(inIndex);
-                    assert buffer != null;
-                    int sampleSize = videoExtractor.readSampleData(buffer, 0);
-
-                    if (sampleSize < 0) {
-                        // End of stream signaled by negative sample size
-                        videoDecoder.queueInputBuffer(inIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                        videoEOS = true;
-                    } else {
-                        long pts = videoExtractor.getSampleTime();
-                        progressBarStream.updateSeekBarProgress(pts/1000);
-                        progressBarStream.updateFrameCount(pts * frameRate / 1_000_000L);
-                        videoDecoder.queueInputBuffer(inIndex, 0, sampleSize, pts, 0);
-                        videoExtractor.advance();
-                    }
+                    videoEOS = queueVideoSample(inIndex, sample);
+                    videoQueue.release();
                 }
             }
             // Handle video output
-            int videoOutIndex = videoDecoder.dequeueOutputBuffer(videoInfo, 10000);
-            if (videoOutIndex >= 0) {
-                // Calculate target render time and sleep to sync playback speed
-                long presentationTimeUs = (long) (videoInfo.presentationTimeUs / playBackSpeed);
-                if (playbackStartTimeNs < 0) {
-                    playbackStartTimeNs = System.nanoTime() - presentationTimeUs * 1000;
+            if (pendingOutIndex < 0) {
+                TraceRecorder.begin(TRACE_VIDEO_DEQUEUE_OUTPUT);
+                int videoOutIndex = videoDecoder.dequeueOutputBuffer(videoInfo, 10000);
+                TraceRecorder.end(TRACE_VIDEO_DEQUEUE_OUTPUT);
+                if (videoOutIndex >= 0) {
+                    pendingOutIndex = videoOutIndex;
+                    pendingPtsUs = videoInfo.presentationTimeUs;
+                    pendingEOS = (videoInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                    onVideoOutput(pendingPtsUs);
                 }
-
-                long nowNs = System.nanoTime();
-                long desiredTimeNs = playbackStartTimeNs + presentationTimeUs * 1000;
-                long delayNs = desiredTimeNs - nowNs;
-
-                if (delayNs > 0) {
+            }
+            if (preroll) {
+                if (pendingOutIndex >= 0) {
+                    prerolled = true;
+                    onTrackPrerolled();
+                }
+                continue;
+            }
+            if (pendingOutIndex >= 0 && seek != null && !pendingEOS && pendingPtsUs < seek.getTargetUs()) {
+                // Decode-to-target: the frame is only needed as a reference for later ones
+                videoDecoder.releaseOutputBuffer(pendingOutIndex, false);
+                pendingOutIndex = -1;
+                framesDiscarded++;
+                continue;
+            }
+            if (pendingOutIndex >= 0) {
+                // Schedule the frame against the master clock: hold it, drop it or show it
+                FrameScheduler.Action action = frameScheduler.schedule(pendingPtsUs, clock.getPositionUs(), playBackSpeed, System.nanoTime());
+                if (action == FrameScheduler.Action.WAIT) {
+                    long waitUs = Math.min(frameScheduler.getWaitUs(), MAX_FRAME_WAIT_US);
+                    TraceRecorder.begin(TRACE_VIDEO_WAIT);
                     try {
-                        Thread.sleep(delayNs / 1_000_000, (int)(delayNs % 1_000_000));
+                        Thread.sleep(waitUs / 1000, (int) (waitUs % 1000) * 1000);
                     } catch (InterruptedException e) {
-                        // Optionally handle this
+                        break;
+                    } finally {
+                        TraceRecorder.end(TRACE_VIDEO_WAIT);
                     }
+                    continue;
+                }
+                clock.anchorIfUnset(pendingPtsUs);
+                clock.syncToAudio();
+                // Release decoded frame to Surface for rendering, or drop it if it is too late
+                releaseVideoFrame(pendingOutIndex, pendingPtsUs, action);
+                pendingOutIndex = -1;
+                if (seek != null) {
+                    onSeekFrameShown(seeks, seek, framesDiscarded);
+                    seek = null;
+                }
+                if (pendingEOS) {
+                    Log.d("MediaCodecPlayer", "End of stream");
+                    state.end();
+                    publishTelemetry();
+                    break;
                 }
-                // Release decoded frame to Surface for rendering
-                videoDecoder.releaseOutputBuffer(videoOutIndex, true);
             }
+        }
+    }
 
-            if ((videoInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                Log.d("MediaCodecPlayer", "End of stream");
-                break;
+    // Queues a frame for display at the vsync chosen by the scheduler, or drops it
+    private void releaseVideoFrame(int outIndex, long ptsUs, FrameScheduler.Action action) {
+        TraceRecorder.begin(TRACE_VIDEO_RELEASE);
+        if (action == FrameScheduler.Action.RENDER) {
+            videoDecoder.releaseOutputBuffer(outIndex, frameScheduler.getRenderTimeNs());
+            metrics.onFrameShown(frameScheduler.getPresentationErrorUs(), System.nanoTime());
+            long requestedNs = playRequestedNs;
+            if (requestedNs > 0) {
+                // First frame after play: counted from the later of the request and the end of prepare
+                playRequestedNs = -1;
+                long latencyUs = (frameScheduler.getRenderTimeNs() - Math.max(requestedNs, preparedNs)) / 1000;
+                metrics.setPlayLatencyUs(latencyUs);
+                Log.d("MediaCodecPlayer", "First frame " + latencyUs + " us after play");
             }
+            shownPtsUs = ptsUs;
+            publishTelemetry();
+        } else {
+            TraceRecorder.instant(TRACE_VIDEO_DROP, frameScheduler.getDropReason().ordinal());
+            videoDecoder.releaseOutputBuffer(outIndex, false);
+            metrics.onFrameDropped(frameScheduler.getDropReason());
         }
-        // Cleanup video decoder and extractor on exit
-        if (videoDecoder != null) {
-            videoDecoder.stop();
-            videoDecoder.release();
-            videoDecoder = null;
+        TraceRecorder.end(TRACE_VIDEO_RELEASE);
+    }
+
+    // Copies a demuxed sample into a video codec input buffer; returns true if it was the end of stream
+    private boolean queueVideoSample(int inIndex, SampleQueue.Sample sample) {
+        if (sample.isEndOfStream()) {
+            videoDecoder.queueInputBuffer(inIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            return true;
         }
-        if (videoExtractor != null) {
-            videoExtractor.release();
-            videoExtractor = null;
+        ByteBuffer buffer = videoDecoder.getInputBuffer(inIndex);
+        assert buffer != null;
+        buffer.clear();
+        sample.copyTo(buffer);
+        long pts = sample.getPtsUs();
+        videoLatency.onQueued(pts, System.nanoTime());
+        metrics.onDecoderQueueDepth(++videoInFlight);
+        TraceRecorder.begin(TRACE_VIDEO_QUEUE_INPUT);
+        videoDecoder.queueInputBuffer(inIndex, 0, sample.getSize(), pts, 0);
+        TraceRecorder.end(TRACE_VIDEO_QUEUE_INPUT);
+        return false;
+    }
+
+    // Publishes the last shown frame, the frames shown so far and the current state to the UI, without blocking
+    private void publishTelemetry() {
+        publishedState = state.getState();
+        long bufferedEndUs = Math.max(shownPtsUs, videoQueue.getNewestPtsUs());
+        telemetry.publish(shownPtsUs, metrics.getFramesShown(), shownPtsUs, bufferedEndUs, publishedState);
+    }
+
+    // Bookkeeping for a decoded video buffer leaving the codec
+    private void onVideoOutput(long ptsUs) {
+        long nowNs = System.nanoTime();
+        videoLatency.onOutput(ptsUs, nowNs);
+        videoInFlight = Math.max(0, videoInFlight - 1);
+        metrics.markStage(PlaybackMetrics.Stage.FIRST_OUTPUT, nowNs);
+    }
+
+    // Records the latency of a seek once its first frame has been shown
+    private void onSeekFrameShown(SeekController seeks, SeekController.Request seek, int framesDiscarded) {
+        long latencyNs = seeks.complete(seek, System.nanoTime());
+        if (latencyNs >= 0) {
+            // The newest seek is done: back to playing or paused
+            state.seekCompleted();
+            lastSeekLatencyUs = latencyNs / 1000;
+            TraceRecorder.instant(TRACE_VIDEO_SEEK_DONE, lastSeekLatencyUs);
+            Log.d("MediaCodecPlayer", seek.getMode() + " seek to " + seek.getTargetUs() + " us took "
+                    + lastSeekLatencyUs + " us, " + framesDiscarded + " frames discarded");
         }
-        videodecoderReady = false;
-        videodecodeThread = null;
+    }
+
+    // Main loop for decoding audio and playing PCM via AudioTrack; async drives the codec through callbacks instead
+    private void audiodecodeLoop(Demuxer source, SampleQueue queue, SeekController seeks, int sampleRate, int bytesPerFrame,
+                                 AsyncAudioDecoder async) {
+        if (async != null) {
+            async.run();
+        } else {
+            syncAudioLoop(source, queue, seeks, sampleRate, bytesPerFrame);
+        }
+        // Cleanup audio decoder and audio track; the thread releases the demuxer
+        clock.setAudioSource(null);
+        if (audioTrack != null) {
+            audioTrack.stop();
+            audioTrack.release();
+            audioTrack = null;
+        }
+        if (audioDecoder != null) {
+            audioDecoder.stop();
+            audioDecoder.release();
+            audioDecoder = null;
+        }
+        if (async != null) {
+            async.quit();
+        }
+        Log.d("MediaCodecPlayer", "audio queue high water mark: " + queue.getHighWaterMark() + "/" + queue.getCapacity());
+        audiodecoderReady = false;
+        audiodecodeThread = null;
         stopRequested = false;
-        Log.e("MediaCodecPlayer", "video Decoder thread ended");
+        Log.d("MediaCodecPlayer", "audio output ring allocations: " + audioOutput.getRingAllocationCount());
+        Log.e("MediaCodecPlayer", "audio Decoder thread ended");
 
     }
 
-    // Main loop for decoding audio and playing PCM via AudioTrack
-    private void audiodecodeLoop() {
+    // Polling audio loop: dequeues buffers with timeouts on the audio thread
+    private void syncAudioLoop(Demuxer source, SampleQueue queue, SeekController seeks, int sampleRate, int bytesPerFrame) {
         MediaCodec.BufferInfo audioInfo = new MediaCodec.BufferInfo();
+        // PCM before this presentation time is dropped after an exact seek
+        long trimUntilUs = -1;
         boolean audioEOS = false;
-        playbackStartTimeNs = -1;
+        float appliedSpeed = -1.0f;
+        long audioGeneration = source.getGeneration();
         while (true) {
-            if (!isPlaying) {
+            // While PREPARING, PCM is decoded into the stopped track until AUDIO_PREROLL_MS are queued
+            boolean preroll = !audioPrerolled.get() && state.getState() == PlayerStateMachine.State.PREPARING;
+            // Audio keeps consuming while video seeks, see canQueueAudio()
+            if (!state.isDecoding() && !preroll) {
+                // Stop the audio master so the clock does not run ahead of the frozen picture
+                audioTransport.setPlaying(false);
                 try {
-                    Thread.sleep(50); // Sleep briefly while paused
-                    playbackStartTimeNs = -1;
+                    state.awaitDecoding(); // Block while paused, woken by play or seek
                     continue;
                 } catch (InterruptedException e) {
                     break;
                 }
             }
-            if(performSeek){
-                // Seek audio extractor to desired progress time
-                audioExtractor.seekTo(seekToProgress*totalDurationMs * 10L, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
-                playbackStartTimeNs = -1;
+            boolean playing = state.isPlaying();
+            // The track only runs while playing; seeks and preroll decode into the stopped track
+            audioTransport.setPlaying(playing);
+            SeekController.Request nextSeek = seeks.poll(audioGeneration);
+            if(nextSeek != null){
+                // The demuxer was seeked: drop decoded and queued audio from before the newest seek
+                audioGeneration = nextSeek.getGeneration();
                 audioDecoder.flush();
-                performSeek = false;
+                resetAudioOutput();
+                audioEOS = false;
+                trimUntilUs = nextSeek.getTargetUs();
             }
-            if(playbackStartTimeNs == -1){
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                    try {
-                        PlaybackParams params = audioTrack.getPlaybackParams();
-                        params.setSpeed(playBackSpeed);
-                        params.setPitch(1.0f);
-                        audioTrack.setPlaybackParams(params);
-                    } catch (Exception e) {
-                        Log.e("AudioTrack", "Failed to set playback speed", e);
-                    }
-                }
+            if(appliedSpeed != playBackSpeed){
+                appliedSpeed = playBackSpeed;
+                applyAudioSpeed(appliedSpeed);
             }
-            // Feed audio input
-            if (!audioEOS) {
+            // Feed audio input from the read-ahead queue; peeking also drops samples from before the seek
+            SampleQueue.Sample sample = audioEOS ? null : queue.peek(audioGeneration);
+            if (sample != null && canQueueAudio(playing)) {
+                TraceRecorder.begin(TRACE_AUDIO_DEQUEUE_INPUT);
                 int inIndex = audioDecoder.dequeueInputBuffer(10000);
+                TraceRecorder.end(TRACE_AUDIO_DEQUEUE_INPUT);
                 if (inIndex >= 0) {
-                    ByteBuffer buffer = audioDecoder.getInputBuffer(inIndex);
-                    assert buffer != null;
-                    int size = audioExtractor.readSampleData(buffer, 0);
-                    if (size < 0) {
-                        audioDecoder.queueInputBuffer(inIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                        audioEOS = true;
-                    } else {
-                        long pts = audioExtractor.getSampleTime();
-                        audioDecoder.queueInputBuffer(inIndex, 0, size, pts, 0);
-                        audioExtractor.advance();
-                    }
+                    audioEOS = queueAudioSample(inIndex, sample);
+                    queue.release();
                 }
             }
             // Get decoded PCM output from audio decoder
+            TraceRecorder.begin(TRACE_AUDIO_DEQUEUE_OUTPUT);
             int audioOutIndex = audioDecoder.dequeueOutputBuffer(audioInfo, 10000);
+            TraceRecorder.end(TRACE_AUDIO_DEQUEUE_OUTPUT);
             if (audioOutIndex >= 0) {
-                ByteBuffer outBuffer = audioDecoder.getOutputBuffer(audioOutIndex);
-                byte[] audioData = new byte[audioInfo.size];
-                outBuffer.get(audioData);
-                outBuffer.clear();
-                audioTrack.write(audioData, 0, audioData.length);
+                trimUntilUs = writeAudio(audioDecoder.getOutputBuffer(audioOutIndex), audioInfo.offset, audioInfo.size,
+                        audioInfo.presentationTimeUs, trimUntilUs, sampleRate, bytesPerFrame);
                 audioDecoder.releaseOutputBuffer(audioOutIndex, false);
+                if ((audioInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    audioPosition.onEndOfStream();
+                    if (preroll) {
+                        onAudioPrerolled();
+                    }
+                }
+            }
+            // Hand buffered PCM to the AudioTrack without blocking the decoder
+            audioOutput.drain(false);
+            pollAudioUnderruns();
+            if (preroll && isAudioPrerolled(sampleRate, bytesPerFrame)) {
+                onAudioPrerolled();
             }
         }
-        // Cleanup audio decoder, extractor and audio track
-        if (audioDecoder != null) {
-            audioDecoder.stop();
-            audioDecoder.release();
-            audioDecoder = null;
+    }
+
+    // Copies a demuxed sample into an audio codec input buffer; returns true if it was the end of stream
+    private boolean queueAudioSample(int inIndex, SampleQueue.Sample sample) {
+        if (sample.isEndOfStream()) {
+            audioDecoder.queueInputBuffer(inIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            return true;
         }
-        if (audioExtractor != null) {
-            audioExtractor.release();
-            audioExtractor = null;
+        ByteBuffer buffer = audioDecoder.getInputBuffer(inIndex);
+        assert buffer != null;
+        buffer.clear();
+        sample.copyTo(buffer);
+        TraceRecorder.begin(TRACE_AUDIO_QUEUE_INPUT);
+        audioDecoder.queueInputBuffer(inIndex, 0, sample.getSize(), sample.getPtsUs(), 0);
+        TraceRecorder.end(TRACE_AUDIO_QUEUE_INPUT);
+        return false;
+    }
+
+    // Copies the AudioTrack underrun count (API 24+) into the metrics now and then
+    private void pollAudioUnderruns() {
+        long nowNs = System.nanoTime();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && nowNs - lastUnderrunPollNs >= UNDERRUN_POLL_INTERVAL_NS) {
+            lastUnderrunPollNs = nowNs;
+            metrics.setAudioUnderruns(audioTrack.getUnderrunCount());
         }
-        audiodecoderReady = false;
-        audiodecodeThread = null;
-        stopRequested = false;
-        Log.e("MediaCodecPlayer", "audio Decoder thread ended");
+    }
 
+    // Drops queued PCM after a seek so the audio position restarts at the seek target
+    private void resetAudioOutput() {
+        audioTransport.flush();
+        audioOutput.reset();
+        audioPosition.reset();
+        clock.reset();
+    }
+
+    // Applies the playback speed to the audio master
+    private void applyAudioSpeed(float speed) {
+        audioPosition.setSpeed(speed);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            try {
+                PlaybackParams params = audioTrack.getPlaybackParams();
+                params.setSpeed(speed);
+                params.setPitch(1.0f);
+                audioTrack.setPlaybackParams(params);
+            } catch (Exception e) {
+                Log.e("AudioTrack", "Failed to set playback speed", e);
+            }
+        }
+    }
+
+    // Queues decoded PCM for output, dropping what precedes trimUntilUs. Returns the trim point still pending
+    private long writeAudio(ByteBuffer outBuffer, int offset, int size, long ptsUs, long trimUntilUs,
+                            int sampleRate, int bytesPerFrame) {
+        int skipBytes = 0;
+        if (trimUntilUs > ptsUs) {
+            // Drop the frames before the seek target, keeping whole PCM frames
+            long skipFrames = (trimUntilUs - ptsUs) * sampleRate / 1_000_000L;
+            skipBytes = (int) Math.min(skipFrames * bytesPerFrame, size);
+            ptsUs += skipBytes / bytesPerFrame * 1_000_000L / sampleRate;
+            if (skipBytes < size) {
+                trimUntilUs = -1;
+            }
+        }
+        if (outBuffer != null && size > skipBytes) {
+            // Copy straight from the codec's direct buffer into the PCM ring, no heap copy
+            outBuffer.limit(offset + size);
+            outBuffer.position(offset + skipBytes);
+            audioPosition.setStartPts(ptsUs);
+            TraceRecorder.begin(TRACE_AUDIO_WRITE);
+            audioOutput.queue(outBuffer);
+            TraceRecorder.end(TRACE_AUDIO_WRITE);
+            clock.anchorIfUnset(ptsUs);
+        }
+        return trimUntilUs;
+    }
+
+    /**
+     * Base of the callback-driven decoders. The decode thread blocks in run() until the track
+     * ends or stop() interrupts it, so the thread lifecycle and cleanup match the polling loops.
+     */
+    private abstract static class AsyncTrackDecoder implements AsyncCodecAdapter.Client {
+        // Re-check interval while only a sample of a seek not applied yet is buffered
+        static final long PENDING_SEEK_RETRY_MS = 2;
+
+        final AsyncCodecAdapter adapter;
+        // Samples of the track, whose producer wakes the pump once one arrives
+        final SampleQueue queue;
+        private final PlayerStateMachine state;
+        // Play, pause and seek wake the pump right away instead of it polling while idle
+        private final PlayerStateMachine.Listener wakeUp;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private boolean finished = false; // handler thread only
+        private long cpuTimeNs = 0; // CPU time of the handler thread, valid after run()
+
+        // Must be created before the codec is configured
+        AsyncTrackDecoder(MediaCodec codec, String name, SampleQueue queue, PlayerStateMachine state) {
+            adapter = new AsyncCodecAdapter(codec, name, this);
+            this.queue = queue;
+            this.state = state;
+            wakeUp = (from, to) -> adapter.schedule(0);
+        }
+
+        // Starts the codec and blocks until the track finishes or the calling thread is interrupted
+        void run() {
+            state.addListener(wakeUp);
+            queue.setSampleListener(() -> adapter.schedule(0));
+            adapter.start();
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                adapter.post(this::finish);
+                try {
+                    done.await(1, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                    // stopping anyway
+                }
+            }
+        }
+
+        // Ends the handler thread once the codec has been released
+        void quit() {
+            state.removeListener(wakeUp);
+            queue.setSampleListener(null);
+            adapter.quit();
+        }
+
+        long getCpuTimeNs() {
+            return cpuTimeNs;
+        }
+
+        // Called on the handler thread when the track is done
+        void finish() {
+            if (!finished) {
+                finished = true;
+                cpuTimeNs = Debug.threadCpuTimeNanos();
+                done.countDown();
+            }
+        }
+
+        @Override
+        public final void onCodecEvent() {
+            if (!finished) {
+                pump();
+            }
+        }
+
+        @Override
+        public void onCodecError(Exception e) {
+            Log.e("MediaCodecPlayer", "Codec error", e);
+            finish();
+        }
+
+        // Pumps again once the demuxer queues a sample, for when free input buffers found none
+        void awaitSample() {
+            if (!queue.requestSampleSignal()) {
+                // The buffered sample waits for its seek, which the state change may already have announced
+                adapter.schedule(PENDING_SEEK_RETRY_MS);
+            }
+        }
+
+        // Feeds and releases whatever buffers are ready
+        abstract void pump();
+    }
+
+    // Video track driven by MediaCodec callbacks: same feeding, seeking and frame pacing as syncVideoLoop
+    private final class AsyncVideoDecoder extends AsyncTrackDecoder {
+        private final SeekController seeks;
+        private long generation;
+        private boolean inputEOS = false;
+        private SeekController.Request seek = null;
+        private int framesDiscarded = 0;
+        private boolean prerolled = false;
+
+        AsyncVideoDecoder(MediaCodec codec, Demuxer source, SeekController seeks) {
+            super(codec, "VideoCodec", videoQueue, state);
+            this.seeks = seeks;
+            this.generation = source.getGeneration();
+        }
+
+        @Override
+        void pump() {
+            boolean preroll = !prerolled && state.getState() == PlayerStateMachine.State.PREPARING;
+            if (!state.isDecoding() && !preroll) {
+                if (state.getState() != publishedState) {
+                    publishTelemetry();
+                }
+                return; // paused: the next play or seek wakes the pump
+            }
+            SeekController.Request nextSeek = seeks.poll(generation);
+            if (nextSeek != null) {
+                // Jump straight to the newest seek, abandoning any unfinished decode-to-target
+                generation = nextSeek.getGeneration();
+                inputEOS = false;
+                adapter.flush();
+                videoLatency.clear();
+                videoInFlight = 0;
+                clock.reset();
+                frameScheduler.reset();
+                seek = nextSeek;
+                framesDiscarded = 0;
+            }
+            // Feed every free input buffer a sample is ready for
+            while (!inputEOS && adapter.hasInput()) {
+                SampleQueue.Sample sample = videoQueue.peek(generation);
+                if (sample == null) {
+                    break;
+                }
+                inputEOS = queueVideoSample(adapter.pollInput(), sample);
+                videoQueue.release();
+            }
+            if (preroll) {
+                // Hold the first decoded frame for play; its output callback wakes the pump
+                if (adapter.hasOutput()) {
+                    prerolled = true;
+                    // Counted as output by the presentation loop once playing
+                    metrics.markStage(PlaybackMetrics.Stage.FIRST_OUTPUT, System.nanoTime());
+                    onTrackPrerolled();
+                } else if (!inputEOS && adapter.hasInput()) {
+                    awaitSample();
+                }
+                return;
+            }
+            // Present decoded frames in order; an early frame holds back the ones behind it
+            while (adapter.hasOutput()) {
+                int outIndex = adapter.getOutputIndex();
+                long ptsUs = adapter.getOutputPtsUs();
+                boolean eos = (adapter.getOutputFlags() & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                if (seek != null && !eos && ptsUs < seek.getTargetUs()) {
+                    // Decode-to-target: the frame is only needed as a reference for later ones
+                    onVideoOutput(ptsUs);
+                    videoDecoder.releaseOutputBuffer(outIndex, false);
+                    adapter.consumeOutput();
+                    framesDiscarded++;
+                    continue;
+                }
+                FrameScheduler.Action action = frameScheduler.schedule(ptsUs, clock.getPositionUs(), playBackSpeed, System.nanoTime());
+                if (action == FrameScheduler.Action.WAIT) {
+                    long waitUs = Math.min(frameScheduler.getWaitUs(), MAX_FRAME_WAIT_US);
+                    adapter.schedule(Math.max(1, waitUs / 1000));
+                    return;
+                }
+                onVideoOutput(ptsUs);
+                clock.anchorIfUnset(ptsUs);
+                clock.syncToAudio();
+                releaseVideoFrame(outIndex, ptsUs, action);
+                adapter.consumeOutput();
+                if (seek != null) {
+                    onSeekFrameShown(seeks, seek, framesDiscarded);
+                    seek = null;
+                }
+                if (eos) {
+                    Log.d("MediaCodecPlayer", "End of stream");
+                    state.end();
+                    publishTelemetry();
+                    finish();
+                    return;
+                }
+            }
+            if (!inputEOS && adapter.hasInput()) {
+                awaitSample();
+            }
+        }
+    }
+
+    // Audio track driven by MediaCodec callbacks: same feeding, seeking and trimming as syncAudioLoop
+    private final class AsyncAudioDecoder extends AsyncTrackDecoder {
+        // Interval at which buffered PCM is handed to the AudioTrack
+        private static final long AUDIO_DRAIN_RETRY_MS = 10;
+        private final SeekController seeks;
+        private final int sampleRate;
+        private final int bytesPerFrame;
+        private long generation;
+        private long trimUntilUs = -1;
+        private boolean inputEOS = false;
+        private float appliedSpeed = -1.0f;
+
+        AsyncAudioDecoder(MediaCodec codec, Demuxer source, SampleQueue queue, SeekController seeks, int sampleRate,
+                          int bytesPerFrame) {
+            super(codec, "AudioCodec", queue, state);
+            this.seeks = seeks;
+            this.sampleRate = sampleRate;
+            this.bytesPerFrame = bytesPerFrame;
+            this.generation = source.getGeneration();
+        }
+
+        @Override
+        void pump() {
+            boolean preroll = !audioPrerolled.get() && state.getState() == PlayerStateMachine.State.PREPARING;
+            // Audio keeps consuming while video seeks, see canQueueAudio()
+            if (!state.isDecoding() && !preroll) {
+                // Stop the audio master so the clock does not run ahead of the frozen picture
+                audioTransport.setPlaying(false);
+                return; // the next play or seek wakes the pump
+            }
+            boolean playing = state.isPlaying();
+            // The track only runs while playing; seeks and preroll decode into the stopped track
+            audioTransport.setPlaying(playing);
+            SeekController.Request nextSeek = seeks.poll(generation);
+            if (nextSeek != null) {
+                generation = nextSeek.getGeneration();
+                adapter.flush();
+                resetAudioOutput();
+                inputEOS = false;
+                trimUntilUs = nextSeek.getTargetUs();
+            }
+            if (appliedSpeed != playBackSpeed) {
+                appliedSpeed = playBackSpeed;
+                applyAudioSpeed(appliedSpeed);
+            }
+            while (!inputEOS && adapter.hasInput()) {
+                // Peeking also drops samples from before the seek
+                SampleQueue.Sample sample = queue.peek(generation);
+                if (sample == null || !canQueueAudio(playing)) {
+                    break;
+                }
+                inputEOS = queueAudioSample(adapter.pollInput(), sample);
+                queue.release();
+            }
+            while (adapter.hasOutput()) {
+                int outIndex = adapter.getOutputIndex();
+                trimUntilUs = writeAudio(audioDecoder.getOutputBuffer(outIndex), adapter.getOutputOffset(),
+                        adapter.getOutputSize(), adapter.getOutputPtsUs(), trimUntilUs, sampleRate, bytesPerFrame);
+                audioDecoder.releaseOutputBuffer(outIndex, false);
+                if ((adapter.getOutputFlags() & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    audioPosition.onEndOfStream();
+                    if (preroll) {
+                        onAudioPrerolled();
+                    }
+                }
+                adapter.consumeOutput();
+            }
+            // Hand buffered PCM to the AudioTrack without blocking the handler thread
+            audioOutput.drain(false);
+            pollAudioUnderruns();
+            if (preroll && isAudioPrerolled(sampleRate, bytesPerFrame)) {
+                onAudioPrerolled();
+                return; // play wakes the pump
+            }
+            if (audioOutput.getBufferedBytes() > 0) {
+                // The AudioTrack does not signal free space, drain again well within its buffer
+                adapter.schedule(AUDIO_DRAIN_RETRY_MS);
+            } else if (!inputEOS && adapter.hasInput()) {
+                awaitSample();
+            }
+        }
     }
 
     // Stop playback and cleanup resources
     public void stop() {
-        isPlaying = false;
+        cancelReopen();
+        stopSession();
+    }
+
+    // Drops a reopen still waiting for the previous session's threads
+    private void cancelReopen() {
+        synchronized (reopenLock) {
+            pendingReopen = null;
+        }
+    }
+
+    // Stops the running session's decode threads without waiting for them
+    private void stopSession() {
+        state.stop();
         stopRequested = true;
         if (videodecodeThread != null) {
             videodecodeThread.interrupt();
@@ -374,51 +1328,82 @@ public class MediaCodecPlayer implements VideoPlaybackContract {
             audiodecodeThread.interrupt();
         }
     }
-    //Loads a video file and starts playback
+    //Loads a video file and prepares it; playback starts with the play command that follows
     @Override
     public void onInitiate(Uri uri) {
-        start(uri);
+        prepare(uri);
     }
 
     // Resume playback from paused state
     @Override
     public void onPlay() {
-        isPlaying = true;
+        if (state.getState() != PlayerStateMachine.State.PLAYING) {
+            playRequestedNs = System.nanoTime();
+        }
+        state.play();
     }
 
-    // Pause playback (video and audio decode loops sleep)
+    // Pause playback (video and audio decode threads block until resumed)
     @Override
     public void onPause() {
-        isPlaying = false;
+        state.pause();
     }
 
-    // Request a seek to a specific progress (percentage or relative position)
+    // Request a seek to a position in microseconds. FAST lands on the keyframe at or before it,
+    // EXACT decodes from that keyframe and discards everything before the position
     @Override
-    public void onSeek(int progress) {
-        this.seekToProgress = progress;
-        this.performSeek = true;
+    public synchronized void onSeek(long positionUs, SeekMode mode) {
+        // Issued once on the shared demuxer; each decode loop flushes once when it picks up the newest generation
+        Demuxer current = demuxer;
+        SeekController seeks = seekController;
+        if (current == null || seeks == null) {
+            return;
+        }
+        long requestTimeNs = System.nanoTime();
+        long targetUs = Math.max(0, Math.min(positionUs, totalDurationMs * 1000L));
+        SampleIndex index = videoIndex;
+        long keyframeUs = -1;
+        if (index != null && index.getKeyframeCount() > 0) {
+            keyframeUs = index.keyframeTimeAtOrBefore(targetUs);
+        }
+        // The keyframe is known from the sample table: land exactly on it. Without an index only the
+        // extractor knows where the keyframe is and a fast seek shows whatever it finds (keyframeUs is -1)
+        long seekTimeUs = keyframeUs >= 0 ? keyframeUs : targetUs;
+        int extractorMode = keyframeUs >= 0 ? MediaExtractor.SEEK_TO_CLOSEST_SYNC : MediaExtractor.SEEK_TO_PREVIOUS_SYNC;
+        SeekController.Request request = seeks.submit(seekTimeUs, mode == SeekMode.EXACT ? targetUs : keyframeUs,
+                mode, requestTimeNs);
+        if (request != null) {
+            // Synchronized so generations reach the demuxer in increasing order
+            current.seekTo(request.getGeneration(), seekTimeUs, extractorMode);
+            // Video decodes even while paused until the target frame is shown
+            state.seek();
+        }
+    }
+
+    // Seek pipeline statistics of the current file (null before start)
+    public SeekController getSeekController() {
+        return seekController;
+    }
+
+    // Latest position and state for the UI to sample once per display frame
+    public TelemetryChannel getTelemetry() {
+        return telemetry;
+    }
+
+    // Startup, frame pacing, drop and underrun telemetry of the current file
+    public PlaybackMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Time from the last seek request to its first displayed frame in microseconds, -1 if none yet
+    public long getLastSeekLatencyUs() {
+        return lastSeekLatencyUs;
     }
 
     // Change playback speed multiplier (e.g. 0.5x, 1x, 2x)
     @Override
-    public void onPlaybackChanged(String speed) {
-        switch (speed){
-            case "0.5x":
-                playBackSpeed = 0.5f;
-                break;
-            case "1.0x":
-                playBackSpeed = 1.0f;
-                break;
-                case "1.5x":
-                playBackSpeed = 1.5f;
-                break;
-            case "2.0x":
-                playBackSpeed = 2.0f;
-                break;
-            default:
-                playBackSpeed = 1.0f;
-                break;
-        }
-        playbackStartTimeNs = -1;
+    public void onPlaybackChanged(float speed) {
+        playBackSpeed = speed;
+        clock.setSpeed(playBackSpeed);
     }
 }
@@ -2,73 +2,110 @@ package com.example.flamvr.core;
 
 import android.net.Uri;
 
+import com.example.flamvr.core.command.Command;
+import com.example.flamvr.core.command.CommandBus;
+import com.example.flamvr.core.trace.TraceRecorder;
 import com.example.flamvr.globals.FILTERS;
 import com.example.flamvr.globals.IOInterfaceContract;
 import com.example.flamvr.globals.InputContract;
+import com.example.flamvr.globals.SeekMode;
 import com.example.flamvr.globals.StateManagerContract;
 import com.example.flamvr.globals.StreamDataInterface;
 import com.example.flamvr.globals.VideoPlaybackContract;
+
+import java.util.EnumSet;
+import java.util.concurrent.Executor;
 /**
  * Central class that manages state and coordinates communication
  * between various components of the video playback system.
  * Implements multiple interfaces to handle user input, state management,
  * and progress bar streaming updates.
+ * Playback commands are posted to a CommandBus and delivered to each listener on its own
+ * executor, so the input thread never waits for the player, the renderer or the UI.
  */
 public class StateHandler implements InputContract, StateManagerContract, StreamDataInterface.ProgressBarStream {
 
+    // Trace events marking user actions on the timeline
+    private static final int TRACE_INITIATE = TraceRecorder.event("state.initiate");
+    private static final int TRACE_PLAY = TraceRecorder.event("state.play");
+    private static final int TRACE_PAUSE = TraceRecorder.event("state.pause");
+    private static final int TRACE_SPEED = TraceRecorder.event("state.speed");
+    private static final int TRACE_SEEK = TraceRecorder.event("state.seek");
+    private static final int TRACE_FILTER = TraceRecorder.event("state.filter");
+
     // Delegate to forward progress bar updates to the UI or other listener
     StreamDataInterface.ProgressBarStream progressBarStream;
-    @Override
-    public void updateSeekBarProgress(long progress) {
-        // Forward the updated seek bar progress to the registered listener
-        progressBarStream.updateSeekBarProgress(progress);
-    }
 
     @Override
     public void setMaxDuration(long duration) {
         // Forward the max duration (e.g., video length) to the listener
         progressBarStream.setMaxDuration(duration);
     }
+    // Commands VideoPlaybackContract listeners receive
+    private static final EnumSet<Command.Type> PLAYBACK_COMMANDS = EnumSet.of(Command.Type.INITIATE,
+            Command.Type.PLAY, Command.Type.PAUSE, Command.Type.SEEK, Command.Type.SPEED);
 
-    @Override
-    public void updateFrameCount(long frameCount) {
-        // Forward updated frame count info to the listener
-        progressBarStream.updateFrameCount(frameCount);
-    }
-    /**
-     * Enum defining different handler types that listen to state events.
-     * These correspond to various system components interested in playback state.
-     */
-    public enum HANDLERS{
-        UI_HANDLER, MEDIA_CODEC_HANDLER, IO_HANDLER, OPENGL_HANDLER
-    }
-    // Array holding VideoPlaybackContract listeners indexed by HANDLERS enum
-    private final VideoPlaybackContract[] videoPlayBackListeners = new VideoPlaybackContract[HANDLERS.values().length];
+    // Delivers playback and filter commands to the registered listeners
+    private final CommandBus commandBus = new CommandBus();
 
     // IOInterfaceContract listener, expected to handle I/O related events like file picking
     private IOInterfaceContract ioInterfaceListener = null;
 
-    // Count of how many VideoPlaybackContract listeners have been registered
-    private int totalVPListeners = 0;
-
-    // Array holding listeners for video info streaming
-    private StreamDataInterface.VideoInfoStream[] videoInfoStream = new StreamDataInterface.VideoInfoStream[HANDLERS.values().length];
-
-    // Count of how many video info stream listeners have been registered
-    private int totalVSListeners = 0;
-
     /**
-     * Registers a listener to receive video info stream updates (e.g., filters).
+     * Registers a listener to receive video info stream updates (e.g., filters) on the bus's worker thread.
      */
     public void addStreamVS(StreamDataInterface.VideoInfoStream listener){
-        videoInfoStream[totalVSListeners++] = listener;
+        addStreamVS(listener, null);
     }
 
     /**
-     * Registers a listener to receive video playback state events (play, pause, seek).
+     * Registers a video info listener whose updates run on the given executor.
+     */
+    public void addStreamVS(StreamDataInterface.VideoInfoStream listener, Executor executor){
+        commandBus.subscribe(command -> listener.getFilter(command.getFilter().ordinal()),
+                executor, EnumSet.of(Command.Type.FILTER));
+    }
+
+    /**
+     * Registers a listener to receive video playback state events (play, pause, seek) on the bus's worker thread.
      */
     public void addListener(VideoPlaybackContract listener){
-        videoPlayBackListeners[totalVPListeners++] = listener;
+        addListener(listener, null);
+    }
+
+    /**
+     * Registers a playback listener whose events run on the given executor, e.g. the main thread for views.
+     */
+    public void addListener(VideoPlaybackContract listener, Executor executor){
+        commandBus.subscribe(command -> deliver(listener, command), executor, PLAYBACK_COMMANDS);
+    }
+
+    // Bus delivering the commands, exposes dispatch latency and coalescing statistics
+    public CommandBus getCommandBus() {
+        return commandBus;
+    }
+
+    // Translates a command into the listener's contract
+    private static void deliver(VideoPlaybackContract listener, Command command) {
+        switch (command.getType()) {
+            case INITIATE:
+                listener.onInitiate(command.getUri());
+                break;
+            case PLAY:
+                listener.onPlay();
+                break;
+            case PAUSE:
+                listener.onPause();
+                break;
+            case SEEK:
+                listener.onSeek(command.getPositionUs(), command.getSeekMode());
+                break;
+            case SPEED:
+                listener.onPlaybackChanged(command.getSpeed());
+                break;
+            default:
+                break;
+        }
     }
 
     /**
@@ -129,22 +166,34 @@ public class StateHandler implements InputContract, StateManagerContract, Stream
      */
     @Override
     public void onInitiate() {
-
+        TraceRecorder.instant(TRACE_INITIATE, 0);
         isPlaying = true;
-        for (int i = 0; i < totalVPListeners; i++){
-            videoPlayBackListeners[i].onInitiate(fileUri);
-            videoPlayBackListeners[i].onPlay();
-        }
+        commandBus.post(Command.initiate(fileUri));
+        commandBus.post(Command.play());
     }
 
     /**
      * Called when playback speed changes.
-     * Propagates the speed change to all registered listeners.
+     * Parses the spinner label once and propagates the multiplier to all registered listeners.
      */
     @Override
     public void onPlaybackChanged(String speed) {
-        for (int i = 0; i < totalVPListeners; i++){
-            videoPlayBackListeners[i].onPlaybackChanged(speed);
+        float multiplier = parseSpeed(speed);
+        TraceRecorder.instant(TRACE_SPEED, (long) (multiplier * 100));
+        commandBus.post(Command.speed(multiplier));
+    }
+
+    // Speed multiplier of a label such as "1.5x", 1.0 if it is not one
+    static float parseSpeed(String speed) {
+        switch (speed) {
+            case "0.5x":
+                return 0.5f;
+            case "1.5x":
+                return 1.5f;
+            case "2.0x":
+                return 2.0f;
+            default:
+                return 1.0f;
         }
     }
 
@@ -155,27 +204,19 @@ public class StateHandler implements InputContract, StateManagerContract, Stream
     @Override
     public void onPlayPauseToggled() {
         isPlaying = !isPlaying;
-        if(isPlaying){
-            for (int i = 0; i < totalVPListeners; i++){
-                videoPlayBackListeners[i].onPlay();
-            }
-        } else {
-            for (int i = 0; i < totalVPListeners; i++) {
-                videoPlayBackListeners[i].onPause();
-            }
-
-        }
+        TraceRecorder.instant(isPlaying ? TRACE_PLAY : TRACE_PAUSE, 0);
+        commandBus.post(isPlaying ? Command.play() : Command.pause());
     }
 
     /**
      * Called when the seek position changes.
-     * Forwards the new seek progress to all playback listeners.
+     * Forwards the new position (in microseconds) and seek mode to all playback listeners.
      */
     @Override
-    public void onSeekChanged(int progress) {
-        for (int i = 0; i < totalVPListeners; i++) {
-            videoPlayBackListeners[i].onSeek(progress);
-        }
+    public void onSeekChanged(long positionUs, SeekMode mode) {
+        TraceRecorder.instant(TRACE_SEEK, positionUs);
+        // Seeks coalesce: while dragging, only the newest position reaches a busy listener
+        commandBus.post(Command.seek(positionUs, mode));
     }
 
     /**
@@ -201,8 +242,7 @@ public class StateHandler implements InputContract, StateManagerContract, Stream
                 filter = FILTERS.NONE;
                 break;
         }
-        for (int i = 0; i < totalVSListeners; i++) {
-            videoInfoStream[i].getFilter(filter.ordinal());
-        }
+        TraceRecorder.instant(TRACE_FILTER, filter.ordinal());
+        commandBus.post(Command.filter(filter));
     }
 }
@@ -0,0 +1,90 @@
+package com.example.flamvr.core.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Audio output stage between the decoder and the PCM sink.
+ * Decoded buffers are copied into a preallocated PcmRingBuffer and drained to the sink
+ * without blocking, so a full AudioTrack never stalls the decoder.
+ * Ring (re)allocations are counted; after start-up the count must stay constant. Allocations
+ * inside the sink, e.g. by AudioTrack.write, are not seen by the stage and not counted.
+ */
+public class AudioOutputStage {
+
+    private final PcmSink sink;
+    private PcmRingBuffer ring;
+
+    // Counters
+    private long ringAllocationCount = 0;
+    private long bytesQueued = 0;
+    private long bytesWritten = 0;
+
+    public AudioOutputStage(PcmSink sink, int capacity) {
+        this.sink = sink;
+        ring = allocate(capacity);
+    }
+
+    /**
+     * Copies a decoded buffer (position..limit) into the ring, draining to the sink in blocking
+     * mode first if it does not fit.
+     */
+    public void queue(ByteBuffer pcm) {
+        int size = pcm.remaining();
+        if (size > ring.capacity()) {
+            // Decoder produced a larger buffer than ever seen: flush what is buffered and grow
+            while (!ring.isEmpty() && drain(true) > 0) {
+                // keep draining
+            }
+            ring = allocate(Math.max(size, ring.capacity() * 2));
+        }
+        while (ring.free() < size) {
+            if (drain(true) <= 0) {
+                break;
+            }
+        }
+        bytesQueued += ring.write(pcm);
+    }
+
+    /**
+     * Hands as much buffered PCM to the sink as it accepts.
+     * @return bytes written to the sink.
+     */
+    public int drain(boolean blocking) {
+        int written = ring.drainTo(sink, blocking);
+        bytesWritten += written;
+        return written;
+    }
+
+    /**
+     * Discards buffered PCM, e.g. after a seek.
+     */
+    public void reset() {
+        ring.clear();
+    }
+
+    public int getBufferedBytes() {
+        return ring.size();
+    }
+
+    public int getCapacity() {
+        return ring.capacity();
+    }
+
+    // Number of PCM rings allocated since construction: the initial one plus one per growth
+    public long getRingAllocationCount() {
+        return ringAllocationCount;
+    }
+
+    public long getBytesQueued() {
+        return bytesQueued;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private PcmRingBuffer allocate(int capacity) {
+        ringAllocationCount++;
+        return new PcmRingBuffer(capacity);
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.flamvr.core.audio;
+
+import android.media.AudioTrack;
+
+import com.example.flamvr.core.clock.AudioTrackPositionSource;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PcmSink writing direct ByteBuffers straight into an AudioTrack
+ * and reporting accepted bytes to the audio master clock. Also the output an AudioTransport starts and stops.
+ */
+public class AudioTrackSink implements PcmSink, AudioTransport.Output {
+
+    private final AudioTrack audioTrack;
+    private final AudioTrackPositionSource position;
+
+    public AudioTrackSink(AudioTrack audioTrack, AudioTrackPositionSource position) {
+        this.audioTrack = audioTrack;
+        this.position = position;
+    }
+
+    @Override
+    public int write(ByteBuffer buffer, int size, boolean blocking) {
+        int written = audioTrack.write(buffer, size, blocking ? AudioTrack.WRITE_BLOCKING : AudioTrack.WRITE_NON_BLOCKING);
+        if (written > 0) {
+            position.onBytesWritten(written);
+        }
+        return written;
+    }
+
+    @Override
+    public void play() {
+        audioTrack.play();
+    }
+
+    @Override
+    public void pause() {
+        audioTrack.pause();
+    }
+
+    @Override
+    public void flush() {
+        audioTrack.flush();
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.flamvr.core.audio;
+
+/**
+ * Runs the audio output only while playback plays. Seeks and preroll decode into the stopped
+ * output, and dropping buffered audio restarts the output only if it was running.
+ * Driven from the audio decode thread only.
+ */
+public class AudioTransport {
+
+    /**
+     * The output being started and stopped, typically an AudioTrack.
+     */
+    public interface Output {
+        void play();
+
+        void pause();
+
+        // Drops audio written but not played yet; only called while paused
+        void flush();
+    }
+
+    private final Output output;
+    private boolean running = false;
+
+    public AudioTransport(Output output) {
+        this.output = output;
+    }
+
+    /**
+     * Starts the output when playback plays and stops it otherwise, on changes only.
+     */
+    public void setPlaying(boolean playing) {
+        if (running == playing) {
+            return;
+        }
+        if (playing) {
+            output.play();
+        } else {
+            output.pause();
+        }
+        running = playing;
+    }
+
+    /**
+     * Drops the audio buffered in the output, e.g. for a seek, leaving it running or stopped as it was.
+     */
+    public void flush() {
+        output.pause();
+        output.flush();
+        if (running) {
+            output.play();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.flamvr.core.audio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fixed-capacity byte ring over a single direct ByteBuffer.
+ * Decoded PCM is copied in from codec output buffers and handed to the sink
+ * straight from the backing storage, so no per-buffer allocation happens once constructed.
+ * Not thread safe: the decoder and the sink are driven from the same audio thread.
+ */
+public class PcmRingBuffer {
+
+    private final int capacity;
+    // Backing storage, only used for copying data in
+    private final ByteBuffer storage;
+    // Second view over the same storage handed to the sink
+    private final ByteBuffer readView;
+
+    private int readPos = 0;
+    private int writePos = 0;
+    private int size = 0;
+
+    public PcmRingBuffer(int capacity) {
+        this.capacity = capacity;
+        storage = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        readView = storage.duplicate();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int free() {
+        return capacity - size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        readPos = 0;
+        writePos = 0;
+        size = 0;
+    }
+
+    /**
+     * Copies as many bytes from src as fit, advancing src's position.
+     * @return number of bytes copied.
+     */
+    public int write(ByteBuffer src) {
+        int count = Math.min(src.remaining(), free());
+        int first = Math.min(count, capacity - writePos);
+        copyIn(src, writePos, first);
+        copyIn(src, 0, count - first);
+        writePos = (writePos + count) % capacity;
+        size += count;
+        return count;
+    }
+
+    /**
+     * Hands buffered bytes to the sink, at most two contiguous writes around the wrap point.
+     * @return number of bytes accepted by the sink.
+     */
+    public int drainTo(PcmSink sink, boolean blocking) {
+        int total = 0;
+        while (size > 0) {
+            int chunk = Math.min(size, capacity - readPos);
+            readView.limit(readPos + chunk);
+            readView.position(readPos);
+            int written = sink.write(readView, chunk, blocking);
+            if (written <= 0) {
+                break;
+            }
+            readPos = (readPos + written) % capacity;
+            size -= written;
+            total += written;
+            if (written < chunk) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    private void copyIn(ByteBuffer src, int at, int count) {
+        if (count == 0) {
+            return;
+        }
+        int srcLimit = src.limit();
+        src.limit(src.position() + count);
+        storage.limit(at + count);
+        storage.position(at);
+        storage.put(src);
+        src.limit(srcLimit);
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.flamvr.core.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Destination for decoded PCM, typically an AudioTrack.
+ */
+public interface PcmSink {
+    /**
+     * Writes up to size bytes starting at the buffer's position.
+     * @param blocking if false the sink may accept fewer bytes than offered.
+     * @return number of bytes accepted, or a negative error code.
+     */
+    int write(ByteBuffer buffer, int size, boolean blocking);
+}
@@ -0,0 +1,13 @@
+package com.example.flamvr.core.clock;
+
+/**
+ * Reports the media position of the audio currently being heard.
+ * Implemented on top of AudioTrack on device and by fakes in JVM tests.
+ */
+public interface AudioPositionSource {
+    /**
+     * Returns the media time in microseconds of the audio frame being played at nowNs,
+     * or -1 when the position is unknown (nothing written yet, flushed or drained).
+     */
+    long getPositionUs(long nowNs);
+}
@@ -0,0 +1,117 @@
+package com.example.flamvr.core.clock;
+
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+
+/**
+ * AudioPositionSource backed by an AudioTrack in streaming mode.
+ * Maps the playback head (refined with AudioTrack.getTimestamp when available)
+ * back to media time using the PTS of the first buffer written after a reset.
+ */
+public class AudioTrackPositionSource implements AudioPositionSource {
+
+    // getTimestamp is comparatively expensive, refresh it at most this often
+    private static final long TIMESTAMP_REFRESH_NS = 50_000_000L;
+
+    // Timestamps older than this are not used for extrapolation
+    private static final long TIMESTAMP_MAX_AGE_NS = 1_000_000_000L;
+
+    private final AudioTrack audioTrack;
+    private final int sampleRate;
+    private final int bytesPerFrame;
+    private final AudioTimestamp timestamp = new AudioTimestamp();
+    private long lastTimestampQueryNs = 0;
+    private boolean timestampValid = false;
+
+    // Media time of the first frame written after the last reset, -1 when unknown
+    private long basePtsUs = -1;
+    // Playback head position at which basePtsUs is heard
+    private long baseFrames = 0;
+    private long bytesWritten = 0;
+
+    private float speed = 1.0f;
+    private boolean endOfStream = false;
+
+    public AudioTrackPositionSource(AudioTrack audioTrack, int sampleRate, int bytesPerFrame) {
+        this.audioTrack = audioTrack;
+        this.sampleRate = sampleRate;
+        this.bytesPerFrame = bytesPerFrame;
+    }
+
+    /**
+     * Forgets the mapping, to be called right after the AudioTrack was flushed.
+     */
+    public synchronized void reset() {
+        baseFrames = playbackHeadFrames();
+        bytesWritten = baseFrames * bytesPerFrame;
+        basePtsUs = -1;
+        timestampValid = false;
+        endOfStream = false;
+    }
+
+    /**
+     * Sets the media time of the first PCM frame written after the last reset.
+     * Ignored once set, so it can be called for every decoded buffer.
+     */
+    public synchronized void setStartPts(long ptsUs) {
+        if (basePtsUs < 0) {
+            basePtsUs = ptsUs;
+        }
+    }
+
+    /**
+     * Records that byteCount bytes of PCM were accepted by the AudioTrack.
+     */
+    public synchronized void onBytesWritten(int byteCount) {
+        bytesWritten += byteCount;
+    }
+
+    /**
+     * Marks the end of the audio stream; once drained the position becomes unknown
+     * so the clock falls back to wall time for any remaining video.
+     */
+    public synchronized void onEndOfStream() {
+        endOfStream = true;
+    }
+
+    public synchronized void setSpeed(float speed) {
+        this.speed = speed;
+        timestampValid = false;
+    }
+
+    @Override
+    public synchronized long getPositionUs(long nowNs) {
+        if (basePtsUs < 0) {
+            return -1;
+        }
+        long framesWritten = bytesWritten / bytesPerFrame;
+        long playedFrames = playedFrames(nowNs);
+        if (playedFrames >= framesWritten && endOfStream) {
+            return -1;
+        }
+        playedFrames = Math.min(playedFrames, framesWritten);
+        if (playedFrames < baseFrames) {
+            // Data written after the reset has not started playing yet
+            return -1;
+        }
+        return basePtsUs + (playedFrames - baseFrames) * 1_000_000L / sampleRate;
+    }
+
+    private long playedFrames(long nowNs) {
+        if (nowNs - lastTimestampQueryNs > TIMESTAMP_REFRESH_NS) {
+            lastTimestampQueryNs = nowNs;
+            timestampValid = audioTrack.getTimestamp(timestamp);
+        }
+        if (timestampValid && timestamp.framePosition >= baseFrames
+                && nowNs - timestamp.nanoTime < TIMESTAMP_MAX_AGE_NS) {
+            long elapsedNs = nowNs - timestamp.nanoTime;
+            return timestamp.framePosition + (long) (elapsedNs * (double) speed * sampleRate / 1_000_000_000L);
+        }
+        return playbackHeadFrames();
+    }
+
+    private long playbackHeadFrames() {
+        // The head position is an unsigned 32-bit frame counter
+        return audioTrack.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.flamvr.core.clock;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * Feeds Choreographer frame times into a VsyncPredictor while started.
+ * Callbacks run on the main thread; start and stop may be called from any thread.
+ */
+public class ChoreographerVsyncSource implements Choreographer.FrameCallback {
+
+    private final VsyncPredictor predictor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private boolean running = false; // main thread only
+
+    public ChoreographerVsyncSource(VsyncPredictor predictor) {
+        this.predictor = predictor;
+    }
+
+    public void start() {
+        mainHandler.post(() -> {
+            if (!running) {
+                running = true;
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        });
+    }
+
+    public void stop() {
+        mainHandler.post(() -> {
+            if (running) {
+                running = false;
+                Choreographer.getInstance().removeFrameCallback(this);
+            }
+        });
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!running) {
+            return;
+        }
+        predictor.onVsync(frameTimeNanos);
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.flamvr.core.clock;
+
+/**
+ * Decides what to do with a decoded video frame given the master clock position.
+ * Early frames are held (the previous frame stays on screen and is effectively repeated),
+ * late frames are dropped and everything in between is rendered.
+ * With a VsyncPredictor, frames are instead released up to RELEASE_AHEAD_VSYNCS before the vsync
+ * they are due at, with that vsync as explicit render time, so wake-up jitter of the decode thread
+ * does not reach the display.
+ */
+public class FrameScheduler {
+
+    /**
+     * Action to take for a decoded frame.
+     */
+    public enum Action {
+        RENDER, WAIT, DROP
+    }
+
+    /**
+     * Why the last frame was dropped.
+     */
+    public enum DropReason {
+        NONE,
+        // Behind the master clock by more than the late threshold
+        LATE,
+        // Its vsync was already given to the previous frame, which would be replaced unseen
+        VSYNC_TAKEN
+    }
+
+    // Frames are handed to the display pipeline this many vsyncs before they are due
+    public static final int RELEASE_AHEAD_VSYNCS = 2;
+
+    // Frames later than this behind the clock are dropped
+    public static final long DEFAULT_LATE_THRESHOLD_US = 40_000;
+
+    // Frames due within this window are rendered right away
+    public static final long DEFAULT_EARLY_THRESHOLD_US = 2_000;
+
+    // Never drop more than this many frames in a row so the picture keeps moving on slow devices
+    static final int MAX_CONSECUTIVE_DROPS = 8;
+
+    private final long lateThresholdUs;
+    private final long earlyThresholdUs;
+
+    // Wall time to wait before re-evaluating the last frame, valid after a WAIT decision
+    private long waitUs = 0;
+    private int consecutiveDrops = 0;
+
+    // Vsync timing, null to release frames as soon as they are due
+    private VsyncPredictor vsync;
+    // Vsync the last frame was released for, valid after a RENDER decision
+    private long renderTimeNs = -1;
+    private long lastRenderTimeNs = -1;
+    // How much later than due the last released frame is shown, valid after a RENDER decision
+    private long presentationErrorUs = 0;
+    private DropReason dropReason = DropReason.NONE;
+    private final long[] dropsByReason = new long[DropReason.values().length];
+
+    // Counters
+    private long framesRendered = 0;
+    private long framesDropped = 0;
+    private long waits = 0;
+
+    public FrameScheduler() {
+        this(DEFAULT_LATE_THRESHOLD_US, DEFAULT_EARLY_THRESHOLD_US);
+    }
+
+    public FrameScheduler(long lateThresholdUs, long earlyThresholdUs) {
+        this.lateThresholdUs = lateThresholdUs;
+        this.earlyThresholdUs = earlyThresholdUs;
+    }
+
+    public void setVsyncPredictor(VsyncPredictor vsync) {
+        this.vsync = vsync;
+    }
+
+    /**
+     * Forgets the vsync of the last released frame, e.g. after a seek.
+     */
+    public void reset() {
+        lastRenderTimeNs = -1;
+        consecutiveDrops = 0;
+    }
+
+    /**
+     * Schedules a frame for release at an explicit vsync. After RENDER, getRenderTimeNs() is the
+     * vsync to show the frame at. Without vsync timing this behaves like schedule(framePtsUs, clockUs, speed)
+     * with a render time of nowNs.
+     * @param nowNs current System.nanoTime().
+     */
+    public Action schedule(long framePtsUs, long clockUs, float speed, long nowNs) {
+        VsyncPredictor predictor = vsync;
+        if (predictor == null || !predictor.hasTiming()) {
+            Action action = schedule(framePtsUs, clockUs, speed);
+            renderTimeNs = action == Action.RENDER ? nowNs : -1;
+            return action;
+        }
+        waitUs = 0;
+        renderTimeNs = -1;
+        presentationErrorUs = 0;
+        dropReason = DropReason.NONE;
+        long earliestNs = predictor.nextVsyncAtOrAfter(nowNs);
+        if (clockUs == PlaybackClock.TIME_UNSET) {
+            // Nothing to sync against yet: this frame anchors the clock
+            return renderAt(Math.max(earliestNs, nextFreeVsync(predictor)));
+        }
+        long earlyUs = framePtsUs - clockUs;
+        if (-earlyUs > lateThresholdUs && consecutiveDrops < MAX_CONSECUTIVE_DROPS) {
+            return drop(DropReason.LATE);
+        }
+        long periodNs = predictor.getPeriodNs();
+        long dueNs = nowNs + (long) (earlyUs * 1000 / (double) speed);
+        long targetNs = predictor.nearestVsync(dueNs);
+        long releaseAtNs = targetNs - RELEASE_AHEAD_VSYNCS * periodNs;
+        if (releaseAtNs > nowNs) {
+            // Rounded up, a wait truncated to 0 would re-evaluate the frame without sleeping
+            waitUs = (releaseAtNs - nowNs + 999) / 1000;
+            waits++;
+            return Action.WAIT;
+        }
+        // A vsync that has passed can no longer be hit: show it at the next one
+        targetNs = Math.max(targetNs, earliestNs);
+        if (targetNs <= lastRenderTimeNs) {
+            if (consecutiveDrops < MAX_CONSECUTIVE_DROPS) {
+                return drop(DropReason.VSYNC_TAKEN);
+            }
+            targetNs = nextFreeVsync(predictor);
+        }
+        presentationErrorUs = (targetNs - dueNs) / 1000;
+        return renderAt(targetNs);
+    }
+
+    // First vsync after the one the previous frame was released for
+    private long nextFreeVsync(VsyncPredictor predictor) {
+        return lastRenderTimeNs < 0 ? -1 : lastRenderTimeNs + predictor.getPeriodNs();
+    }
+
+    private Action renderAt(long timeNs) {
+        renderTimeNs = timeNs;
+        lastRenderTimeNs = timeNs;
+        return render();
+    }
+
+    private Action drop(DropReason reason) {
+        consecutiveDrops++;
+        framesDropped++;
+        dropReason = reason;
+        dropsByReason[reason.ordinal()]++;
+        return Action.DROP;
+    }
+
+    /**
+     * Schedules a frame against the clock.
+     * @param framePtsUs presentation time of the frame.
+     * @param clockUs current master clock position, or PlaybackClock.TIME_UNSET.
+     * @param speed playback speed, used to convert media time into wall time.
+     */
+    public Action schedule(long framePtsUs, long clockUs, float speed) {
+        waitUs = 0;
+        presentationErrorUs = 0;
+        dropReason = DropReason.NONE;
+        if (clockUs == PlaybackClock.TIME_UNSET) {
+            // Nothing to sync against yet: this frame anchors the clock
+            return render();
+        }
+        long earlyUs = framePtsUs - clockUs;
+        if (earlyUs > earlyThresholdUs) {
+            waitUs = (long) ((earlyUs - earlyThresholdUs) / speed);
+            waits++;
+            return Action.WAIT;
+        }
+        if (-earlyUs > lateThresholdUs && consecutiveDrops < MAX_CONSECUTIVE_DROPS) {
+            return drop(DropReason.LATE);
+        }
+        presentationErrorUs = (long) (-earlyUs / speed);
+        return render();
+    }
+
+    private Action render() {
+        consecutiveDrops = 0;
+        framesRendered++;
+        return Action.RENDER;
+    }
+
+    public long getWaitUs() {
+        return waitUs;
+    }
+
+    // Vsync time to pass to releaseOutputBuffer, valid after RENDER from the vsync-aware schedule
+    public long getRenderTimeNs() {
+        return renderTimeNs;
+    }
+
+    // Presentation time error of the last RENDER in wall time, positive if the frame is shown late
+    public long getPresentationErrorUs() {
+        return presentationErrorUs;
+    }
+
+    // Reason of the last DROP
+    public DropReason getDropReason() {
+        return dropReason;
+    }
+
+    public long getFramesDropped(DropReason reason) {
+        return dropsByReason[reason.ordinal()];
+    }
+
+    public long getFramesRendered() {
+        return framesRendered;
+    }
+
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+
+    public long getWaits() {
+        return waits;
+    }
+}
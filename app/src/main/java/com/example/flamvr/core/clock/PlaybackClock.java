@@ -0,0 +1,179 @@
+package com.example.flamvr.core.clock;
+
+/**
+ * Master clock for audio/video sync.
+ * Runs off the wall clock from an anchor (first presented frame, pause or speed change)
+ * and, when an audio source is attached, is steered towards the audio position by syncToAudio()
+ * so that audio acts as the master. Video-only files simply keep the wall-clock behaviour.
+ * Reading the position never changes the clock, only syncToAudio() and the transport calls do.
+ * All methods are thread safe; the clock is queried from the decode threads and driven from the UI.
+ */
+public class PlaybackClock {
+
+    // Position value returned while the clock has not been anchored yet
+    public static final long TIME_UNSET = -1;
+
+    // Drift beyond which the clock jumps straight to the audio position instead of slewing
+    static final long RESYNC_THRESHOLD_US = 40_000;
+
+    // Fraction (1/n) of the measured drift removed on every sync while inside the threshold
+    static final int SLEW_DIVISOR = 8;
+
+    private final TimeSource timeSource;
+    private AudioPositionSource audioSource;
+
+    // Wall-clock anchor: media time anchorPtsUs was current at anchorNs
+    private boolean anchored = false;
+    private long anchorPtsUs;
+    private long anchorNs;
+
+    private boolean running = false;
+    private float speed = 1.0f;
+
+    // Diagnostics
+    private boolean audioMaster = false;
+    private long lastDriftUs = 0;
+    private long resyncCount = 0;
+
+    public PlaybackClock(TimeSource timeSource) {
+        this.timeSource = timeSource;
+    }
+
+    /**
+     * Attaches the audio master. Pass null for video-only playback.
+     */
+    public synchronized void setAudioSource(AudioPositionSource audioSource) {
+        this.audioSource = audioSource;
+    }
+
+    /**
+     * Drops the anchor, e.g. after a seek. The next presented sample re-anchors the clock.
+     */
+    public synchronized void reset() {
+        anchored = false;
+        audioMaster = false;
+        lastDriftUs = 0;
+    }
+
+    /**
+     * Anchors the clock at the given media time unless it is already anchored.
+     */
+    public synchronized void anchorIfUnset(long ptsUs) {
+        if (!anchored) {
+            anchorPtsUs = ptsUs;
+            anchorNs = timeSource.nanoTime();
+            anchored = true;
+        }
+    }
+
+    public synchronized boolean isAnchored() {
+        return anchored;
+    }
+
+    /**
+     * Freezes the clock at its current position.
+     */
+    public synchronized void pause() {
+        if (!running) {
+            return;
+        }
+        if (anchored) {
+            anchorPtsUs = positionLocked(timeSource.nanoTime());
+        }
+        running = false;
+    }
+
+    /**
+     * Restarts the clock from the position it was frozen at.
+     */
+    public synchronized void resume() {
+        if (running) {
+            return;
+        }
+        anchorNs = timeSource.nanoTime();
+        running = true;
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Changes the playback speed, re-anchoring so the position stays continuous.
+     */
+    public synchronized void setSpeed(float speed) {
+        if (anchored && running) {
+            long nowNs = timeSource.nanoTime();
+            anchorPtsUs = positionLocked(nowNs);
+            anchorNs = nowNs;
+        }
+        this.speed = speed;
+    }
+
+    public synchronized float getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Returns the current media position in microseconds or TIME_UNSET when not anchored.
+     */
+    public synchronized long getPositionUs() {
+        if (!anchored) {
+            return TIME_UNSET;
+        }
+        return positionLocked(timeSource.nanoTime());
+    }
+
+    /**
+     * Steers the clock towards the audio position. Drift within RESYNC_THRESHOLD_US is reduced by
+     * 1/SLEW_DIVISOR, so audio jitter does not reach the video schedule; larger drift jumps straight
+     * to the audio position. Called once per scheduled video frame, which keeps the correction rate
+     * independent of how often the position is read.
+     */
+    public synchronized void syncToAudio() {
+        audioMaster = false;
+        if (audioSource == null || !running || !anchored) {
+            return;
+        }
+        long nowNs = timeSource.nanoTime();
+        long audioUs = audioSource.getPositionUs(nowNs);
+        if (audioUs < 0) {
+            return;
+        }
+        audioMaster = true;
+        long driftUs = audioUs - positionLocked(nowNs);
+        lastDriftUs = driftUs;
+        if (Math.abs(driftUs) > RESYNC_THRESHOLD_US) {
+            anchorPtsUs = audioUs;
+            anchorNs = nowNs;
+            resyncCount++;
+            return;
+        }
+        anchorPtsUs += driftUs / SLEW_DIVISOR;
+    }
+
+    /**
+     * True when the last sync was steered by a valid audio position.
+     */
+    public synchronized boolean isAudioMaster() {
+        return audioMaster;
+    }
+
+    // Audio minus wall clock as measured by the last sync
+    public synchronized long getLastDriftUs() {
+        return lastDriftUs;
+    }
+
+    // Number of hard jumps to the audio position
+    public synchronized long getResyncCount() {
+        return resyncCount;
+    }
+
+    // Position on the wall clock since the anchor, without any side effect
+    private long positionLocked(long nowNs) {
+        if (!running) {
+            return anchorPtsUs;
+        }
+        return anchorPtsUs + (long) ((nowNs - anchorNs) / 1000 * (double) speed);
+    }
+}
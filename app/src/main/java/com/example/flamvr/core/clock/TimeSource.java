@@ -0,0 +1,12 @@
+package com.example.flamvr.core.clock;
+
+/**
+ * Monotonic nanosecond time source used by the playback clock.
+ * Injected so that clock drift and jitter can be simulated off-device.
+ */
+public interface TimeSource {
+    // Default source backed by the system monotonic clock
+    TimeSource SYSTEM = System::nanoTime;
+
+    long nanoTime();
+}
@@ -0,0 +1,103 @@
+package com.example.flamvr.core.clock;
+
+/**
+ * Predicts display vsync times from observed vsync timestamps (System.nanoTime timebase).
+ * The period is estimated with an exponential moving average of the observed intervals; intervals
+ * spanning several periods (missed callbacks) are divided by their period count, and gaps longer
+ * than MAX_GAP_PERIODS (e.g. after a pause) only re-phase the prediction.
+ * Thread safe: vsyncs are reported on the UI thread and predictions are made on decode threads.
+ */
+public class VsyncPredictor {
+
+    public static final long DEFAULT_PERIOD_NS = 16_666_667L;
+
+    // Observations used to lock on to the period before outliers are rejected
+    static final int WARMUP_SAMPLES = 4;
+
+    // Longer gaps between vsync reports carry no period information
+    static final int MAX_GAP_PERIODS = 8;
+
+    // Weight of a new interval in the moving average, as a divisor
+    private static final int SMOOTHING = 8;
+
+    private long periodNs;
+    private long lastVsyncNs = -1;
+    private int samples = 0;
+
+    // Statistics
+    private long vsyncs = 0;
+    private long rejected = 0;
+
+    public VsyncPredictor() {
+        this(DEFAULT_PERIOD_NS);
+    }
+
+    public VsyncPredictor(long initialPeriodNs) {
+        this.periodNs = initialPeriodNs;
+    }
+
+    /**
+     * Reports an observed vsync, e.g. Choreographer's frameTimeNanos.
+     */
+    public synchronized void onVsync(long vsyncNs) {
+        vsyncs++;
+        if (lastVsyncNs >= 0 && vsyncNs > lastVsyncNs) {
+            long deltaNs = vsyncNs - lastVsyncNs;
+            if (samples < WARMUP_SAMPLES) {
+                // Missed callbacks only lengthen intervals, so the shortest one is the best first guess
+                periodNs = samples == 0 ? deltaNs : Math.min(periodNs, deltaNs);
+                samples++;
+            } else {
+                long periods = Math.max(1, Math.round((double) deltaNs / periodNs));
+                long measuredNs = deltaNs / periods;
+                if (periods <= MAX_GAP_PERIODS && Math.abs(measuredNs - periodNs) < periodNs / 4) {
+                    periodNs += (measuredNs - periodNs) / SMOOTHING;
+                    samples++;
+                } else {
+                    rejected++;
+                }
+            }
+        }
+        lastVsyncNs = vsyncNs;
+    }
+
+    // Whether at least one vsync has been observed
+    public synchronized boolean hasTiming() {
+        return lastVsyncNs >= 0;
+    }
+
+    public synchronized long getPeriodNs() {
+        return periodNs;
+    }
+
+    /**
+     * Predicted vsync at or after timeNs.
+     */
+    public synchronized long nextVsyncAtOrAfter(long timeNs) {
+        if (lastVsyncNs < 0) {
+            return timeNs;
+        }
+        long periods = -Math.floorDiv(lastVsyncNs - timeNs, periodNs);
+        return lastVsyncNs + periods * periodNs;
+    }
+
+    /**
+     * Predicted vsync closest to timeNs.
+     */
+    public synchronized long nearestVsync(long timeNs) {
+        if (lastVsyncNs < 0) {
+            return timeNs;
+        }
+        long periods = Math.round((double) (timeNs - lastVsyncNs) / periodNs);
+        return lastVsyncNs + periods * periodNs;
+    }
+
+    public synchronized long getVsyncCount() {
+        return vsyncs;
+    }
+
+    // Intervals ignored as outliers or gaps
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+}
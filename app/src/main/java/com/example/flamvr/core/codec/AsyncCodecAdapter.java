@@ -0,0 +1,227 @@
+package com.example.flamvr.core.codec;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+/**
+ * Runs a MediaCodec in asynchronous mode on a dedicated HandlerThread (API 23+).
+ * Available input buffers and decoded output buffers are collected from the codec callbacks in
+ * arrival order, and the Client is invoked on the same thread whenever something changed, so it
+ * can feed and release buffers as events arrive instead of polling with timeouts.
+ * Callbacks issued before a flush are recognised and ignored, since their buffer indices are no
+ * longer valid. All methods except the constructor, start and quit must be called on the handler thread.
+ */
+public class AsyncCodecAdapter {
+    private static final String TAG = AsyncCodecAdapter.class.getSimpleName();
+
+    /**
+     * Reacts to codec events on the handler thread.
+     */
+    public interface Client {
+        void onCodecEvent();
+        void onCodecError(Exception e);
+    }
+
+    private final MediaCodec codec;
+    private final Client client;
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final Runnable pump;
+
+    // Free input buffer indices in arrival order
+    private int[] inputs = new int[16];
+    private int inputHead = 0;
+    private int inputCount = 0;
+
+    // Decoded output buffers in arrival order
+    private int[] outIndex = new int[16];
+    private int[] outOffset = new int[16];
+    private int[] outSize = new int[16];
+    private int[] outFlags = new int[16];
+    private long[] outPtsUs = new long[16];
+    private int outHead = 0;
+    private int outCount = 0;
+
+    // Flushes whose stale callbacks may still be queued on the handler
+    private int pendingFlushes = 0;
+
+    /**
+     * Creates the handler thread and installs the callback. Must be called before codec.configure.
+     */
+    public AsyncCodecAdapter(MediaCodec codec, String name, Client client) {
+        this.codec = codec;
+        this.client = client;
+        thread = new HandlerThread(name, android.os.Process.THREAD_PRIORITY_DISPLAY);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        pump = client::onCodecEvent;
+        codec.setCallback(new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(MediaCodec mc, int index) {
+                if (pendingFlushes > 0) {
+                    return;
+                }
+                pushInput(index);
+                client.onCodecEvent();
+            }
+
+            @Override
+            public void onOutputBufferAvailable(MediaCodec mc, int index, MediaCodec.BufferInfo info) {
+                if (pendingFlushes > 0) {
+                    return;
+                }
+                pushOutput(index, info);
+                client.onCodecEvent();
+            }
+
+            @Override
+            public void onError(MediaCodec mc, MediaCodec.CodecException e) {
+                client.onCodecError(e);
+            }
+
+            @Override
+            public void onOutputFormatChanged(MediaCodec mc, MediaFormat format) {
+                Log.d(TAG, "Output format changed: " + format);
+            }
+        }, handler);
+    }
+
+    // Starts the configured codec
+    public void start() {
+        codec.start();
+    }
+
+    /**
+     * Flushes the codec and resumes it. Queued buffers are forgotten and callbacks that were
+     * already posted for the old buffers are dropped.
+     */
+    public void flush() {
+        inputHead = inputCount = 0;
+        outHead = outCount = 0;
+        codec.flush();
+        // Everything posted to the looper before this marker belongs to the flushed session
+        pendingFlushes++;
+        handler.post(() -> pendingFlushes--);
+        // In asynchronous mode the codec only hands out input buffers again after start()
+        codec.start();
+    }
+
+    /**
+     * Runs the client again after delayMs, replacing a previously scheduled run.
+     */
+    public void schedule(long delayMs) {
+        handler.removeCallbacks(pump);
+        handler.postDelayed(pump, delayMs);
+    }
+
+    public void post(Runnable runnable) {
+        handler.post(runnable);
+    }
+
+    /**
+     * Stops the handler thread. The codec itself is stopped and released by its owner.
+     */
+    public void quit() {
+        handler.removeCallbacksAndMessages(null);
+        thread.quitSafely();
+    }
+
+    // ------------------------------------------------------------------ input buffers
+
+    public boolean hasInput() {
+        return inputCount > 0;
+    }
+
+    // Removes and returns the oldest free input buffer index
+    public int pollInput() {
+        int index = inputs[inputHead];
+        inputHead = (inputHead + 1) % inputs.length;
+        inputCount--;
+        return index;
+    }
+
+    // ------------------------------------------------------------------ output buffers
+
+    public boolean hasOutput() {
+        return outCount > 0;
+    }
+
+    public int getOutputIndex() {
+        return outIndex[outHead];
+    }
+
+    public int getOutputOffset() {
+        return outOffset[outHead];
+    }
+
+    public int getOutputSize() {
+        return outSize[outHead];
+    }
+
+    public int getOutputFlags() {
+        return outFlags[outHead];
+    }
+
+    public long getOutputPtsUs() {
+        return outPtsUs[outHead];
+    }
+
+    // Forgets the oldest output buffer after it has been released to the codec
+    public void consumeOutput() {
+        outHead = (outHead + 1) % outIndex.length;
+        outCount--;
+    }
+
+    private void pushInput(int index) {
+        if (inputCount == inputs.length) {
+            int[] grown = new int[inputs.length * 2];
+            for (int i = 0; i < inputCount; i++) {
+                grown[i] = inputs[(inputHead + i) % inputs.length];
+            }
+            inputs = grown;
+            inputHead = 0;
+        }
+        inputs[(inputHead + inputCount) % inputs.length] = index;
+        inputCount++;
+    }
+
+    private void pushOutput(int index, MediaCodec.BufferInfo info) {
+        if (outCount == outIndex.length) {
+            growOutputs();
+        }
+        int slot = (outHead + outCount) % outIndex.length;
+        outIndex[slot] = index;
+        outOffset[slot] = info.offset;
+        outSize[slot] = info.size;
+        outFlags[slot] = info.flags;
+        outPtsUs[slot] = info.presentationTimeUs;
+        outCount++;
+    }
+
+    // The codec decides how many buffers it has; grow once instead of guessing up front
+    private void growOutputs() {
+        int capacity = outIndex.length * 2;
+        int[] index = new int[capacity];
+        int[] offset = new int[capacity];
+        int[] size = new int[capacity];
+        int[] flags = new int[capacity];
+        long[] pts = new long[capacity];
+        for (int i = 0; i < outCount; i++) {
+            int from = (outHead + i) % outIndex.length;
+            index[i] = outIndex[from];
+            offset[i] = outOffset[from];
+            size[i] = outSize[from];
+            flags[i] = outFlags[from];
+            pts[i] = outPtsUs[from];
+        }
+        outIndex = index;
+        outOffset = offset;
+        outSize = size;
+        outFlags = flags;
+        outPtsUs = pts;
+        outHead = 0;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.flamvr.core.codec;
+
+/**
+ * Measures the time between queueing a sample into a codec and receiving the decoded buffer
+ * with the same presentation time. Keeps a small fixed ring of in-flight samples, so it does not
+ * allocate; samples still in flight when the ring wraps are not measured.
+ * Not thread safe: use it from the thread that drives the codec.
+ */
+public class CodecLatencyTracker {
+
+    // In-flight samples remembered; decoders hold far fewer than this
+    private static final int SLOTS = 64;
+
+    private final long[] ptsUs = new long[SLOTS];
+    private final long[] queuedNs = new long[SLOTS];
+    private int next = 0;
+
+    private long count = 0;
+    private long totalNs = 0;
+    private long maxNs = 0;
+
+    public void onQueued(long framePtsUs, long nowNs) {
+        ptsUs[next] = framePtsUs;
+        queuedNs[next] = nowNs;
+        next = (next + 1) % SLOTS;
+    }
+
+    public void onOutput(long framePtsUs, long nowNs) {
+        for (int i = 0; i < SLOTS; i++) {
+            if (queuedNs[i] != 0 && ptsUs[i] == framePtsUs) {
+                long latencyNs = nowNs - queuedNs[i];
+                queuedNs[i] = 0;
+                count++;
+                totalNs += latencyNs;
+                maxNs = Math.max(maxNs, latencyNs);
+                return;
+            }
+        }
+    }
+
+    // Forgets in-flight samples, e.g. after a codec flush
+    public void clear() {
+        for (int i = 0; i < SLOTS; i++) {
+            queuedNs[i] = 0;
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getAverageUs() {
+        return count == 0 ? 0 : totalNs / count / 1000;
+    }
+
+    public long getMaxUs() {
+        return maxNs / 1000;
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.flamvr.core.codec;
+
+/**
+ * How the decode loops drive MediaCodec.
+ * SYNC polls dequeueInputBuffer/dequeueOutputBuffer with timeouts on the decode threads,
+ * ASYNC reacts to MediaCodec.Callback events on a handler thread per codec (API 23+).
+ */
+public enum DecodeMode {
+    SYNC, ASYNC
+}
@@ -0,0 +1,124 @@
+package com.example.flamvr.core.command;
+
+import android.net.Uri;
+
+import com.example.flamvr.globals.FILTERS;
+import com.example.flamvr.globals.SeekMode;
+
+/**
+ * Typed playback command carried by the CommandBus.
+ * Seek, speed and filter commands only matter in their latest value, so a pending one is
+ * replaced by the next of the same type instead of queueing behind it.
+ */
+public final class Command {
+
+    public enum Type {
+        INITIATE(false),
+        PLAY(false),
+        PAUSE(false),
+        SEEK(true),
+        SPEED(true),
+        FILTER(true);
+
+        private final boolean coalesces;
+
+        Type(boolean coalesces) {
+            this.coalesces = coalesces;
+        }
+
+        // Whether a newer command of this type replaces a pending one
+        public boolean coalesces() {
+            return coalesces;
+        }
+    }
+
+    private final Type type;
+    private final Uri uri;
+    private final long positionUs;
+    private final SeekMode seekMode;
+    private final float speed;
+    private final FILTERS filter;
+    // System.nanoTime() at creation, for dispatch latency
+    private final long createdNs;
+
+    private Command(Type type, Uri uri, long positionUs, SeekMode seekMode, float speed, FILTERS filter) {
+        this.type = type;
+        this.uri = uri;
+        this.positionUs = positionUs;
+        this.seekMode = seekMode;
+        this.speed = speed;
+        this.filter = filter;
+        this.createdNs = System.nanoTime();
+    }
+
+    public static Command initiate(Uri uri) {
+        return new Command(Type.INITIATE, uri, 0, null, 0, null);
+    }
+
+    public static Command play() {
+        return new Command(Type.PLAY, null, 0, null, 0, null);
+    }
+
+    public static Command pause() {
+        return new Command(Type.PAUSE, null, 0, null, 0, null);
+    }
+
+    public static Command seek(long positionUs, SeekMode mode) {
+        return new Command(Type.SEEK, null, positionUs, mode, 0, null);
+    }
+
+    public static Command speed(float speed) {
+        return new Command(Type.SPEED, null, 0, null, speed, null);
+    }
+
+    public static Command filter(FILTERS filter) {
+        return new Command(Type.FILTER, null, 0, null, 0, filter);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    // File to open, INITIATE only
+    public Uri getUri() {
+        return uri;
+    }
+
+    // Seek target, SEEK only
+    public long getPositionUs() {
+        return positionUs;
+    }
+
+    public SeekMode getSeekMode() {
+        return seekMode;
+    }
+
+    // Playback speed multiplier, SPEED only
+    public float getSpeed() {
+        return speed;
+    }
+
+    public FILTERS getFilter() {
+        return filter;
+    }
+
+    public long getCreatedNs() {
+        return createdNs;
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case INITIATE:
+                return type + " " + uri;
+            case SEEK:
+                return type + " " + seekMode + " " + positionUs + " us";
+            case SPEED:
+                return type + " " + speed + "x";
+            case FILTER:
+                return type + " " + filter;
+            default:
+                return type.toString();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.flamvr.core.command;
+
+import com.example.flamvr.core.metrics.LogLinearHistogram;
+
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers playback commands to subscribers, each on its own executor through its own bounded
+ * queue, so a slow subscriber neither delays the others nor the caller. post() only takes each
+ * queue's lock for a few field updates and never waits for delivery.
+ * Coalescing commands (see Command.Type) replace a pending command of the same type in place.
+ * Subscribers without an executor share the bus's worker thread.
+ */
+public class CommandBus {
+
+    public interface Listener {
+        void onCommand(Command command);
+    }
+
+    // Pending commands per subscriber; posting to a full queue drops the command
+    public static final int DEFAULT_QUEUE_CAPACITY = 32;
+
+    private static final long MAX_LATENCY_US = 10_000_000L;
+    private static final long MAX_POST_NS = 100_000_000L;
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ExecutorService worker;
+    private final int queueCapacity;
+
+    // Time callers spend in post()
+    private final LogLinearHistogram postTimeNs = new LogLinearHistogram(MAX_POST_NS);
+    // Time from post() to the start of delivery, over all subscribers
+    private final LogLinearHistogram deliveryLatencyUs = new LogLinearHistogram(MAX_LATENCY_US);
+
+    public CommandBus() {
+        this(DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public CommandBus(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        worker = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "CommandBus");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Subscribes to the given command types, delivered on executor (the bus's worker if null).
+     */
+    public Subscription subscribe(Listener listener, Executor executor, EnumSet<Command.Type> types) {
+        Subscription subscription = new Subscription(listener, executor != null ? executor : worker, types, queueCapacity);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    public void unsubscribe(Subscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    /**
+     * Queues a command for every subscriber of its type.
+     * @return false if some subscriber's queue was full and the command was dropped for it.
+     */
+    public boolean post(Command command) {
+        long startNs = System.nanoTime();
+        boolean all = true;
+        for (Subscription subscription : subscriptions) {
+            if (subscription.types.contains(command.getType())) {
+                all &= subscription.offer(command);
+            }
+        }
+        postTimeNs.record(System.nanoTime() - startNs);
+        return all;
+    }
+
+    public LogLinearHistogram.Snapshot getPostTimeNs() {
+        return postTimeNs.snapshot();
+    }
+
+    public LogLinearHistogram.Snapshot getDeliveryLatencyUs() {
+        return deliveryLatencyUs.snapshot();
+    }
+
+    /**
+     * Stops the worker thread; commands still queued for it are not delivered.
+     */
+    public void release() {
+        worker.shutdownNow();
+    }
+
+    /**
+     * Queue and delivery of one subscriber.
+     */
+    public final class Subscription {
+        private final Listener listener;
+        private final Executor executor;
+        private final EnumSet<Command.Type> types;
+        private final int capacity;
+        private final Runnable drain = this::drain;
+
+        // Guarded by this
+        private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+        // Queued entry per coalescing type, null if none is pending
+        private final Entry[] pending = new Entry[Command.Type.values().length];
+        private boolean scheduled = false;
+
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong coalesced = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+
+        Subscription(Listener listener, Executor executor, EnumSet<Command.Type> types, int capacity) {
+            this.listener = listener;
+            this.executor = executor;
+            this.types = EnumSet.copyOf(types);
+            this.capacity = capacity;
+        }
+
+        boolean offer(Command command) {
+            int type = command.getType().ordinal();
+            synchronized (this) {
+                Entry entry = pending[type];
+                if (entry != null) {
+                    entry.command = command;
+                    coalesced.incrementAndGet();
+                    return true;
+                }
+                if (queue.size() >= capacity) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                entry = new Entry(command);
+                queue.add(entry);
+                if (command.getType().coalesces()) {
+                    pending[type] = entry;
+                }
+                if (scheduled) {
+                    return true;
+                }
+                scheduled = true;
+            }
+            executor.execute(drain);
+            return true;
+        }
+
+        // Delivers everything queued, outside the lock so posting continues meanwhile
+        private void drain() {
+            while (true) {
+                Command command;
+                synchronized (this) {
+                    Entry entry = queue.poll();
+                    if (entry == null) {
+                        scheduled = false;
+                        return;
+                    }
+                    command = entry.command;
+                    int type = command.getType().ordinal();
+                    if (pending[type] == entry) {
+                        pending[type] = null;
+                    }
+                }
+                deliveryLatencyUs.record((System.nanoTime() - command.getCreatedNs()) / 1000);
+                delivered.incrementAndGet();
+                listener.onCommand(command);
+            }
+        }
+
+        public long getDelivered() {
+            return delivered.get();
+        }
+
+        // Commands replaced by a newer one of the same type before delivery
+        public long getCoalesced() {
+            return coalesced.get();
+        }
+
+        public long getDropped() {
+            return dropped.get();
+        }
+    }
+
+    private static final class Entry {
+        Command command;
+
+        Entry(Command command) {
+            this.command = command;
+        }
+    }
+}
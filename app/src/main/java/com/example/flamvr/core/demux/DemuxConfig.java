@@ -0,0 +1,25 @@
+package com.example.flamvr.core.demux;
+
+/**
+ * Read-ahead limits for the demux stage, applied to every track queue.
+ */
+public class DemuxConfig {
+
+    // ~4 s of 30 fps video or ~2.8 s of AAC audio. Tracks share one reader, so each queue must
+    // cover the container's audio/video interleave distance or the fuller track blocks the other.
+    public static final DemuxConfig DEFAULT = new DemuxConfig(128, 16 * 1024 * 1024);
+
+    // Maximum number of compressed samples buffered per track
+    public final int queueDepth;
+
+    // Maximum number of compressed bytes buffered per track
+    public final long byteBudget;
+
+    public DemuxConfig(int queueDepth, long byteBudget) {
+        if (queueDepth <= 0 || byteBudget <= 0) {
+            throw new IllegalArgumentException("Queue depth and byte budget must be positive");
+        }
+        this.queueDepth = queueDepth;
+        this.byteBudget = byteBudget;
+    }
+}
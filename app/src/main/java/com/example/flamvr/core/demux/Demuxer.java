@@ -0,0 +1,235 @@
+package com.example.flamvr.core.demux;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import com.example.flamvr.core.trace.TraceRecorder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Demux stage: a dedicated thread reads compressed samples ahead from a single MediaExtractor
+ * and routes them to per-track SampleQueues, so the container is parsed and read once for all
+ * decoders and storage stalls do not reach them.
+ * Seeks are asynchronous, issued once for all tracks and tagged with a generation number;
+ * samples read before the latest seek carry an older generation and are skipped by
+ * SampleQueue.peek(long).
+ * The demuxer is reference counted so every decoder thread can release it when done.
+ */
+public class Demuxer {
+    private static final String TAG = Demuxer.class.getSimpleName();
+
+    // Scratch buffer size when the container does not report a maximum sample size
+    private static final int DEFAULT_MAX_SAMPLE_SIZE = 1024 * 1024;
+
+    // Park interval while all queues are full or the stream has ended
+    private static final long IDLE_PARK_NS = 5_000_000L;
+
+    private static final int TRACE_READ_SAMPLE = TraceRecorder.event("demux.readSampleData");
+    private static final int TRACE_QUEUE_FULL = TraceRecorder.event("demux.awaitSpace");
+    private static final int TRACE_SEEK = TraceRecorder.event("demux.seekTo");
+
+    private final MediaExtractor extractor;
+    private final DemuxConfig config;
+
+    // Queue per extractor track index, null for unselected tracks
+    private final SampleQueue[] queues;
+    // Whether the end-of-stream marker reached each queue in the current generation
+    private final boolean[] endOfStreamQueued;
+    // Tracks whose consumer went away; their samples are skipped instead of queued
+    private final AtomicIntegerArray disabledTracks;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private ByteBuffer scratch;
+
+    private Thread thread;
+    private volatile boolean released = false;
+
+    // Seek requested by the consumers; generation is bumped after the target is written
+    private volatile long seekTimeUs = 0;
+    private volatile int seekMode = MediaExtractor.SEEK_TO_PREVIOUS_SYNC;
+    private volatile long generation = 0;
+
+    public Demuxer(MediaExtractor extractor, DemuxConfig config) {
+        this.extractor = extractor;
+        this.config = config;
+        queues = new SampleQueue[extractor.getTrackCount()];
+        endOfStreamQueued = new boolean[queues.length];
+        disabledTracks = new AtomicIntegerArray(queues.length);
+    }
+
+    /**
+     * Selects a track for read-ahead and returns the queue it is delivered to.
+     * Must be called before start().
+     */
+    public SampleQueue addTrack(int trackIndex) {
+        extractor.selectTrack(trackIndex);
+        MediaFormat format = extractor.getTrackFormat(trackIndex);
+        int maxSampleSize = DEFAULT_MAX_SAMPLE_SIZE;
+        if (format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
+            maxSampleSize = Math.max(maxSampleSize, format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE));
+        }
+        if (scratch == null || scratch.capacity() < maxSampleSize) {
+            scratch = ByteBuffer.allocateDirect(maxSampleSize);
+        }
+        queues[trackIndex] = new SampleQueue(config);
+        return queues[trackIndex];
+    }
+
+    public SampleQueue getQueue(int trackIndex) {
+        return queues[trackIndex];
+    }
+
+    /**
+     * Stops delivering samples of a track, e.g. when its decoder failed to start,
+     * so a full queue nobody drains cannot block the other tracks.
+     */
+    public void disableTrack(int trackIndex) {
+        disabledTracks.set(trackIndex, 1);
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Adds a reference; every acquire must be matched by a release.
+     */
+    public void acquire() {
+        refCount.incrementAndGet();
+    }
+
+    /**
+     * Starts the read-ahead thread.
+     */
+    public void start() {
+        thread = new Thread(this::demuxLoop, "Demuxer");
+        thread.start();
+    }
+
+    /**
+     * Requests a seek. Samples read after the seek carry the given generation,
+     * which must be newer than the current one.
+     */
+    public synchronized void seekTo(long generation, long timeUs, int mode) {
+        if (generation <= this.generation) {
+            throw new IllegalArgumentException("Seek generation " + generation + " is not newer than " + this.generation);
+        }
+        seekTimeUs = timeUs;
+        seekMode = mode;
+        this.generation = generation;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    // Generation of the most recently requested seek
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Drops a reference. The last release stops the read-ahead thread and releases the extractor.
+     */
+    public void release() {
+        if (refCount.decrementAndGet() > 0) {
+            return;
+        }
+        released = true;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        extractor.release();
+    }
+
+    private void demuxLoop() {
+        long appliedGeneration = 0;
+        boolean endOfStream = false;
+        while (!released) {
+            long requested = generation;
+            if (requested != appliedGeneration) {
+                TraceRecorder.begin(TRACE_SEEK);
+                extractor.seekTo(seekTimeUs, seekMode);
+                TraceRecorder.end(TRACE_SEEK);
+                appliedGeneration = requested;
+                endOfStream = false;
+                Arrays.fill(endOfStreamQueued, false);
+            }
+            if (endOfStream) {
+                LockSupport.parkNanos(this, IDLE_PARK_NS);
+                continue;
+            }
+            int track = extractor.getSampleTrackIndex();
+            if (track < 0) {
+                endOfStream = signalEndOfStream(appliedGeneration);
+                continue;
+            }
+            SampleQueue queue = queues[track];
+            if (queue == null || disabledTracks.get(track) != 0) {
+                extractor.advance();
+                continue;
+            }
+            TraceRecorder.begin(TRACE_READ_SAMPLE);
+            int size = readSample();
+            TraceRecorder.end(TRACE_READ_SAMPLE);
+            if (size < 0) {
+                endOfStream = signalEndOfStream(appliedGeneration);
+                continue;
+            }
+            int flags = (extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0 ? SampleQueue.FLAG_SYNC : 0;
+            long ptsUs = extractor.getSampleTime();
+            // Wait for room; give up on the sample if a seek or release arrives meanwhile
+            boolean queued = false;
+            while (!released && generation == appliedGeneration && disabledTracks.get(track) == 0) {
+                scratch.position(0);
+                if (queue.offer(scratch, size, ptsUs, flags, appliedGeneration)) {
+                    queued = true;
+                    break;
+                }
+                TraceRecorder.begin(TRACE_QUEUE_FULL);
+                queue.awaitSpace(IDLE_PARK_NS);
+                TraceRecorder.end(TRACE_QUEUE_FULL);
+            }
+            if (queued) {
+                extractor.advance();
+            }
+        }
+        Log.d(TAG, "Demuxer thread ended");
+    }
+
+    // Reads the current sample into scratch, growing it if the sample does not fit
+    private int readSample() {
+        while (true) {
+            try {
+                scratch.clear();
+                return extractor.readSampleData(scratch, 0);
+            } catch (IllegalArgumentException e) {
+                scratch = ByteBuffer.allocateDirect(scratch.capacity() * 2);
+            }
+        }
+    }
+
+    // Pushes an end-of-stream marker into every queue; false while some queue is still full
+    private boolean signalEndOfStream(long currentGeneration) {
+        boolean all = true;
+        for (int i = 0; i < queues.length; i++) {
+            if (queues[i] == null || endOfStreamQueued[i] || disabledTracks.get(i) != 0) {
+                continue;
+            }
+            endOfStreamQueued[i] = queues[i].offerEndOfStream(currentGeneration);
+            all &= endOfStreamQueued[i];
+        }
+        if (!all) {
+            LockSupport.parkNanos(this, IDLE_PARK_NS);
+        }
+        return all;
+    }
+}
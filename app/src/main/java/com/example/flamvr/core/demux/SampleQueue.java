@@ -0,0 +1,277 @@
+package com.example.flamvr.core.demux;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free single-producer/single-consumer queue of compressed samples.
+ * Slots and their data buffers are preallocated and reused, growing only when a sample
+ * larger than any seen before arrives. The producer is the demux thread, the consumer
+ * the decoder feeding that track.
+ */
+public class SampleQueue {
+
+    // Sample flags
+    public static final int FLAG_SYNC = 1;
+    public static final int FLAG_END_OF_STREAM = 1 << 2;
+
+    /**
+     * One compressed sample. Owned by the consumer between peek() and release().
+     */
+    public static final class Sample {
+        private ByteBuffer data = ByteBuffer.allocateDirect(0);
+        private int size;
+        private long ptsUs;
+        private int flags;
+        private long generation;
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getPtsUs() {
+            return ptsUs;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        // Seek generation the sample was read in
+        public long getGeneration() {
+            return generation;
+        }
+
+        public boolean isEndOfStream() {
+            return (flags & FLAG_END_OF_STREAM) != 0;
+        }
+
+        public boolean isSync() {
+            return (flags & FLAG_SYNC) != 0;
+        }
+
+        /**
+         * Copies the sample payload into dst starting at dst's position.
+         */
+        public void copyTo(ByteBuffer dst) {
+            data.limit(size);
+            data.position(0);
+            dst.put(data);
+        }
+    }
+
+    private final Sample[] slots;
+    private final long byteBudget;
+
+    // Consumer and producer sequence numbers; slot index is sequence % slots.length
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    // Producer parked waiting for space
+    private volatile Thread waitingProducer = null;
+
+    // Run by the producer once a sample is queued while the consumer is waiting for one
+    private volatile Runnable sampleListener = null;
+    private final AtomicBoolean consumerWaiting = new AtomicBoolean();
+
+    // Presentation time of the newest sample offered, i.e. how far the stream is read ahead
+    private volatile long newestPtsUs = 0;
+
+    // Metrics
+    private volatile int highWaterMark = 0;
+    private volatile long emptyPolls = 0;
+    private volatile long slotAllocations = 0;
+
+    public SampleQueue(int depth, long byteBudget) {
+        slots = new Sample[depth];
+        for (int i = 0; i < depth; i++) {
+            slots[i] = new Sample();
+        }
+        this.byteBudget = byteBudget;
+    }
+
+    public SampleQueue(DemuxConfig config) {
+        this(config.queueDepth, config.byteBudget);
+    }
+
+    // ---------------------------------------------------------------- producer side
+
+    /**
+     * True if a sample of the given size would currently be accepted.
+     * A single sample is always accepted into an empty queue, even above the byte budget.
+     */
+    public boolean canAccept(int size) {
+        long t = tail.get();
+        long h = head.get();
+        if (t - h >= slots.length) {
+            return false;
+        }
+        return t == h || bytes.get() + size <= byteBudget;
+    }
+
+    /**
+     * Copies size bytes from src (starting at its position) into the next free slot.
+     * @return false if the queue is full or over budget.
+     */
+    public boolean offer(ByteBuffer src, int size, long ptsUs, int flags, long generation) {
+        if (!canAccept(size)) {
+            return false;
+        }
+        long t = tail.get();
+        Sample sample = slots[(int) (t % slots.length)];
+        if (sample.data.capacity() < size) {
+            sample.data = ByteBuffer.allocateDirect(Integer.highestOneBit(Math.max(size - 1, 1)) << 1);
+            slotAllocations++;
+        }
+        sample.data.clear();
+        if (size > 0) {
+            int srcLimit = src.limit();
+            src.limit(src.position() + size);
+            sample.data.put(src);
+            src.limit(srcLimit);
+        }
+        sample.size = size;
+        sample.ptsUs = ptsUs;
+        sample.flags = flags;
+        sample.generation = generation;
+        bytes.addAndGet(size);
+        // Publish the slot to the consumer; a full store, so a waiting consumer is seen below
+        tail.set(t + 1);
+        if (consumerWaiting.get() && consumerWaiting.getAndSet(false)) {
+            Runnable listener = sampleListener;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+        if ((flags & FLAG_END_OF_STREAM) == 0) {
+            newestPtsUs = ptsUs;
+        }
+        int occupancy = (int) (t + 1 - head.get());
+        if (occupancy > highWaterMark) {
+            highWaterMark = occupancy;
+        }
+        return true;
+    }
+
+    /**
+     * Queues an end-of-stream marker.
+     */
+    public boolean offerEndOfStream(long generation) {
+        return offer(null, 0, 0, FLAG_END_OF_STREAM, generation);
+    }
+
+    /**
+     * Parks the calling producer until the consumer frees a slot or the timeout elapses.
+     */
+    public void awaitSpace(long timeoutNs) {
+        waitingProducer = Thread.currentThread();
+        if (!canAccept(0)) {
+            LockSupport.parkNanos(this, timeoutNs);
+        }
+        waitingProducer = null;
+    }
+
+    // ---------------------------------------------------------------- consumer side
+
+    /**
+     * Sets what the producer runs, on its thread, when a sample arrives after requestSampleSignal().
+     */
+    public void setSampleListener(Runnable listener) {
+        sampleListener = listener;
+    }
+
+    /**
+     * Asks for the sample listener to run once the next sample is queued.
+     * @return false, without arming the listener, if a sample is already buffered.
+     */
+    public boolean requestSampleSignal() {
+        consumerWaiting.set(true);
+        if (head.get() != tail.get()) {
+            consumerWaiting.set(false);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the oldest sample without removing it, or null if the queue is empty.
+     */
+    public Sample peek() {
+        long h = head.get();
+        if (h == tail.get()) {
+            emptyPolls++;
+            return null;
+        }
+        return slots[(int) (h % slots.length)];
+    }
+
+    /**
+     * Returns the oldest sample of the given seek generation, releasing stale samples
+     * read before that seek. Null if no such sample is buffered yet, or if the next one
+     * belongs to a newer seek the consumer has not applied yet; that one is kept for it.
+     */
+    public Sample peek(long generation) {
+        Sample sample = peek();
+        while (sample != null && sample.generation < generation) {
+            release();
+            sample = peek();
+        }
+        return sample != null && sample.generation == generation ? sample : null;
+    }
+
+    /**
+     * Removes the sample returned by the last peek.
+     */
+    public void release() {
+        long h = head.get();
+        Sample sample = slots[(int) (h % slots.length)];
+        bytes.addAndGet(-sample.size);
+        head.lazySet(h + 1);
+        Thread producer = waitingProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+    }
+
+    // ---------------------------------------------------------------- metrics
+
+    // Number of buffered samples
+    public int getOccupancy() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public long getBufferedBytes() {
+        return bytes.get();
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    public long getByteBudget() {
+        return byteBudget;
+    }
+
+    // Presentation time of the newest sample offered so far
+    public long getNewestPtsUs() {
+        return newestPtsUs;
+    }
+
+    // Largest occupancy seen since creation
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    // Consumer polls that found the queue empty
+    public long getEmptyPolls() {
+        return emptyPolls;
+    }
+
+    // Slot buffer (re)allocations, constant once the largest sample size has been seen
+    public long getSlotAllocations() {
+        return slotAllocations;
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.flamvr.core.filter;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Pure-Java implementation of the built-in filter passes over packed ARGB int frames.
+ * Follows the same plan as the GPU path (FilterGraph.compile), so point passes are fused into one
+ * sweep and only neighborhood passes read a full intermediate frame. Each stage is split into bands
+ * of TILE_ROWS rows processed on a ForkJoinPool. Tasks and scratch frames are kept between calls,
+ * so processing a frame of an unchanged size and graph allocates nothing.
+ * Matches the GLSL within sampling precision: neighborhood reads use nearest, clamp-to-edge sampling.
+ * Not thread-safe, one frame at a time.
+ */
+public class CpuFilterEngine {
+
+    // Rows per parallel task
+    public static final int TILE_ROWS = 32;
+
+    // Opcodes of the point passes with a CPU implementation
+    private static final int OP_LUMINANCE = 0;
+    private static final int OP_DITHER = 1;
+
+    private static final float[] BAYER_4X4 = {
+            0 / 16f, 8 / 16f, 2 / 16f, 10 / 16f,
+            12 / 16f, 4 / 16f, 14 / 16f, 6 / 16f,
+            3 / 16f, 11 / 16f, 1 / 16f, 9 / 16f,
+            15 / 16f, 7 / 16f, 13 / 16f, 5 / 16f
+    };
+
+    private final ForkJoinPool pool;
+
+    // Plan of the current graph: per stage, whether it starts with SKETCH and its point opcodes
+    private FilterGraph graph;
+    private boolean[] stageSketch = new boolean[0];
+    private int[][] stageOps = new int[0][];
+
+    // Frame being processed and the stage currently running
+    private int[] stageSrc;
+    private int[] stageDst;
+    private int width;
+    private int height;
+    private int stage;
+
+    // Band tasks, reinitialized for every stage
+    private Band[] bands = new Band[0];
+    // Intermediate frames for multi-stage graphs
+    private int[] scratchA = new int[0];
+    private int[] scratchB = new int[0];
+
+    // Statistics
+    private long lastFrameNs = 0;
+    private long lastPixels = 0;
+    private long totalFrameNs = 0;
+    private long totalPixels = 0;
+
+    public CpuFilterEngine(int parallelism) {
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    public CpuFilterEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Applies graph to src and writes the result to dst, both packed ARGB of width * height.
+     * src and dst must not be the same array.
+     * @throws IllegalArgumentException if a pass has no CPU implementation.
+     */
+    public void process(FilterGraph graph, int[] src, int[] dst, int width, int height) {
+        int pixels = width * height;
+        if (src.length < pixels || dst.length < pixels || src == dst) {
+            throw new IllegalArgumentException("Bad frame buffers for " + width + "x" + height);
+        }
+        long startNs = System.nanoTime();
+        if (graph != this.graph) {
+            plan(graph);
+        }
+        prepare(width, height);
+        int stages = stageOps.length;
+        int[] input = src;
+        for (stage = 0; stage < stages; stage++) {
+            int[] output = stage == stages - 1 ? dst : (stage % 2 == 0 ? scratchA : scratchB);
+            stageSrc = input;
+            stageDst = output;
+            // Completed tasks keep their state, reset them instead of allocating new ones
+            root.reinitialize();
+            for (Band band : bands) {
+                band.reinitialize();
+            }
+            pool.invoke(root);
+            input = output;
+        }
+        lastFrameNs = System.nanoTime() - startNs;
+        lastPixels = pixels;
+        totalFrameNs += lastFrameNs;
+        totalPixels += pixels;
+    }
+
+    // Turns the compiled stages into opcodes; only done when the graph changes
+    private void plan(FilterGraph graph) {
+        List<FilterGraph.Stage> stages = graph.compile();
+        boolean[] sketch = new boolean[stages.size()];
+        int[][] ops = new int[stages.size()][];
+        for (int s = 0; s < stages.size(); s++) {
+            List<FilterPass> passes = stages.get(s).getPasses();
+            int first = 0;
+            if (!passes.isEmpty() && passes.get(0).getKind() == FilterPass.Kind.NEIGHBORHOOD) {
+                if (!FilterPass.SKETCH.getName().equals(passes.get(0).getName())) {
+                    throw new IllegalArgumentException("No CPU implementation of " + passes.get(0));
+                }
+                sketch[s] = true;
+                first = 1;
+            }
+            ops[s] = new int[passes.size() - first];
+            for (int i = first; i < passes.size(); i++) {
+                String name = passes.get(i).getName();
+                if (FilterPass.LUMINANCE.getName().equals(name)) {
+                    ops[s][i - first] = OP_LUMINANCE;
+                } else if (FilterPass.DITHER.getName().equals(name)) {
+                    ops[s][i - first] = OP_DITHER;
+                } else {
+                    throw new IllegalArgumentException("No CPU implementation of " + name);
+                }
+            }
+        }
+        this.graph = graph;
+        stageSketch = sketch;
+        stageOps = ops;
+    }
+
+    // Sizes tasks and scratch frames; only allocates when the frame size grows
+    private void prepare(int width, int height) {
+        this.width = width;
+        this.height = height;
+        int bandCount = (height + TILE_ROWS - 1) / TILE_ROWS;
+        if (bands.length != bandCount) {
+            bands = new Band[bandCount];
+            for (int i = 0; i < bandCount; i++) {
+                bands[i] = new Band(i * TILE_ROWS);
+            }
+        }
+        if (stageOps.length > 1 && scratchA.length < width * height) {
+            scratchA = new int[width * height];
+            scratchB = stageOps.length > 2 ? new int[width * height] : scratchB;
+        } else if (stageOps.length > 2 && scratchB.length < width * height) {
+            scratchB = new int[width * height];
+        }
+    }
+
+    // Root task forking all bands of the current stage
+    private final RecursiveAction root = new RecursiveAction() {
+        @Override
+        protected void compute() {
+            ForkJoinTask.invokeAll(bands);
+        }
+    };
+
+    /**
+     * Rows [firstRow, firstRow + TILE_ROWS) of the current stage.
+     */
+    private final class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int firstRow;
+
+        Band(int firstRow) {
+            this.firstRow = firstRow;
+        }
+
+        @Override
+        protected void compute() {
+            processRows(firstRow, Math.min(firstRow + TILE_ROWS, height));
+        }
+    }
+
+    private void processRows(int firstRow, int endRow) {
+        int[] src = stageSrc;
+        int[] dst = stageDst;
+        int[] ops = stageOps[stage];
+        boolean sketch = stageSketch[stage];
+        int w = width;
+        int h = height;
+        for (int y = firstRow; y < endRow; y++) {
+            float v = (y + 0.5f) / h;
+            int row = y * w;
+            // Rows of the sketch taps, one 1/512 texel step apart
+            int above = clamp((int) ((v - 1 / 512f) * h), h) * w;
+            int center = clamp((int) (v * h), h) * w;
+            int below = clamp((int) ((v + 1 / 512f) * h), h) * w;
+            for (int x = 0; x < w; x++) {
+                float u = (x + 0.5f) / w;
+                float r;
+                float g;
+                float b;
+                if (sketch) {
+                    int left = clamp((int) ((u - 1 / 512f) * w), w);
+                    int right = clamp((int) ((u + 1 / 512f) * w), w);
+                    r = g = b = sketch(src, above, center, below, left, x, right);
+                } else {
+                    int argb = src[row + x];
+                    r = ((argb >> 16) & 0xFF) / 255f;
+                    g = ((argb >> 8) & 0xFF) / 255f;
+                    b = (argb & 0xFF) / 255f;
+                }
+                for (int op : ops) {
+                    if (op == OP_LUMINANCE) {
+                        r = g = b = 0.2126f * r + 0.7152f * g + 0.0722f * b;
+                    } else {
+                        int px = ((int) Math.floor(u * 800f)) & 3;
+                        // GL texture coordinates run bottom to top
+                        int py = ((int) Math.floor((1f - v) * 600f)) & 3;
+                        r = g = b = r > BAYER_4X4[px + py * 4] ? 1f : 0f;
+                    }
+                }
+                dst[row + x] = 0xFF000000 | (toByte(r) << 16) | (toByte(g) << 8) | toByte(b);
+            }
+        }
+    }
+
+    // Sobel edge strength from the 3x3 taps at the given row offsets and columns, as in the sketch pass
+    private static float sketch(int[] src, int above, int center, int below, int left, int middle, int right) {
+        float tl = gray(src[above + left]);
+        float tc = gray(src[above + middle]);
+        float tr = gray(src[above + right]);
+        float cl = gray(src[center + left]);
+        float cr = gray(src[center + right]);
+        float bl = gray(src[below + left]);
+        float bc = gray(src[below + middle]);
+        float br = gray(src[below + right]);
+        float edgeX = (tr - tl) + 2f * (cr - cl) + (br - bl);
+        float edgeY = (bl - tl) + 2f * (bc - tc) + (br - tr);
+        float edge = 1f - (float) Math.sqrt(edgeX * edgeX + edgeY * edgeY);
+        // smoothstep(0.2, 0.8, edge)
+        float t = Math.min(Math.max((edge - 0.2f) / 0.6f, 0f), 1f);
+        return t * t * (3f - 2f * t);
+    }
+
+    private static float gray(int argb) {
+        return (0.299f * ((argb >> 16) & 0xFF) + 0.587f * ((argb >> 8) & 0xFF) + 0.114f * (argb & 0xFF)) * (1f / 255f);
+    }
+
+    private static int clamp(int i, int size) {
+        return i < 0 ? 0 : (i >= size ? size - 1 : i);
+    }
+
+    private static int toByte(float c) {
+        return Math.round(Math.min(Math.max(c, 0f), 1f) * 255f);
+    }
+
+    /**
+     * Shuts the worker threads down.
+     */
+    public void release() {
+        pool.shutdown();
+    }
+
+    // Throughput of the last frame
+    public double getLastMegapixelsPerSecond() {
+        return lastFrameNs == 0 ? 0 : lastPixels * 1000.0 / lastFrameNs;
+    }
+
+    // Throughput over all frames processed so far
+    public double getMegapixelsPerSecond() {
+        return totalFrameNs == 0 ? 0 : totalPixels * 1000.0 / totalFrameNs;
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.flamvr.core.filter;
+
+import com.example.flamvr.globals.FILTERS;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered chain of FilterPasses applied to the video frame.
+ * compile() turns the chain into the draws that actually run: every POINT pass is fused into the
+ * stage before it, so a new stage (and an offscreen texture round trip) only starts at a
+ * NEIGHBORHOOD pass that is not first. Pure Java so the plan can be checked without a GPU.
+ */
+public class FilterGraph {
+
+    private final List<FilterPass> passes = new ArrayList<>();
+    private boolean fusionEnabled = true;
+
+    public FilterGraph add(FilterPass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    public List<FilterPass> getPasses() {
+        return Collections.unmodifiableList(passes);
+    }
+
+    /**
+     * With fusion disabled every pass gets its own stage, for comparison only.
+     */
+    public FilterGraph setFusionEnabled(boolean enabled) {
+        fusionEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Graph of one of the preset filters selectable from the UI.
+     */
+    public static FilterGraph forFilter(int filterId) {
+        FilterGraph graph = new FilterGraph();
+        switch (FILTERS.values()[filterId]) {
+            case FILTER1:
+                graph.add(FilterPass.LUMINANCE);
+                break;
+            case FILTER2:
+                graph.add(FilterPass.LUMINANCE).add(FilterPass.DITHER);
+                break;
+            case FILTER3:
+                graph.add(FilterPass.SKETCH);
+                break;
+            default:
+                break;
+        }
+        return graph;
+    }
+
+    /**
+     * Splits the chain into stages. The first stage reads the external video texture, the last one
+     * draws to the screen; an empty graph compiles to a single pass-through stage.
+     */
+    public List<Stage> compile() {
+        return compile(false);
+    }
+
+    /**
+     * True if the graph has a pass reading several input pixels, the ones worth rendering at a
+     * reduced scale.
+     */
+    public boolean isCostly() {
+        for (FilterPass pass : passes) {
+            if (pass.getKind() == FilterPass.Kind.NEIGHBORHOOD) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copy of this graph without its costly passes, for when the device cannot keep up.
+     */
+    public FilterGraph reduced() {
+        FilterGraph graph = new FilterGraph().setFusionEnabled(fusionEnabled);
+        for (FilterPass pass : passes) {
+            if (pass.getKind() != FilterPass.Kind.NEIGHBORHOOD) {
+                graph.add(pass);
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Like compile(), with scaled true every stage renders offscreen and a final pass-through stage
+     * upscales the result to the screen.
+     */
+    public List<Stage> compile(boolean scaled) {
+        List<List<FilterPass>> groups = new ArrayList<>();
+        List<FilterPass> current = new ArrayList<>();
+        for (FilterPass pass : passes) {
+            boolean split = !fusionEnabled || pass.getKind() == FilterPass.Kind.NEIGHBORHOOD;
+            if (split && !current.isEmpty()) {
+                groups.add(current);
+                current = new ArrayList<>();
+            }
+            current.add(pass);
+        }
+        groups.add(current);
+        if (scaled) {
+            groups.add(new ArrayList<>());
+        }
+        List<Stage> stages = new ArrayList<>(groups.size());
+        for (int i = 0; i < groups.size(); i++) {
+            stages.add(new Stage(groups.get(i), i == 0, i == groups.size() - 1));
+        }
+        return stages;
+    }
+
+    /**
+     * One draw of a compiled graph with its generated fragment shader.
+     */
+    public static final class Stage {
+
+        private final List<FilterPass> passes;
+        private final boolean externalInput;
+        private final boolean screenOutput;
+        private final String fragmentSource;
+        private final String key;
+
+        Stage(List<FilterPass> passes, boolean externalInput, boolean screenOutput) {
+            this.passes = Collections.unmodifiableList(passes);
+            this.externalInput = externalInput;
+            this.screenOutput = screenOutput;
+            StringBuilder sb = new StringBuilder(externalInput ? "oes" : "2d");
+            for (FilterPass pass : passes) {
+                sb.append('+').append(pass.getName());
+            }
+            key = sb.toString();
+            fragmentSource = generate();
+        }
+
+        private String generate() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("#version 310 es\n");
+            if (externalInput) {
+                sb.append("#extension GL_OES_EGL_image_external_essl3 : require\n");
+            }
+            sb.append("precision mediump float;\n\n");
+            sb.append("in vec2 vTexCoord;\n");
+            sb.append("out vec4 outColor;\n\n");
+            if (externalInput) {
+                sb.append("uniform samplerExternalOES uTexture;\n");
+                sb.append("vec4 sampleInput(vec2 uv) {\n    return texture(uTexture, uv);\n}\n\n");
+            } else {
+                // Offscreen textures are stored upright, only the video needs SurfaceTexture's transform
+                sb.append("uniform sampler2D uTexture;\n");
+                sb.append("vec4 sampleInput(vec2 uv) {\n    return texture(uTexture, uv);\n}\n\n");
+            }
+            List<String> declared = new ArrayList<>();
+            for (FilterPass pass : passes) {
+                if (!declared.contains(pass.getName())) {
+                    declared.add(pass.getName());
+                    sb.append(pass.getSource()).append('\n');
+                }
+            }
+            sb.append("void main() {\n");
+            int first = 0;
+            if (!passes.isEmpty() && passes.get(0).getKind() == FilterPass.Kind.NEIGHBORHOOD) {
+                sb.append("    vec4 color = ").append(passes.get(0).getName()).append("(vTexCoord);\n");
+                first = 1;
+            } else {
+                sb.append("    vec4 color = sampleInput(vTexCoord);\n");
+            }
+            for (int i = first; i < passes.size(); i++) {
+                sb.append("    color = ").append(passes.get(i).getName()).append("(color, vTexCoord);\n");
+            }
+            sb.append("    outColor = color;\n");
+            sb.append("}\n");
+            return sb.toString();
+        }
+
+        public List<FilterPass> getPasses() {
+            return passes;
+        }
+
+        // True if the stage reads the SurfaceTexture, false if it reads the previous stage's texture
+        public boolean hasExternalInput() {
+            return externalInput;
+        }
+
+        // True if the stage draws to the screen, false if it renders into an offscreen texture
+        public boolean hasScreenOutput() {
+            return screenOutput;
+        }
+
+        public String getFragmentSource() {
+            return fragmentSource;
+        }
+
+        // Identifies the generated shader, equal keys mean equal sources
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public String toString() {
+            return key;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.flamvr.core.filter;
+
+/**
+ * One step of a FilterGraph, described by a GLSL snippet.
+ * A POINT pass declares {@code vec4 <name>(vec4 color, vec2 uv)} and only transforms the color of
+ * its own pixel, so any number of them can be folded into the pass before them.
+ * A NEIGHBORHOOD pass declares {@code vec4 <name>(vec2 uv)} and reads its input through
+ * {@code sampleInput(uv)} at arbitrary offsets, so it needs the previous pass fully rendered.
+ */
+public final class FilterPass {
+
+    public enum Kind {
+        POINT, NEIGHBORHOOD
+    }
+
+    public static final FilterPass LUMINANCE = point("luminance",
+            "vec4 luminance(vec4 color, vec2 uv) {\n"
+            + "    return vec4(vec3(dot(vec3(0.2126, 0.7152, 0.0722), color.rgb)), 1.0);\n"
+            + "}\n");
+
+    // Ordered 4x4 Bayer threshold on the red channel, meant to follow LUMINANCE
+    public static final FilterPass DITHER = point("dither",
+            "const float bayer4x4[16] = float[16](\n"
+            + "    0.0/16.0,  8.0/16.0,  2.0/16.0, 10.0/16.0,\n"
+            + "   12.0/16.0,  4.0/16.0, 14.0/16.0,  6.0/16.0,\n"
+            + "    3.0/16.0, 11.0/16.0,  1.0/16.0,  9.0/16.0,\n"
+            + "   15.0/16.0,  7.0/16.0, 13.0/16.0,  5.0/16.0\n"
+            + ");\n"
+            + "vec4 dither(vec4 color, vec2 uv) {\n"
+            + "    ivec2 p = ivec2(mod(floor(uv * vec2(800.0, 600.0)), 4.0));\n"
+            + "    float threshold = bayer4x4[p.x + p.y * 4];\n"
+            + "    return vec4(vec3(color.r > threshold ? 1.0 : 0.0), 1.0);\n"
+            + "}\n");
+
+    // Sobel edge detection rendered as dark lines on white
+    public static final FilterPass SKETCH = neighborhood("sketch",
+            "vec4 sketch(vec2 uv) {\n"
+            + "    vec2 texel = vec2(1.0 / 512.0, 1.0 / 512.0);\n"
+            + "    float gx[9] = float[9](-1.0, 0.0, 1.0, -2.0, 0.0, 2.0, -1.0, 0.0, 1.0);\n"
+            + "    float gy[9] = float[9](-1.0, -2.0, -1.0, 0.0, 0.0, 0.0, 1.0, 2.0, 1.0);\n"
+            + "    float edgeX = 0.0;\n"
+            + "    float edgeY = 0.0;\n"
+            + "    int i = 0;\n"
+            + "    for (int y = -1; y <= 1; y++) {\n"
+            + "        for (int x = -1; x <= 1; x++) {\n"
+            + "            vec3 sampleColor = sampleInput(uv + vec2(float(x), float(y)) * texel).rgb;\n"
+            + "            float gray = dot(sampleColor, vec3(0.299, 0.587, 0.114));\n"
+            + "            edgeX += gray * gx[i];\n"
+            + "            edgeY += gray * gy[i];\n"
+            + "            i++;\n"
+            + "        }\n"
+            + "    }\n"
+            + "    float edge = smoothstep(0.2, 0.8, 1.0 - length(vec2(edgeX, edgeY)));\n"
+            + "    return vec4(vec3(edge), 1.0);\n"
+            + "}\n");
+
+    private final String name;
+    private final Kind kind;
+    private final String source;
+
+    private FilterPass(String name, Kind kind, String source) {
+        if (!name.matches("[a-z][A-Za-z0-9]*")) {
+            throw new IllegalArgumentException("Pass name must be a GLSL identifier: " + name);
+        }
+        this.name = name;
+        this.kind = kind;
+        this.source = source;
+    }
+
+    /**
+     * A per-pixel pass. source must declare {@code vec4 <name>(vec4 color, vec2 uv)}.
+     */
+    public static FilterPass point(String name, String source) {
+        return new FilterPass(name, Kind.POINT, source);
+    }
+
+    /**
+     * A pass reading several input pixels. source must declare {@code vec4 <name>(vec2 uv)}.
+     */
+    public static FilterPass neighborhood(String name, String source) {
+        return new FilterPass(name, Kind.NEIGHBORHOOD, source);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    // GLSL declarations of the pass, including its entry function
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
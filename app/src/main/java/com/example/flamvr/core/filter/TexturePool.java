@@ -0,0 +1,115 @@
+package com.example.flamvr.core.filter;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pool of intermediate render targets keyed by size.
+ * Stages acquire a target for their output and release the one they read from, so a chain of any
+ * length ping-pongs between two targets. Allocation is delegated so the pool itself holds no GL code.
+ * @param <T> render target type, e.g. a texture and its framebuffer.
+ */
+public class TexturePool<T> {
+
+    /**
+     * Creates and deletes targets, called on the thread using the pool.
+     */
+    public interface Allocator<T> {
+        T allocate(int width, int height);
+
+        void free(T target);
+    }
+
+    private final Allocator<T> allocator;
+    // Free targets by packed size
+    private final Map<Long, ArrayDeque<T>> free = new HashMap<>();
+    // Size of every target handed out by this pool
+    private final Map<T, Long> sizes = new HashMap<>();
+
+    // Statistics
+    private long allocations = 0;
+    private long reuses = 0;
+
+    public TexturePool(Allocator<T> allocator) {
+        this.allocator = allocator;
+    }
+
+    private static long sizeKey(int width, int height) {
+        return ((long) width << 32) | (height & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns a free target of the given size, allocating one if none is left.
+     */
+    public T acquire(int width, int height) {
+        long key = sizeKey(width, height);
+        ArrayDeque<T> targets = free.get(key);
+        if (targets != null && !targets.isEmpty()) {
+            reuses++;
+            return targets.pop();
+        }
+        T target = allocator.allocate(width, height);
+        sizes.put(target, key);
+        allocations++;
+        return target;
+    }
+
+    /**
+     * Returns a target to the pool; its content may be overwritten by the next acquire.
+     */
+    public void release(T target) {
+        Long key = sizes.get(target);
+        if (key == null) {
+            throw new IllegalArgumentException("Target not from this pool");
+        }
+        ArrayDeque<T> targets = free.get(key);
+        if (targets == null) {
+            targets = new ArrayDeque<>();
+            free.put(key, targets);
+        }
+        targets.push(target);
+    }
+
+    /**
+     * Frees every target not of the given size, e.g. after the output was resized.
+     */
+    public void trimToSize(int width, int height) {
+        long keep = sizeKey(width, height);
+        for (Map.Entry<Long, ArrayDeque<T>> entry : free.entrySet()) {
+            if (entry.getKey() != keep) {
+                for (T target : entry.getValue()) {
+                    sizes.remove(target);
+                    allocator.free(target);
+                }
+                entry.getValue().clear();
+            }
+        }
+    }
+
+    /**
+     * Forgets all targets. With freeTargets false they are not deleted, for when the context
+     * owning them is already gone.
+     */
+    public void clear(boolean freeTargets) {
+        if (freeTargets) {
+            for (ArrayDeque<T> targets : free.values()) {
+                for (T target : targets) {
+                    allocator.free(target);
+                }
+            }
+        }
+        free.clear();
+        sizes.clear();
+    }
+
+    // Targets allocated over the lifetime of the pool
+    public long getAllocations() {
+        return allocations;
+    }
+
+    // Acquires served by a free target
+    public long getReuses() {
+        return reuses;
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.flamvr.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket histogram of non-negative values with log-linear buckets: values below
+ * SUB_BUCKETS get a bucket each, above that every power of two is split into SUB_BUCKETS equal
+ * buckets, so the relative error stays below 1/SUB_BUCKETS over the whole range.
+ * Recording is lock-free and allocation-free and safe from any thread; snapshot() copies the
+ * counts for reading.
+ */
+public class LogLinearHistogram {
+
+    static final int SUB_BUCKET_BITS = 4;
+    // Linear buckets per power of two
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long maxValue;
+    private final AtomicLongArray counts;
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param maxValue largest value told apart; larger values are counted in the last bucket.
+     */
+    public LogLinearHistogram(long maxValue) {
+        if (maxValue < SUB_BUCKETS) {
+            maxValue = SUB_BUCKETS;
+        }
+        this.maxValue = maxValue;
+        counts = new AtomicLongArray(bucketOf(maxValue) + 1);
+    }
+
+    /**
+     * Records a value; negative values are counted as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketOf(Math.min(value, maxValue)));
+        sum.addAndGet(value);
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        sum.set(0);
+        max.set(0);
+    }
+
+    public int getBucketCount() {
+        return counts.length();
+    }
+
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * Copies the current counts. Values recorded meanwhile may be partly included.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, sum.get(), max.get());
+    }
+
+    // Bucket of a value in [0, maxValue]
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    // Smallest value counted in a bucket
+    static long bucketLowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    // Largest value counted in a bucket
+    static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        return bucketLowerBound(bucket) + (1L << (bucket / SUB_BUCKETS - 1)) - 1;
+    }
+
+    /**
+     * Immutable copy of a histogram.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * Upper bound of the bucket holding the value at the given percentile (0-100), capped at the
+         * largest recorded value; 0 if nothing was recorded. The last bucket also holds every value
+         * above maxValue, so it reports the largest recorded value.
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i == counts.length - 1 ? max : Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        // Number of values counted in a bucket, which spans getBucketLowerBound(bucket) up to the next bound
+        public long getCountInBucket(int bucket) {
+            return counts[bucket];
+        }
+
+        public long getBucketLowerBound(int bucket) {
+            return bucketLowerBound(bucket);
+        }
+
+        public int getBucketCount() {
+            return counts.length;
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + count + " mean=" + getMean() + " p50=" + getPercentile(50) + " p95=" + getPercentile(95)
+                    + " p99=" + getPercentile(99) + " max=" + max;
+        }
+    }
+}
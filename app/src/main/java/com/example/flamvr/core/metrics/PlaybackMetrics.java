@@ -0,0 +1,231 @@
+package com.example.flamvr.core.metrics;
+
+import com.example.flamvr.core.clock.FrameScheduler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Playback telemetry of the current file: time-to-first-frame per startup stage, presentation
+ * error of shown frames, drops, codec queue depth and AudioTrack underruns.
+ * Written lock-free from the decode threads, read through snapshot() from any thread.
+ */
+public class PlaybackMetrics {
+
+    /**
+     * Startup stages, each timed from startSession().
+     */
+    public enum Stage {
+        // Container opened by the extractor
+        DATA_SOURCE,
+        // Video codec configured and started
+        CONFIGURE,
+        // First decoded video buffer out of the codec
+        FIRST_OUTPUT,
+        // First frame decoded and audio prerolled, ready to play
+        PREPARED,
+        // First frame released for display
+        FIRST_FRAME
+    }
+
+    // Shown frames off their due time by more than this count as late
+    public static final long LATE_FRAME_US = 8_000;
+
+    private static final long MAX_ERROR_US = 10_000_000L;
+    private static final int MAX_QUEUE_DEPTH = 256;
+
+    private volatile long sessionStartNs = 0;
+    // Elapsed time per stage in nanoseconds, -1 until reached
+    private final AtomicLongArray stageNs = new AtomicLongArray(Stage.values().length);
+
+    private final LogLinearHistogram presentationErrorUs = new LogLinearHistogram(MAX_ERROR_US);
+    private final LogLinearHistogram decoderQueueDepth = new LogLinearHistogram(MAX_QUEUE_DEPTH);
+    private final AtomicLong framesShown = new AtomicLong();
+    private final AtomicLong framesLate = new AtomicLong();
+    private final AtomicLong framesDroppedLate = new AtomicLong();
+    private final AtomicLong framesDroppedVsyncTaken = new AtomicLong();
+    private final AtomicLong audioUnderruns = new AtomicLong();
+    // From the last play request (or the end of prepare, if later) to its first shown frame, -1 if none
+    private final AtomicLong playLatencyUs = new AtomicLong(-1);
+
+    public PlaybackMetrics() {
+        startSession(System.nanoTime());
+    }
+
+    /**
+     * Clears all metrics when a new file starts.
+     */
+    public void startSession(long nowNs) {
+        for (int i = 0; i < stageNs.length(); i++) {
+            stageNs.set(i, -1);
+        }
+        presentationErrorUs.reset();
+        decoderQueueDepth.reset();
+        framesShown.set(0);
+        framesLate.set(0);
+        framesDroppedLate.set(0);
+        framesDroppedVsyncTaken.set(0);
+        audioUnderruns.set(0);
+        playLatencyUs.set(-1);
+        sessionStartNs = nowNs;
+    }
+
+    /**
+     * Records when a startup stage was reached; only the first time counts.
+     */
+    public void markStage(Stage stage, long nowNs) {
+        if (stageNs.get(stage.ordinal()) < 0) {
+            stageNs.compareAndSet(stage.ordinal(), -1, nowNs - sessionStartNs);
+        }
+    }
+
+    /**
+     * A frame was released for display.
+     * @param errorUs how much later (positive) or earlier it is shown than due.
+     */
+    public void onFrameShown(long errorUs, long nowNs) {
+        markStage(Stage.FIRST_FRAME, nowNs);
+        framesShown.incrementAndGet();
+        presentationErrorUs.record(Math.abs(errorUs));
+        if (errorUs > LATE_FRAME_US) {
+            framesLate.incrementAndGet();
+        }
+    }
+
+    // Frames released for display since the session started, read without taking a snapshot
+    public long getFramesShown() {
+        return framesShown.get();
+    }
+
+    public void onFrameDropped(FrameScheduler.DropReason reason) {
+        if (reason == FrameScheduler.DropReason.VSYNC_TAKEN) {
+            framesDroppedVsyncTaken.incrementAndGet();
+        } else {
+            framesDroppedLate.incrementAndGet();
+        }
+    }
+
+    // Samples queued into the video codec and not decoded yet, recorded on every queued sample
+    public void onDecoderQueueDepth(int depth) {
+        decoderQueueDepth.record(depth);
+    }
+
+    // Underruns reported by the AudioTrack of this session so far
+    public void setAudioUnderruns(long count) {
+        audioUnderruns.set(count);
+    }
+
+    public void setPlayLatencyUs(long latencyUs) {
+        playLatencyUs.set(latencyUs);
+    }
+
+    public Snapshot snapshot() {
+        long[] stages = new long[stageNs.length()];
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = stageNs.get(i);
+        }
+        return new Snapshot(stages, presentationErrorUs.snapshot(), decoderQueueDepth.snapshot(), framesShown.get(),
+                framesLate.get(), framesDroppedLate.get(), framesDroppedVsyncTaken.get(), audioUnderruns.get(),
+                playLatencyUs.get());
+    }
+
+    /**
+     * Immutable copy of the metrics.
+     */
+    public static final class Snapshot {
+        private final long[] stageNs;
+        private final LogLinearHistogram.Snapshot presentationErrorUs;
+        private final LogLinearHistogram.Snapshot decoderQueueDepth;
+        private final long framesShown;
+        private final long framesLate;
+        private final long framesDroppedLate;
+        private final long framesDroppedVsyncTaken;
+        private final long audioUnderruns;
+        private final long playLatencyUs;
+
+        Snapshot(long[] stageNs, LogLinearHistogram.Snapshot presentationErrorUs,
+                 LogLinearHistogram.Snapshot decoderQueueDepth, long framesShown, long framesLate,
+                 long framesDroppedLate, long framesDroppedVsyncTaken, long audioUnderruns,
+                 long playLatencyUs) {
+            this.stageNs = stageNs;
+            this.presentationErrorUs = presentationErrorUs;
+            this.decoderQueueDepth = decoderQueueDepth;
+            this.framesShown = framesShown;
+            this.framesLate = framesLate;
+            this.framesDroppedLate = framesDroppedLate;
+            this.framesDroppedVsyncTaken = framesDroppedVsyncTaken;
+            this.audioUnderruns = audioUnderruns;
+            this.playLatencyUs = playLatencyUs;
+        }
+
+        // Time from the start of the session to a stage in microseconds, -1 if not reached
+        public long getStageUs(Stage stage) {
+            long ns = stageNs[stage.ordinal()];
+            return ns < 0 ? -1 : ns / 1000;
+        }
+
+        public long getTimeToFirstFrameUs() {
+            return getStageUs(Stage.FIRST_FRAME);
+        }
+
+        // Time spent preparing: opening, creating codecs and decoding ahead
+        public long getPrepareUs() {
+            return getStageUs(Stage.PREPARED);
+        }
+
+        // Time from play to the first frame on screen, excluding any prepare still running; -1 if not played
+        public long getPlayLatencyUs() {
+            return playLatencyUs;
+        }
+
+        // Absolute difference between the time a frame is shown and its due time
+        public LogLinearHistogram.Snapshot getPresentationErrorUs() {
+            return presentationErrorUs;
+        }
+
+        public LogLinearHistogram.Snapshot getDecoderQueueDepth() {
+            return decoderQueueDepth;
+        }
+
+        public long getFramesShown() {
+            return framesShown;
+        }
+
+        // Shown, but more than LATE_FRAME_US after their due time
+        public long getFramesLate() {
+            return framesLate;
+        }
+
+        public long getFramesDropped() {
+            return framesDroppedLate + framesDroppedVsyncTaken;
+        }
+
+        public long getFramesDropped(FrameScheduler.DropReason reason) {
+            switch (reason) {
+                case LATE:
+                    return framesDroppedLate;
+                case VSYNC_TAKEN:
+                    return framesDroppedVsyncTaken;
+                default:
+                    return 0;
+            }
+        }
+
+        public long getAudioUnderruns() {
+            return audioUnderruns;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("startup");
+            for (Stage stage : Stage.values()) {
+                sb.append(' ').append(stage).append('=').append(getStageUs(stage)).append("us");
+            }
+            return sb.append(", frames shown ").append(framesShown).append(" (late ").append(framesLate)
+                    .append("), dropped ").append(getFramesDropped()).append(", presentation error us [")
+                    .append(presentationErrorUs).append("], codec queue [").append(decoderQueueDepth)
+                    .append("], audio underruns ").append(audioUnderruns).append(", play latency ")
+                    .append(playLatencyUs).append("us").toString();
+        }
+    }
+}
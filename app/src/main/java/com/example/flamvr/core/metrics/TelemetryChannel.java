@@ -0,0 +1,128 @@
+package com.example.flamvr.core.metrics;
+
+import com.example.flamvr.core.state.PlayerStateMachine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latest playback position published by the decoder for the UI to sample, a sequence lock over
+ * a handful of fields. The single writer (the thread driving the video codec) never blocks or
+ * allocates; readers copy the fields and retry if a publish overlapped the copy.
+ */
+public class TelemetryChannel {
+
+    private static final int POSITION_US = 0;
+    private static final int FRAME = 1;
+    private static final int BUFFERED_START_US = 2;
+    private static final int BUFFERED_END_US = 3;
+    private static final int STATE = 4;
+    private static final int FIELDS = 5;
+
+    // Copies attempted by read() before giving up on a writer that keeps overlapping
+    static final int MAX_READ_ATTEMPTS = 8;
+
+    private static final PlayerStateMachine.State[] STATES = PlayerStateMachine.State.values();
+
+    // Odd while a publish is in progress
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLongArray fields = new AtomicLongArray(FIELDS);
+
+    /**
+     * Publishes a new snapshot. Only one thread may publish at a time.
+     * @param frame frames shown since the file was opened.
+     * @param bufferedStartUs start of the media range decoded or read ahead.
+     * @param bufferedEndUs end of that range.
+     */
+    public void publish(long positionUs, long frame, long bufferedStartUs, long bufferedEndUs,
+                        PlayerStateMachine.State state) {
+        long s = beginPublish();
+        fields.set(POSITION_US, positionUs);
+        fields.set(FRAME, frame);
+        fields.set(BUFFERED_START_US, bufferedStartUs);
+        fields.set(BUFFERED_END_US, bufferedEndUs);
+        fields.set(STATE, state.ordinal());
+        endPublish(s);
+    }
+
+    // Marks a publish in progress, returns the sequence to hand to endPublish
+    long beginPublish() {
+        long s = sequence.get();
+        sequence.set(s + 1);
+        return s;
+    }
+
+    void endPublish(long s) {
+        sequence.set(s + 2);
+    }
+
+    // Number of completed publishes times two
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * Copies the latest snapshot into out without allocating.
+     * @return false if no consistent copy could be made, out is then left unchanged.
+     */
+    public boolean read(Snapshot out) {
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            long before = sequence.get();
+            if ((before & 1) != 0) {
+                continue;
+            }
+            long positionUs = fields.get(POSITION_US);
+            long frame = fields.get(FRAME);
+            long bufferedStartUs = fields.get(BUFFERED_START_US);
+            long bufferedEndUs = fields.get(BUFFERED_END_US);
+            int state = (int) fields.get(STATE);
+            if (sequence.get() == before) {
+                out.sequence = before;
+                out.positionUs = positionUs;
+                out.frame = frame;
+                out.bufferedStartUs = bufferedStartUs;
+                out.bufferedEndUs = bufferedEndUs;
+                out.state = STATES[state];
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reader-owned copy of the channel, reused across reads.
+     */
+    public static final class Snapshot {
+        private long sequence = -1;
+        private long positionUs = 0;
+        private long frame = 0;
+        private long bufferedStartUs = 0;
+        private long bufferedEndUs = 0;
+        private PlayerStateMachine.State state = PlayerStateMachine.State.IDLE;
+
+        // Changes with every publish, -1 before the first read
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getPositionUs() {
+            return positionUs;
+        }
+
+        public long getFrame() {
+            return frame;
+        }
+
+        public long getBufferedStartUs() {
+            return bufferedStartUs;
+        }
+
+        public long getBufferedEndUs() {
+            return bufferedEndUs;
+        }
+
+        public PlayerStateMachine.State getState() {
+            return state;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.flamvr.core.mp4;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Memory-mapped view of an MP4 (ISO-BMFF) file.
+ * The moov box is located with positional header reads and mapped once for parsing;
+ * sample payloads are returned as read-only slices of mapped windows, without copying.
+ * Fragmented files (moof without sample tables in moov) are not supported.
+ */
+public class Mp4File implements Closeable {
+
+    // Sample data is mapped in windows so large files do not exhaust the address space
+    private static final long WINDOW_STEP = 64L * 1024 * 1024;
+    // Windows overlap so any sample up to this size lies entirely inside one window
+    private static final long WINDOW_OVERLAP = 16L * 1024 * 1024;
+    private static final int MAX_WINDOWS = 4;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final List<SampleIndex> tracks;
+
+    // Small round-robin cache of mapped windows
+    private final MappedByteBuffer[] windows = new MappedByteBuffer[MAX_WINDOWS];
+    private final long[] windowStarts = new long[MAX_WINDOWS];
+    private int nextWindow = 0;
+
+    private Mp4File(FileChannel channel, long fileSize, List<SampleIndex> tracks) {
+        this.channel = channel;
+        this.fileSize = fileSize;
+        this.tracks = tracks;
+    }
+
+    /**
+     * Parses the sample tables of the file behind channel. The channel stays owned by the
+     * returned Mp4File and is closed with it.
+     */
+    public static Mp4File open(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long position = 0;
+        while (position + 8 <= fileSize) {
+            header.clear();
+            header.limit((int) Math.min(16, fileSize - position));
+            while (header.hasRemaining()) {
+                if (channel.read(header, position + header.position()) < 0) {
+                    break;
+                }
+            }
+            long size = header.getInt(0) & 0xFFFFFFFFL;
+            int type = header.getInt(4);
+            int headerSize = 8;
+            if (size == 1) {
+                if (header.position() < 16) {
+                    throw new IOException("Truncated box header");
+                }
+                size = header.getLong(8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = fileSize - position;
+            }
+            if (size < headerSize || position + size > fileSize) {
+                throw new IOException("Malformed top-level box at " + position);
+            }
+            if (type == Mp4Parser.MOOV) {
+                if (size - headerSize > Integer.MAX_VALUE) {
+                    throw new IOException("moov box too large");
+                }
+                MappedByteBuffer moov = channel.map(FileChannel.MapMode.READ_ONLY, position + headerSize, size - headerSize);
+                return new Mp4File(channel, fileSize, Mp4Parser.parseMoov(moov));
+            }
+            position += size;
+        }
+        throw new IOException("No moov box");
+    }
+
+    public List<SampleIndex> getTracks() {
+        return tracks;
+    }
+
+    /**
+     * Returns the first track with the given handler type (SampleIndex.TYPE_*), or null.
+     */
+    public SampleIndex getTrack(String handlerType) {
+        for (SampleIndex track : tracks) {
+            if (track.getHandlerType().equals(handlerType)) {
+                return track;
+            }
+        }
+        return null;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * Returns the payload of a sample as a read-only slice of the mapped file.
+     */
+    public ByteBuffer readSample(SampleIndex track, int sample) throws IOException {
+        long offset = track.getOffset(sample);
+        int size = track.getSize(sample);
+        if (offset < 0 || offset + size > fileSize) {
+            throw new IOException("Sample " + sample + " outside file");
+        }
+        if (size > WINDOW_OVERLAP) {
+            // Larger than any window guarantees: map it on its own
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        }
+        long windowStart = offset / WINDOW_STEP * WINDOW_STEP;
+        MappedByteBuffer window = window(windowStart);
+        ByteBuffer slice = window.duplicate();
+        slice.limit((int) (offset - windowStart) + size);
+        slice.position((int) (offset - windowStart));
+        return slice.slice();
+    }
+
+    private MappedByteBuffer window(long start) throws IOException {
+        for (int i = 0; i < MAX_WINDOWS; i++) {
+            if (windows[i] != null && windowStarts[i] == start) {
+                return windows[i];
+            }
+        }
+        long length = Math.min(WINDOW_STEP + WINDOW_OVERLAP, fileSize - start);
+        int slot = nextWindow;
+        nextWindow = (nextWindow + 1) % MAX_WINDOWS;
+        windows[slot] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        windowStarts[slot] = start;
+        return windows[slot];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
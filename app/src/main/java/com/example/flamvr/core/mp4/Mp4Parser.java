@@ -0,0 +1,315 @@
+package com.example.flamvr.core.mp4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the sample tables of an ISO-BMFF moov box into SampleIndex instances.
+ * Reads mdhd, hdlr, elst and the stbl boxes stts, ctts, stss, stsz/stz2, stsc and stco/co64.
+ * Works on any ByteBuffer so it can run on a memory-mapped moov or on generated test data.
+ */
+public final class Mp4Parser {
+
+    static final int MOOV = fourcc("moov");
+    static final int TRAK = fourcc("trak");
+    static final int TKHD = fourcc("tkhd");
+    static final int EDTS = fourcc("edts");
+    static final int ELST = fourcc("elst");
+    static final int MDIA = fourcc("mdia");
+    static final int MDHD = fourcc("mdhd");
+    static final int HDLR = fourcc("hdlr");
+    static final int MINF = fourcc("minf");
+    static final int STBL = fourcc("stbl");
+    static final int STTS = fourcc("stts");
+    static final int CTTS = fourcc("ctts");
+    static final int STSS = fourcc("stss");
+    static final int STSZ = fourcc("stsz");
+    static final int STZ2 = fourcc("stz2");
+    static final int STSC = fourcc("stsc");
+    static final int STCO = fourcc("stco");
+    static final int CO64 = fourcc("co64");
+
+    private Mp4Parser() {
+    }
+
+    /**
+     * Parses every track of a moov box.
+     * @param moov the moov payload (box contents without the header).
+     */
+    public static List<SampleIndex> parseMoov(ByteBuffer moov) throws IOException {
+        List<SampleIndex> tracks = new ArrayList<>();
+        for (ByteBuffer trak : children(moov, TRAK)) {
+            SampleIndex track = parseTrak(trak);
+            if (track != null) {
+                tracks.add(track);
+            }
+        }
+        return tracks;
+    }
+
+    private static SampleIndex parseTrak(ByteBuffer trak) throws IOException {
+        ByteBuffer mdia = child(trak, MDIA);
+        ByteBuffer minf = mdia == null ? null : child(mdia, MINF);
+        ByteBuffer stbl = minf == null ? null : child(minf, STBL);
+        ByteBuffer mdhd = mdia == null ? null : child(mdia, MDHD);
+        ByteBuffer hdlr = mdia == null ? null : child(mdia, HDLR);
+        if (stbl == null || mdhd == null || hdlr == null) {
+            return null;
+        }
+
+        // tkhd: track_ID follows the creation and modification times
+        int trackId = 0;
+        ByteBuffer tkhd = child(trak, TKHD);
+        if (tkhd != null) {
+            trackId = tkhd.getInt(tkhd.get(0) == 1 ? 20 : 12);
+        }
+
+        // mdhd: media timescale and duration
+        long timescale;
+        long duration;
+        if (mdhd.get(0) == 1) {
+            timescale = mdhd.getInt(20) & 0xFFFFFFFFL;
+            duration = mdhd.getLong(24);
+        } else {
+            timescale = mdhd.getInt(12) & 0xFFFFFFFFL;
+            duration = mdhd.getInt(16) & 0xFFFFFFFFL;
+        }
+        if (timescale == 0) {
+            throw new IOException("Invalid mdhd timescale");
+        }
+        String handlerType = fourccToString(hdlr.getInt(8));
+
+        long[] offsets;
+        int[] sizes = parseSampleSizes(stbl);
+        int sampleCount = sizes.length;
+        offsets = parseSampleOffsets(stbl, sizes);
+
+        // Decode times from stts, then presentation offsets from ctts
+        long[] pts = new long[sampleCount];
+        ByteBuffer stts = require(stbl, STTS);
+        int entries = stts.getInt(4);
+        int sample = 0;
+        long dts = 0;
+        for (int e = 0; e < entries && sample < sampleCount; e++) {
+            long count = stts.getInt(8 + e * 8) & 0xFFFFFFFFL;
+            long delta = stts.getInt(12 + e * 8) & 0xFFFFFFFFL;
+            for (long i = 0; i < count && sample < sampleCount; i++) {
+                pts[sample++] = dts;
+                dts += delta;
+            }
+        }
+        ByteBuffer ctts = child(stbl, CTTS);
+        if (ctts != null) {
+            entries = ctts.getInt(4);
+            sample = 0;
+            for (int e = 0; e < entries && sample < sampleCount; e++) {
+                long count = ctts.getInt(8 + e * 8) & 0xFFFFFFFFL;
+                // Signed in version 1 and, in practice, in version 0 as well
+                int offset = ctts.getInt(12 + e * 8);
+                for (long i = 0; i < count && sample < sampleCount; i++) {
+                    pts[sample++] += offset;
+                }
+            }
+        }
+        long shift = editListShift(trak);
+        for (int i = 0; i < sampleCount; i++) {
+            pts[i] = (pts[i] - shift) * 1_000_000L / timescale;
+        }
+
+        // Sync samples; a missing stss means every sample is a sync sample
+        int[] syncSamples;
+        ByteBuffer stss = child(stbl, STSS);
+        if (stss != null) {
+            entries = stss.getInt(4);
+            syncSamples = new int[entries];
+            int count = 0;
+            for (int e = 0; e < entries; e++) {
+                int number = stss.getInt(8 + e * 4) - 1;
+                if (number >= 0 && number < sampleCount) {
+                    syncSamples[count++] = number;
+                }
+            }
+            if (count != entries) {
+                int[] valid = new int[count];
+                System.arraycopy(syncSamples, 0, valid, 0, count);
+                syncSamples = valid;
+            }
+        } else {
+            syncSamples = new int[sampleCount];
+            for (int i = 0; i < sampleCount; i++) {
+                syncSamples[i] = i;
+            }
+        }
+        return new SampleIndex(trackId, handlerType, timescale, duration * 1_000_000L / timescale,
+                offsets, sizes, pts, syncSamples);
+    }
+
+    // stsz or stz2
+    private static int[] parseSampleSizes(ByteBuffer stbl) throws IOException {
+        ByteBuffer stsz = child(stbl, STSZ);
+        if (stsz != null) {
+            int constantSize = stsz.getInt(4);
+            int count = checkCount(stsz.getInt(8));
+            int[] sizes = new int[count];
+            for (int i = 0; i < count; i++) {
+                sizes[i] = constantSize != 0 ? constantSize : stsz.getInt(12 + i * 4);
+            }
+            return sizes;
+        }
+        ByteBuffer stz2 = require(stbl, STZ2);
+        int fieldSize = stz2.get(7) & 0xFF;
+        int count = checkCount(stz2.getInt(8));
+        int[] sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            switch (fieldSize) {
+                case 4:
+                    int packed = stz2.get(12 + i / 2) & 0xFF;
+                    sizes[i] = (i & 1) == 0 ? packed >>> 4 : packed & 0x0F;
+                    break;
+                case 8:
+                    sizes[i] = stz2.get(12 + i) & 0xFF;
+                    break;
+                case 16:
+                    sizes[i] = stz2.getShort(12 + i * 2) & 0xFFFF;
+                    break;
+                default:
+                    throw new IOException("Invalid stz2 field size " + fieldSize);
+            }
+        }
+        return sizes;
+    }
+
+    // Expands stsc runs over stco/co64 chunk offsets into per-sample file offsets
+    private static long[] parseSampleOffsets(ByteBuffer stbl, int[] sizes) throws IOException {
+        long[] chunkOffsets;
+        ByteBuffer stco = child(stbl, STCO);
+        if (stco != null) {
+            chunkOffsets = new long[checkCount(stco.getInt(4))];
+            for (int i = 0; i < chunkOffsets.length; i++) {
+                chunkOffsets[i] = stco.getInt(8 + i * 4) & 0xFFFFFFFFL;
+            }
+        } else {
+            ByteBuffer co64 = require(stbl, CO64);
+            chunkOffsets = new long[checkCount(co64.getInt(4))];
+            for (int i = 0; i < chunkOffsets.length; i++) {
+                chunkOffsets[i] = co64.getLong(8 + i * 8);
+            }
+        }
+        ByteBuffer stsc = require(stbl, STSC);
+        int entries = stsc.getInt(4);
+        long[] offsets = new long[sizes.length];
+        int sample = 0;
+        for (int e = 0; e < entries && sample < sizes.length; e++) {
+            int firstChunk = stsc.getInt(8 + e * 12) - 1;
+            int samplesPerChunk = stsc.getInt(12 + e * 12);
+            int nextFirstChunk = e + 1 < entries ? stsc.getInt(8 + (e + 1) * 12) - 1 : chunkOffsets.length;
+            for (int chunk = Math.max(firstChunk, 0); chunk < nextFirstChunk && chunk < chunkOffsets.length; chunk++) {
+                long offset = chunkOffsets[chunk];
+                for (int i = 0; i < samplesPerChunk && sample < sizes.length; i++) {
+                    offsets[sample] = offset;
+                    offset += sizes[sample];
+                    sample++;
+                }
+            }
+        }
+        if (sample != sizes.length) {
+            throw new IOException("stsc/stco describe " + sample + " of " + sizes.length + " samples");
+        }
+        return offsets;
+    }
+
+    // Media time of the first non-empty edit, subtracted so presentation starts at zero
+    private static long editListShift(ByteBuffer trak) throws IOException {
+        ByteBuffer edts = child(trak, EDTS);
+        ByteBuffer elst = edts == null ? null : child(edts, ELST);
+        if (elst == null) {
+            return 0;
+        }
+        boolean v1 = elst.get(0) == 1;
+        int entries = elst.getInt(4);
+        int entrySize = v1 ? 20 : 12;
+        for (int e = 0; e < entries; e++) {
+            int at = 8 + e * entrySize;
+            long mediaTime = v1 ? elst.getLong(at + 8) : elst.getInt(at + 4);
+            if (mediaTime >= 0) {
+                return mediaTime;
+            }
+        }
+        return 0;
+    }
+
+    // ---------------------------------------------------------------- box helpers
+
+    /**
+     * Returns the payload of the first child box of the given type, or null.
+     */
+    static ByteBuffer child(ByteBuffer container, int type) throws IOException {
+        List<ByteBuffer> found = scan(container, type, true);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    static List<ByteBuffer> children(ByteBuffer container, int type) throws IOException {
+        return scan(container, type, false);
+    }
+
+    private static ByteBuffer require(ByteBuffer container, int type) throws IOException {
+        ByteBuffer box = child(container, type);
+        if (box == null) {
+            throw new IOException("Missing " + fourccToString(type) + " box");
+        }
+        return box;
+    }
+
+    private static List<ByteBuffer> scan(ByteBuffer container, int type, boolean firstOnly) throws IOException {
+        List<ByteBuffer> found = new ArrayList<>();
+        int position = 0;
+        int limit = container.limit();
+        while (limit - position >= 8) {
+            long size = container.getInt(position) & 0xFFFFFFFFL;
+            int boxType = container.getInt(position + 4);
+            int header = 8;
+            if (size == 1) {
+                if (limit - position < 16) {
+                    throw new IOException("Truncated box header");
+                }
+                size = container.getLong(position + 8);
+                header = 16;
+            } else if (size == 0) {
+                size = limit - position;
+            }
+            if (size < header || size > limit - position) {
+                throw new IOException("Malformed " + fourccToString(boxType) + " box");
+            }
+            if (boxType == type) {
+                ByteBuffer payload = container.duplicate();
+                payload.limit((int) (position + size));
+                payload.position(position + header);
+                found.add(payload.slice());
+                if (firstOnly) {
+                    break;
+                }
+            }
+            position += (int) size;
+        }
+        return found;
+    }
+
+    private static int checkCount(int count) throws IOException {
+        if (count < 0) {
+            throw new IOException("Sample table too large");
+        }
+        return count;
+    }
+
+    static int fourcc(String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+
+    static String fourccToString(int type) {
+        return new String(new char[]{
+                (char) ((type >>> 24) & 0xFF), (char) ((type >>> 16) & 0xFF),
+                (char) ((type >>> 8) & 0xFF), (char) (type & 0xFF)});
+    }
+}
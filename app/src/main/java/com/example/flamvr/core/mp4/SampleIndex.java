@@ -0,0 +1,226 @@
+package com.example.flamvr.core.mp4;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact sample table of one MP4 track built from its stbl boxes.
+ * Everything is held in primitive arrays indexed by sample number (decode order);
+ * keyframes are additionally kept sorted by presentation time for O(log n) lookup.
+ */
+public class SampleIndex {
+
+    // ISO-BMFF handler types
+    public static final String TYPE_VIDEO = "vide";
+    public static final String TYPE_AUDIO = "soun";
+
+    private final int trackId;
+    private final String handlerType;
+    private final long timescale;
+    private final long durationUs;
+
+    // Per sample, decode order
+    private final long[] offsets;
+    private final int[] sizes;
+    private final long[] ptsUs;
+    // One bit per sample, set for sync samples
+    private final long[] syncBits;
+
+    // Keyframes sorted by presentation time
+    private final int[] keyframeSamples;
+    private final long[] keyframePtsUs;
+
+    SampleIndex(int trackId, String handlerType, long timescale, long durationUs,
+                long[] offsets, int[] sizes, long[] ptsUs, int[] syncSamples) {
+        this.trackId = trackId;
+        this.handlerType = handlerType;
+        this.timescale = timescale;
+        this.durationUs = durationUs;
+        this.offsets = offsets;
+        this.sizes = sizes;
+        this.ptsUs = ptsUs;
+        syncBits = new long[(offsets.length + 63) / 64];
+        for (int sample : syncSamples) {
+            syncBits[sample >>> 6] |= 1L << sample;
+        }
+        keyframeSamples = sortByPts(syncSamples, ptsUs);
+        keyframePtsUs = new long[keyframeSamples.length];
+        for (int i = 0; i < keyframeSamples.length; i++) {
+            keyframePtsUs[i] = ptsUs[keyframeSamples[i]];
+        }
+    }
+
+    public int getTrackId() {
+        return trackId;
+    }
+
+    public String getHandlerType() {
+        return handlerType;
+    }
+
+    public long getTimescale() {
+        return timescale;
+    }
+
+    public long getDurationUs() {
+        return durationUs;
+    }
+
+    public int getSampleCount() {
+        return offsets.length;
+    }
+
+    // Absolute file offset of a sample
+    public long getOffset(int sample) {
+        return offsets[sample];
+    }
+
+    public int getSize(int sample) {
+        return sizes[sample];
+    }
+
+    public long getPtsUs(int sample) {
+        return ptsUs[sample];
+    }
+
+    public boolean isSync(int sample) {
+        return (syncBits[sample >>> 6] & (1L << sample)) != 0;
+    }
+
+    public int getKeyframeCount() {
+        return keyframeSamples.length;
+    }
+
+    // Sample number of the k-th keyframe in presentation order
+    public int getKeyframeSample(int keyframe) {
+        return keyframeSamples[keyframe];
+    }
+
+    public long getKeyframePtsUs(int keyframe) {
+        return keyframePtsUs[keyframe];
+    }
+
+    /**
+     * Returns the ordinal of the last keyframe presented at or before timeUs,
+     * the first keyframe if timeUs precedes all of them, or -1 if the track has none.
+     */
+    public int findKeyframeAtOrBefore(long timeUs) {
+        int low = 0;
+        int high = keyframePtsUs.length - 1;
+        if (high < 0) {
+            return -1;
+        }
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (keyframePtsUs[mid] <= timeUs) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return Math.max(high, 0);
+    }
+
+    /**
+     * Presentation time of the keyframe at or before timeUs, or timeUs itself if there is none.
+     */
+    public long keyframeTimeAtOrBefore(long timeUs) {
+        int keyframe = findKeyframeAtOrBefore(timeUs);
+        return keyframe < 0 ? timeUs : keyframePtsUs[keyframe];
+    }
+
+    // ---------------------------------------------------------------- serialization
+
+    /**
+     * Size in bytes of the serialized form written by writeTo.
+     */
+    public int serializedSize() {
+        return 4 + 4 + 8 + 8 + 4 + 4
+                + offsets.length * (8 + 4 + 8)
+                + keyframeSamples.length * 4;
+    }
+
+    /**
+     * Writes the index in a compact binary form, bulk-copying the primitive arrays.
+     */
+    public void writeTo(ByteBuffer out) {
+        out.putInt(trackId);
+        out.put(handlerType.getBytes(StandardCharsets.US_ASCII), 0, 4);
+        out.putLong(timescale);
+        out.putLong(durationUs);
+        out.putInt(offsets.length);
+        out.putInt(keyframeSamples.length);
+        out.asLongBuffer().put(offsets);
+        out.position(out.position() + offsets.length * 8);
+        out.asIntBuffer().put(sizes);
+        out.position(out.position() + sizes.length * 4);
+        out.asLongBuffer().put(ptsUs);
+        out.position(out.position() + ptsUs.length * 8);
+        out.asIntBuffer().put(keyframeSamples);
+        out.position(out.position() + keyframeSamples.length * 4);
+    }
+
+    /**
+     * Reads an index written by writeTo.
+     */
+    public static SampleIndex readFrom(ByteBuffer in) throws IOException {
+        try {
+            int trackId = in.getInt();
+            byte[] type = new byte[4];
+            in.get(type);
+            long timescale = in.getLong();
+            long durationUs = in.getLong();
+            int sampleCount = in.getInt();
+            int keyframeCount = in.getInt();
+            if (sampleCount < 0 || keyframeCount < 0 || keyframeCount > sampleCount
+                    || (long) sampleCount * 20 + keyframeCount * 4L > in.remaining()) {
+                throw new IOException("Corrupt sample index");
+            }
+            long[] offsets = new long[sampleCount];
+            int[] sizes = new int[sampleCount];
+            long[] ptsUs = new long[sampleCount];
+            int[] keyframes = new int[keyframeCount];
+            in.asLongBuffer().get(offsets);
+            in.position(in.position() + sampleCount * 8);
+            in.asIntBuffer().get(sizes);
+            in.position(in.position() + sampleCount * 4);
+            in.asLongBuffer().get(ptsUs);
+            in.position(in.position() + sampleCount * 8);
+            in.asIntBuffer().get(keyframes);
+            in.position(in.position() + keyframeCount * 4);
+            for (int keyframe : keyframes) {
+                if (keyframe < 0 || keyframe >= sampleCount) {
+                    throw new IOException("Corrupt sample index");
+                }
+            }
+            return new SampleIndex(trackId, new String(type, StandardCharsets.US_ASCII), timescale, durationUs,
+                    offsets, sizes, ptsUs, keyframes);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated sample index", e);
+        }
+    }
+
+    // Keyframe sample numbers ordered by presentation time (usually already the case)
+    private static int[] sortByPts(int[] samples, long[] ptsUs) {
+        int[] sorted = samples.clone();
+        boolean ordered = true;
+        for (int i = 1; i < sorted.length && ordered; i++) {
+            ordered = ptsUs[sorted[i - 1]] <= ptsUs[sorted[i]];
+        }
+        if (!ordered) {
+            // Insertion sort, keyframe tables are short and nearly sorted
+            for (int i = 1; i < sorted.length; i++) {
+                int sample = sorted[i];
+                int j = i - 1;
+                while (j >= 0 && ptsUs[sorted[j]] > ptsUs[sample]) {
+                    sorted[j + 1] = sorted[j];
+                    j--;
+                }
+                sorted[j + 1] = sample;
+            }
+        }
+        return sorted;
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.flamvr.core.mp4;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * On-disk cache of parsed MP4 sample tables, one binary file per media file.
+ * Entries are keyed by URI + size + modification time, so an edited file is never served a stale
+ * index. Recency is tracked through file modification times and the least recently used entries
+ * are evicted once the directory exceeds its size cap.
+ */
+public class SampleIndexCache {
+
+    // "FSIX" + format version, bumped whenever the layout of SampleIndex.writeTo changes
+    private static final int MAGIC = 0x46534958;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".idx";
+
+    private final File directory;
+    private final long maxBytes;
+
+    // Statistics
+    private long hits = 0;
+    private long misses = 0;
+    private long lastLoadTimeNs = 0;
+
+    public SampleIndexCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Builds the cache key of a media file.
+     */
+    public static String key(String uri, long size, long modifiedTime) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest((uri + '\n' + size + '\n' + modifiedTime).getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >>> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the cached tracks for key, or null on a miss or an unreadable entry.
+     */
+    public synchronized List<SampleIndex> get(String key) {
+        long startNs = System.nanoTime();
+        File file = new File(directory, key + SUFFIX);
+        if (!file.isFile()) {
+            misses++;
+            return null;
+        }
+        try (FileInputStream input = new FileInputStream(file)) {
+            FileChannel channel = input.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read fully
+            }
+            buffer.flip();
+            if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Unknown cache entry format");
+            }
+            int trackCount = buffer.getInt();
+            List<SampleIndex> tracks = new ArrayList<>(trackCount);
+            for (int i = 0; i < trackCount; i++) {
+                tracks.add(SampleIndex.readFrom(buffer));
+            }
+            // Mark as recently used for LRU eviction
+            file.setLastModified(System.currentTimeMillis());
+            hits++;
+            lastLoadTimeNs = System.nanoTime() - startNs;
+            return tracks;
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            misses++;
+            return null;
+        }
+    }
+
+    /**
+     * Stores the tracks under key and evicts old entries beyond the size cap.
+     */
+    public synchronized void put(String key, List<SampleIndex> tracks) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        int size = 12;
+        for (SampleIndex track : tracks) {
+            size += track.serializedSize();
+        }
+        if (size > maxBytes) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(tracks.size());
+        for (SampleIndex track : tracks) {
+            track.writeTo(buffer);
+        }
+        buffer.flip();
+        // Write to a temporary file first so readers never see a partial entry
+        File tmp = new File(directory, key + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tmp)) {
+            FileChannel channel = output.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        File file = new File(directory, key + SUFFIX);
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot write " + file);
+        }
+        evict(file);
+    }
+
+    // Deletes least recently used entries until the cache fits in maxBytes
+    private void evict(File keep) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (!file.equals(keep)) {
+                long length = file.length();
+                if (file.delete()) {
+                    total -= length;
+                }
+            }
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized float getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0.0f : hits / (float) total;
+    }
+
+    // Time spent reading the last cache hit
+    public synchronized long getLastLoadTimeNs() {
+        return lastLoadTimeNs;
+    }
+}
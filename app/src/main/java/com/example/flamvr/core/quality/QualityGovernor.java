@@ -0,0 +1,222 @@
+package com.example.flamvr.core.quality;
+
+/**
+ * Keeps the render thread within a frame-time budget by stepping through a ladder of quality
+ * levels: lower render scale first, then newest-frame-only presentation, then dropping costly
+ * filter passes. Pure Java; fed one measured frame time per draw.
+ * Hysteresis keeps it stable: frame times are smoothed, quality drops only after DEGRADE_FRAMES
+ * consecutive frames over budget and rises only after a much longer run well under budget.
+ * An upgrade that is undone right away doubles the wait before the next one.
+ */
+public class QualityGovernor {
+
+    /**
+     * Which filter passes run.
+     */
+    public enum FilterTier {
+        // Every pass of the selected graph
+        FULL,
+        // Passes reading several input pixels are skipped
+        REDUCED
+    }
+
+    /**
+     * How the renderer deals with decoded frames queuing up behind a slow draw.
+     */
+    public enum DropPolicy {
+        // Show every frame, one per draw
+        QUEUE,
+        // Skip to the newest frame, dropping the ones in between
+        LATEST
+    }
+
+    /**
+     * One step of the quality ladder.
+     */
+    public static final class Level {
+        private final float renderScale;
+        private final FilterTier filterTier;
+        private final DropPolicy dropPolicy;
+
+        public Level(float renderScale, FilterTier filterTier, DropPolicy dropPolicy) {
+            this.renderScale = renderScale;
+            this.filterTier = filterTier;
+            this.dropPolicy = dropPolicy;
+        }
+
+        public float getRenderScale() {
+            return renderScale;
+        }
+
+        public FilterTier getFilterTier() {
+            return filterTier;
+        }
+
+        public DropPolicy getDropPolicy() {
+            return dropPolicy;
+        }
+
+        @Override
+        public String toString() {
+            return "scale " + renderScale + ", " + filterTier + ", " + dropPolicy;
+        }
+    }
+
+    // Best quality first
+    public static final Level[] DEFAULT_LEVELS = {
+            new Level(1.0f, FilterTier.FULL, DropPolicy.QUEUE),
+            new Level(0.85f, FilterTier.FULL, DropPolicy.QUEUE),
+            new Level(0.7f, FilterTier.FULL, DropPolicy.QUEUE),
+            new Level(0.5f, FilterTier.FULL, DropPolicy.LATEST),
+            new Level(0.5f, FilterTier.REDUCED, DropPolicy.LATEST),
+    };
+
+    // Smoothing of the frame time, 1/EMA_DIVISOR weight per new sample
+    static final int EMA_DIVISOR = 8;
+    // Consecutive frames over budget before quality is lowered
+    static final int DEGRADE_FRAMES = 8;
+    // Consecutive frames under UPGRADE_RATIO * budget before quality is raised
+    static final int UPGRADE_FRAMES = 120;
+    static final float UPGRADE_RATIO = 0.6f;
+    // Frames ignored after a change while the new level takes effect
+    static final int SETTLE_FRAMES = 30;
+    // Longest upgrade wait after repeated oscillation, as a multiple of UPGRADE_FRAMES
+    static final int MAX_UPGRADE_BACKOFF = 8;
+
+    private final Level[] levels;
+    private long budgetNs;
+
+    private int level = 0;
+    private long averageNs = -1;
+    private int overBudget = 0;
+    private int underBudget = 0;
+    private int settle = 0;
+    private int upgradeBackoff = 1;
+    // Frames since the last upgrade, to detect one that did not hold
+    private long sinceUpgrade = Long.MAX_VALUE;
+
+    // Statistics
+    private long frames = 0;
+    private long framesOverBudget = 0;
+    private long downgrades = 0;
+    private long upgrades = 0;
+
+    public QualityGovernor(long budgetNs) {
+        this(budgetNs, DEFAULT_LEVELS);
+    }
+
+    public QualityGovernor(long budgetNs, Level[] levels) {
+        if (levels.length == 0) {
+            throw new IllegalArgumentException("No quality levels");
+        }
+        this.levels = levels.clone();
+        setBudgetNs(budgetNs);
+    }
+
+    public synchronized void setBudgetNs(long budgetNs) {
+        if (budgetNs <= 0) {
+            throw new IllegalArgumentException("Budget must be positive: " + budgetNs);
+        }
+        this.budgetNs = budgetNs;
+        overBudget = 0;
+        underBudget = 0;
+    }
+
+    public synchronized long getBudgetNs() {
+        return budgetNs;
+    }
+
+    /**
+     * Records the time one frame took.
+     * @return true if the level changed and should be applied.
+     */
+    public synchronized boolean onFrame(long frameTimeNs) {
+        frames++;
+        if (frameTimeNs > budgetNs) {
+            framesOverBudget++;
+        }
+        if (sinceUpgrade != Long.MAX_VALUE) {
+            sinceUpgrade++;
+        }
+        averageNs = averageNs < 0 ? frameTimeNs : averageNs + (frameTimeNs - averageNs) / EMA_DIVISOR;
+        if (settle > 0) {
+            settle--;
+            return false;
+        }
+        if (averageNs > budgetNs) {
+            underBudget = 0;
+            if (++overBudget >= DEGRADE_FRAMES && level < levels.length - 1) {
+                if (sinceUpgrade < (long) UPGRADE_FRAMES * upgradeBackoff) {
+                    // The last upgrade did not hold: wait longer before trying again
+                    upgradeBackoff = Math.min(upgradeBackoff * 2, MAX_UPGRADE_BACKOFF);
+                }
+                downgrades++;
+                return change(level + 1);
+            }
+        } else if (averageNs < budgetNs * UPGRADE_RATIO) {
+            overBudget = 0;
+            if (++underBudget >= UPGRADE_FRAMES * upgradeBackoff && level > 0) {
+                upgrades++;
+                sinceUpgrade = 0;
+                return change(level - 1);
+            }
+        } else {
+            overBudget = 0;
+            underBudget = 0;
+        }
+        return false;
+    }
+
+    private boolean change(int newLevel) {
+        level = newLevel;
+        overBudget = 0;
+        underBudget = 0;
+        settle = SETTLE_FRAMES;
+        // Samples from the old level say little about the new one
+        averageNs = -1;
+        return true;
+    }
+
+    /**
+     * Returns to the best level, e.g. when a lighter filter is selected.
+     */
+    public synchronized void reset() {
+        level = 0;
+        averageNs = -1;
+        overBudget = 0;
+        underBudget = 0;
+        settle = 0;
+        upgradeBackoff = 1;
+        sinceUpgrade = Long.MAX_VALUE;
+    }
+
+    public synchronized Level getLevel() {
+        return levels[level];
+    }
+
+    // 0 is the best quality
+    public synchronized int getLevelIndex() {
+        return level;
+    }
+
+    // Smoothed frame time, -1 right after a change
+    public synchronized long getAverageFrameNs() {
+        return averageNs;
+    }
+
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    public synchronized long getFramesOverBudget() {
+        return framesOverBudget;
+    }
+
+    public synchronized long getDowngrades() {
+        return downgrades;
+    }
+
+    public synchronized long getUpgrades() {
+        return upgrades;
+    }
+}
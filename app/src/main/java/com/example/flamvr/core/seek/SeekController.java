@@ -0,0 +1,157 @@
+package com.example.flamvr.core.seek;
+
+import com.example.flamvr.globals.SeekMode;
+
+/**
+ * Latest-wins seek pipeline shared by the decode threads.
+ * Every accepted request gets a new generation. Tracks do not replay the requests one by one:
+ * each track polls with the generation it last applied and jumps straight to the newest request,
+ * so a burst of scrub events costs one flush per track, and decode-to-target work for a request
+ * that has been superseded is abandoned at the track's next poll.
+ * A request identical to the one still in flight (same keyframe, same target) is coalesced away.
+ */
+public class SeekController {
+
+    /**
+     * Immutable seek request.
+     */
+    public static final class Request {
+        private final long generation;
+        private final long seekTimeUs;
+        private final long targetUs;
+        private final SeekMode mode;
+        private final long requestTimeNs;
+
+        Request(long generation, long seekTimeUs, long targetUs, SeekMode mode, long requestTimeNs) {
+            this.generation = generation;
+            this.seekTimeUs = seekTimeUs;
+            this.targetUs = targetUs;
+            this.mode = mode;
+            this.requestTimeNs = requestTimeNs;
+        }
+
+        // Generation carried by samples read after this seek
+        public long getGeneration() {
+            return generation;
+        }
+
+        // Position the demuxer seeks to (a keyframe when the sample index is known)
+        public long getSeekTimeUs() {
+            return seekTimeUs;
+        }
+
+        // First presentation time to show; earlier frames and PCM are discarded. -1 shows whatever comes first
+        public long getTargetUs() {
+            return targetUs;
+        }
+
+        public SeekMode getMode() {
+            return mode;
+        }
+
+        public long getRequestTimeNs() {
+            return requestTimeNs;
+        }
+    }
+
+    private Request latest;
+    // Whether latest has shown its first frame
+    private boolean latestCompleted = true;
+    private long generation;
+
+    // Statistics
+    private long requested = 0;
+    private long coalesced = 0;
+    private long superseded = 0;
+    private long applied = 0;
+    private long completed = 0;
+    private long lastLatencyNs = -1;
+
+    public SeekController() {
+        this(0);
+    }
+
+    /**
+     * @param initialGeneration generation of the samples produced before the first seek.
+     */
+    public SeekController(long initialGeneration) {
+        this.generation = initialGeneration;
+    }
+
+    /**
+     * Submits a seek. Returns the new request, or null if it was coalesced into the one in flight.
+     */
+    public synchronized Request submit(long seekTimeUs, long targetUs, SeekMode mode, long nowNs) {
+        requested++;
+        if (latest != null && !latestCompleted
+                && latest.seekTimeUs == seekTimeUs && latest.targetUs == targetUs) {
+            coalesced++;
+            return null;
+        }
+        if (latest != null && !latestCompleted) {
+            // Cancelled, either before any track picked it up or mid decode-to-target
+            superseded++;
+        }
+        latest = new Request(++generation, seekTimeUs, targetUs, mode, nowNs);
+        latestCompleted = false;
+        return latest;
+    }
+
+    /**
+     * Returns the newest request if the caller has not applied it yet, otherwise null.
+     * @param appliedGeneration generation the calling track currently decodes.
+     */
+    public synchronized Request poll(long appliedGeneration) {
+        if (latest == null || latest.generation <= appliedGeneration) {
+            return null;
+        }
+        applied++;
+        return latest;
+    }
+
+    /**
+     * Marks request as completed once its first frame is shown.
+     * Returns the latency from submission in nanoseconds, or -1 if the request was superseded.
+     */
+    public synchronized long complete(Request request, long nowNs) {
+        if (request != latest || latestCompleted) {
+            return -1;
+        }
+        latestCompleted = true;
+        completed++;
+        lastLatencyNs = nowNs - request.requestTimeNs;
+        return lastLatencyNs;
+    }
+
+    // Generation of the newest request
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    public synchronized long getRequested() {
+        return requested;
+    }
+
+    // Requests dropped because an identical seek was still in flight
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    // Requests replaced by a newer one before showing a frame
+    public synchronized long getSuperseded() {
+        return superseded;
+    }
+
+    // Track flushes performed, one per track per applied request
+    public synchronized long getApplied() {
+        return applied;
+    }
+
+    public synchronized long getCompleted() {
+        return completed;
+    }
+
+    public synchronized long getLastLatencyNs() {
+        return lastLatencyNs;
+    }
+}
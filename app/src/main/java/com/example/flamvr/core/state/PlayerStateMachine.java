@@ -0,0 +1,259 @@
+package com.example.flamvr.core.state;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Playback state shared by the UI and the decode threads.
+ * Transitions happen under a lock and wake every thread blocked in one of the await methods,
+ * so paused decode threads use no CPU and resume as soon as playback does. The current state is
+ * also published through a volatile field for lock-free checks in the decode loops.
+ * Play/pause requests made while preparing or seeking are remembered and applied once that ends.
+ * Listeners are notified after the lock is released, on the thread that made the transition.
+ */
+public class PlayerStateMachine {
+
+    public enum State {
+        IDLE, PREPARING, PLAYING, PAUSED, SEEKING, ENDED
+    }
+
+    /**
+     * Observes state transitions.
+     */
+    public interface Listener {
+        void onStateChanged(State from, State to);
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private State state = State.IDLE; // guarded by lock
+    private volatile State published = State.IDLE;
+    // Whether PREPARING and SEEKING end in PLAYING rather than PAUSED
+    private boolean playWhenReady = true; // guarded by lock
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public State getState() {
+        return published;
+    }
+
+    public boolean isPlaying() {
+        return published == State.PLAYING;
+    }
+
+    // Whether the player is playing or will be once preparing or seeking ends
+    public boolean isPlayWhenReady() {
+        lock.lock();
+        try {
+            return state == State.PLAYING || ((state == State.PREPARING || state == State.SEEKING) && playWhenReady);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Whether video should be decoding: playing, or producing the first frame after a seek
+    public boolean isDecoding() {
+        State current = published;
+        return current == State.PLAYING || current == State.SEEKING;
+    }
+
+    /**
+     * A new file is being opened. Playback starts once prepared unless paused in the meantime.
+     */
+    public void prepare() {
+        prepare(true);
+    }
+
+    /**
+     * A new file is being opened. Once prepared the player is PLAYING if playWhenReady
+     * (or play() was called meanwhile), PAUSED otherwise.
+     */
+    public void prepare(boolean playWhenReady) {
+        State from;
+        lock.lock();
+        try {
+            from = state;
+            this.playWhenReady = playWhenReady;
+            moveTo(State.PREPARING);
+        } finally {
+            lock.unlock();
+        }
+        notifyListeners(from, State.PREPARING);
+    }
+
+    /**
+     * The decoders are ready. Returns false if the player is no longer preparing.
+     */
+    public boolean prepared() {
+        return finish(State.PREPARING);
+    }
+
+    /**
+     * Requests playback. Returns true if the state changed.
+     */
+    public boolean play() {
+        return setPlayWhenReady(true, State.PAUSED, State.PLAYING);
+    }
+
+    /**
+     * Requests a pause. Returns true if the state changed.
+     */
+    public boolean pause() {
+        return setPlayWhenReady(false, State.PLAYING, State.PAUSED);
+    }
+
+    /**
+     * A seek was issued. Listeners are notified even for a seek replacing one in progress.
+     * Returns false if nothing is loaded or the stream has ended.
+     */
+    public boolean seek() {
+        State from;
+        lock.lock();
+        try {
+            from = state;
+            if (from != State.PLAYING && from != State.PAUSED && from != State.SEEKING) {
+                return false;
+            }
+            if (from != State.SEEKING) {
+                playWhenReady = from == State.PLAYING;
+            }
+            moveTo(State.SEEKING);
+        } finally {
+            lock.unlock();
+        }
+        notifyListeners(from, State.SEEKING);
+        return true;
+    }
+
+    /**
+     * The newest seek has shown its first frame. Returns false if no seek was in progress.
+     */
+    public boolean seekCompleted() {
+        return finish(State.SEEKING);
+    }
+
+    /**
+     * The last frame was shown. Returns false if nothing was playing.
+     */
+    public boolean end() {
+        State from;
+        lock.lock();
+        try {
+            from = state;
+            if (from != State.PLAYING && from != State.PAUSED && from != State.SEEKING) {
+                return false;
+            }
+            moveTo(State.ENDED);
+        } finally {
+            lock.unlock();
+        }
+        notifyListeners(from, State.ENDED);
+        return true;
+    }
+
+    /**
+     * Playback was stopped and the decoders are going away.
+     */
+    public void stop() {
+        State from;
+        lock.lock();
+        try {
+            from = state;
+            if (from == State.IDLE) {
+                return;
+            }
+            moveTo(State.IDLE);
+        } finally {
+            lock.unlock();
+        }
+        notifyListeners(from, State.IDLE);
+    }
+
+    /**
+     * Blocks until the state is PLAYING.
+     */
+    public void awaitPlaying() throws InterruptedException {
+        lock.lock();
+        try {
+            while (state != State.PLAYING) {
+                changed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the state is PLAYING or SEEKING.
+     */
+    public void awaitDecoding() throws InterruptedException {
+        lock.lock();
+        try {
+            while (state != State.PLAYING && state != State.SEEKING) {
+                changed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // PAUSED <-> PLAYING, or remembered for when preparing or seeking ends
+    private boolean setPlayWhenReady(boolean play, State expected, State next) {
+        State from;
+        lock.lock();
+        try {
+            from = state;
+            if (from == State.PREPARING || from == State.SEEKING) {
+                playWhenReady = play;
+                return false;
+            }
+            if (from != expected) {
+                return false;
+            }
+            moveTo(next);
+        } finally {
+            lock.unlock();
+        }
+        notifyListeners(from, next);
+        return true;
+    }
+
+    // Leaves a transient state for PLAYING or PAUSED
+    private boolean finish(State expected) {
+        State next;
+        lock.lock();
+        try {
+            if (state != expected) {
+                return false;
+            }
+            next = playWhenReady ? State.PLAYING : State.PAUSED;
+            moveTo(next);
+        } finally {
+            lock.unlock();
+        }
+        notifyListeners(expected, next);
+        return true;
+    }
+
+    // Caller holds the lock
+    private void moveTo(State next) {
+        state = next;
+        published = next;
+        changed.signalAll();
+    }
+
+    private void notifyListeners(State from, State to) {
+        for (Listener listener : listeners) {
+            listener.onStateChanged(from, to);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.flamvr.core.thumbnail;
+
+import android.content.ComponentCallbacks2;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory-bounded LRU cache of downscaled preview frames keyed by presentation time in microseconds.
+ * The bound is in bytes of bitmap memory, not in entries. Safe to use from several threads.
+ */
+public class ThumbnailCache<T> {
+
+    /**
+     * Memory held by a cached frame, e.g. Bitmap.getAllocationByteCount.
+     */
+    public interface Sizer<T> {
+        int sizeOf(T value);
+    }
+
+    private final int maxBytes;
+    private final Sizer<T> sizer;
+    // Access ordered: the eldest entry is the least recently used
+    private final LinkedHashMap<Long, T> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int sizeBytes = 0;
+
+    public ThumbnailCache(int maxBytes, Sizer<T> sizer) {
+        this.maxBytes = maxBytes;
+        this.sizer = sizer;
+    }
+
+    public synchronized T get(long keyUs) {
+        return entries.get(keyUs);
+    }
+
+    /**
+     * Adds a frame, evicting the least recently used ones beyond the byte bound; a frame larger
+     * than the bound is not kept.
+     */
+    public synchronized void put(long keyUs, T value) {
+        T previous = entries.put(keyUs, value);
+        if (previous != null) {
+            sizeBytes -= sizer.sizeOf(previous);
+        }
+        sizeBytes += sizer.sizeOf(value);
+        trimToSize(maxBytes);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    /**
+     * Releases memory according to a ComponentCallbacks2 trim level.
+     */
+    public synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // Memory is critical or the UI is hidden: previews can be decoded again later
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(maxBytes / 2);
+        }
+    }
+
+    private void trimToSize(int bytes) {
+        Iterator<Map.Entry<Long, T>> eldest = entries.entrySet().iterator();
+        while (sizeBytes > bytes && eldest.hasNext()) {
+            sizeBytes -= sizer.sizeOf(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    // Number of cached frames
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    // Bitmap bytes currently held
+    public synchronized int getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.flamvr.core.thumbnail;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.flamvr.core.mp4.SampleIndex;
+
+/**
+ * Background engine producing seek bar preview frames.
+ * Keyframes are decoded at low resolution on a dedicated thread, independent of the playback decoders,
+ * and kept in a ThumbnailCache. Lookups on the UI thread never decode: they return the cached frame
+ * of the keyframe at or before the requested time (or null) and schedule decoding of that keyframe
+ * and its neighbours, the newest request replacing any older prefetch.
+ * Without a sample index, frames are taken on a fixed time grid instead of exact keyframes.
+ */
+public class ThumbnailEngine {
+    private static final String TAG = ThumbnailEngine.class.getSimpleName();
+
+    // Grid step used when keyframe times are unknown
+    private static final long FALLBACK_STEP_US = 1_000_000L;
+
+    // Keyframes decoded on each side of the requested one
+    private static final int PREFETCH_RADIUS = 4;
+
+    // Tags prefetch work on the worker, so dropping it leaves a pending retriever open alone
+    private static final Object PREFETCH_TOKEN = new Object();
+
+    /**
+     * Receives thumbnails decoded after a cache miss, on the main thread.
+     */
+    public interface Listener {
+        void onThumbnailReady(long keyUs, Bitmap bitmap);
+    }
+
+    private final Context ctx;
+    private final int thumbnailWidth;
+    private final ThumbnailCache<Bitmap> cache;
+    private final HandlerThread thread;
+    private final Handler worker;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private Listener listener;
+
+    // Current file; the session is bumped on open so late results of the previous file are discarded
+    private volatile SampleIndex index;
+    private volatile int session = 0;
+    private MediaMetadataRetriever retriever; // worker thread only
+
+    // Keyframe most recently asked for by the UI; prefetch stops when it changes
+    private volatile long wantedKeyUs = -1;
+
+    // Statistics
+    private long requests = 0;
+    private long hits = 0;
+    private long decodes = 0;
+    private long decodeTimeNs = 0;
+    private long maxLookupNs = 0;
+
+    public ThumbnailEngine(Context ctx, int thumbnailWidth, int maxBytes) {
+        this.ctx = ctx;
+        this.thumbnailWidth = thumbnailWidth;
+        this.cache = new ThumbnailCache<>(maxBytes, Bitmap::getAllocationByteCount);
+        thread = new HandlerThread("Thumbnails", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        worker = new Handler(thread.getLooper());
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Switches to a new file. index may be null for files without a sample index.
+     */
+    public void open(Uri uri, SampleIndex index) {
+        final int openSession = ++session;
+        this.index = index;
+        wantedKeyUs = -1;
+        cache.clear();
+        worker.removeCallbacksAndMessages(null);
+        worker.post(() -> {
+            releaseRetriever();
+            try {
+                MediaMetadataRetriever next = new MediaMetadataRetriever();
+                next.setDataSource(ctx, uri);
+                if (openSession == session) {
+                    retriever = next;
+                } else {
+                    next.release();
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Thumbnails unavailable: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Cache key of the thumbnail shown for timeUs: the keyframe at or before it.
+     */
+    public long keyFor(long timeUs) {
+        SampleIndex current = index;
+        if (current != null && current.getKeyframeCount() > 0) {
+            return current.keyframeTimeAtOrBefore(timeUs);
+        }
+        return Math.max(0, timeUs) / FALLBACK_STEP_US * FALLBACK_STEP_US;
+    }
+
+    /**
+     * Returns the preview for timeUs if cached, otherwise null; either way schedules decoding
+     * around it. The Listener is called once a missing frame has been decoded.
+     */
+    public Bitmap getThumbnail(long timeUs) {
+        long startNs = System.nanoTime();
+        long keyUs = keyFor(timeUs);
+        Bitmap bitmap = cache.get(keyUs);
+        requests++;
+        if (bitmap != null) {
+            hits++;
+        }
+        if (keyUs != wantedKeyUs) {
+            wantedKeyUs = keyUs;
+            final int requestSession = session;
+            // Latest wins: forget the prefetch queued for an older position
+            worker.removeCallbacksAndMessages(PREFETCH_TOKEN);
+            worker.postAtTime(() -> decodeAround(keyUs, requestSession), PREFETCH_TOKEN, SystemClock.uptimeMillis());
+        }
+        maxLookupNs = Math.max(maxLookupNs, System.nanoTime() - startNs);
+        return bitmap;
+    }
+
+    // Decodes the wanted keyframe, then its neighbours ordered by distance
+    private void decodeAround(long keyUs, int requestSession) {
+        decodeIfMissing(keyUs, requestSession);
+        SampleIndex current = index;
+        int keyframe = current != null ? current.findKeyframeAtOrBefore(keyUs) : -1;
+        for (int i = 1; i <= PREFETCH_RADIUS; i++) {
+            if (keyUs != wantedKeyUs || requestSession != session) {
+                return; // the user moved on
+            }
+            if (keyframe >= 0) {
+                if (keyframe + i < current.getKeyframeCount()) {
+                    decodeIfMissing(current.getKeyframePtsUs(keyframe + i), requestSession);
+                }
+                if (keyframe - i >= 0) {
+                    decodeIfMissing(current.getKeyframePtsUs(keyframe - i), requestSession);
+                }
+            } else {
+                decodeIfMissing(keyUs + i * FALLBACK_STEP_US, requestSession);
+                if (keyUs - i * FALLBACK_STEP_US >= 0) {
+                    decodeIfMissing(keyUs - i * FALLBACK_STEP_US, requestSession);
+                }
+            }
+        }
+    }
+
+    private void decodeIfMissing(long keyUs, int requestSession) {
+        if (retriever == null || cache.get(keyUs) != null) {
+            return;
+        }
+        long startNs = System.nanoTime();
+        Bitmap bitmap;
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+                // Decoder-side scaling, the full-size frame is never materialised
+                bitmap = retriever.getScaledFrameAtTime(keyUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC,
+                        thumbnailWidth, thumbnailWidth);
+            } else {
+                Bitmap frame = retriever.getFrameAtTime(keyUs, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+                bitmap = frame == null ? null : downscale(frame);
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Thumbnail decode failed at " + keyUs + " us: " + e.getMessage());
+            return;
+        }
+        if (bitmap == null || requestSession != session) {
+            return;
+        }
+        decodes++;
+        decodeTimeNs += System.nanoTime() - startNs;
+        cache.put(keyUs, bitmap);
+        final Listener target = listener;
+        if (target != null) {
+            mainHandler.post(() -> {
+                if (requestSession == session) {
+                    target.onThumbnailReady(keyUs, bitmap);
+                }
+            });
+        }
+    }
+
+    private Bitmap downscale(Bitmap frame) {
+        if (frame.getWidth() <= thumbnailWidth) {
+            return frame;
+        }
+        int height = Math.max(1, frame.getHeight() * thumbnailWidth / frame.getWidth());
+        Bitmap scaled = Bitmap.createScaledBitmap(frame, thumbnailWidth, height, true);
+        frame.recycle();
+        return scaled;
+    }
+
+    private void releaseRetriever() {
+        if (retriever != null) {
+            try {
+                retriever.release();
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to release retriever", e);
+            }
+            retriever = null;
+        }
+    }
+
+    /**
+     * Releases cached thumbnails according to a ComponentCallbacks2 trim level.
+     */
+    public void trimMemory(int level) {
+        cache.trimMemory(level);
+        Log.d(TAG, "Trimmed thumbnails to " + cache.getSizeBytes() + "/" + cache.getMaxBytes() + " bytes");
+    }
+
+    /**
+     * Stops the decode thread and frees all thumbnails.
+     */
+    public void release() {
+        session++;
+        worker.removeCallbacksAndMessages(null);
+        worker.post(() -> {
+            releaseRetriever();
+            thread.quitSafely();
+        });
+        cache.clear();
+        Log.d(TAG, "thumbnail requests: " + requests + ", hits: " + hits + ", decodes: " + decodes
+                + ", avg decode: " + (decodes == 0 ? 0 : decodeTimeNs / decodes / 1000) + " us"
+                + ", worst lookup: " + maxLookupNs / 1000 + " us");
+    }
+
+    public ThumbnailCache<Bitmap> getCache() {
+        return cache;
+    }
+}
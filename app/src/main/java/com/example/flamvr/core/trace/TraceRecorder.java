@@ -0,0 +1,332 @@
+package com.example.flamvr.core.trace;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process tracer for the playback pipeline, exported as Chrome trace-event JSON
+ * (loadable in chrome://tracing and ui.perfetto.dev).
+ * Every thread writes (timestamp, event, arg) records into its own preallocated ring, so recording
+ * takes no lock and allocates nothing once the ring exists; old records are overwritten.
+ * Event names are registered once with event(), typically into static finals, and the hot path
+ * only passes their ids. While disabled every call is a single volatile read.
+ */
+public final class TraceRecorder {
+
+    // Records kept per thread, a power of two
+    public static final int RING_CAPACITY = 8192;
+
+    // Rings of finished threads are dropped once more than this many are registered
+    static final int MAX_RINGS = 32;
+
+    // Record phases, stored in the top byte of the packed event
+    private static final int PHASE_BEGIN = 1;
+    private static final int PHASE_END = 2;
+    private static final int PHASE_INSTANT = 3;
+    private static final int PHASE_COUNTER = 4;
+    private static final int ID_MASK = 0xFFFFFF;
+
+    private static volatile boolean enabled = false;
+
+    // Events recorded before this time are left out of exports, see clear()
+    private static volatile long clearedAtNs = Long.MIN_VALUE;
+
+    // Event names by id, only appended to
+    private static final List<String> names = new CopyOnWriteArrayList<>();
+
+    private static final List<Ring> rings = new CopyOnWriteArrayList<>();
+
+    private static final ThreadLocal<Ring> localRing = new ThreadLocal<>();
+
+    private TraceRecorder() {
+    }
+
+    /**
+     * Registers an event name and returns its id. Registering the same name twice returns the same id.
+     */
+    public static synchronized int event(String name) {
+        int id = names.indexOf(name);
+        if (id >= 0) {
+            return id;
+        }
+        if (names.size() > ID_MASK) {
+            throw new IllegalStateException("Too many trace events");
+        }
+        names.add(name);
+        return names.size() - 1;
+    }
+
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Opens a slice on the calling thread, closed by end() with the same id.
+     */
+    public static void begin(int event) {
+        if (enabled) {
+            ring().write(PHASE_BEGIN << 24 | event, 0);
+        }
+    }
+
+    public static void end(int event) {
+        if (enabled) {
+            ring().write(PHASE_END << 24 | event, 0);
+        }
+    }
+
+    /**
+     * Records a point event carrying one value, e.g. a presentation time.
+     */
+    public static void instant(int event, long arg) {
+        if (enabled) {
+            ring().write(PHASE_INSTANT << 24 | event, arg);
+        }
+    }
+
+    /**
+     * Records the current value of a counter track, e.g. a queue depth.
+     */
+    public static void counter(int event, long value) {
+        if (enabled) {
+            ring().write(PHASE_COUNTER << 24 | event, value);
+        }
+    }
+
+    /**
+     * Leaves everything recorded so far out of later exports.
+     */
+    public static void clear() {
+        clearedAtNs = System.nanoTime();
+    }
+
+    // The calling thread's ring, created and registered on its first record
+    private static Ring ring() {
+        Ring ring = localRing.get();
+        if (ring == null) {
+            ring = new Ring(Thread.currentThread());
+            localRing.set(ring);
+            register(ring);
+        }
+        return ring;
+    }
+
+    private static synchronized void register(Ring ring) {
+        if (rings.size() >= MAX_RINGS) {
+            List<Ring> dead = new ArrayList<>();
+            for (Ring r : rings) {
+                if (r.thread.get() == null || !r.thread.get().isAlive()) {
+                    dead.add(r);
+                }
+            }
+            rings.removeAll(dead);
+        }
+        rings.add(ring);
+    }
+
+    /**
+     * Writes the recorded events as Chrome trace-event JSON. Recording may continue meanwhile;
+     * records overwritten while being copied are left out.
+     */
+    public static void exportChromeJson(Writer out) throws IOException {
+        long sinceNs = clearedAtNs;
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        boolean first = true;
+        for (Ring ring : rings) {
+            Snapshot snapshot = ring.snapshot(sinceNs);
+            if (snapshot.count == 0) {
+                continue;
+            }
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + ring.threadId
+                    + ",\"args\":{\"name\":\"" + escape(ring.threadName) + "\"}}");
+            writeEvents(out, ring.threadId, snapshot);
+        }
+        out.write("]}");
+        out.flush();
+    }
+
+    /**
+     * Writes the trace to a file, replacing it only once the export is complete.
+     */
+    public static void writeChromeJson(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            exportChromeJson(out);
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not write " + file);
+        }
+    }
+
+    private static void writeEvents(Writer out, long tid, Snapshot snapshot) throws IOException {
+        StringBuilder line = new StringBuilder(128);
+        // Ends whose begin was overwritten or cleared would close slices that never opened
+        int depth = 0;
+        for (int i = 0; i < snapshot.count; i++) {
+            int phase = snapshot.events[i] >>> 24;
+            String name = escape(names.get(snapshot.events[i] & ID_MASK));
+            if (phase == PHASE_END) {
+                if (depth == 0) {
+                    continue;
+                }
+                depth--;
+            } else if (phase == PHASE_BEGIN) {
+                depth++;
+            }
+            line.setLength(0);
+            line.append(",{\"name\":\"").append(name).append("\",\"ph\":\"");
+            switch (phase) {
+                case PHASE_BEGIN:
+                    line.append('B');
+                    break;
+                case PHASE_END:
+                    line.append('E');
+                    break;
+                case PHASE_INSTANT:
+                    line.append("i\",\"s\":\"t");
+                    break;
+                default:
+                    line.append('C');
+                    break;
+            }
+            long ns = snapshot.timestamps[i];
+            line.append("\",\"ts\":").append(ns / 1000).append('.');
+            appendPadded(line, ns % 1000);
+            line.append(",\"pid\":1,\"tid\":").append(tid);
+            if (phase == PHASE_INSTANT) {
+                line.append(",\"args\":{\"arg\":").append(snapshot.args[i]).append('}');
+            } else if (phase == PHASE_COUNTER) {
+                line.append(",\"args\":{\"").append(name).append("\":").append(snapshot.args[i]).append('}');
+            }
+            line.append('}');
+            out.append(line);
+        }
+    }
+
+    // Three digit fraction of a microsecond
+    private static void appendPadded(StringBuilder sb, long ns) {
+        if (ns < 100) {
+            sb.append('0');
+        }
+        if (ns < 10) {
+            sb.append('0');
+        }
+        sb.append(ns);
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                if (sb == null) {
+                    sb = new StringBuilder(s.length() + 8).append(s, 0, i);
+                }
+                if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append('\\').append(c);
+                }
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb == null ? s : sb.toString();
+    }
+
+    // Records of one thread. Only the owner writes; head is published after each record so
+    // readers see complete records up to it.
+    private static final class Ring {
+        private static final int MASK = RING_CAPACITY - 1;
+
+        final WeakReference<Thread> thread;
+        final String threadName;
+        final long threadId;
+        final long[] timestamps = new long[RING_CAPACITY];
+        final int[] events = new int[RING_CAPACITY];
+        final long[] args = new long[RING_CAPACITY];
+        // Number of records ever written
+        final AtomicLong head = new AtomicLong();
+
+        Ring(Thread owner) {
+            thread = new WeakReference<>(owner);
+            threadName = owner.getName();
+            threadId = owner.getId();
+        }
+
+        void write(int event, long arg) {
+            long h = head.get();
+            int i = (int) (h & MASK);
+            timestamps[i] = System.nanoTime();
+            events[i] = event;
+            args[i] = arg;
+            head.lazySet(h + 1);
+        }
+
+        // Copies the records still in the ring, oldest first
+        Snapshot snapshot(long sinceNs) {
+            long end = head.get();
+            long start = Math.max(0, end - RING_CAPACITY);
+            Snapshot s = new Snapshot((int) (end - start));
+            for (long r = start; r < end; r++) {
+                int i = (int) (r & MASK);
+                s.timestamps[s.count] = timestamps[i];
+                s.events[s.count] = events[i];
+                s.args[s.count] = args[i];
+                s.count++;
+            }
+            // The writer may have lapped the copy: drop the records it could have overwritten, including
+            // the slot of the record it may be writing right now (head2 - RING_CAPACITY)
+            long overwritten = head.get() - RING_CAPACITY - start;
+            int skip = (int) Math.max(0, Math.min(s.count, overwritten + 1));
+            while (skip < s.count && s.timestamps[skip] < sinceNs) {
+                skip++;
+            }
+            return s.dropFirst(skip);
+        }
+    }
+
+    private static final class Snapshot {
+        long[] timestamps;
+        int[] events;
+        long[] args;
+        int count;
+
+        Snapshot(int capacity) {
+            timestamps = new long[capacity];
+            events = new int[capacity];
+            args = new long[capacity];
+        }
+
+        Snapshot dropFirst(int n) {
+            if (n == 0) {
+                return this;
+            }
+            Snapshot s = new Snapshot(count - n);
+            System.arraycopy(timestamps, n, s.timestamps, 0, count - n);
+            System.arraycopy(events, n, s.events, 0, count - n);
+            System.arraycopy(args, n, s.args, 0, count - n);
+            s.count = count - n;
+            return s;
+        }
+    }
+}
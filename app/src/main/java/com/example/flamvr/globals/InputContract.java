@@ -5,6 +5,6 @@ public interface InputContract {
     void onInitiate();
     void onPlaybackChanged(String speed);
     void onPlayPauseToggled();
-    void onSeekChanged(int progress);
+    void onSeekChanged(long positionUs, SeekMode mode);
     void onFilterChange(String filterId);
 }
@@ -0,0 +1,11 @@
+package com.example.flamvr.globals;
+
+
+/**
+ * How precisely a seek lands on its target.
+ * FAST shows the keyframe at or before the target, EXACT decodes from that keyframe
+ * and discards frames until the target timestamp is reached.
+ */
+public enum SeekMode{
+    FAST, EXACT
+}
@@ -1,11 +1,9 @@
 package com.example.flamvr.globals;
 
 public class StreamDataInterface {
+    // Position and frame count are sampled by the UI from MediaCodecPlayer.getTelemetry()
     public interface ProgressBarStream {
-        void updateSeekBarProgress(long progress);
         void setMaxDuration(long duration);
-
-        void updateFrameCount(long frameCount);
     }
 
     public interface VideoInfoStream{
@@ -6,6 +6,7 @@ public interface VideoPlaybackContract {
     public void onInitiate(Uri uri);
     public void onPlay();
     public void onPause();
-    public void onSeek(int progress);
-    void onPlaybackChanged(String speed);
+    public void onSeek(long positionUs, SeekMode mode);
+    // Playback speed multiplier, e.g. 1.5f
+    void onPlaybackChanged(float speed);
 }
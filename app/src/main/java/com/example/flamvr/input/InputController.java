@@ -5,6 +5,7 @@ import android.widget.AdapterView;
 import android.widget.SeekBar;
 
 import com.example.flamvr.globals.InputContract;
+import com.example.flamvr.globals.SeekMode;
 import com.example.flamvr.databinding.ActivityMainBinding;
 
 /**
@@ -43,15 +44,18 @@ public class InputController {
             listener.onPlayPauseToggled();
         });
 
-        // SeekBar change listener: updates playback position when user drags the seek bar
+        // SeekBar change listener: progress is in milliseconds. Dragging jumps to keyframes,
+        // releasing the thumb lands exactly on the selected position
         binding.seekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
                 if (fromUser){
-                    listener.onSeekChanged(progress);
+                    listener.onSeekChanged(progress * 1000L, SeekMode.FAST);
                 }
             }
             @Override public void onStartTrackingTouch(SeekBar seekBar) {}
-            @Override public void onStopTrackingTouch(SeekBar seekBar) {}
+            @Override public void onStopTrackingTouch(SeekBar seekBar) {
+                listener.onSeekChanged(seekBar.getProgress() * 1000L, SeekMode.EXACT);
+            }
         });
         // Playback speed spinner selection listener: notifies listener of new playback speed selection
         binding.plabackControl.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
@@ -0,0 +1,245 @@
+package com.example.flamvr.platform.canvas;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ImageFormat;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import com.example.flamvr.core.filter.CpuFilterEngine;
+import com.example.flamvr.core.filter.FilterGraph;
+import com.example.flamvr.globals.StreamDataInterface;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fallback renderer for devices without OpenGL ES 3.1.
+ * The video codec decodes into an ImageReader; every frame is converted to ARGB, filtered by the
+ * CpuFilterEngine and drawn letterboxed onto a SurfaceView canvas, all on one render thread.
+ * Frame buffers and the bitmap are kept while the video size stays the same.
+ */
+public class CanvasRenderer implements StreamDataInterface.VideoInfoStream, SurfaceHolder.Callback {
+    private static final String TAG = CanvasRenderer.class.getSimpleName();
+    // Decoded images the codec may hold ahead of the renderer
+    private static final int MAX_IMAGES = 3;
+
+    private final SurfaceView view;
+    private final HandlerThread renderThread;
+    private final Handler renderHandler;
+    private final CpuFilterEngine engine = new CpuFilterEngine();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect srcRect = new Rect();
+    private final Rect dstRect = new Rect();
+    private OnSurfaceReadyCallback onSurfaceReadyCallback;
+
+    // Render thread only
+    private ImageReader reader;
+    private Bitmap bitmap;
+    private int[] decoded = new int[0];
+    private int[] filtered = new int[0];
+    private int videoWidth;
+    private int videoHeight;
+    private volatile long framesDrawn = 0;
+
+    // Written by the view and command threads, read on the render thread
+    private volatile FilterGraph graph = new FilterGraph();
+    private volatile SurfaceHolder holder;
+    private volatile int viewWidth;
+    private volatile int viewHeight;
+
+    public CanvasRenderer(SurfaceView view) {
+        this.view = view;
+        renderThread = new HandlerThread("CanvasRender");
+        renderThread.start();
+        renderHandler = new Handler(renderThread.getLooper());
+        view.getHolder().addCallback(this);
+    }
+
+    /**
+     * Interface for callback when the Surface is ready.
+     */
+    public interface OnSurfaceReadyCallback {
+        void onSurfaceReady(Surface surface);
+    }
+
+    /**
+     * Called on the render thread with the surface the video codec should decode into.
+     */
+    public void setOnSurfaceReadyCallback(OnSurfaceReadyCallback callback) {
+        onSurfaceReadyCallback = callback;
+    }
+
+    /**
+     * Sets up an image reader of the video size and hands its surface over; an unchanged size keeps the current one.
+     */
+    @Override
+    public void getVideoDim(int width, int height) {
+        renderHandler.post(() -> {
+            if (reader != null && width == videoWidth && height == videoHeight) {
+                return;
+            }
+            if (reader != null) {
+                reader.close();
+            }
+            videoWidth = width;
+            videoHeight = height;
+            decoded = new int[width * height];
+            filtered = new int[width * height];
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            srcRect.set(0, 0, width, height);
+            reader = ImageReader.newInstance(width, height, ImageFormat.YUV_420_888, MAX_IMAGES);
+            reader.setOnImageAvailableListener(this::onImageAvailable, renderHandler);
+            Log.d(TAG, "Rendering " + width + "x" + height + " on the CPU");
+            if (onSurfaceReadyCallback != null) {
+                onSurfaceReadyCallback.onSurfaceReady(reader.getSurface());
+            }
+        });
+    }
+
+    /**
+     * Receives filter id from stream, applied from the next frame on.
+     */
+    @Override
+    public void getFilter(int id) {
+        graph = FilterGraph.forFilter(id);
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder surfaceHolder) {
+        holder = surfaceHolder;
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder surfaceHolder, int format, int width, int height) {
+        viewWidth = width;
+        viewHeight = height;
+        holder = surfaceHolder;
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder surfaceHolder) {
+        holder = null;
+    }
+
+    private void onImageAvailable(ImageReader imageReader) {
+        if (imageReader != reader) {
+            return;
+        }
+        Image image = imageReader.acquireLatestImage();
+        if (image == null) {
+            return;
+        }
+        try {
+            // Frames of the previous size can still be in flight right after a change
+            if (image.getWidth() < videoWidth || image.getHeight() < videoHeight) {
+                return;
+            }
+            toArgb(image, decoded, videoWidth, videoHeight);
+        } finally {
+            image.close();
+        }
+        engine.process(graph, decoded, filtered, videoWidth, videoHeight);
+        bitmap.setPixels(filtered, 0, videoWidth, 0, 0, videoWidth, videoHeight);
+        draw();
+    }
+
+    // Draws the bitmap centered at the largest size keeping the video aspect
+    private void draw() {
+        SurfaceHolder surfaceHolder = holder;
+        int width = viewWidth;
+        int height = viewHeight;
+        if (surfaceHolder == null || width == 0 || height == 0) {
+            return;
+        }
+        if ((long) videoWidth * height > (long) videoHeight * width) {
+            int scaledHeight = (int) ((long) videoHeight * width / videoWidth);
+            dstRect.set(0, (height - scaledHeight) / 2, width, (height + scaledHeight) / 2);
+        } else {
+            int scaledWidth = (int) ((long) videoWidth * height / videoHeight);
+            dstRect.set((width - scaledWidth) / 2, 0, (width + scaledWidth) / 2, height);
+        }
+        Canvas canvas = surfaceHolder.lockCanvas();
+        if (canvas == null) {
+            return;
+        }
+        try {
+            canvas.drawColor(Color.BLACK);
+            canvas.drawBitmap(bitmap, srcRect, dstRect, paint);
+        } finally {
+            surfaceHolder.unlockCanvasAndPost(canvas);
+        }
+        framesDrawn++;
+    }
+
+    /**
+     * Converts the visible area of a YUV_420_888 image to packed ARGB, BT.601 limited range.
+     */
+    static void toArgb(Image image, int[] argb, int width, int height) {
+        Image.Plane[] planes = image.getPlanes();
+        ByteBuffer yPlane = planes[0].getBuffer();
+        ByteBuffer uPlane = planes[1].getBuffer();
+        ByteBuffer vPlane = planes[2].getBuffer();
+        int yRowStride = planes[0].getRowStride();
+        int yPixelStride = planes[0].getPixelStride();
+        int uvRowStride = planes[1].getRowStride();
+        int uvPixelStride = planes[1].getPixelStride();
+        for (int y = 0; y < height; y++) {
+            int yRow = y * yRowStride;
+            int uvRow = (y >> 1) * uvRowStride;
+            int out = y * width;
+            for (int x = 0; x < width; x++) {
+                int uvIndex = uvRow + (x >> 1) * uvPixelStride;
+                argb[out + x] = yuvToArgb(yPlane.get(yRow + x * yPixelStride) & 0xFF,
+                        uPlane.get(uvIndex) & 0xFF, vPlane.get(uvIndex) & 0xFF);
+            }
+        }
+    }
+
+    // Fixed point BT.601 limited range conversion, coefficients scaled by 1024 and rounded
+    static int yuvToArgb(int y, int u, int v) {
+        int c = Math.max(y - 16, 0) * 1192 + 512;
+        int d = u - 128;
+        int e = v - 128;
+        int r = clamp((c + 1634 * e) >> 10);
+        int g = clamp((c - 833 * e - 400 * d) >> 10);
+        int b = clamp((c + 2066 * d) >> 10);
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+    private static int clamp(int c) {
+        return c < 0 ? 0 : (c > 255 ? 255 : c);
+    }
+
+    // Frames filtered and drawn so far
+    public long getFramesDrawn() {
+        return framesDrawn;
+    }
+
+    public CpuFilterEngine getFilterEngine() {
+        return engine;
+    }
+
+    /**
+     * Stops the render thread and frees the reader and worker threads.
+     */
+    public void release() {
+        view.getHolder().removeCallback(this);
+        renderHandler.post(() -> {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+            engine.release();
+        });
+        renderThread.quitSafely();
+    }
+}
@@ -0,0 +1,341 @@
+package com.example.flamvr.platform.opengl;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Headless GL that executes nothing and counts every call by name.
+ * Object names are handed out sequentially, compiles and links always succeed and
+ * every attribute/uniform name gets its own location, so renderer code runs unchanged on the JVM.
+ * Program binaries are BINARY_LENGTH bytes of zeros in format BINARY_FORMAT.
+ */
+public class CountingGL implements GL {
+
+    public static final int BINARY_FORMAT = 1;
+    public static final int BINARY_LENGTH = 16;
+
+    private final Map<String, Integer> calls = new HashMap<>();
+    private final Map<String, Integer> locations = new HashMap<>();
+    private int totalCalls = 0;
+    private int nextName = 1;
+
+    private void count(String call) {
+        Integer n = calls.get(call);
+        calls.put(call, n == null ? 1 : n + 1);
+        totalCalls++;
+    }
+
+    private void genNames(int n, int[] names, int offset) {
+        for (int i = 0; i < n; i++) {
+            names[offset + i] = nextName++;
+        }
+    }
+
+    private int location(int program, String name) {
+        String key = program + "/" + name;
+        Integer location = locations.get(key);
+        if (location == null) {
+            location = locations.size();
+            locations.put(key, location);
+        }
+        return location;
+    }
+
+    // Number of calls of one GL function, e.g. "glUseProgram"
+    public int getCallCount(String call) {
+        Integer n = calls.get(call);
+        return n == null ? 0 : n;
+    }
+
+    // Number of GL calls of any kind
+    public int getCallCount() {
+        return totalCalls;
+    }
+
+    /**
+     * Clears the counters, e.g. between the setup and the steady-state frames of a test.
+     */
+    public void resetCounts() {
+        calls.clear();
+        totalCalls = 0;
+    }
+
+    @Override
+    public String glGetString(int name) {
+        count("glGetString");
+        return "CountingGL";
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        count("glGetIntegerv");
+        params[offset] = 0;
+    }
+
+    @Override
+    public void glGenQueries(int n, int[] ids, int offset) {
+        count("glGenQueries");
+        genNames(n, ids, offset);
+    }
+
+    @Override
+    public void glDeleteQueries(int n, int[] ids, int offset) {
+        count("glDeleteQueries");
+    }
+
+    @Override
+    public void glBeginQuery(int target, int id) {
+        count("glBeginQuery");
+    }
+
+    @Override
+    public void glEndQuery(int target) {
+        count("glEndQuery");
+    }
+
+    @Override
+    public void glGetQueryObjectuiv(int id, int pname, int[] params, int offset) {
+        count("glGetQueryObjectuiv");
+        // Results are available immediately and take no time
+        params[offset] = pname == GL_QUERY_RESULT_AVAILABLE ? 1 : 0;
+    }
+
+    @Override
+    public void glClearColor(float r, float g, float b, float a) {
+        count("glClearColor");
+    }
+
+    @Override
+    public void glClear(int mask) {
+        count("glClear");
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        count("glViewport");
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        count("glDrawElements");
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        count("glCreateShader");
+        return nextName++;
+    }
+
+    @Override
+    public void glShaderSource(int shader, String source) {
+        count("glShaderSource");
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        count("glCompileShader");
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        count("glGetShaderiv");
+        params[offset] = 1;
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        count("glGetShaderInfoLog");
+        return "";
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        count("glDeleteShader");
+    }
+
+    @Override
+    public int glCreateProgram() {
+        count("glCreateProgram");
+        return nextName++;
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        count("glAttachShader");
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        count("glLinkProgram");
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        count("glDeleteProgram");
+    }
+
+    @Override
+    public void glProgramParameteri(int program, int pname, int value) {
+        count("glProgramParameteri");
+    }
+
+    @Override
+    public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+                                   int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+        count("glGetProgramBinary");
+        int n = Math.min(bufSize, BINARY_LENGTH);
+        for (int i = 0; i < n; i++) {
+            ((ByteBuffer) binary).put((byte) 0);
+        }
+        binary.position(0);
+        length[lengthOffset] = n;
+        binaryFormat[binaryFormatOffset] = BINARY_FORMAT;
+    }
+
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        count("glProgramBinary");
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        count("glGetProgramiv");
+        params[offset] = pname == GL_PROGRAM_BINARY_LENGTH ? BINARY_LENGTH : 1;
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        count("glGetProgramInfoLog");
+        return "";
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        count("glUseProgram");
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        count("glGetAttribLocation");
+        return location(program, name);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        count("glGetUniformLocation");
+        return location(program, name);
+    }
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        count("glUniform1i");
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        count("glUniformMatrix4fv");
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        count("glGenBuffers");
+        genNames(n, buffers, offset);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        count("glBindBuffer");
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        count("glBufferData");
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        count("glBufferSubData");
+    }
+
+    @Override
+    public void glGenVertexArrays(int n, int[] arrays, int offset) {
+        count("glGenVertexArrays");
+        genNames(n, arrays, offset);
+    }
+
+    @Override
+    public void glBindVertexArray(int array) {
+        count("glBindVertexArray");
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        count("glEnableVertexAttribArray");
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+        count("glVertexAttribPointer");
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        count("glGenTextures");
+        genNames(n, textures, offset);
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        count("glActiveTexture");
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        count("glBindTexture");
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        count("glTexParameteri");
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border,
+                             int format, int type, Buffer pixels) {
+        count("glTexImage2D");
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        count("glDeleteTextures");
+    }
+
+    @Override
+    public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        count("glGenFramebuffers");
+        genNames(n, framebuffers, offset);
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+        count("glDeleteFramebuffers");
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        count("glBindFramebuffer");
+    }
+
+    @Override
+    public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {
+        count("glFramebufferTexture2D");
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int target) {
+        count("glCheckFramebufferStatus");
+        return GL_FRAMEBUFFER_COMPLETE;
+    }
+}
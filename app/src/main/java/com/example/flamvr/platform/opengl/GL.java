@@ -0,0 +1,119 @@
+package com.example.flamvr.platform.opengl;
+
+import java.nio.Buffer;
+
+/**
+ * Thin interface over the subset of OpenGL ES 3.1 used by the renderer.
+ * GLES31Backend forwards to the driver, CountingGL runs headless and only counts calls,
+ * so the renderer's GL traffic can be checked on the JVM without a GPU.
+ * Method names and arguments mirror android.opengl.GLES31.
+ */
+public interface GL {
+
+    // Constants used through this interface, same values as GLES31
+    int GL_VERTEX_SHADER = 0x8B31;
+    int GL_FRAGMENT_SHADER = 0x8B30;
+    int GL_COMPILE_STATUS = 0x8B81;
+    int GL_LINK_STATUS = 0x8B82;
+    int GL_TEXTURE0 = 0x84C0;
+    int GL_TEXTURE_EXTERNAL_OES = 0x8D65;
+    int GL_TEXTURE_MIN_FILTER = 0x2801;
+    int GL_TEXTURE_MAG_FILTER = 0x2800;
+    int GL_TEXTURE_WRAP_S = 0x2802;
+    int GL_TEXTURE_WRAP_T = 0x2803;
+    int GL_LINEAR = 0x2601;
+    int GL_CLAMP_TO_EDGE = 0x812F;
+    int GL_ARRAY_BUFFER = 0x8892;
+    int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+    int GL_STATIC_DRAW = 0x88E4;
+    int GL_DYNAMIC_DRAW = 0x88E8;
+    int GL_FLOAT = 0x1406;
+    int GL_TRIANGLES = 0x0004;
+    int GL_UNSIGNED_SHORT = 0x1403;
+    int GL_COLOR_BUFFER_BIT = 0x4000;
+    int GL_DEPTH_BUFFER_BIT = 0x0100;
+    int GL_VENDOR = 0x1F00;
+    int GL_RENDERER = 0x1F01;
+    int GL_VERSION = 0x1F02;
+    int GL_PROGRAM_BINARY_LENGTH = 0x8741;
+    int GL_PROGRAM_BINARY_RETRIEVABLE_HINT = 0x8257;
+    int GL_TRUE = 1;
+    int GL_TEXTURE_2D = 0x0DE1;
+    int GL_RGBA = 0x1908;
+    int GL_UNSIGNED_BYTE = 0x1401;
+    int GL_FRAMEBUFFER = 0x8D40;
+    int GL_COLOR_ATTACHMENT0 = 0x8CE0;
+    int GL_FRAMEBUFFER_COMPLETE = 0x8CD5;
+    int GL_EXTENSIONS = 0x1F03;
+    int GL_QUERY_RESULT = 0x8866;
+    int GL_QUERY_RESULT_AVAILABLE = 0x8867;
+    // EXT_disjoint_timer_query
+    int GL_TIME_ELAPSED_EXT = 0x88BF;
+    int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    // Context
+    String glGetString(int name);
+    void glGetIntegerv(int pname, int[] params, int offset);
+
+    // Queries
+    void glGenQueries(int n, int[] ids, int offset);
+    void glDeleteQueries(int n, int[] ids, int offset);
+    void glBeginQuery(int target, int id);
+    void glEndQuery(int target);
+    void glGetQueryObjectuiv(int id, int pname, int[] params, int offset);
+
+    // Frame
+    void glClearColor(float r, float g, float b, float a);
+    void glClear(int mask);
+    void glViewport(int x, int y, int width, int height);
+    void glDrawElements(int mode, int count, int type, int offset);
+
+    // Shaders and programs
+    int glCreateShader(int type);
+    void glShaderSource(int shader, String source);
+    void glCompileShader(int shader);
+    void glGetShaderiv(int shader, int pname, int[] params, int offset);
+    String glGetShaderInfoLog(int shader);
+    void glDeleteShader(int shader);
+    int glCreateProgram();
+    void glAttachShader(int program, int shader);
+    void glLinkProgram(int program);
+    void glDeleteProgram(int program);
+    void glProgramParameteri(int program, int pname, int value);
+    void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+                            int[] binaryFormat, int binaryFormatOffset, Buffer binary);
+    void glProgramBinary(int program, int binaryFormat, Buffer binary, int length);
+    void glGetProgramiv(int program, int pname, int[] params, int offset);
+    String glGetProgramInfoLog(int program);
+    void glUseProgram(int program);
+    int glGetAttribLocation(int program, String name);
+    int glGetUniformLocation(int program, String name);
+    void glUniform1i(int location, int x);
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+
+    // Buffers and vertex arrays
+    void glGenBuffers(int n, int[] buffers, int offset);
+    void glBindBuffer(int target, int buffer);
+    void glBufferData(int target, int size, Buffer data, int usage);
+    void glBufferSubData(int target, int offset, int size, Buffer data);
+    void glGenVertexArrays(int n, int[] arrays, int offset);
+    void glBindVertexArray(int array);
+    void glEnableVertexAttribArray(int index);
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset);
+
+    // Textures
+    void glGenTextures(int n, int[] textures, int offset);
+    void glActiveTexture(int texture);
+    void glBindTexture(int target, int texture);
+    void glTexParameteri(int target, int pname, int param);
+    void glTexImage2D(int target, int level, int internalformat, int width, int height, int border,
+                      int format, int type, Buffer pixels);
+    void glDeleteTextures(int n, int[] textures, int offset);
+
+    // Framebuffers
+    void glGenFramebuffers(int n, int[] framebuffers, int offset);
+    void glDeleteFramebuffers(int n, int[] framebuffers, int offset);
+    void glBindFramebuffer(int target, int framebuffer);
+    void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level);
+    int glCheckFramebufferStatus(int target);
+}
@@ -0,0 +1,263 @@
+package com.example.flamvr.platform.opengl;
+
+import android.opengl.GLES31;
+
+import java.nio.Buffer;
+
+/**
+ * GL implementation forwarding every call to android.opengl.GLES31. Must be used on the GL thread.
+ */
+public class GLES31Backend implements GL {
+
+    @Override
+    public String glGetString(int name) {
+        return GLES31.glGetString(name);
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        GLES31.glGetIntegerv(pname, params, offset);
+    }
+
+    @Override
+    public void glGenQueries(int n, int[] ids, int offset) {
+        GLES31.glGenQueries(n, ids, offset);
+    }
+
+    @Override
+    public void glDeleteQueries(int n, int[] ids, int offset) {
+        GLES31.glDeleteQueries(n, ids, offset);
+    }
+
+    @Override
+    public void glBeginQuery(int target, int id) {
+        GLES31.glBeginQuery(target, id);
+    }
+
+    @Override
+    public void glEndQuery(int target) {
+        GLES31.glEndQuery(target);
+    }
+
+    @Override
+    public void glGetQueryObjectuiv(int id, int pname, int[] params, int offset) {
+        GLES31.glGetQueryObjectuiv(id, pname, params, offset);
+    }
+
+    @Override
+    public void glClearColor(float r, float g, float b, float a) {
+        GLES31.glClearColor(r, g, b, a);
+    }
+
+    @Override
+    public void glClear(int mask) {
+        GLES31.glClear(mask);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        GLES31.glViewport(x, y, width, height);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        GLES31.glDrawElements(mode, count, type, offset);
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        return GLES31.glCreateShader(type);
+    }
+
+    @Override
+    public void glShaderSource(int shader, String source) {
+        GLES31.glShaderSource(shader, source);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        GLES31.glCompileShader(shader);
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        GLES31.glGetShaderiv(shader, pname, params, offset);
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        return GLES31.glGetShaderInfoLog(shader);
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        GLES31.glDeleteShader(shader);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        return GLES31.glCreateProgram();
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        GLES31.glAttachShader(program, shader);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        GLES31.glLinkProgram(program);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        GLES31.glDeleteProgram(program);
+    }
+
+    @Override
+    public void glProgramParameteri(int program, int pname, int value) {
+        GLES31.glProgramParameteri(program, pname, value);
+    }
+
+    @Override
+    public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+                                   int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+        GLES31.glGetProgramBinary(program, bufSize, length, lengthOffset, binaryFormat, binaryFormatOffset, binary);
+    }
+
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        GLES31.glProgramBinary(program, binaryFormat, binary, length);
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        GLES31.glGetProgramiv(program, pname, params, offset);
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        return GLES31.glGetProgramInfoLog(program);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        GLES31.glUseProgram(program);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        return GLES31.glGetAttribLocation(program, name);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        return GLES31.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        GLES31.glUniform1i(location, x);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        GLES31.glUniformMatrix4fv(location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        GLES31.glGenBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        GLES31.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        GLES31.glBufferData(target, size, data, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        GLES31.glBufferSubData(target, offset, size, data);
+    }
+
+    @Override
+    public void glGenVertexArrays(int n, int[] arrays, int offset) {
+        GLES31.glGenVertexArrays(n, arrays, offset);
+    }
+
+    @Override
+    public void glBindVertexArray(int array) {
+        GLES31.glBindVertexArray(array);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        GLES31.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+        GLES31.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        GLES31.glGenTextures(n, textures, offset);
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        GLES31.glActiveTexture(texture);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        GLES31.glBindTexture(target, texture);
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        GLES31.glTexParameteri(target, pname, param);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border,
+                             int format, int type, Buffer pixels) {
+        GLES31.glTexImage2D(target, level, internalformat, width, height, border, format, type, pixels);
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        GLES31.glDeleteTextures(n, textures, offset);
+    }
+
+    @Override
+    public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        GLES31.glGenFramebuffers(n, framebuffers, offset);
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+        GLES31.glDeleteFramebuffers(n, framebuffers, offset);
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        GLES31.glBindFramebuffer(target, framebuffer);
+    }
+
+    @Override
+    public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {
+        GLES31.glFramebufferTexture2D(target, attachment, textarget, texture, level);
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int target) {
+        return GLES31.glCheckFramebufferStatus(target);
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.flamvr.platform.opengl;
+
+import android.util.Log;
+
+import com.example.flamvr.core.filter.FilterGraph;
+import com.example.flamvr.core.filter.TexturePool;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a compiled FilterGraph on the GL thread.
+ * Each stage but the last renders a full-screen quad into a pooled offscreen texture, the next stage
+ * samples it and hands it back to the pool, so consecutive stages ping-pong between two targets.
+ * The last stage draws the letterboxed quad to the screen. Stage programs are built on first use
+ * and shared by all graphs generating the same shader.
+ * Offscreen targets are sized to the on-screen video area times the render scale. Below scale 1.0
+ * costly graphs render every stage offscreen and add a pass upscaling the result to the screen;
+ * cheap ones keep drawing at full resolution since the extra pass would cost more than it saves.
+ */
+public class GLFilterChain {
+
+    private static final String TAG = GLFilterChain.class.getSimpleName();
+
+    // Range of the render scale
+    public static final float MIN_RENDER_SCALE = 0.5f;
+    public static final float MAX_RENDER_SCALE = 1.0f;
+
+    /**
+     * Offscreen color texture with the framebuffer it is attached to.
+     */
+    static final class RenderTarget {
+        final int texture;
+        final int framebuffer;
+
+        RenderTarget(int texture, int framebuffer) {
+            this.texture = texture;
+            this.framebuffer = framebuffer;
+        }
+    }
+
+    private final GL gl;
+    private final GLStateCache glState;
+    private final OpenGLShader shader;
+    private final TexturePool<RenderTarget> pool;
+
+    // Programs by stage key, valid for the current context
+    private final Map<String, Integer> programs = new HashMap<>();
+    private FilterGraph graph = new FilterGraph();
+    private List<FilterGraph.Stage> stages = graph.compile();
+
+    // Size of the screen and of the video area on it
+    private int width = 1;
+    private int height = 1;
+    private int contentWidth = 1;
+    private int contentHeight = 1;
+    // Size of the offscreen targets
+    private int targetWidth = 1;
+    private int targetHeight = 1;
+    private float renderScale = MAX_RENDER_SCALE;
+
+    private static final float[] IDENTITY = {
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0,
+            0, 0, 0, 1
+    };
+
+    // Transform matrix last uploaded and the program it went to
+    private final float[] uploadedMatrix = new float[16];
+    private int matrixProgram = 0;
+
+    public GLFilterChain(GL gl, GLStateCache glState, OpenGLShader shader) {
+        this.gl = gl;
+        this.glState = glState;
+        this.shader = shader;
+        pool = new TexturePool<>(new TexturePool.Allocator<RenderTarget>() {
+            @Override
+            public RenderTarget allocate(int width, int height) {
+                return createTarget(width, height);
+            }
+
+            @Override
+            public void free(RenderTarget target) {
+                glState.deleteFramebuffer(target.framebuffer);
+                glState.deleteTexture(target.texture);
+            }
+        });
+    }
+
+    /**
+     * Must be called when a new context is current; programs and targets of the old one are gone.
+     */
+    public void onContextCreated() {
+        programs.clear();
+        pool.clear(false);
+        matrixProgram = 0;
+    }
+
+    /**
+     * Sets the size of the screen and of the letterboxed video area on it.
+     */
+    public void setOutputSize(int width, int height, int contentWidth, int contentHeight) {
+        this.width = width;
+        this.height = height;
+        this.contentWidth = Math.max(1, contentWidth);
+        this.contentHeight = Math.max(1, contentHeight);
+        updateTargetSize();
+    }
+
+    /**
+     * Sets the resolution of offscreen stages relative to the video area, clamped to
+     * [MIN_RENDER_SCALE, MAX_RENDER_SCALE]. Takes effect on the next draw.
+     */
+    public void setRenderScale(float scale) {
+        float clamped = Math.max(MIN_RENDER_SCALE, Math.min(MAX_RENDER_SCALE, scale));
+        if (clamped == renderScale) {
+            return;
+        }
+        boolean wasScaled = isScaled();
+        renderScale = clamped;
+        updateTargetSize();
+        if (wasScaled != isScaled()) {
+            compile();
+        }
+    }
+
+    public float getRenderScale() {
+        return renderScale;
+    }
+
+    public void setGraph(FilterGraph graph) {
+        this.graph = graph;
+        compile();
+    }
+
+    // True if the current graph is drawn offscreen at a reduced scale and upscaled
+    public boolean isScaled() {
+        return renderScale < MAX_RENDER_SCALE && graph.isCostly();
+    }
+
+    private void compile() {
+        stages = graph.compile(isScaled());
+        Log.d(TAG, "Filter graph " + graph.getPasses() + " compiled to stages " + stages + " at scale " + renderScale);
+    }
+
+    private void updateTargetSize() {
+        targetWidth = Math.max(1, Math.round(contentWidth * renderScale));
+        targetHeight = Math.max(1, Math.round(contentHeight * renderScale));
+        pool.trimToSize(targetWidth, targetHeight);
+    }
+
+    public int getTargetWidth() {
+        return targetWidth;
+    }
+
+    public int getTargetHeight() {
+        return targetHeight;
+    }
+
+    public int getStageCount() {
+        return stages.size();
+    }
+
+    public TexturePool<RenderTarget> getPool() {
+        return pool;
+    }
+
+    private RenderTarget createTarget(int width, int height) {
+        int[] ids = new int[1];
+        gl.glGenTextures(1, ids, 0);
+        int texture = ids[0];
+        glState.bindTexture(0, GL.GL_TEXTURE_2D, texture);
+        gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA, width, height, 0, GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, null);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+        gl.glGenFramebuffers(1, ids, 0);
+        int framebuffer = ids[0];
+        glState.bindFramebuffer(framebuffer);
+        gl.glFramebufferTexture2D(GL.GL_FRAMEBUFFER, GL.GL_COLOR_ATTACHMENT0, GL.GL_TEXTURE_2D, texture, 0);
+        int status = gl.glCheckFramebufferStatus(GL.GL_FRAMEBUFFER);
+        if (status != GL.GL_FRAMEBUFFER_COMPLETE) {
+            Log.e(TAG, "Incomplete framebuffer " + width + "x" + height + ": 0x" + Integer.toHexString(status));
+        }
+        return new RenderTarget(texture, framebuffer);
+    }
+
+    private int getProgram(FilterGraph.Stage stage) {
+        Integer program = programs.get(stage.getKey());
+        if (program == null) {
+            program = shader.buildProgramFromSource("simple", stage.getKey(), stage.getFragmentSource());
+            glState.useProgram(program);
+            gl.glUniform1i(glState.getUniformLocation(program, "uTexture"), 0); // bind texture unit 0
+            if (!stage.hasExternalInput()) {
+                // Offscreen input needs no transform; the video's is uploaded per draw
+                gl.glUniformMatrix4fv(glState.getUniformLocation(program, "uTransform"), 1, false, IDENTITY, 0);
+            }
+            programs.put(stage.getKey(), program);
+        }
+        return program;
+    }
+
+    /**
+     * Draws the frame through all stages.
+     * @param externalTexture the SurfaceTexture's texture.
+     * @param transform its transform matrix.
+     * @param screenVAO letterboxed quad for the final stage.
+     * @param fullscreenVAO quad covering the whole target for offscreen stages.
+     * @param indexCount number of indices of both quads.
+     */
+    public void draw(int externalTexture, float[] transform, int screenVAO, int fullscreenVAO, int indexCount) {
+        RenderTarget input = null;
+        for (FilterGraph.Stage stage : stages) {
+            int program = getProgram(stage);
+            RenderTarget output = null;
+            if (stage.hasScreenOutput()) {
+                glState.bindFramebuffer(0);
+                glState.viewport(0, 0, width, height);
+                gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
+                glState.bindVertexArray(screenVAO);
+            } else {
+                output = pool.acquire(targetWidth, targetHeight);
+                glState.bindFramebuffer(output.framebuffer);
+                glState.viewport(0, 0, targetWidth, targetHeight);
+                glState.bindVertexArray(fullscreenVAO);
+            }
+            glState.useProgram(program);
+            if (stage.hasExternalInput()) {
+                if (matrixProgram != program || !Arrays.equals(transform, uploadedMatrix)) {
+                    gl.glUniformMatrix4fv(glState.getUniformLocation(program, "uTransform"), 1, false, transform, 0);
+                    System.arraycopy(transform, 0, uploadedMatrix, 0, transform.length);
+                    matrixProgram = program;
+                }
+                glState.bindTexture(0, GL.GL_TEXTURE_EXTERNAL_OES, externalTexture);
+            } else {
+                glState.bindTexture(0, GL.GL_TEXTURE_2D, input.texture);
+            }
+            gl.glDrawElements(GL.GL_TRIANGLES, indexCount, GL.GL_UNSIGNED_SHORT, 0);
+            if (input != null) {
+                pool.release(input);
+            }
+            input = output;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.flamvr.platform.opengl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks the GL binding state set through it and drops calls that would not change it.
+ * Attribute and uniform locations are looked up once per program and cached.
+ * Only valid while all binding changes go through this class; call invalidate() when the
+ * context is (re)created since the driver state is then unknown.
+ */
+public class GLStateCache {
+
+    private static final int UNKNOWN = -1;
+    private static final int MAX_TEXTURE_UNITS = 8;
+
+    private final GL gl;
+
+    private int program = UNKNOWN;
+    private int vertexArray = UNKNOWN;
+    private int arrayBuffer = UNKNOWN;
+    private int activeUnit = UNKNOWN;
+    private int framebuffer = UNKNOWN;
+    private final int[] viewport = new int[4];
+    // Texture bound per unit and its target
+    private final int[] textures = new int[MAX_TEXTURE_UNITS];
+    private final int[] textureTargets = new int[MAX_TEXTURE_UNITS];
+
+    // program -> name -> location
+    private final Map<Integer, Map<String, Integer>> attribLocations = new HashMap<>();
+    private final Map<Integer, Map<String, Integer>> uniformLocations = new HashMap<>();
+
+    private long callsSkipped = 0;
+
+    public GLStateCache(GL gl) {
+        this.gl = gl;
+        invalidate();
+    }
+
+    public GL getGL() {
+        return gl;
+    }
+
+    /**
+     * Forgets everything known about the context, e.g. after onSurfaceCreated.
+     */
+    public void invalidate() {
+        program = UNKNOWN;
+        vertexArray = UNKNOWN;
+        arrayBuffer = UNKNOWN;
+        activeUnit = UNKNOWN;
+        framebuffer = UNKNOWN;
+        viewport[2] = UNKNOWN;
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+            textures[i] = UNKNOWN;
+            textureTargets[i] = UNKNOWN;
+        }
+        attribLocations.clear();
+        uniformLocations.clear();
+    }
+
+    public void useProgram(int program) {
+        if (this.program == program) {
+            callsSkipped++;
+            return;
+        }
+        this.program = program;
+        gl.glUseProgram(program);
+    }
+
+    public void bindVertexArray(int vertexArray) {
+        if (this.vertexArray == vertexArray) {
+            callsSkipped++;
+            return;
+        }
+        this.vertexArray = vertexArray;
+        gl.glBindVertexArray(vertexArray);
+    }
+
+    /**
+     * Binds a buffer. GL_ARRAY_BUFFER is tracked; GL_ELEMENT_ARRAY_BUFFER is vertex array state
+     * and always forwarded.
+     */
+    public void bindBuffer(int target, int buffer) {
+        if (target == GL.GL_ARRAY_BUFFER) {
+            if (arrayBuffer == buffer) {
+                callsSkipped++;
+                return;
+            }
+            arrayBuffer = buffer;
+        }
+        gl.glBindBuffer(target, buffer);
+    }
+
+    /**
+     * Binds a texture to a unit, switching the active unit only when needed.
+     * @param unit texture unit index, 0 for GL_TEXTURE0.
+     */
+    public void bindTexture(int unit, int target, int texture) {
+        if (textures[unit] == texture && textureTargets[unit] == target) {
+            callsSkipped++;
+            return;
+        }
+        if (activeUnit != unit) {
+            activeUnit = unit;
+            gl.glActiveTexture(GL.GL_TEXTURE0 + unit);
+        }
+        textures[unit] = texture;
+        textureTargets[unit] = target;
+        gl.glBindTexture(target, texture);
+    }
+
+    public void bindFramebuffer(int framebuffer) {
+        if (this.framebuffer == framebuffer) {
+            callsSkipped++;
+            return;
+        }
+        this.framebuffer = framebuffer;
+        gl.glBindFramebuffer(GL.GL_FRAMEBUFFER, framebuffer);
+    }
+
+    public void viewport(int x, int y, int width, int height) {
+        if (viewport[0] == x && viewport[1] == y && viewport[2] == width && viewport[3] == height) {
+            callsSkipped++;
+            return;
+        }
+        viewport[0] = x;
+        viewport[1] = y;
+        viewport[2] = width;
+        viewport[3] = height;
+        gl.glViewport(x, y, width, height);
+    }
+
+    /**
+     * Deletes a texture and forgets its bindings, GL unbinds it and may reuse the name.
+     */
+    public void deleteTexture(int texture) {
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+            if (textures[i] == texture) {
+                textures[i] = UNKNOWN;
+            }
+        }
+        gl.glDeleteTextures(1, new int[]{texture}, 0);
+    }
+
+    /**
+     * Deletes a framebuffer, falling back to the default one if it was bound.
+     */
+    public void deleteFramebuffer(int framebuffer) {
+        if (this.framebuffer == framebuffer) {
+            this.framebuffer = 0;
+        }
+        gl.glDeleteFramebuffers(1, new int[]{framebuffer}, 0);
+    }
+
+    public int getAttribLocation(int program, String name) {
+        return lookup(attribLocations, program, name, true);
+    }
+
+    public int getUniformLocation(int program, String name) {
+        return lookup(uniformLocations, program, name, false);
+    }
+
+    private int lookup(Map<Integer, Map<String, Integer>> cache, int program, String name, boolean attrib) {
+        Map<String, Integer> locations = cache.get(program);
+        if (locations == null) {
+            locations = new HashMap<>();
+            cache.put(program, locations);
+        }
+        Integer location = locations.get(name);
+        if (location == null) {
+            location = attrib ? gl.glGetAttribLocation(program, name) : gl.glGetUniformLocation(program, name);
+            locations.put(name, location);
+        } else {
+            callsSkipped++;
+        }
+        return location;
+    }
+
+    public int getProgram() {
+        return program;
+    }
+
+    // Number of redundant binds and location queries that never reached the driver
+    public long getCallsSkipped() {
+        return callsSkipped;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.flamvr.platform.opengl;
+
+/**
+ * Measures the GPU time of each frame with EXT_disjoint_timer_query.
+ * Queries are kept in a small ring and read back a few frames later so reading never stalls the
+ * pipeline. Results spanning a disjoint event (frequency change, context loss) are discarded.
+ * Without the extension isSupported() is false and no GL calls are made.
+ */
+public class GpuFrameTimer {
+
+    // Frames a query may stay in flight before its slot is reused
+    private static final int RING_SIZE = 4;
+
+    private final GL gl;
+    private final int[] queries = new int[RING_SIZE];
+    private final boolean[] pending = new boolean[RING_SIZE];
+    private final int[] result = new int[1];
+    private boolean supported = false;
+    private int next = 0;
+    private boolean active = false;
+
+    // Last GPU frame time read back, -1 if none yet
+    private long lastGpuNs = -1;
+
+    public GpuFrameTimer(GL gl) {
+        this.gl = gl;
+    }
+
+    /**
+     * Must be called when a new context is current, queries of the old one are gone.
+     */
+    public void onContextCreated() {
+        String extensions = gl.glGetString(GL.GL_EXTENSIONS);
+        supported = extensions != null && extensions.contains("GL_EXT_disjoint_timer_query");
+        next = 0;
+        active = false;
+        lastGpuNs = -1;
+        for (int i = 0; i < RING_SIZE; i++) {
+            pending[i] = false;
+        }
+        if (supported) {
+            gl.glGenQueries(RING_SIZE, queries, 0);
+        }
+    }
+
+    public boolean isSupported() {
+        return supported;
+    }
+
+    /**
+     * Starts timing the GL commands of a frame. Skipped if the next slot is still in flight.
+     */
+    public void begin() {
+        if (!supported || pending[next]) {
+            return;
+        }
+        gl.glBeginQuery(GL.GL_TIME_ELAPSED_EXT, queries[next]);
+        active = true;
+    }
+
+    public void end() {
+        if (!active) {
+            return;
+        }
+        gl.glEndQuery(GL.GL_TIME_ELAPSED_EXT);
+        active = false;
+        pending[next] = true;
+        next = (next + 1) % RING_SIZE;
+    }
+
+    /**
+     * Reads back finished queries, oldest first.
+     * @return GPU time of the newest finished frame, or -1 if none finished since the last call.
+     */
+    public long poll() {
+        if (!supported) {
+            return -1;
+        }
+        gl.glGetIntegerv(GL.GL_GPU_DISJOINT_EXT, result, 0);
+        boolean disjoint = result[0] != 0;
+        long newest = -1;
+        for (int i = 0; i < RING_SIZE; i++) {
+            int slot = (next + i) % RING_SIZE;
+            if (!pending[slot]) {
+                continue;
+            }
+            gl.glGetQueryObjectuiv(queries[slot], GL.GL_QUERY_RESULT_AVAILABLE, result, 0);
+            if (result[0] == 0) {
+                break;
+            }
+            gl.glGetQueryObjectuiv(queries[slot], GL.GL_QUERY_RESULT, result, 0);
+            pending[slot] = false;
+            if (!disjoint) {
+                newest = result[0] & 0xFFFFFFFFL;
+            }
+        }
+        if (newest >= 0) {
+            lastGpuNs = newest;
+        }
+        return newest;
+    }
+
+    public long getLastGpuNs() {
+        return lastGpuNs;
+    }
+}
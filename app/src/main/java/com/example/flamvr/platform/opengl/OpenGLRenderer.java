@@ -2,19 +2,20 @@ package com.example.flamvr.platform.opengl;
 
 import android.content.Context;
 import android.graphics.SurfaceTexture;
-import android.opengl.GLES31;
 import android.opengl.GLSurfaceView;
 import android.util.Log;
 import android.view.Surface;
-import android.opengl.GLES11Ext;
 
-import com.example.flamvr.globals.FILTERS;
+import com.example.flamvr.core.filter.FilterGraph;
+import com.example.flamvr.core.quality.QualityGovernor;
+import com.example.flamvr.core.trace.TraceRecorder;
 import com.example.flamvr.globals.StreamDataInterface;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -22,20 +23,41 @@ import javax.microedition.khronos.opengles.GL10;
 
 /**
  * OpenGLRenderer handles rendering video frames using OpenGL ES 3.1.
- * It supports different shader filters and manages video aspect ratio.
+ * Filters are FilterGraphs run by a GLFilterChain; the renderer manages the video aspect ratio.
+ * Meant for GLSurfaceView.RENDERMODE_WHEN_DIRTY: a draw is requested only when the SurfaceTexture
+ * has a new frame or the aspect/filter state changed.
  */
-public class OpenGLRenderer implements GLSurfaceView.Renderer, StreamDataInterface.VideoInfoStream {
+public class OpenGLRenderer implements GLSurfaceView.Renderer, StreamDataInterface.VideoInfoStream,
+        SurfaceTexture.OnFrameAvailableListener {
 
     // Shader utility class for compiling shaders and creating programs
     OpenGLShader GLShader;
     private long startTime;
 
+    // All GL calls go through gl, binds through glState so redundant ones are dropped
+    private final GL gl;
+    private final GLStateCache glState;
+
     public OpenGLRenderer(Context ctx){
-        GLShader = new OpenGLShader(ctx);
+        this(ctx, new GLES31Backend());
+    }
+
+    public OpenGLRenderer(Context ctx, GL gl){
+        this.gl = gl;
+        glState = new GLStateCache(gl);
+        GLShader = new OpenGLShader(ctx, gl);
+        filterChain = new GLFilterChain(gl, glState, GLShader);
+        gpuTimer = new GpuFrameTimer(gl);
         startTime = System.nanoTime();
     }
     private static final String TAG = OpenGLRenderer.class.getSimpleName();
 
+    private static final int TRACE_FRAME_AVAILABLE = TraceRecorder.event("gl.frameAvailable");
+    private static final int TRACE_DRAW_FRAME = TraceRecorder.event("gl.onDrawFrame");
+    private static final int TRACE_UPDATE_TEX_IMAGE = TraceRecorder.event("gl.updateTexImage");
+    private static final int TRACE_FILTER_CHAIN = TraceRecorder.event("gl.filterChain");
+    private static final int TRACE_QUALITY_LEVEL = TraceRecorder.event("gl.qualityLevel");
+
     // Constants for byte size of data types
     static final int BYTES_PER_FLOAT = 4;
     static final int BYTES_PER_SHORT = 2;
@@ -45,12 +67,16 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer, StreamDataInterfa
     static float screenAspect = 1.0f;
     static float videoAspect = 1.0f;
 
+    // Attribute locations fixed by layout qualifiers in simple.vert
+    static final int ATTRIB_POSITION = 0;
+    static final int ATTRIB_TEXCOORD = 1;
+
     // Vertex data array (4 vertices with 3 position + 2 texture coords each
     float[] fvVerticesData = new float[]{
-            edgeX, edgeY, 0.0f, 1.0f, 0.0f,
-            edgeX, -edgeY, 0.0f, 1.0f, 1.0f,
-            -edgeX, -edgeY, 0.0f, 0.0f, 1.0f,
-            -edgeX, edgeY, 0.0f, 0.0f, 0.0f,
+            edgeX, edgeY, 0.0f, 1.0f, 1.0f,
+            edgeX, -edgeY, 0.0f, 1.0f, 0.0f,
+            -edgeX, -edgeY, 0.0f, 0.0f, 0.0f,
+            -edgeX, edgeY, 0.0f, 0.0f, 1.0f,
     };
 
     // Indices for two triangles forming the rectangle
@@ -59,38 +85,84 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer, StreamDataInterfa
             2, 3, 0
     };
 
-    // One OpenGL program per filter type
-    private int[] glProgram = new int[FILTERS.values().length];
+    // Same quad covering the whole target, used by offscreen filter stages
+    static final float[] FULLSCREEN_VERTICES = new float[]{
+            1.0f, 1.0f, 0.0f, 1.0f, 1.0f,
+            1.0f, -1.0f, 0.0f, 1.0f, 0.0f,
+            -1.0f, -1.0f, 0.0f, 0.0f, 0.0f,
+            -1.0f, 1.0f, 0.0f, 0.0f, 1.0f,
+    };
+
+    // Client-side copies of the quad, allocated once and re-filled on aspect changes
+    private final FloatBuffer vertexBuffer = convertToFloatBuffer(fvVerticesData);
+    private final ShortBuffer indexBuffer = convertToShortBuffer(svIndexData);
+
+    // Runs the current filter graph, programs are built on first use
+    private final GLFilterChain filterChain;
+    // Graph to switch to on the next draw
+    private volatile FilterGraph pendingGraph = new FilterGraph();
+    // Render scale of costly filters, applied on the next draw
+    private volatile float renderScale = GLFilterChain.MAX_RENDER_SCALE;
+
+    // Surface size and decoded video size, 0 until known
+    private int surfaceWidth = 0;
+    private int surfaceHeight = 0;
+    private volatile int videoWidth = 0;
+    private volatile int videoHeight = 0;
+
+    // Time from surface creation to the first draw, for the last created surface
+    private long surfaceCreatedNs = 0;
+    private volatile long firstFrameLatencyNs = -1;
 
     // OpenGL handles for Vertex Array Object, Vertex Buffer Object, Element Buffer Object
     private int glVAO, glVBO, glEBO;
+    // Full-screen quad for offscreen stages, sharing the element buffer
+    private int fullscreenVAO, fullscreenVBO;
 
     // SurfaceTexture and Surface for external texture rendering
-    private SurfaceTexture surfaceTexture;
+    private volatile SurfaceTexture surfaceTexture;
     private Surface surface;
 
-    // Texture ID and uniform/attribute handles
+    // Texture ID of the external video texture
     private int textureId;
-    private int textureHandle;
 
     // Callback interface to notify when Surface is ready
     private OnSurfaceReadyCallback surfaceReadyCallback;
 
+    // Asks the view for a draw, typically GLSurfaceView::requestRender
+    private RenderRequester renderRequester;
+
+    // Frames queued by the producer and not latched with updateTexImage yet
+    private final AtomicInteger framesAvailable = new AtomicInteger(0);
+
+    // Adapts render scale, filter tier and drop policy to the frame-time budget, GL thread only
+    private final QualityGovernor governor = new QualityGovernor(DEFAULT_FRAME_BUDGET_NS);
+    private final GpuFrameTimer gpuTimer;
+    private volatile boolean governorEnabled = true;
+    private volatile long frameBudgetNs = DEFAULT_FRAME_BUDGET_NS;
+    private static final long DEFAULT_FRAME_BUDGET_NS = 16_666_667;
+    // Graph selected by the user, before the governor's filter tier is applied
+    private FilterGraph selectedGraph = new FilterGraph();
+    private QualityGovernor.Level appliedLevel = governor.getLevel();
+    // Graph the filter chain was last given and whether it was reduced
+    private FilterGraph chainGraph = null;
+    private boolean chainReduced = false;
+
+    // Counters, written on the GL thread
+    private volatile long framesDrawn = 0;
+    private volatile long texturesUpdated = 0;
+    private volatile long framesSkipped = 0;
+    // Display refresh rate used to derive the number of vsyncs elapsed
+    private volatile float refreshRate = 60.0f;
+    private static final int STATS_LOG_INTERVAL = 600;
+
     // Matrix to hold texture transform for proper video orientation
     private final float[] transformMatrix = new float[16];
 
     // Flags to trigger updates on aspect ratio or filter change
-    private int transformMatrixHandle;
     private boolean changeAspect = false;
     private boolean changeFilter = false;
 
-    // Current filter ID from FILTERS enum
-    private int filterID = FILTERS.NONE.ordinal();
-
-    // Attribute locations for shader inputs
-    static int glPosition;
-    static int glTexCoord;
-
     /**
      * Interface for callback when the Surface is ready.
      */
@@ -98,6 +170,13 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer, StreamDataInterfa
         void onSurfaceReady(Surface surface);
     }
 
+    /**
+     * Interface used to ask the hosting view for a new draw.
+     */
+    public interface RenderRequester {
+        void requestRender();
+    }
+
     /**
      * Set the callback to be notified when the Surface is ready.
      */
@@ -106,6 +185,122 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer, StreamDataInterfa
         this.surfaceReadyCallback = callback;
     }
 
+    /**
+     * Set how the renderer asks for a draw when a frame arrives or its state changes.
+     */
+    public void setRenderRequester(RenderRequester requester) {
+        this.renderRequester = requester;
+    }
+
+    /**
+     * Set the display refresh rate, used to count vsyncs elapsed against frames drawn
+     * and as the default frame budget.
+     */
+    public void setRefreshRate(float refreshRate) {
+        if (refreshRate > 0) {
+            this.refreshRate = refreshRate;
+            setFrameBudgetNs((long) (1_000_000_000L / refreshRate));
+        }
+    }
+
+    private void requestRender() {
+        RenderRequester requester = renderRequester;
+        if (requester != null) {
+            requester.requestRender();
+        }
+    }
+
+    /**
+     * Called by the SurfaceTexture when the producer queued a new frame, on any thread.
+     */
+    @Override
+    public void onFrameAvailable(SurfaceTexture st) {
+        TraceRecorder.instant(TRACE_FRAME_AVAILABLE, framesAvailable.incrementAndGet());
+        requestRender();
+    }
+
+    // Number of draws since the renderer was created
+    public long getFramesDrawn() {
+        return framesDrawn;
+    }
+
+    // Number of frames latched from the SurfaceTexture
+    public long getTexturesUpdated() {
+        return texturesUpdated;
+    }
+
+    // Number of vsyncs since the renderer was created, the draw count of a continuous render loop
+    public long getVsyncsElapsed() {
+        return (long) ((System.nanoTime() - startTime) * (double) refreshRate / 1_000_000_000L);
+    }
+
+    // Time from the last surface creation to its first draw, -1 before that draw
+    public long getFirstFrameLatencyNs() {
+        return firstFrameLatencyNs;
+    }
+
+    // Hits and misses of the program binary cache
+    public ProgramBinaryCache getProgramCache() {
+        return GLShader.getBinaryCache();
+    }
+
+    /**
+     * Replaces the filter with an arbitrary graph, applied on the next draw. Can be called from any thread.
+     */
+    public void setFilterGraph(FilterGraph graph) {
+        pendingGraph = graph;
+        changeFilter = true;
+        requestRender();
+    }
+
+    /**
+     * Sets the resolution costly filters render at, relative to the on-screen video area.
+     * Clamped to [0.5, 1.0]; only the GL side changes, the decoder keeps running untouched.
+     * Can be called from any thread.
+     */
+    public void setRenderScale(float scale) {
+        renderScale = scale;
+        requestRender();
+    }
+
+    public float getRenderScale() {
+        return renderScale;
+    }
+
+    /**
+     * Sets the draw time the quality governor aims for, one display refresh by default.
+     */
+    public void setFrameBudgetNs(long budgetNs) {
+        frameBudgetNs = budgetNs;
+    }
+
+    /**
+     * Enables or disables automatic quality reduction; disabling restores full quality.
+     */
+    public void setQualityGovernorEnabled(boolean enabled) {
+        governorEnabled = enabled;
+        requestRender();
+    }
+
+    public QualityGovernor getQualityGovernor() {
+        return governor;
+    }
+
+    // Frames latched but never drawn because a newer one was already queued
+    public long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    // Executes the filter graph, exposes its texture pool statistics
+    public GLFilterChain getFilterChain() {
+        return filterChain;
+    }
+
+    // GL binding state, exposes how many redundant calls were skipped
+    public GLStateCache getGLState() {
+        return glState;
+    }
+
     /**
      * Returns the SurfaceTexture used to update video frames.
      */
@@ -119,12 +314,30 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer, StreamDataInterfa
     @Override
     public void onSurfaceCreated(GL10 gl10, EGLConfig eglConfig) {
         Log.e(TAG, "RENDERER: CREATED");
+        surfaceCreatedNs = System.nanoTime();
+        firstFrameLatencyNs = -1;
+        // A new context starts from unknown state
+        glState.invalidate();
+        GLShader.onContextCreated();
+        filterChain.onContextCreated();
+        gpuTimer.onContextCreated();
+        changeFilter = true;
         // Create an external texture for video frames
         textureId = createExternalTexture();
 
+        // A lost context takes the previous texture with it; its SurfaceTexture is released once the
+        // producer has moved to the new one
+        SurfaceTexture previousTexture = surfaceTexture;
+        Surface previousSurface = surface;
         // Create SurfaceTexture from texture ID for receiving frames from MediaCodec
         surfaceTexture = new SurfaceTexture(textureId);
-        surfaceTexture.setDefaultBufferSize(1920, 1080); // can adjust later
+        // Match the decoded size once known so producers without their own size do not get scaled
+        if (videoWidth > 0 && videoHeight > 0) {
+            surfaceTexture.setDefaultBufferSize(videoWidth, videoHeight);
+        } else {
+            surfaceTexture.setDefaultBufferSize(1920, 1080);
+        }
+        surfaceTexture.setOnFrameAvailableListener(this);
 
         // Create Surface from SurfaceTexture to pass to MediaCodec or other producers
         surface = new Surface(surfaceTexture);
@@ -134,68 +347,62 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer, StreamDataInterfa
         if (surfaceReadyCallback != null) {
             surfaceReadyCallback.onSurfaceReady(surface);
         }
-        GLES31.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
-        //compile vert shader
-        int vertShaderID = GLShader.compileShader("simple", GLES31.GL_VERTEX_SHADER);
-
-        //compile frag shader
-        int fragShaderID = GLShader.compileShader("simple", GLES31.GL_FRAGMENT_SHADER);
-
-        //create program and attach shaders
-        glProgram[FILTERS.NONE.ordinal()] = GLShader.createProgram(vertShaderID, fragShaderID);
-
-        fragShaderID = GLShader.compileShader("Luminance", GLES31.GL_FRAGMENT_SHADER);
-        glProgram[FILTERS.FILTER1.ordinal()] = GLShader.createProgram(vertShaderID, fragShaderID);
-
-        fragShaderID = GLShader.compileShader("Dither", GLES31.GL_FRAGMENT_SHADER);
-        glProgram[FILTERS.FILTER2.ordinal()] = GLShader.createProgram(vertShaderID, fragShaderID);
-
-        fragShaderID = GLShader.compileShader("Sketch", GLES31.GL_FRAGMENT_SHADER);
-        glProgram[FILTERS.FILTER3.ordinal()] = GLShader.createProgram(vertShaderID, fragShaderID);
-
-        //bind the program with default filter
-        SetFilter(filterID);
+        if (previousTexture != null) {
+            previousSurface.release();
+            previousTexture.release();
+        }
+        gl.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
 
         // gen VAO
-        int[] tmp = new int[2];
-        GLES31.glGenVertexArrays(1, tmp, 0);
+        int[] tmp = new int[3];
+        gl.glGenVertexArrays(2, tmp, 0);
         glVAO = tmp[0];
+        fullscreenVAO = tmp[1];
         //gen VBO
-        GLES31.glGenBuffers(2, tmp, 0);
+        gl.glGenBuffers(3, tmp, 0);
         glVBO = tmp[0];
         glEBO = tmp[1];
-        updateVertexArray();
+        fullscreenVBO = tmp[2];
+        createVertexArray();
     }
 
     /**
-     * Bind shader program and set attribute/uniform locations for current filter.
+     * Allocates the quad buffers once; later aspect changes only rewrite the vertices.
+     * The full-screen quad never changes.
      */
-    private void SetFilter(int filterID){
-        GLES31.glUseProgram(glProgram[filterID]);
-        glPosition = GLES31.glGetAttribLocation(glProgram[filterID], "aPosition");
-        glTexCoord = GLES31.glGetAttribLocation(glProgram[filterID], "aTexCoord");
-        textureHandle = GLES31.glGetUniformLocation(glProgram[filterID], "uTexture");
-        transformMatrixHandle = GLES31.glGetUniformLocation(glProgram[filterID], "uTransform");
-        GLES31.glUniform1i(textureHandle, 0); // bind texture unit 0
+    private void createVertexArray(){
+        glState.bindVertexArray(glVAO);
+        glState.bindBuffer(GL.GL_ARRAY_BUFFER, glVBO);
+        vertexBuffer.put(fvVerticesData).position(0);
+        gl.glBufferData(GL.GL_ARRAY_BUFFER, fvVerticesData.length*BYTES_PER_FLOAT, vertexBuffer, GL.GL_DYNAMIC_DRAW);
+        glState.bindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, glEBO);
+        gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, svIndexData.length*BYTES_PER_SHORT, indexBuffer, GL.GL_STATIC_DRAW);
+        setVertexAttributes();
+
+        glState.bindVertexArray(fullscreenVAO);
+        glState.bindBuffer(GL.GL_ARRAY_BUFFER, fullscreenVBO);
+        gl.glBufferData(GL.GL_ARRAY_BUFFER, FULLSCREEN_VERTICES.length*BYTES_PER_FLOAT, convertToFloatBuffer(FULLSCREEN_VERTICES), GL.GL_STATIC_DRAW);
+        glState.bindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, glEBO);
+        setVertexAttributes();
     }
 
     /**
-     * Uploads vertex and index data to GPU buffers and sets vertex attribute pointers.
+     * Points the bound vertex array at the bound array buffer.
      */
-    private void updateVertexArray(){
-        //bind VAO
-        GLES31.glBindVertexArray(glVAO);
-
-        //upload vertex data to VBO
-        GLES31.glBindBuffer(GLES31.GL_ARRAY_BUFFER, glVBO);
-        GLES31.glBufferData(GLES31.GL_ARRAY_BUFFER,fvVerticesData.length*BYTES_PER_FLOAT, convertToFloatBuffer(fvVerticesData), GLES31.GL_STATIC_DRAW);
-        GLES31.glBindBuffer(GLES31.GL_ELEMENT_ARRAY_BUFFER, glEBO);
-        GLES31.glBufferData(GLES31.GL_ELEMENT_ARRAY_BUFFER,svIndexData.length*BYTES_PER_SHORT, convertToShortBuffer(svIndexData), GLES31.GL_STATIC_DRAW);
+    private void setVertexAttributes(){
+        gl.glEnableVertexAttribArray(ATTRIB_POSITION);
+        gl.glVertexAttribPointer(ATTRIB_POSITION, 3, GL.GL_FLOAT, false, BYTES_PER_FLOAT*FLOATS_PER_VERTEX, 0);
+        gl.glEnableVertexAttribArray(ATTRIB_TEXCOORD);
+        gl.glVertexAttribPointer(ATTRIB_TEXCOORD,2, GL.GL_FLOAT, false, BYTES_PER_FLOAT*FLOATS_PER_VERTEX, 3*BYTES_PER_FLOAT);
+    }
 
-        GLES31.glEnableVertexAttribArray(glPosition);
-        GLES31.glVertexAttribPointer(glPosition, 3, GLES31.GL_FLOAT, false, BYTES_PER_FLOAT*FLOATS_PER_VERTEX, 0);
-        GLES31.glEnableVertexAttribArray(glTexCoord);
-        GLES31.glVertexAttribPointer(glTexCoord,2, GLES31.GL_FLOAT, false, BYTES_PER_FLOAT*FLOATS_PER_VERTEX, 3*BYTES_PER_FLOAT);
+    /**
+     * Rewrites the quad vertices in place after an aspect change.
+     */
+    private void updateVertexArray(){
+        glState.bindBuffer(GL.GL_ARRAY_BUFFER, glVBO);
+        vertexBuffer.put(fvVerticesData).position(0);
+        gl.glBufferSubData(GL.GL_ARRAY_BUFFER, 0, fvVerticesData.length*BYTES_PER_FLOAT, vertexBuffer);
     }
 
     /**
@@ -225,7 +432,8 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer, StreamDataInterfa
     @Override
     public void onSurfaceChanged(GL10 gl10, int i, int i1) {
         Log.e(TAG, "RENDERER: Changed");
-        GLES31.glViewport(0, 0, i, i1);
+        surfaceWidth = i;
+        surfaceHeight = i1;
         screenAspect = i/(float)i1;
         edgeX = 1.0f;
         edgeY = 1.0f;
@@ -247,12 +455,19 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer, StreamDataInterfa
         fvVerticesData[11] = -edgeY;
         fvVerticesData[16] = edgeY;
         changeAspect = true;
+        requestRender();
     }
     /**
      * Receives video dimensions from stream and recalculates vertex coordinates accordingly.
      */
     @Override
     public void getVideoDim(int width, int height) {
+        videoWidth = width;
+        videoHeight = height;
+        SurfaceTexture st = surfaceTexture;
+        if (st != null) {
+            st.setDefaultBufferSize(width, height);
+        }
         videoAspect = width/(float)height;
         edgeX = 1.0f;
         edgeY = 1.0f;
@@ -274,6 +489,7 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer, StreamDataInterfa
         fvVerticesData[11] = -edgeY;
         fvVerticesData[16] = edgeY;
         changeAspect = true;
+        requestRender();
     }
 
     /**
@@ -281,34 +497,104 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer, StreamDataInterfa
      */
     @Override
     public void getFilter(int id) {
-        filterID = id;
+        pendingGraph = FilterGraph.forFilter(id);
         changeFilter = true;
+        requestRender();
     }
 
     /**
-     * called every frame to draw
+     * called on every requested draw; the bound program and vertex state persist between draws
      */
     @Override
     public void onDrawFrame(GL10 gl10) {
-        GLES31.glUseProgram(glProgram[filterID]);
-        if(changeAspect || changeFilter){
-            SetFilter(filterID);
-            updateVertexArray();
-            changeAspect = false;
+        long startNs = System.nanoTime();
+        TraceRecorder.begin(TRACE_DRAW_FRAME);
+        if(changeFilter){
             changeFilter = false;
+            selectedGraph = pendingGraph;
+            // A different filter has a different cost, start over from full quality
+            governor.reset();
+            applyQuality();
         }
-        if (surfaceTexture != null) {
-            surfaceTexture.updateTexImage();
+        if (governor.getBudgetNs() != frameBudgetNs) {
+            governor.setBudgetNs(frameBudgetNs);
+        }
+        if (!governorEnabled && governor.getLevelIndex() != 0) {
+            governor.reset();
+            applyQuality();
+        }
+        if(changeAspect){
+            changeAspect = false;
+            updateVertexArray();
+            filterChain.setOutputSize(surfaceWidth, surfaceHeight,
+                    Math.round(edgeX * surfaceWidth), Math.round(edgeY * surfaceHeight));
+        }
+        filterChain.setRenderScale(Math.min(renderScale, appliedLevel.getRenderScale()));
+        if (surfaceTexture == null) {
+            TraceRecorder.end(TRACE_DRAW_FRAME);
+            return;
+        }
+        // Only latch when a new frame arrived, otherwise redraw the current one
+        int available = framesAvailable.getAndSet(0);
+        if (available > 0) {
+            // Under LATEST every queued frame is latched and only the newest is drawn
+            int latch = appliedLevel.getDropPolicy() == QualityGovernor.DropPolicy.LATEST ? available : 1;
+            TraceRecorder.begin(TRACE_UPDATE_TEX_IMAGE);
+            for (int i = 0; i < latch; i++) {
+                surfaceTexture.updateTexImage();
+            }
+            TraceRecorder.end(TRACE_UPDATE_TEX_IMAGE);
+            texturesUpdated += latch;
+            framesSkipped += latch - 1;
+            if (available > latch) {
+                // Draw the rest one at a time
+                framesAvailable.addAndGet(available - latch);
+                requestRender();
+            }
         }
-        GLES31.glClear(GLES31.GL_COLOR_BUFFER_BIT|GLES31.GL_DEPTH_BUFFER_BIT);
-
         surfaceTexture.getTransformMatrix(transformMatrix);
-        GLES31.glUniformMatrix4fv(transformMatrixHandle, 1, false, transformMatrix, 0);
-        // Bind external texture to unit 0
-        GLES31.glActiveTexture(GLES31.GL_TEXTURE0);
-        GLES31.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
-        GLES31.glBindVertexArray(glVAO);
-        GLES31.glDrawElements(GLES31.GL_TRIANGLES,svIndexData.length, GLES31.GL_UNSIGNED_SHORT,0);
+        gpuTimer.begin();
+        TraceRecorder.begin(TRACE_FILTER_CHAIN);
+        filterChain.draw(textureId, transformMatrix, glVAO, fullscreenVAO, svIndexData.length);
+        TraceRecorder.end(TRACE_FILTER_CHAIN);
+        gpuTimer.end();
+        gpuTimer.poll();
+        // The GPU time of this frame is only known a few frames later, use the latest one read back
+        long frameNs = Math.max(System.nanoTime() - startNs, gpuTimer.getLastGpuNs());
+        if (governorEnabled && governor.onFrame(frameNs)) {
+            applyQuality();
+        }
+        if (firstFrameLatencyNs < 0) {
+            firstFrameLatencyNs = System.nanoTime() - surfaceCreatedNs;
+            ProgramBinaryCache cache = GLShader.getBinaryCache();
+            Log.d(TAG, "First draw " + firstFrameLatencyNs / 1000 + " us after surface creation, program cache "
+                    + cache.getHits() + " hits / " + cache.getMisses() + " misses");
+        }
+        if (++framesDrawn % STATS_LOG_INTERVAL == 0) {
+            Log.d(TAG, "Drawn " + framesDrawn + " frames (" + texturesUpdated + " new) in "
+                    + getVsyncsElapsed() + " vsyncs");
+        }
+        TraceRecorder.end(TRACE_DRAW_FRAME);
+    }
+
+    /**
+     * Applies the governor's level to the filter chain.
+     */
+    private void applyQuality() {
+        QualityGovernor.Level level = governor.getLevel();
+        boolean reduced = level.getFilterTier() == QualityGovernor.FilterTier.REDUCED;
+        if (selectedGraph != chainGraph || reduced != chainReduced) {
+            filterChain.setGraph(reduced ? selectedGraph.reduced() : selectedGraph);
+            chainGraph = selectedGraph;
+            chainReduced = reduced;
+        }
+        filterChain.setRenderScale(Math.min(renderScale, level.getRenderScale()));
+        if (level != appliedLevel) {
+            TraceRecorder.counter(TRACE_QUALITY_LEVEL, governor.getLevelIndex());
+            Log.d(TAG, "Quality level " + governor.getLevelIndex() + " (" + level + "), average frame "
+                    + governor.getAverageFrameNs() / 1000 + " us, budget " + governor.getBudgetNs() / 1000 + " us");
+        }
+        appliedLevel = level;
     }
 
     /**
@@ -316,13 +602,13 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer, StreamDataInterfa
      */
     private int createExternalTexture() {
         int[] textures = new int[1];
-        GLES31.glGenTextures(1, textures, 0);
+        gl.glGenTextures(1, textures, 0);
         int texture = textures[0];
-        GLES31.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, texture);
-        GLES31.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES31.GL_TEXTURE_MIN_FILTER, GLES31.GL_LINEAR);
-        GLES31.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES31.GL_TEXTURE_MAG_FILTER, GLES31.GL_LINEAR);
-        GLES31.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES31.GL_TEXTURE_WRAP_S, GLES31.GL_CLAMP_TO_EDGE);
-        GLES31.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES31.GL_TEXTURE_WRAP_T, GLES31.GL_CLAMP_TO_EDGE);
+        glState.bindTexture(0, GL.GL_TEXTURE_EXTERNAL_OES, texture);
+        gl.glTexParameteri(GL.GL_TEXTURE_EXTERNAL_OES, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR);
+        gl.glTexParameteri(GL.GL_TEXTURE_EXTERNAL_OES, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+        gl.glTexParameteri(GL.GL_TEXTURE_EXTERNAL_OES, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL.GL_TEXTURE_EXTERNAL_OES, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
         return texture;
     }
 }
@@ -1,20 +1,45 @@
 package com.example.flamvr.platform.opengl;
 
 import android.content.Context;
-import android.opengl.GLES31;
 import android.util.Log;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
 
 
 public class OpenGLShader {
-    private final Context ctx;
 
-    // Constructor stores the Android Context for asset access
-    public OpenGLShader(Context ctx){
-        this.ctx = ctx;
+    /**
+     * Reads a shader source file by name, null if it cannot be read.
+     */
+    public interface SourceLoader {
+        String read(String fileName);
+    }
+
+    private final SourceLoader loader;
+    private final GL gl;
+
+    // Linked program binaries from earlier launches
+    private final ProgramBinaryCache binaryCache;
+    // Shader sources by file name, read from the assets once
+    private final Map<String, String> sources = new HashMap<>();
+    // Driver of the current context, part of the binary cache key
+    private String driver;
+
+    // Constructor reads shaders from the app's assets and caches binaries in its cache dir
+    public OpenGLShader(Context ctx, GL gl){
+        this(gl, fileName -> readAssetFile(ctx, fileName), new File(ctx.getCacheDir(), "gl-programs"));
+    }
+
+    // Constructor for other shader sources, e.g. on the JVM with a headless GL
+    public OpenGLShader(GL gl, SourceLoader loader, File cacheDir){
+        this.loader = loader;
+        this.gl = gl;
+        binaryCache = new ProgramBinaryCache(cacheDir, 4 * 1024 * 1024);
     }
     private static final String TAG = OpenGLShader.class.getSimpleName();
 
@@ -23,7 +48,7 @@ public class OpenGLShader {
      * @param fileName The name of the shader file (e.g., "simple.vert").
      * @return The shader source code as a String.
      */
-    private String readAssetFile(String fileName){
+    private static String readAssetFile(Context ctx, String fileName){
         BufferedReader reader = null;
         try{
             reader = new BufferedReader(new InputStreamReader(ctx.getAssets().open(fileName)));
@@ -48,33 +73,97 @@ public class OpenGLShader {
         return null;
     }
 
+    private String getSource(String fileName){
+        String source = sources.get(fileName);
+        if(source == null){
+            source = loader.read(fileName);
+            if(source != null){
+                sources.put(fileName, source);
+            }
+        }
+        return source;
+    }
+
     /**
-     * Compiles a shader from source code stored in the assets folder.
-     * @param name The base name of the shader file without extension (e.g., "simple").
-     * @param type The type of shader: GLES31.GL_VERTEX_SHADER or GLES31.GL_FRAGMENT_SHADER.
-     * @return The OpenGL shader ID or -1 if compilation failed.
+     * Must be called when a new context is current; programs of the old one are gone.
      */
-    public int compileShader(String name, int type){
-        String shaderCode;
-        if(type == GLES31.GL_VERTEX_SHADER){
-            shaderCode = readAssetFile(name + ".vert");
-        } else {
-            shaderCode = readAssetFile(name + ".frag");
-        }
-        // compile the shader
-        int shaderID = GLES31.glCreateShader(type);
-        if (shaderCode == null) {
+    public void onContextCreated(){
+        driver = ProgramBinaryCache.driverString(gl);
+    }
+
+    /**
+     * Returns a linked program for a vertex shader file and a generated fragment shader, loaded from
+     * the binary cache when possible. On a miss the program is compiled from source and its binary
+     * saved for the next launch.
+     * @param vertName base name of the vertex shader file (e.g., "simple").
+     * @param label name used in logs.
+     * @param fragSource fragment shader source code.
+     * @return The OpenGL program ID or 0 if compilation failed.
+     */
+    public int buildProgramFromSource(String vertName, String label, String fragSource){
+        long startNs = System.nanoTime();
+        String vertSource = getSource(vertName + ".vert");
+        if (vertSource == null) {
             throw new IllegalArgumentException("Shader source is null");
         }
-        GLES31.glShaderSource(shaderID, shaderCode);
-        GLES31.glCompileShader(shaderID);
+        if (driver == null) {
+            onContextCreated();
+        }
+        String key = ProgramBinaryCache.key(vertSource, fragSource, driver);
+        int programID = binaryCache.load(gl, key);
+        if(programID != 0){
+            Log.d(TAG, "Program " + label + " loaded from cache in " + (System.nanoTime() - startNs) / 1000 + " us");
+            return programID;
+        }
+        int vertID = compileSource(vertSource, GL.GL_VERTEX_SHADER);
+        int fragID = compileSource(fragSource, GL.GL_FRAGMENT_SHADER);
+        if(vertID == -1 || fragID == -1){
+            // compileSource already deleted the one that failed
+            if(vertID != -1){
+                gl.glDeleteShader(vertID);
+            }
+            if(fragID != -1){
+                gl.glDeleteShader(fragID);
+            }
+            return 0;
+        }
+        programID = createProgram(vertID, fragID);
+        // Shaders are not needed once linked
+        gl.glDeleteShader(vertID);
+        gl.glDeleteShader(fragID);
+        int[] success = new int[1];
+        gl.glGetProgramiv(programID, GL.GL_LINK_STATUS, success, 0);
+        if(success[0] != 0){
+            try {
+                binaryCache.save(gl, programID, key);
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot cache program " + label + ": " + e);
+            }
+        }
+        Log.d(TAG, "Program " + label + " compiled in " + (System.nanoTime() - startNs) / 1000 + " us");
+        return programID;
+    }
+
+    public ProgramBinaryCache getBinaryCache(){
+        return binaryCache;
+    }
+
+    /**
+     * Compiles a shader from source code.
+     * @return The OpenGL shader ID or -1 if compilation failed.
+     */
+    public int compileSource(String shaderCode, int type){
+        // compile the shader
+        int shaderID = gl.glCreateShader(type);
+        gl.glShaderSource(shaderID, shaderCode);
+        gl.glCompileShader(shaderID);
         //get shader compile status
         final int[] compileStatus = new int[1];
-        GLES31.glGetShaderiv(shaderID, GLES31.GL_COMPILE_STATUS, compileStatus, 0);
+        gl.glGetShaderiv(shaderID, GL.GL_COMPILE_STATUS, compileStatus, 0);
         if(compileStatus[0]==0){
-            String str = GLES31.glGetShaderInfoLog(shaderID);
+            String str = gl.glGetShaderInfoLog(shaderID);
             Log.e(TAG, "Error compiling shader: " + str);
-            GLES31.glDeleteShader(shaderID);
+            gl.glDeleteShader(shaderID);
             return -1;
         }
         return shaderID;
@@ -88,15 +177,17 @@ public class OpenGLShader {
      */
     public int createProgram(int vertID, int fragID){
         //create program and attach shaders
-        int programID = GLES31.glCreateProgram();
-        GLES31.glAttachShader(programID, vertID);
-        GLES31.glAttachShader(programID, fragID);
-        GLES31.glLinkProgram(programID);
+        int programID = gl.glCreateProgram();
+        gl.glAttachShader(programID, vertID);
+        gl.glAttachShader(programID, fragID);
+        // Lets the driver keep the binary around for glGetProgramBinary
+        gl.glProgramParameteri(programID, GL.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL.GL_TRUE);
+        gl.glLinkProgram(programID);
 
         int[] success = new int[1];
-        GLES31.glGetProgramiv(programID, GLES31.GL_LINK_STATUS, success, 0);
+        gl.glGetProgramiv(programID, GL.GL_LINK_STATUS, success, 0);
         if(success[0]==0){
-            String str = GLES31.glGetProgramInfoLog(programID);
+            String str = gl.glGetProgramInfoLog(programID);
             Log.e(TAG, "Error Linking shader: " + str);
         }
         return programID;
@@ -0,0 +1,218 @@
+package com.example.flamvr.platform.opengl;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * On-disk cache of linked program binaries from glGetProgramBinary, one file per program.
+ * Entries are keyed by the shader sources and the GL vendor/renderer/version strings, so a driver
+ * update or an edited shader never loads a stale binary. A binary the driver rejects is deleted
+ * and the program is compiled from source again.
+ */
+public class ProgramBinaryCache {
+
+    private static final String TAG = ProgramBinaryCache.class.getSimpleName();
+
+    // "FPGB" + format version of the file header
+    private static final int MAGIC = 0x46504742;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".bin";
+    private static final int HEADER_SIZE = 16;
+
+    private final File directory;
+    private final long maxBytes;
+
+    // Statistics
+    private long hits = 0;
+    private long misses = 0;
+    private long rejected = 0;
+
+    public ProgramBinaryCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Identifies the driver of the current context, must be called on the GL thread.
+     */
+    public static String driverString(GL gl) {
+        return gl.glGetString(GL.GL_VENDOR) + '\n' + gl.glGetString(GL.GL_RENDERER) + '\n' + gl.glGetString(GL.GL_VERSION);
+    }
+
+    /**
+     * Builds the cache key of a program.
+     */
+    public static String key(String vertexSource, String fragmentSource, String driver) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(vertexSource.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(fragmentSource.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            byte[] hash = digest.digest(driver.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >>> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates a program from the cached binary of key.
+     * @return the linked program, or 0 on a miss or if the driver rejected the binary.
+     */
+    public synchronized int load(GL gl, String key) {
+        File file = new File(directory, key + SUFFIX);
+        if (!file.isFile()) {
+            misses++;
+            return 0;
+        }
+        ByteBuffer binary;
+        int format;
+        try (FileInputStream input = new FileInputStream(file)) {
+            FileChannel channel = input.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read fully
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Unknown cache entry format");
+            }
+            format = header.getInt();
+            int length = header.getInt();
+            if (length <= 0 || length != channel.size() - HEADER_SIZE) {
+                throw new IOException("Truncated cache entry");
+            }
+            // GL reads the binary from native memory
+            binary = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+            while (binary.hasRemaining() && channel.read(binary) >= 0) {
+                // read fully
+            }
+            binary.flip();
+        } catch (IOException e) {
+            file.delete();
+            misses++;
+            return 0;
+        }
+        int program = gl.glCreateProgram();
+        gl.glProgramBinary(program, format, binary, binary.remaining());
+        int[] status = new int[1];
+        gl.glGetProgramiv(program, GL.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            // Usually a driver update that kept its version string
+            Log.w(TAG, "Program binary rejected: " + gl.glGetProgramInfoLog(program));
+            gl.glDeleteProgram(program);
+            file.delete();
+            rejected++;
+            misses++;
+            return 0;
+        }
+        // Mark as recently used for LRU eviction
+        file.setLastModified(System.currentTimeMillis());
+        hits++;
+        return program;
+    }
+
+    /**
+     * Stores the binary of a linked program under key and evicts old entries beyond the size cap.
+     */
+    public synchronized void save(GL gl, int program, String key) throws IOException {
+        int[] length = new int[1];
+        gl.glGetProgramiv(program, GL.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0 || length[0] > maxBytes) {
+            return;
+        }
+        ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        int[] format = new int[1];
+        gl.glGetProgramBinary(program, length[0], length, 0, format, 0, binary);
+        binary.limit(length[0]);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(format[0]);
+        header.putInt(length[0]);
+        header.flip();
+        // Write to a temporary file first so readers never see a partial entry
+        File tmp = new File(directory, key + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(tmp)) {
+            FileChannel channel = output.getChannel();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            while (binary.hasRemaining()) {
+                channel.write(binary);
+            }
+        }
+        File file = new File(directory, key + SUFFIX);
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot write " + file);
+        }
+        evict(file);
+    }
+
+    // Deletes least recently used entries until the cache fits in maxBytes
+    private void evict(File keep) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (!file.equals(keep)) {
+                long length = file.length();
+                if (file.delete()) {
+                    total -= length;
+                }
+            }
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    // Binaries found on disk but refused by the driver, also counted as misses
+    public synchronized long getRejected() {
+        return rejected;
+    }
+}
@@ -1,10 +1,14 @@
 package com.example.flamvr.ui;
 
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.view.Choreographer;
 import android.widget.ArrayAdapter;
+import android.view.View;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.SeekBar;
 import android.widget.Spinner;
 import android.widget.TextView;
@@ -13,6 +17,9 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.flamvr.R;
+import com.example.flamvr.core.metrics.TelemetryChannel;
+import com.example.flamvr.core.thumbnail.ThumbnailEngine;
+import com.example.flamvr.globals.SeekMode;
 import com.example.flamvr.globals.StreamDataInterface;
 import com.example.flamvr.globals.VideoPlaybackContract;
 
@@ -20,7 +27,7 @@ import com.example.flamvr.globals.VideoPlaybackContract;
  * Handles UI updates for video playback.
  * Implements interfaces to receive callbacks for playback state and stream data.
  */
-public class UIHandler implements VideoPlaybackContract, StreamDataInterface.ProgressBarStream, StreamDataInterface.VideoInfoStream {
+public class UIHandler implements VideoPlaybackContract, StreamDataInterface.ProgressBarStream, StreamDataInterface.VideoInfoStream, ThumbnailEngine.Listener {
 
     // References to activity and UI components
     private final AppCompatActivity activity;
@@ -31,23 +38,36 @@ public class UIHandler implements VideoPlaybackContract, StreamDataInterface.Pro
     private final TextView tvFrameCount;
     private final Spinner spPlaybackControl;
     private final Spinner spFilterSelection;
+    private final ImageView ivSeekPreview;
 
-    // Playback state variables
-    private long totalDurationMs = 0;
-    private long progress = 0;
-    private long frameCount = 0;
+    // Source of seek bar previews (optional) and the keyframe currently previewed, -1 when hidden
+    private ThumbnailEngine thumbnailEngine;
+    private long previewKeyUs = -1;
 
-    // Handler to update UI periodically on the main thread
+    // Handler to update UI on the main thread
     Handler handler = new Handler(Looper.getMainLooper());
 
-    // Runnable that updates time and frame count every second
-    Runnable updateRunnable = new Runnable() {
+    // Decoder position published by the player, sampled once per display frame (null until a player exists)
+    private volatile TelemetryChannel telemetry;
+    private final TelemetryChannel.Snapshot telemetrySnapshot = new TelemetryChannel.Snapshot();
+    private final Choreographer choreographer;
+    private boolean sampling = false;
+    // Last values put on screen, so views are only touched when they change
+    private long shownSequence = -1;
+    private long shownSeconds = -1;
+    private long shownFrame = -1;
+    // The seek bar thumb follows the finger while it is dragged, not the decoder
+    private boolean scrubbing = false;
+
+    private final Choreographer.FrameCallback sampleTelemetry = new Choreographer.FrameCallback() {
         @Override
-        public void run() {
-            tvTotal.setText(formatTime(totalDurationMs));
-            tvCurrent.setText(formatTime(progress));
-            tvFrameCount.setText(String.valueOf(frameCount));
-            handler.postDelayed(this, 1000); // Repeat every 1 second
+        public void doFrame(long frameTimeNanos) {
+            TelemetryChannel channel = telemetry;
+            if (channel != null && channel.getSequence() != shownSequence && channel.read(telemetrySnapshot)) {
+                shownSequence = telemetrySnapshot.getSequence();
+                showTelemetry(telemetrySnapshot);
+            }
+            choreographer.postFrameCallback(this);
         }
     };
 
@@ -63,6 +83,7 @@ public class UIHandler implements VideoPlaybackContract, StreamDataInterface.Pro
         tvCurrent = activity.findViewById(R.id.currDuration);
         tvFrameCount = activity.findViewById(R.id.frameCount);
         spPlaybackControl = activity.findViewById(R.id.plabackControl);
+        ivSeekPreview = activity.findViewById(R.id.seekPreview);
 
         // Set up playback speed spinner
         String[] playBackSpeeds = {"0.5x", "1.0x", "1.5x", "2.0x"};
@@ -87,7 +108,51 @@ public class UIHandler implements VideoPlaybackContract, StreamDataInterface.Pro
         );
         filterAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
         spFilterSelection.setAdapter(filterAdapter);
-        handler.post(updateRunnable);
+        choreographer = Choreographer.getInstance();
+        startTelemetry();
+    }
+
+    // Set the player telemetry to display; may be called from any thread
+    public void setTelemetry(TelemetryChannel channel) {
+        telemetry = channel;
+        shownSequence = -1;
+    }
+
+    // Start sampling the telemetry every display frame, main thread only
+    public void startTelemetry() {
+        if (!sampling) {
+            sampling = true;
+            choreographer.postFrameCallback(sampleTelemetry);
+        }
+    }
+
+    // Stop sampling, e.g. while the activity is not visible
+    public void stopTelemetry() {
+        sampling = false;
+        choreographer.removeFrameCallback(sampleTelemetry);
+    }
+
+    // Moves the seek bar and updates the time and frame labels from a telemetry snapshot
+    private void showTelemetry(TelemetryChannel.Snapshot snapshot) {
+        long progressMs = snapshot.getPositionUs() / 1000;
+        if (!scrubbing) {
+            seekBar.setProgress((int) progressMs);
+        }
+        seekBar.setSecondaryProgress((int) (snapshot.getBufferedEndUs() / 1000));
+        if (progressMs / 1000 != shownSeconds) {
+            shownSeconds = progressMs / 1000;
+            tvCurrent.setText(formatTime(progressMs));
+        }
+        if (snapshot.getFrame() != shownFrame) {
+            shownFrame = snapshot.getFrame();
+            tvFrameCount.setText(String.valueOf(shownFrame));
+        }
+    }
+
+    // Set the engine providing seek bar previews
+    public void setThumbnailEngine(ThumbnailEngine engine) {
+        thumbnailEngine = engine;
+        engine.setListener(this);
     }
 
     // Triggered when the video is initialized with a URI
@@ -99,7 +164,6 @@ public class UIHandler implements VideoPlaybackContract, StreamDataInterface.Pro
     // Triggered when playback starts
     @Override
     public void onPlay() {
-        seekBar.setMax(100);
         btnPlayPause.setImageResource(R.drawable.ic_pause);
     }
 
@@ -112,34 +176,58 @@ public class UIHandler implements VideoPlaybackContract, StreamDataInterface.Pro
 
     // Triggered when user seeks to a position
     @Override
-    public void onSeek(int progress) {
+    public void onSeek(long positionUs, SeekMode mode) {
+        scrubbing = mode == SeekMode.FAST;
+        if (thumbnailEngine == null) {
+            return;
+        }
+        if (mode == SeekMode.EXACT) {
+            // Thumb released: the main decoder takes over
+            previewKeyUs = -1;
+            ivSeekPreview.setVisibility(View.GONE);
+            return;
+        }
+        // Scrubbing: show the cached preview of this position right away, or when it has been decoded
+        previewKeyUs = thumbnailEngine.keyFor(positionUs);
+        Bitmap bitmap = thumbnailEngine.getThumbnail(positionUs);
+        if (bitmap != null) {
+            showPreview(bitmap);
+        }
 
     }
 
     // Triggered when playback speed changes
     @Override
-    public void onPlaybackChanged(String speed) {
-        Toast.makeText( activity, "Selected: " + speed, Toast.LENGTH_SHORT).show();
+    public void onPlaybackChanged(float speed) {
+        Toast.makeText( activity, "Selected: " + speed + "x", Toast.LENGTH_SHORT).show();
     }
 
-    // Called to update the seek bar position
+    // Called on the main thread when a preview frame has been decoded
     @Override
-    public void updateSeekBarProgress(long progress) {
-        int progressPercentage = (int) ((float) progress / totalDurationMs * 100);
-        seekBar.setProgress((int) progressPercentage);
-        this.progress = progress;
+    public void onThumbnailReady(long keyUs, Bitmap bitmap) {
+        if (keyUs == previewKeyUs) {
+            showPreview(bitmap);
+        }
     }
 
-    // Called to set the total duration of the video
-    @Override
-    public void setMaxDuration(long duration) {
-        totalDurationMs = duration;
+    // Shows the preview centred above the seek bar thumb
+    private void showPreview(Bitmap bitmap) {
+        ivSeekPreview.setImageBitmap(bitmap);
+        ivSeekPreview.setVisibility(View.VISIBLE);
+        if (seekBar.getMax() > 0) {
+            float fraction = (float) seekBar.getProgress() / seekBar.getMax();
+            float x = seekBar.getX() + fraction * seekBar.getWidth() - ivSeekPreview.getWidth() / 2f;
+            ivSeekPreview.setTranslationX(Math.max(0, x));
+        }
     }
 
-    // Called to update frame count on the UI
+    // Called to set the total duration of the video; the seek bar works in milliseconds
     @Override
-    public void updateFrameCount(long frameCount) {
-        this.frameCount = frameCount;
+    public void setMaxDuration(long duration) {
+        handler.post(() -> {
+            seekBar.setMax((int) duration);
+            tvTotal.setText(formatTime(duration));
+        });
     }
 
     // Utility to convert microseconds to MM:SS format
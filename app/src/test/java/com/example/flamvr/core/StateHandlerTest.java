@@ -0,0 +1,168 @@
+package com.example.flamvr.core;
+
+import android.net.Uri;
+
+import com.example.flamvr.globals.FILTERS;
+import com.example.flamvr.globals.SeekMode;
+import com.example.flamvr.globals.StreamDataInterface;
+import com.example.flamvr.globals.VideoPlaybackContract;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * StateHandler's translation of user input into CommandBus commands and back into the
+ * listener contracts, on the executor each listener was registered with.
+ */
+public class StateHandlerTest {
+
+    private static final Executor DIRECT = Runnable::run;
+
+    private final StateHandler stateHandler = new StateHandler();
+
+    @After
+    public void tearDown() {
+        stateHandler.getCommandBus().release();
+    }
+
+    // Records every call as a short string
+    private static final class RecordingListener implements VideoPlaybackContract, StreamDataInterface.VideoInfoStream {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void onInitiate(Uri uri) {
+            calls.add("initiate");
+        }
+
+        @Override
+        public void onPlay() {
+            calls.add("play");
+        }
+
+        @Override
+        public void onPause() {
+            calls.add("pause");
+        }
+
+        @Override
+        public void onSeek(long positionUs, SeekMode mode) {
+            calls.add("seek " + positionUs + " " + mode);
+        }
+
+        @Override
+        public void onPlaybackChanged(float speed) {
+            calls.add("speed " + speed);
+        }
+
+        @Override
+        public void getVideoDim(int width, int height) {
+            calls.add("dim");
+        }
+
+        @Override
+        public void getFilter(int id) {
+            calls.add("filter " + id);
+        }
+    }
+
+    @Test
+    public void playbackCommandsReachListenerInOrder() {
+        RecordingListener listener = new RecordingListener();
+        stateHandler.addListener(listener, DIRECT);
+
+        stateHandler.onFilePicked(null);
+        stateHandler.onPlayPauseToggled();
+        stateHandler.onSeekChanged(5_000_000, SeekMode.EXACT);
+        stateHandler.onPlaybackChanged("1.5x");
+        stateHandler.onPlayPauseToggled();
+
+        assertEquals(Arrays.asList("initiate", "play", "pause", "seek 5000000 EXACT", "speed 1.5", "play"),
+                listener.calls);
+    }
+
+    @Test
+    public void filterListenerOnlyGetsFilters() {
+        RecordingListener playback = new RecordingListener();
+        RecordingListener video = new RecordingListener();
+        stateHandler.addListener(playback, DIRECT);
+        stateHandler.addStreamVS(video, DIRECT);
+
+        stateHandler.onFilterChange("FILTER2");
+        stateHandler.onPlayPauseToggled();
+        stateHandler.onFilterChange("unknown");
+
+        assertEquals(Arrays.asList("filter " + FILTERS.FILTER2.ordinal(), "filter " + FILTERS.NONE.ordinal()),
+                video.calls);
+        assertEquals(Arrays.asList("play"), playback.calls);
+    }
+
+    @Test
+    public void listenerWithoutExecutorRunsOnBusThread() throws InterruptedException {
+        CountDownLatch delivered = new CountDownLatch(1);
+        String[] threadName = new String[1];
+        stateHandler.addStreamVS(new StreamDataInterface.VideoInfoStream() {
+            @Override
+            public void getVideoDim(int width, int height) {
+            }
+
+            @Override
+            public void getFilter(int id) {
+                threadName[0] = Thread.currentThread().getName();
+                delivered.countDown();
+            }
+        });
+
+        stateHandler.onFilterChange("FILTER3");
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals("CommandBus", threadName[0]);
+    }
+
+    @Test
+    public void listenersGetTheirOwnExecutor() {
+        List<Runnable> mainThread = new ArrayList<>();
+        RecordingListener ui = new RecordingListener();
+        RecordingListener player = new RecordingListener();
+        stateHandler.addListener(ui, mainThread::add);
+        stateHandler.addListener(player, DIRECT);
+
+        stateHandler.onPlayPauseToggled();
+
+        // The player is not held up by the UI's executor
+        assertEquals(Arrays.asList("play"), player.calls);
+        assertTrue(ui.calls.isEmpty());
+        mainThread.forEach(Runnable::run);
+        assertEquals(Arrays.asList("play"), ui.calls);
+    }
+
+    @Test
+    public void seeksWhileListenerIsBusyCoalesce() {
+        List<Runnable> pending = new ArrayList<>();
+        RecordingListener listener = new RecordingListener();
+        stateHandler.addListener(listener, pending::add);
+
+        for (int i = 1; i <= 5; i++) {
+            stateHandler.onSeekChanged(i * 1_000_000L, SeekMode.FAST);
+        }
+        pending.forEach(Runnable::run);
+
+        assertEquals(Arrays.asList("seek 5000000 FAST"), listener.calls);
+    }
+
+    @Test
+    public void parseSpeed_fallsBackToNormal() {
+        assertEquals(0.5f, StateHandler.parseSpeed("0.5x"), 0f);
+        assertEquals(2.0f, StateHandler.parseSpeed("2.0x"), 0f);
+        assertEquals(1.0f, StateHandler.parseSpeed("1x"), 0f);
+        assertEquals(1.0f, StateHandler.parseSpeed("fast"), 0f);
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.flamvr.core.audio;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * What the ring allocation counter covers: constant while decoded buffers fit the ring, one more
+ * per growth. Drains go through a fake sink; allocations inside a real AudioTrack are not counted.
+ */
+public class AudioOutputStageTest {
+
+    // Accepts up to a fixed number of bytes per write, like a partly full AudioTrack
+    private static final class FakeSink implements PcmSink {
+        private final int maxWrite;
+        long bytes = 0;
+
+        FakeSink(int maxWrite) {
+            this.maxWrite = maxWrite;
+        }
+
+        @Override
+        public int write(ByteBuffer buffer, int size, boolean blocking) {
+            int written = Math.min(size, maxWrite);
+            buffer.position(buffer.position() + written);
+            bytes += written;
+            return written;
+        }
+    }
+
+    private static ByteBuffer pcm(int size) {
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    @Test
+    public void steadyState_allocatesNoRings() {
+        FakeSink sink = new FakeSink(1500);
+        AudioOutputStage stage = new AudioOutputStage(sink, 8192);
+        assertEquals(1, stage.getRingAllocationCount());
+        ByteBuffer buffer = pcm(4096);
+        for (int i = 0; i < 1000; i++) {
+            buffer.clear();
+            stage.queue(buffer);
+            stage.drain(false);
+        }
+        assertEquals(1, stage.getRingAllocationCount());
+        // Every queued byte reaches the sink once the ring is drained
+        while (stage.drain(false) > 0) {
+            // keep draining
+        }
+        assertEquals(stage.getBytesQueued(), sink.bytes);
+        assertEquals(stage.getBytesWritten(), sink.bytes);
+    }
+
+    @Test
+    public void largerBuffer_growsRingOnce() {
+        FakeSink sink = new FakeSink(Integer.MAX_VALUE);
+        AudioOutputStage stage = new AudioOutputStage(sink, 1024);
+        stage.queue(pcm(3000));
+        assertEquals(2, stage.getRingAllocationCount());
+        assertTrue(stage.getCapacity() >= 3000);
+        stage.drain(false);
+        stage.queue(pcm(3000));
+        assertEquals(2, stage.getRingAllocationCount());
+    }
+}
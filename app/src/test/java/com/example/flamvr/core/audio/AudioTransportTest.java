@@ -0,0 +1,70 @@
+package com.example.flamvr.core.audio;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * The audio output runs only while playing: seeks from pause flush without starting it, seeks
+ * while playing restart it.
+ */
+public class AudioTransportTest {
+
+    private static final class FakeOutput implements AudioTransport.Output {
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void play() {
+            calls.add("play");
+        }
+
+        @Override
+        public void pause() {
+            calls.add("pause");
+        }
+
+        @Override
+        public void flush() {
+            calls.add("flush");
+        }
+    }
+
+    @Test
+    public void seekFromPaused_neverStartsOutput() {
+        FakeOutput output = new FakeOutput();
+        AudioTransport transport = new AudioTransport(output);
+        // Preroll, then paused, then a seek decoding into the stopped track and seekCompleted back to paused
+        transport.setPlaying(false);
+        transport.flush();
+        transport.setPlaying(false);
+        transport.setPlaying(false);
+        assertFalse(output.calls.contains("play"));
+        assertFalse(transport.isRunning());
+    }
+
+    @Test
+    public void seekWhilePlaying_restartsOutput() {
+        FakeOutput output = new FakeOutput();
+        AudioTransport transport = new AudioTransport(output);
+        transport.setPlaying(true);
+        output.calls.clear();
+        transport.flush();
+        assertEquals(List.of("pause", "flush", "play"), output.calls);
+        assertTrue(transport.isRunning());
+    }
+
+    @Test
+    public void pauseAndPlay_toggleOnChangesOnly() {
+        FakeOutput output = new FakeOutput();
+        AudioTransport transport = new AudioTransport(output);
+        transport.setPlaying(true);
+        transport.setPlaying(true);
+        transport.setPlaying(false);
+        transport.setPlaying(false);
+        transport.setPlaying(true);
+        assertEquals(List.of("play", "pause", "play"), output.calls);
+    }
+}
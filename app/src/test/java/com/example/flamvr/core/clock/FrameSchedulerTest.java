@@ -0,0 +1,185 @@
+package com.example.flamvr.core.clock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * FrameScheduler decisions without and with vsync timing. The vsync cases run a decode loop
+ * against a synthetic 60 Hz display and a clock that follows the wall clock.
+ */
+public class FrameSchedulerTest {
+
+    private static final long PERIOD_NS = 16_666_667L;
+    private static final long FIRST_VSYNC_NS = 10_000_000_000L;
+
+    private FrameScheduler scheduler;
+    private VsyncPredictor predictor;
+    // Wall time of the simulated decode thread, and the next vsync not yet reported
+    private long nowNs;
+    private long nextVsyncNs;
+    // Wall time at which the clock was at media time 0
+    private long clockStartNs;
+
+    @Before
+    public void setUp() {
+        scheduler = new FrameScheduler();
+        predictor = new VsyncPredictor(PERIOD_NS);
+        nextVsyncNs = FIRST_VSYNC_NS;
+        // Start between two vsyncs
+        nowNs = FIRST_VSYNC_NS + 1_000_000;
+        clockStartNs = nowNs;
+        reportVsyncs();
+    }
+
+    // Delivers every vsync up to now, as the UI thread would
+    private void reportVsyncs() {
+        while (nextVsyncNs <= nowNs) {
+            predictor.onVsync(nextVsyncNs);
+            nextVsyncNs += PERIOD_NS;
+        }
+    }
+
+    private long clockUs(float speed) {
+        return (long) ((nowNs - clockStartNs) / 1000 * (double) speed);
+    }
+
+    // Schedules one frame like the decode loop: sleeps through WAITs, returns the final decision
+    private FrameScheduler.Action present(long ptsUs, float speed) {
+        for (int waits = 0; waits < 100; waits++) {
+            FrameScheduler.Action action = scheduler.schedule(ptsUs, clockUs(speed), speed, nowNs);
+            if (action != FrameScheduler.Action.WAIT) {
+                return action;
+            }
+            nowNs += scheduler.getWaitUs() * 1000;
+            reportVsyncs();
+        }
+        throw new AssertionError("Frame " + ptsUs + " never released");
+    }
+
+    private static boolean isVsync(long timeNs) {
+        return (timeNs - FIRST_VSYNC_NS) % PERIOD_NS == 0;
+    }
+
+    @Test
+    public void withoutVsync_waitsRendersAndDrops() {
+        assertEquals(FrameScheduler.Action.RENDER, scheduler.schedule(0, PlaybackClock.TIME_UNSET, 1f));
+
+        assertEquals(FrameScheduler.Action.WAIT, scheduler.schedule(110_000, 100_000, 1f));
+        assertEquals(10_000 - FrameScheduler.DEFAULT_EARLY_THRESHOLD_US, scheduler.getWaitUs());
+        assertEquals(FrameScheduler.Action.WAIT, scheduler.schedule(110_000, 100_000, 2f));
+        assertEquals((10_000 - FrameScheduler.DEFAULT_EARLY_THRESHOLD_US) / 2, scheduler.getWaitUs());
+
+        assertEquals(FrameScheduler.Action.RENDER, scheduler.schedule(100_000, 110_000, 1f));
+        assertEquals(10_000, scheduler.getPresentationErrorUs());
+
+        assertEquals(FrameScheduler.Action.DROP, scheduler.schedule(100_000, 150_000, 1f));
+        assertEquals(FrameScheduler.DropReason.LATE, scheduler.getDropReason());
+    }
+
+    @Test
+    public void withoutVsync_rendersAfterMaxConsecutiveDrops() {
+        for (int i = 0; i < FrameScheduler.MAX_CONSECUTIVE_DROPS; i++) {
+            assertEquals(FrameScheduler.Action.DROP, scheduler.schedule(0, 1_000_000, 1f));
+        }
+        assertEquals(FrameScheduler.Action.RENDER, scheduler.schedule(0, 1_000_000, 1f));
+        assertEquals(FrameScheduler.Action.DROP, scheduler.schedule(0, 1_000_000, 1f));
+        assertEquals(FrameScheduler.MAX_CONSECUTIVE_DROPS + 1, scheduler.getFramesDropped(FrameScheduler.DropReason.LATE));
+    }
+
+    @Test
+    public void withVsync_firstFrameRendersAtNextVsync() {
+        scheduler.setVsyncPredictor(predictor);
+        assertEquals(FrameScheduler.Action.RENDER, scheduler.schedule(0, PlaybackClock.TIME_UNSET, 1f, nowNs));
+        assertEquals(FIRST_VSYNC_NS + PERIOD_NS, scheduler.getRenderTimeNs());
+    }
+
+    @Test
+    public void withVsync_30fpsOn60HzRendersEveryFrameOnItsOwnVsync() {
+        scheduler.setVsyncPredictor(predictor);
+        long lastRenderNs = -1;
+        for (int i = 0; i < 120; i++) {
+            long ptsUs = i * 33_333L;
+            assertEquals("frame " + i, FrameScheduler.Action.RENDER, present(ptsUs, 1f));
+            long renderNs = scheduler.getRenderTimeNs();
+            assertTrue(isVsync(renderNs));
+            // Released ahead of time; after the first, which is due right away, shown within half a vsync of when it is due
+            assertTrue(renderNs > nowNs);
+            if (i > 0) {
+                assertTrue("frame " + i, Math.abs(scheduler.getPresentationErrorUs()) <= PERIOD_NS / 2000 + 1);
+            }
+            if (i > 1) {
+                assertEquals(2 * PERIOD_NS, renderNs - lastRenderNs);
+            }
+            lastRenderNs = renderNs;
+        }
+        assertEquals(0, scheduler.getFramesDropped());
+    }
+
+    @Test
+    public void withVsync_framesSharingAVsyncAreDroppedAsTaken() {
+        // 60 fps content at 2x speed: two frames are due per 60 Hz vsync
+        scheduler.setVsyncPredictor(predictor);
+        long lastRenderNs = -1;
+        int rendered = 0;
+        for (int i = 0; i < 240; i++) {
+            FrameScheduler.Action action = present(i * 16_667L, 2f);
+            if (action == FrameScheduler.Action.RENDER) {
+                long renderNs = scheduler.getRenderTimeNs();
+                assertTrue(renderNs > lastRenderNs);
+                lastRenderNs = renderNs;
+                rendered++;
+            } else {
+                assertEquals(FrameScheduler.DropReason.VSYNC_TAKEN, scheduler.getDropReason());
+            }
+        }
+        assertEquals(0, scheduler.getFramesDropped(FrameScheduler.DropReason.LATE));
+        assertEquals(120, rendered, 2);
+        assertEquals(240 - rendered, scheduler.getFramesDropped(FrameScheduler.DropReason.VSYNC_TAKEN));
+    }
+
+    @Test
+    public void withVsync_lateFramesAreDroppedAsLate() {
+        scheduler.setVsyncPredictor(predictor);
+        assertEquals(FrameScheduler.Action.RENDER, present(0, 1f));
+        // The decoder stalls for 100 ms
+        nowNs += 100_000_000L;
+        reportVsyncs();
+
+        assertEquals(FrameScheduler.Action.DROP, present(33_333, 1f));
+        assertEquals(FrameScheduler.DropReason.LATE, scheduler.getDropReason());
+        assertEquals(FrameScheduler.Action.DROP, present(50_000, 1f));
+        // Within the late threshold again: rendered at the first vsync still free
+        assertEquals(FrameScheduler.Action.RENDER, present(80_000, 1f));
+        assertTrue(scheduler.getRenderTimeNs() >= nowNs);
+        assertTrue(scheduler.getPresentationErrorUs() > 0);
+        assertEquals(2, scheduler.getFramesDropped(FrameScheduler.DropReason.LATE));
+    }
+
+    @Test
+    public void withVsync_rendersOnNextFreeVsyncAfterMaxConsecutiveDrops() {
+        scheduler.setVsyncPredictor(predictor);
+        assertEquals(FrameScheduler.Action.RENDER, present(0, 1f));
+        long firstRenderNs = scheduler.getRenderTimeNs();
+        // Frames all due at the same vsync as the first one
+        for (int i = 0; i < FrameScheduler.MAX_CONSECUTIVE_DROPS; i++) {
+            assertEquals(FrameScheduler.Action.DROP, present(1, 1f));
+            assertEquals(FrameScheduler.DropReason.VSYNC_TAKEN, scheduler.getDropReason());
+        }
+        assertEquals(FrameScheduler.Action.RENDER, present(1, 1f));
+        assertEquals(firstRenderNs + PERIOD_NS, scheduler.getRenderTimeNs());
+    }
+
+    @Test
+    public void withVsync_resetFreesTheLastVsync() {
+        scheduler.setVsyncPredictor(predictor);
+        assertEquals(FrameScheduler.Action.RENDER, present(0, 1f));
+        long renderNs = scheduler.getRenderTimeNs();
+
+        scheduler.reset();
+
+        assertEquals(FrameScheduler.Action.RENDER, present(1, 1f));
+        assertEquals(renderNs, scheduler.getRenderTimeNs());
+    }
+}
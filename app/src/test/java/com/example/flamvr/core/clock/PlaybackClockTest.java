@@ -0,0 +1,229 @@
+package com.example.flamvr.core.clock;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * PlaybackClock against a fake TimeSource and audio master: wall-clock behaviour, pure reads,
+ * convergence on drifting audio and smoothing of jittery audio positions.
+ */
+public class PlaybackClockTest {
+
+    private static final long FRAME_NS = 33_333_333L;
+
+    private final FakeTime time = new FakeTime();
+    private final PlaybackClock clock = new PlaybackClock(time);
+
+    private static final class FakeTime implements TimeSource {
+        long nowNs = 1_000_000_000L;
+
+        @Override
+        public long nanoTime() {
+            return nowNs;
+        }
+
+        void advanceUs(long us) {
+            nowNs += us * 1000;
+        }
+    }
+
+    // Audio heard at rate times the wall clock, from startUs at startNs, plus an optional per-call offset
+    private final class FakeAudio implements AudioPositionSource {
+        final long startNs = time.nowNs;
+        long startUs;
+        double rate = 1.0;
+        long offsetUs = 0;
+
+        @Override
+        public long getPositionUs(long nowNs) {
+            return startUs + (long) ((nowNs - startNs) / 1000 * rate) + offsetUs;
+        }
+    }
+
+    private void start(long ptsUs) {
+        clock.resume();
+        clock.anchorIfUnset(ptsUs);
+    }
+
+    @Test
+    public void unanchoredClockIsUnset() {
+        clock.resume();
+        assertEquals(PlaybackClock.TIME_UNSET, clock.getPositionUs());
+        assertFalse(clock.isAnchored());
+    }
+
+    @Test
+    public void wallClockAdvancesAtSpeed() {
+        start(1_000_000);
+        time.advanceUs(100_000);
+        assertEquals(1_100_000, clock.getPositionUs());
+
+        clock.setSpeed(2.0f);
+        time.advanceUs(100_000);
+        assertEquals(1_300_000, clock.getPositionUs());
+    }
+
+    @Test
+    public void pauseFreezesAndResumeContinues() {
+        start(0);
+        time.advanceUs(50_000);
+        clock.pause();
+        time.advanceUs(1_000_000);
+        assertEquals(50_000, clock.getPositionUs());
+        clock.resume();
+        time.advanceUs(10_000);
+        assertEquals(60_000, clock.getPositionUs());
+    }
+
+    @Test
+    public void readsDoNotSteerTheClock() {
+        FakeAudio audio = new FakeAudio();
+        audio.offsetUs = 20_000;
+        clock.setAudioSource(audio);
+        start(0);
+        time.advanceUs(10_000);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(10_000, clock.getPositionUs());
+        }
+        assertEquals(0, clock.getLastDriftUs());
+        assertFalse(clock.isAudioMaster());
+
+        clock.syncToAudio();
+        assertTrue(clock.isAudioMaster());
+        assertEquals(20_000, clock.getLastDriftUs());
+        // One slew step of drift / SLEW_DIVISOR, then stable again
+        long steered = 10_000 + 20_000 / PlaybackClock.SLEW_DIVISOR;
+        for (int i = 0; i < 100; i++) {
+            assertEquals(steered, clock.getPositionUs());
+        }
+    }
+
+    @Test
+    public void constantOffsetConvergesWithoutResync() {
+        FakeAudio audio = new FakeAudio();
+        audio.offsetUs = 30_000;
+        clock.setAudioSource(audio);
+        start(0);
+
+        for (int frame = 0; frame < 60; frame++) {
+            time.advanceUs(FRAME_NS / 1000);
+            clock.syncToAudio();
+        }
+
+        assertEquals(audio.getPositionUs(time.nowNs), clock.getPositionUs(), 100);
+        assertEquals(0, clock.getResyncCount());
+    }
+
+    @Test
+    public void fastAudioIsTrackedWithBoundedLag() {
+        // A sound card running 0.5% fast gains about 167 us per frame on the wall clock
+        FakeAudio audio = new FakeAudio();
+        audio.rate = 1.005;
+        clock.setAudioSource(audio);
+        start(0);
+
+        long maxErrorUs = 0;
+        for (int frame = 0; frame < 30 * 60; frame++) {
+            time.advanceUs(FRAME_NS / 1000);
+            clock.syncToAudio();
+            if (frame > 60) {
+                maxErrorUs = Math.max(maxErrorUs, Math.abs(audio.getPositionUs(time.nowNs) - clock.getPositionUs()));
+            }
+        }
+
+        // Steady state: drift / SLEW_DIVISOR removed per frame balances the gain, about 1.2 ms
+        assertTrue("lag " + maxErrorUs, maxErrorUs < 2_000);
+        assertEquals(0, clock.getResyncCount());
+    }
+
+    @Test
+    public void slowAudioIsTrackedWithBoundedLag() {
+        FakeAudio audio = new FakeAudio();
+        audio.rate = 0.995;
+        clock.setAudioSource(audio);
+        start(0);
+
+        for (int frame = 0; frame < 30 * 60; frame++) {
+            time.advanceUs(FRAME_NS / 1000);
+            clock.syncToAudio();
+        }
+
+        assertEquals(audio.getPositionUs(time.nowNs), clock.getPositionUs(), 2_000);
+        assertEquals(0, clock.getResyncCount());
+    }
+
+    @Test
+    public void audioJitterIsSmoothed() {
+        // Timestamps from the audio HAL wobble by up to +-5 ms around the true position
+        FakeAudio audio = new FakeAudio();
+        clock.setAudioSource(audio);
+        start(0);
+        Random random = new Random(42);
+
+        long previousUs = clock.getPositionUs();
+        long maxStepErrorUs = 0;
+        long maxAudioErrorUs = 0;
+        for (int frame = 0; frame < 600; frame++) {
+            audio.offsetUs = random.nextInt(10_001) - 5_000;
+            maxAudioErrorUs = Math.max(maxAudioErrorUs, Math.abs(audio.offsetUs));
+            time.advanceUs(FRAME_NS / 1000);
+            clock.syncToAudio();
+            long positionUs = clock.getPositionUs();
+            maxStepErrorUs = Math.max(maxStepErrorUs, Math.abs(positionUs - previousUs - FRAME_NS / 1000));
+            previousUs = positionUs;
+        }
+
+        // Each frame only moves the clock by a fraction of the jitter
+        assertTrue(maxAudioErrorUs > 4_000);
+        assertTrue("step error " + maxStepErrorUs, maxStepErrorUs <= 2 * 5_000 / PlaybackClock.SLEW_DIVISOR + 1);
+        assertEquals(0, clock.getResyncCount());
+        audio.offsetUs = 0;
+        assertEquals(audio.getPositionUs(time.nowNs), clock.getPositionUs(), 5_000);
+    }
+
+    @Test
+    public void largeDriftJumpsToAudio() {
+        FakeAudio audio = new FakeAudio();
+        clock.setAudioSource(audio);
+        start(0);
+        time.advanceUs(10_000);
+
+        audio.offsetUs = PlaybackClock.RESYNC_THRESHOLD_US + 60_000;
+        clock.syncToAudio();
+
+        assertEquals(audio.getPositionUs(time.nowNs), clock.getPositionUs());
+        assertEquals(1, clock.getResyncCount());
+        time.advanceUs(10_000);
+        assertEquals(audio.getPositionUs(time.nowNs), clock.getPositionUs());
+    }
+
+    @Test
+    public void unknownAudioPositionKeepsWallClock() {
+        clock.setAudioSource(nowNs -> -1);
+        start(0);
+        time.advanceUs(20_000);
+
+        clock.syncToAudio();
+
+        assertFalse(clock.isAudioMaster());
+        assertEquals(20_000, clock.getPositionUs());
+    }
+
+    @Test
+    public void pausedClockIsNotSteered() {
+        FakeAudio audio = new FakeAudio();
+        audio.offsetUs = 20_000;
+        clock.setAudioSource(audio);
+        start(0);
+        clock.pause();
+
+        clock.syncToAudio();
+
+        assertEquals(0, clock.getPositionUs());
+        assertFalse(clock.isAudioMaster());
+    }
+}
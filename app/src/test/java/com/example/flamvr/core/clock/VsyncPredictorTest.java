@@ -0,0 +1,136 @@
+package com.example.flamvr.core.clock;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * VsyncPredictor on synthetic vsync sequences: convergence from a wrong initial period, jitter,
+ * missed callbacks, outliers and pauses.
+ */
+public class VsyncPredictorTest {
+
+    private static final long PERIOD_60_NS = 16_666_667L;
+    private static final long PERIOD_90_NS = 11_111_111L;
+    private static final long START_NS = 5_000_000_000L;
+
+    @Test
+    public void withoutVsyncsPredictsTheGivenTime() {
+        VsyncPredictor predictor = new VsyncPredictor();
+        assertFalse(predictor.hasTiming());
+        assertEquals(123, predictor.nextVsyncAtOrAfter(123));
+        assertEquals(123, predictor.nearestVsync(123));
+    }
+
+    @Test
+    public void predictsFromLastVsyncAndPeriod() {
+        VsyncPredictor predictor = new VsyncPredictor(PERIOD_60_NS);
+        predictor.onVsync(START_NS);
+
+        assertEquals(START_NS, predictor.nextVsyncAtOrAfter(START_NS));
+        assertEquals(START_NS + PERIOD_60_NS, predictor.nextVsyncAtOrAfter(START_NS + 1));
+        assertEquals(START_NS + 3 * PERIOD_60_NS, predictor.nextVsyncAtOrAfter(START_NS + 2 * PERIOD_60_NS + 1));
+        // Also before the last observed vsync
+        assertEquals(START_NS - PERIOD_60_NS, predictor.nextVsyncAtOrAfter(START_NS - PERIOD_60_NS - 5));
+        assertEquals(START_NS + PERIOD_60_NS, predictor.nearestVsync(START_NS + PERIOD_60_NS * 6 / 10));
+        assertEquals(START_NS, predictor.nearestVsync(START_NS + PERIOD_60_NS * 4 / 10));
+    }
+
+    @Test
+    public void convergesOnJitteryVsyncs() {
+        // Reports arrive up to 0.5 ms late, as Choreographer callbacks do on a busy UI thread
+        VsyncPredictor predictor = new VsyncPredictor(PERIOD_60_NS);
+        Random random = new Random(7);
+        for (int i = 0; i < 300; i++) {
+            predictor.onVsync(START_NS + i * PERIOD_60_NS + random.nextInt(500_000));
+        }
+        assertEquals(PERIOD_60_NS, predictor.getPeriodNs(), 100_000);
+        assertEquals(0, predictor.getRejectedCount());
+    }
+
+    @Test
+    public void locksOntoDisplayRateDifferentFromInitialGuess() {
+        VsyncPredictor predictor = new VsyncPredictor(PERIOD_60_NS);
+        for (int i = 0; i < VsyncPredictor.WARMUP_SAMPLES + 1; i++) {
+            predictor.onVsync(START_NS + i * PERIOD_90_NS);
+        }
+        assertEquals(PERIOD_90_NS, predictor.getPeriodNs());
+        long lastNs = START_NS + VsyncPredictor.WARMUP_SAMPLES * PERIOD_90_NS;
+        assertEquals(lastNs + 10 * PERIOD_90_NS, predictor.nextVsyncAtOrAfter(lastNs + 9 * PERIOD_90_NS + 1));
+    }
+
+    @Test
+    public void warmupIgnoresMissedCallbacks() {
+        // The second interval spans two periods; the shortest interval wins during warmup
+        VsyncPredictor predictor = new VsyncPredictor(PERIOD_90_NS);
+        long[] vsyncs = {0, 1, 3, 4, 5};
+        for (long index : vsyncs) {
+            predictor.onVsync(START_NS + index * PERIOD_60_NS);
+        }
+        assertEquals(PERIOD_60_NS, predictor.getPeriodNs());
+    }
+
+    @Test
+    public void missedCallbacksKeepThePeriod() {
+        VsyncPredictor predictor = new VsyncPredictor(PERIOD_60_NS);
+        for (int i = 0; i < 200; i++) {
+            // Every third vsync callback is missed
+            if (i % 3 != 2) {
+                predictor.onVsync(START_NS + i * PERIOD_60_NS);
+            }
+        }
+        assertEquals(PERIOD_60_NS, predictor.getPeriodNs(), 1_000);
+        assertEquals(0, predictor.getRejectedCount());
+    }
+
+    @Test
+    public void outlierIntervalIsRejected() {
+        VsyncPredictor predictor = new VsyncPredictor(PERIOD_60_NS);
+        long timeNs = START_NS;
+        for (int i = 0; i < 20; i++) {
+            predictor.onVsync(timeNs);
+            timeNs += PERIOD_60_NS;
+        }
+        // Half a period off: matches no whole number of periods
+        timeNs += PERIOD_60_NS / 2;
+        predictor.onVsync(timeNs);
+
+        assertEquals(1, predictor.getRejectedCount());
+        assertEquals(PERIOD_60_NS, predictor.getPeriodNs(), 1_000);
+    }
+
+    @Test
+    public void pauseOnlyRephasesThePrediction() {
+        VsyncPredictor predictor = new VsyncPredictor(PERIOD_60_NS);
+        for (int i = 0; i < 20; i++) {
+            predictor.onVsync(START_NS + i * PERIOD_60_NS);
+        }
+        // Rendering stopped for a while; the display phase is unrelated afterwards
+        long resumedNs = START_NS + 3_000_000_000L + 1_234_567;
+        predictor.onVsync(resumedNs);
+
+        assertEquals(1, predictor.getRejectedCount());
+        assertEquals(PERIOD_60_NS, predictor.getPeriodNs(), 1_000);
+        assertEquals(resumedNs + predictor.getPeriodNs(), predictor.nextVsyncAtOrAfter(resumedNs + 1));
+    }
+
+    @Test
+    public void tracksSlowDrift() {
+        // Start at 60 Hz, then the panel settles 0.1% slower
+        VsyncPredictor predictor = new VsyncPredictor(PERIOD_60_NS);
+        long timeNs = START_NS;
+        for (int i = 0; i < 20; i++) {
+            predictor.onVsync(timeNs);
+            timeNs += PERIOD_60_NS;
+        }
+        long slowerNs = PERIOD_60_NS + PERIOD_60_NS / 1000;
+        for (int i = 0; i < 200; i++) {
+            predictor.onVsync(timeNs);
+            timeNs += slowerNs;
+        }
+        assertEquals(slowerNs, predictor.getPeriodNs(), 200);
+        assertEquals(220, predictor.getVsyncCount());
+    }
+}
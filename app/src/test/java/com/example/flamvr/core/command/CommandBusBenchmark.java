@@ -0,0 +1,76 @@
+package com.example.flamvr.core.command;
+
+import com.example.flamvr.core.metrics.LogLinearHistogram;
+import com.example.flamvr.globals.SeekMode;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Post-to-delivery latency of CommandBus under bursts of seeks, printed as percentiles.
+ * Runs with the unit tests but only fails if commands go missing; compare the printed numbers
+ * across changes.
+ */
+public class CommandBusBenchmark {
+
+    /**
+     * Posts bursts of seeks mixed with play/pause from one thread to listeners on separate
+     * threads, and returns the post-to-delivery latency. Listeners spend workUs per command.
+     */
+    static LogLinearHistogram.Snapshot benchmark(int bursts, int burstSize, int listeners, long workUs)
+            throws InterruptedException {
+        CommandBus bus = new CommandBus();
+        ExecutorService[] threads = new ExecutorService[listeners];
+        try {
+            for (int i = 0; i < listeners; i++) {
+                threads[i] = Executors.newSingleThreadExecutor();
+                bus.subscribe(command -> {
+                    long untilNs = System.nanoTime() + workUs * 1000;
+                    while (System.nanoTime() < untilNs) {
+                        // Busy listener
+                    }
+                }, threads[i], EnumSet.allOf(Command.Type.class));
+            }
+            for (int b = 0; b < bursts; b++) {
+                for (int i = 0; i < burstSize; i++) {
+                    bus.post(i % 8 == 0 ? Command.pause() : Command.seek(i * 1000L, SeekMode.FAST));
+                }
+                bus.post(Command.play());
+                // Idle between bursts like a finger between drags
+                Thread.sleep(2);
+            }
+            // Wait for every queue to drain
+            CountDownLatch drained = new CountDownLatch(listeners);
+            for (ExecutorService thread : threads) {
+                thread.execute(drained::countDown);
+            }
+            assertTrue(drained.await(10, TimeUnit.SECONDS));
+            return bus.getDeliveryLatencyUs();
+        } finally {
+            for (ExecutorService thread : threads) {
+                if (thread != null) {
+                    thread.shutdownNow();
+                }
+            }
+            bus.release();
+        }
+    }
+
+    @Test
+    public void seekBursts() throws InterruptedException {
+        int bursts = 50;
+        int listeners = 3;
+        LogLinearHistogram.Snapshot latency = benchmark(bursts, 16, listeners, 200);
+        System.out.printf("delivery latency: p50 %d us, p99 %d us, max %d us over %d deliveries%n",
+                latency.getPercentile(50), latency.getPercentile(99), latency.getMax(), latency.getCount());
+        // Pauses and the closing play never coalesce, seeks do
+        assertTrue(latency.getCount() >= (long) bursts * listeners * 3);
+    }
+}
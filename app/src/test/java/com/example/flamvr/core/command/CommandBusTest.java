@@ -0,0 +1,307 @@
+package com.example.flamvr.core.command;
+
+import com.example.flamvr.globals.FILTERS;
+import com.example.flamvr.globals.SeekMode;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Coalescing, dropping on a full queue and per-subscriber ordering of CommandBus.
+ * Most cases deliver through a manual executor, so the queue state is known when posting.
+ */
+public class CommandBusTest {
+
+    private final CommandBus bus = new CommandBus(4);
+
+    @After
+    public void tearDown() {
+        bus.release();
+    }
+
+    // Runs scheduled drains only when asked
+    private static final class ManualExecutor implements Executor {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private static final EnumSet<Command.Type> ALL = EnumSet.allOf(Command.Type.class);
+
+    @Test
+    public void pendingSeeksCoalesceIntoTheLatest() {
+        ManualExecutor executor = new ManualExecutor();
+        List<Command> received = new ArrayList<>();
+        CommandBus.Subscription subscription = bus.subscribe(received::add, executor, ALL);
+
+        for (int i = 1; i <= 10; i++) {
+            assertTrue(bus.post(Command.seek(i * 1000L, SeekMode.FAST)));
+        }
+        executor.runAll();
+
+        assertEquals(1, received.size());
+        assertEquals(10_000L, received.get(0).getPositionUs());
+        assertEquals(9, subscription.getCoalesced());
+        assertEquals(1, subscription.getDelivered());
+        assertEquals(0, subscription.getDropped());
+    }
+
+    @Test
+    public void coalescedCommandKeepsItsQueuePosition() {
+        ManualExecutor executor = new ManualExecutor();
+        List<Command> received = new ArrayList<>();
+        bus.subscribe(received::add, executor, ALL);
+
+        bus.post(Command.seek(1000, SeekMode.FAST));
+        bus.post(Command.pause());
+        bus.post(Command.seek(2000, SeekMode.EXACT));
+        executor.runAll();
+
+        assertEquals(2, received.size());
+        assertEquals(Command.Type.SEEK, received.get(0).getType());
+        assertEquals(2000, received.get(0).getPositionUs());
+        assertEquals(SeekMode.EXACT, received.get(0).getSeekMode());
+        assertEquals(Command.Type.PAUSE, received.get(1).getType());
+    }
+
+    @Test
+    public void deliveredCommandIsNotReplaced() {
+        ManualExecutor executor = new ManualExecutor();
+        List<Command> received = new ArrayList<>();
+        CommandBus.Subscription subscription = bus.subscribe(received::add, executor, ALL);
+
+        bus.post(Command.seek(1000, SeekMode.FAST));
+        executor.runAll();
+        bus.post(Command.seek(2000, SeekMode.FAST));
+        executor.runAll();
+
+        assertEquals(2, received.size());
+        assertEquals(0, subscription.getCoalesced());
+    }
+
+    @Test
+    public void nonCoalescingCommandsQueueUp() {
+        ManualExecutor executor = new ManualExecutor();
+        List<Command.Type> received = new ArrayList<>();
+        bus.subscribe(command -> received.add(command.getType()), executor, ALL);
+
+        bus.post(Command.play());
+        bus.post(Command.pause());
+        bus.post(Command.play());
+        executor.runAll();
+
+        assertEquals(Arrays.asList(Command.Type.PLAY, Command.Type.PAUSE, Command.Type.PLAY), received);
+    }
+
+    @Test
+    public void fullQueueDropsCommand() {
+        ManualExecutor executor = new ManualExecutor();
+        List<Command> received = new ArrayList<>();
+        CommandBus.Subscription subscription = bus.subscribe(received::add, executor, ALL);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(bus.post(i % 2 == 0 ? Command.play() : Command.pause()));
+        }
+        assertFalse(bus.post(Command.play()));
+        assertFalse(bus.post(Command.seek(1000, SeekMode.FAST)));
+        executor.runAll();
+
+        assertEquals(4, received.size());
+        assertEquals(2, subscription.getDropped());
+        // Space again once drained
+        assertTrue(bus.post(Command.seek(2000, SeekMode.FAST)));
+    }
+
+    @Test
+    public void fullQueueStillCoalescesPendingCommand() {
+        ManualExecutor executor = new ManualExecutor();
+        List<Command> received = new ArrayList<>();
+        CommandBus.Subscription subscription = bus.subscribe(received::add, executor, ALL);
+
+        bus.post(Command.seek(1000, SeekMode.FAST));
+        for (int i = 0; i < 3; i++) {
+            bus.post(Command.play());
+        }
+        // Replacing the pending seek needs no slot
+        assertTrue(bus.post(Command.seek(2000, SeekMode.FAST)));
+        executor.runAll();
+
+        assertEquals(4, received.size());
+        assertEquals(2000, received.get(0).getPositionUs());
+        assertEquals(0, subscription.getDropped());
+        assertEquals(1, subscription.getCoalesced());
+    }
+
+    @Test
+    public void fullQueueOnlyAffectsItsSubscriber() {
+        ManualExecutor stalled = new ManualExecutor();
+        ManualExecutor running = new ManualExecutor();
+        List<Command> slow = new ArrayList<>();
+        List<Command> fast = new ArrayList<>();
+        CommandBus.Subscription slowSubscription = bus.subscribe(slow::add, stalled, ALL);
+        CommandBus.Subscription fastSubscription = bus.subscribe(fast::add, running, ALL);
+
+        for (int i = 0; i < 6; i++) {
+            bus.post(Command.play());
+            running.runAll();
+        }
+
+        assertEquals(6, fast.size());
+        assertEquals(0, fastSubscription.getDropped());
+        assertEquals(2, slowSubscription.getDropped());
+        stalled.runAll();
+        assertEquals(4, slow.size());
+    }
+
+    @Test
+    public void typesCoalesceIndependently() {
+        ManualExecutor executor = new ManualExecutor();
+        List<Command> received = new ArrayList<>();
+        bus.subscribe(received::add, executor, ALL);
+
+        bus.post(Command.seek(1000, SeekMode.FAST));
+        bus.post(Command.filter(FILTERS.FILTER1));
+        bus.post(Command.seek(3000, SeekMode.FAST));
+        bus.post(Command.filter(FILTERS.FILTER3));
+        executor.runAll();
+
+        assertEquals(2, received.size());
+        assertEquals(3000, received.get(0).getPositionUs());
+        assertEquals(FILTERS.FILTER3, received.get(1).getFilter());
+    }
+
+    @Test
+    public void subscribersOnlyReceiveTheirTypes() {
+        ManualExecutor executor = new ManualExecutor();
+        List<Command> filters = new ArrayList<>();
+        bus.subscribe(filters::add, executor, EnumSet.of(Command.Type.FILTER));
+
+        bus.post(Command.play());
+        bus.post(Command.seek(1000, SeekMode.FAST));
+        bus.post(Command.filter(FILTERS.FILTER2));
+        executor.runAll();
+
+        assertEquals(1, filters.size());
+        assertEquals(FILTERS.FILTER2, filters.get(0).getFilter());
+    }
+
+    @Test
+    public void unsubscribedListenerGetsNothingNew() {
+        ManualExecutor executor = new ManualExecutor();
+        List<Command> received = new ArrayList<>();
+        CommandBus.Subscription subscription = bus.subscribe(received::add, executor, ALL);
+        bus.unsubscribe(subscription);
+
+        bus.post(Command.play());
+        executor.runAll();
+
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void eachSubscriberSeesPostOrderOnItsOwnThread() throws InterruptedException {
+        int commands = 2000;
+        int subscribers = 3;
+        CommandBus bigBus = new CommandBus(commands);
+        ExecutorService[] threads = new ExecutorService[subscribers];
+        List<List<Long>> received = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(subscribers);
+        try {
+            for (int s = 0; s < subscribers; s++) {
+                threads[s] = Executors.newSingleThreadExecutor();
+                List<Long> positions = Collections.synchronizedList(new ArrayList<>());
+                received.add(positions);
+                int delayEvery = s + 2;
+                bigBus.subscribe(command -> {
+                    if (command.getType() == Command.Type.PAUSE) {
+                        done.countDown();
+                        return;
+                    }
+                    positions.add(command.getType() == Command.Type.PLAY ? -1L : command.getPositionUs());
+                    if (positions.size() % delayEvery == 0) {
+                        // Subscribers run at different speeds
+                        Thread.yield();
+                    }
+                }, threads[s], ALL);
+            }
+            for (int i = 0; i < commands; i++) {
+                bigBus.post(i % 10 == 9 ? Command.play() : Command.seek(i, SeekMode.FAST));
+            }
+            bigBus.post(Command.pause());
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+
+            for (List<Long> positions : received) {
+                // Every play arrives, seeks may coalesce but never go back in time
+                long plays = 0;
+                long last = -1;
+                for (long position : positions) {
+                    if (position < 0) {
+                        plays++;
+                    } else {
+                        assertTrue(position > last);
+                        last = position;
+                    }
+                }
+                assertEquals(commands / 10, plays);
+                assertEquals(commands - 2, last);
+            }
+        } finally {
+            for (ExecutorService thread : threads) {
+                if (thread != null) {
+                    thread.shutdownNow();
+                }
+            }
+            bigBus.release();
+        }
+    }
+
+    @Test
+    public void slowSubscriberDoesNotDelayOthers() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch fastDone = new CountDownLatch(1);
+        ExecutorService slowThread = Executors.newSingleThreadExecutor();
+        ExecutorService fastThread = Executors.newSingleThreadExecutor();
+        try {
+            bus.subscribe(command -> {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, slowThread, ALL);
+            bus.subscribe(command -> fastDone.countDown(), fastThread, ALL);
+
+            bus.post(Command.play());
+            assertTrue(fastDone.await(5, TimeUnit.SECONDS));
+            assertEquals(1, bus.getPostTimeNs().getCount());
+        } finally {
+            release.countDown();
+            slowThread.shutdownNow();
+            fastThread.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.flamvr.core.demux;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Generation handling of SampleQueue.peek(long): samples from before a seek are released,
+ * samples from a newer seek are kept for when the consumer catches up. Also the signal a
+ * starved consumer waits on instead of polling.
+ */
+public class SampleQueueTest {
+
+    private static void offer(SampleQueue queue, long ptsUs, long generation) {
+        assertTrue(queue.offer(ByteBuffer.allocate(4), 4, ptsUs, 0, generation));
+    }
+
+    @Test
+    public void peek_releasesOlderGenerations() {
+        SampleQueue queue = new SampleQueue(8, 1024);
+        offer(queue, 0, 0);
+        offer(queue, 1, 0);
+        offer(queue, 100, 1);
+
+        SampleQueue.Sample sample = queue.peek(1);
+        assertNotNull(sample);
+        assertEquals(100, sample.getPtsUs());
+        assertEquals(1, queue.getOccupancy());
+    }
+
+    @Test
+    public void peek_keepsNewerGenerationForLaggingConsumer() {
+        SampleQueue queue = new SampleQueue(8, 1024);
+        offer(queue, 0, 1);
+        offer(queue, 200, 2);
+
+        // Consumer still on generation 1 gets its own sample
+        assertEquals(0, queue.peek(1).getPtsUs());
+        queue.release();
+        // The next seek's sample is neither returned nor dropped
+        assertNull(queue.peek(1));
+        assertEquals(1, queue.getOccupancy());
+        // Once the consumer applies the seek it gets it
+        SampleQueue.Sample sample = queue.peek(2);
+        assertNotNull(sample);
+        assertEquals(200, sample.getPtsUs());
+        assertEquals(2, sample.getGeneration());
+    }
+
+    @Test
+    public void peek_returnsSamplesInOrderWithinGeneration() {
+        SampleQueue queue = new SampleQueue(8, 1024);
+        offer(queue, 0, 0);
+        offer(queue, 10, 1);
+        offer(queue, 20, 1);
+        offer(queue, 30, 2);
+
+        assertEquals(10, queue.peek(1).getPtsUs());
+        queue.release();
+        assertEquals(20, queue.peek(1).getPtsUs());
+        queue.release();
+        assertNull(queue.peek(1));
+        assertEquals(30, queue.peek(2).getPtsUs());
+    }
+
+    @Test
+    public void release_freesSpaceForProducer() {
+        SampleQueue queue = new SampleQueue(2, 1024);
+        offer(queue, 0, 0);
+        offer(queue, 1, 0);
+        assertFalse(queue.canAccept(4));
+        // A seek makes both stale; peeking the new generation frees the slots
+        assertNull(queue.peek(1));
+        assertTrue(queue.canAccept(4));
+        assertEquals(0, queue.getBufferedBytes());
+    }
+
+    @Test
+    public void sampleSignal_runsOnceForNextSample() {
+        SampleQueue queue = new SampleQueue(8, 1024);
+        int[] signals = new int[1];
+        queue.setSampleListener(() -> signals[0]++);
+        offer(queue, 0, 0);
+        assertEquals("not requested", 0, signals[0]);
+        queue.peek();
+        queue.release();
+
+        assertTrue(queue.requestSampleSignal());
+        offer(queue, 10, 0);
+        offer(queue, 20, 0);
+        assertEquals(1, signals[0]);
+    }
+
+    @Test
+    public void sampleSignal_notArmedWhileSampleBuffered() {
+        SampleQueue queue = new SampleQueue(8, 1024);
+        int[] signals = new int[1];
+        queue.setSampleListener(() -> signals[0]++);
+        offer(queue, 0, 1);
+        // E.g. a sample of a seek the consumer has not applied yet
+        assertFalse(queue.requestSampleSignal());
+        offer(queue, 10, 1);
+        assertEquals(0, signals[0]);
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.flamvr.core.filter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Throughput of CpuFilterEngine per preset filter on a synthetic 360p frame, printed in megapixels
+ * per second. Runs with the unit tests but only fails if a filter produces nothing; compare the
+ * printed numbers across changes.
+ */
+public class CpuFilterEngineBenchmark {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 360;
+    private static final int FRAMES = 20;
+
+    /**
+     * Measures the throughput of a graph, in megapixels per second.
+     * The first quarter of the frames warms the JIT up and is not counted.
+     */
+    static double benchmark(FilterGraph graph, int width, int height, int frames, int parallelism) {
+        int[] src = new int[width * height];
+        int[] dst = new int[width * height];
+        for (int i = 0; i < src.length; i++) {
+            // Gradient with some texture so the sketch pass finds edges
+            src[i] = 0xFF000000 | ((i * 7) & 0xFF) << 16 | ((i / width) & 0xFF) << 8 | ((i * 13) & 0xFF);
+        }
+        CpuFilterEngine engine = new CpuFilterEngine(parallelism);
+        try {
+            int warmup = Math.max(1, frames / 4);
+            for (int i = 0; i < warmup; i++) {
+                engine.process(graph, src, dst, width, height);
+            }
+            long startNs = System.nanoTime();
+            for (int i = 0; i < frames; i++) {
+                engine.process(graph, src, dst, width, height);
+            }
+            return (double) width * height * frames * 1000.0 / (System.nanoTime() - startNs);
+        } finally {
+            engine.release();
+        }
+    }
+
+    private static void report(String name, FilterGraph graph) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        double serial = benchmark(graph, WIDTH, HEIGHT, FRAMES, 1);
+        double parallel = benchmark(graph, WIDTH, HEIGHT, FRAMES, cores);
+        System.out.printf("%s %dx%d: %.1f MP/s on 1 thread, %.1f MP/s on %d%n",
+                name, WIDTH, HEIGHT, serial, parallel, cores);
+        assertTrue(serial > 0);
+        assertTrue(parallel > 0);
+    }
+
+    @Test
+    public void luminance() {
+        report("luminance", new FilterGraph().add(FilterPass.LUMINANCE));
+    }
+
+    @Test
+    public void luminanceDither() {
+        report("luminance+dither", new FilterGraph().add(FilterPass.LUMINANCE).add(FilterPass.DITHER));
+    }
+
+    @Test
+    public void sketch() {
+        report("sketch", new FilterGraph().add(FilterPass.SKETCH));
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.flamvr.core.filter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Golden outputs of every CPU pass on hand-made frames, and checks that fusion and the number of
+ * worker threads do not change the result.
+ */
+public class CpuFilterEngineTest {
+
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int BLACK = 0xFF000000;
+
+    private final CpuFilterEngine engine = new CpuFilterEngine(4);
+
+    @After
+    public void tearDown() {
+        engine.release();
+    }
+
+    private int[] process(FilterGraph graph, int[] src, int width, int height) {
+        int[] dst = new int[width * height];
+        engine.process(graph, src, dst, width, height);
+        return dst;
+    }
+
+    private static int[] fill(int width, int height, int argb) {
+        int[] frame = new int[width * height];
+        Arrays.fill(frame, argb);
+        return frame;
+    }
+
+    // Gradient with some texture, so every pass has work to do
+    private static int[] textured(int width, int height) {
+        int[] frame = new int[width * height];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = 0xFF000000 | ((i * 7) & 0xFF) << 16 | ((i / width) & 0xFF) << 8 | ((i * 13) & 0xFF);
+        }
+        return frame;
+    }
+
+    @Test
+    public void emptyGraph_copiesWithOpaqueAlpha() {
+        int[] src = {0x00123456, 0x80FF00FF, 0xFF000000, 0xFFFFFFFF};
+        int[] dst = process(new FilterGraph(), src, 2, 2);
+        assertArrayEquals(new int[]{0xFF123456, 0xFFFF00FF, 0xFF000000, 0xFFFFFFFF}, dst);
+    }
+
+    @Test
+    public void luminance_matchesRec709Weights() {
+        int[] src = {0xFFFF0000, 0xFF00FF00, 0xFF0000FF, 0xFFFFFFFF, 0xFF000000, 0xFF808080};
+        int[] dst = process(new FilterGraph().add(FilterPass.LUMINANCE), src, 3, 2);
+        // round(255 * 0.2126) = 54, round(255 * 0.7152) = 182, round(255 * 0.0722) = 18
+        assertArrayEquals(new int[]{0xFF363636, 0xFFB6B6B6, 0xFF121212, WHITE, BLACK, 0xFF808080}, dst);
+    }
+
+    @Test
+    public void dither_thresholdsMidGrayWithBayerPattern() {
+        // At 800x600 every pixel is one cell of the dither pattern
+        int width = 800;
+        int height = 600;
+        int[] dst = process(new FilterGraph().add(FilterPass.DITHER), fill(width, height, 0xFF808080), width, height);
+        // 128/255 is above the thresholds 0/16 to 8/16, the pattern's rows count up from the bottom as in GL
+        String[] golden = {
+                "BWBW",
+                "WBWB",
+                "BWBW",
+                "WWWB"
+        };
+        int white = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int expected = golden[y & 3].charAt(x & 3) == 'W' ? WHITE : BLACK;
+                assertEquals("pixel " + x + "," + y, expected, dst[y * width + x]);
+                white += dst[y * width + x] == WHITE ? 1 : 0;
+            }
+        }
+        assertEquals(width * height * 9 / 16, white);
+    }
+
+    @Test
+    public void dither_blackAndWhiteAreUnchanged() {
+        int[] black = process(new FilterGraph().add(FilterPass.DITHER), fill(8, 8, BLACK), 8, 8);
+        int[] white = process(new FilterGraph().add(FilterPass.DITHER), fill(8, 8, WHITE), 8, 8);
+        assertArrayEquals(fill(8, 8, BLACK), black);
+        assertArrayEquals(fill(8, 8, WHITE), white);
+    }
+
+    @Test
+    public void sketch_uniformFrameIsWhite() {
+        int[] dst = process(new FilterGraph().add(FilterPass.SKETCH), fill(64, 48, 0xFF3366CC), 64, 48);
+        assertArrayEquals(fill(64, 48, WHITE), dst);
+    }
+
+    @Test
+    public void sketch_drawsDarkLineOnVerticalEdge() {
+        // At 512 pixels the sketch taps are exactly one pixel apart
+        int width = 512;
+        int height = 16;
+        int[] src = new int[width * height];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = i % width < width / 2 ? BLACK : WHITE;
+        }
+        int[] dst = process(new FilterGraph().add(FilterPass.SKETCH), src, width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Only the two columns whose taps straddle the edge see it
+                int expected = x == width / 2 - 1 || x == width / 2 ? BLACK : WHITE;
+                assertEquals("pixel " + x + "," + y, expected, dst[y * width + x]);
+            }
+        }
+    }
+
+    @Test
+    public void fusedAndUnfusedGraphsAgree() {
+        int width = 200;
+        int height = 150;
+        int[] src = textured(width, height);
+        FilterGraph fused = new FilterGraph().add(FilterPass.SKETCH).add(FilterPass.LUMINANCE).add(FilterPass.DITHER);
+        FilterGraph unfused = new FilterGraph().add(FilterPass.SKETCH).add(FilterPass.LUMINANCE).add(FilterPass.DITHER)
+                .setFusionEnabled(false);
+        assertEquals(1, fused.compile().size());
+        assertEquals(3, unfused.compile().size());
+        assertArrayEquals(process(fused, src, width, height), process(unfused, src, width, height));
+    }
+
+    @Test
+    public void resultDoesNotDependOnParallelism() {
+        int width = 320;
+        int height = 100; // not a multiple of TILE_ROWS, the last band is partial
+        int[] src = textured(width, height);
+        FilterGraph graph = new FilterGraph().add(FilterPass.LUMINANCE).add(FilterPass.SKETCH);
+        CpuFilterEngine serial = new CpuFilterEngine(1);
+        try {
+            int[] expected = new int[width * height];
+            serial.process(graph, src, expected, width, height);
+            assertArrayEquals(expected, process(graph, src, width, height));
+        } finally {
+            serial.release();
+        }
+    }
+
+    @Test
+    public void sizeChange_reusesEngine() {
+        FilterGraph graph = new FilterGraph().add(FilterPass.LUMINANCE);
+        process(graph, fill(64, 64, WHITE), 64, 64);
+        assertArrayEquals(fill(16, 8, BLACK), process(graph, fill(16, 8, BLACK), 16, 8));
+        assertTrue(engine.getLastMegapixelsPerSecond() > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void passWithoutCpuImplementation_isRejected() {
+        FilterPass invert = FilterPass.point("invert", "vec4 invert(vec4 color, vec2 uv) { return vec4(1.0 - color.rgb, 1.0); }\n");
+        process(new FilterGraph().add(invert), fill(4, 4, WHITE), 4, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sameSourceAndDestination_isRejected() {
+        int[] frame = fill(4, 4, WHITE);
+        engine.process(new FilterGraph(), frame, frame, 4, 4);
+    }
+}
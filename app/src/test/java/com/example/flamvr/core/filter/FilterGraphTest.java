@@ -0,0 +1,162 @@
+package com.example.flamvr.core.filter;
+
+import com.example.flamvr.globals.FILTERS;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * How FilterGraph compiles passes into stages: fusion of point passes, splits at neighborhood
+ * passes, the scaled variant and the generated shader sources.
+ */
+public class FilterGraphTest {
+
+    private static List<String> keys(List<FilterGraph.Stage> stages) {
+        List<String> keys = new ArrayList<>();
+        for (FilterGraph.Stage stage : stages) {
+            keys.add(stage.getKey());
+        }
+        return keys;
+    }
+
+    private static int occurrences(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void emptyGraphIsOnePassThroughStage() {
+        List<FilterGraph.Stage> stages = new FilterGraph().compile();
+
+        assertEquals(1, stages.size());
+        FilterGraph.Stage stage = stages.get(0);
+        assertEquals("oes", stage.getKey());
+        assertTrue(stage.hasExternalInput());
+        assertTrue(stage.hasScreenOutput());
+        assertTrue(stage.getFragmentSource().contains("uniform samplerExternalOES uTexture;"));
+        assertTrue(stage.getFragmentSource().contains("vec4 color = sampleInput(vTexCoord);"));
+    }
+
+    @Test
+    public void pointPassesFuseIntoOneStage() {
+        FilterGraph graph = new FilterGraph().add(FilterPass.LUMINANCE).add(FilterPass.DITHER);
+        List<FilterGraph.Stage> stages = graph.compile();
+
+        assertEquals(1, stages.size());
+        assertEquals("oes+luminance+dither", stages.get(0).getKey());
+        String source = stages.get(0).getFragmentSource();
+        // Applied in order on the sampled color
+        int luminance = source.indexOf("color = luminance(color, vTexCoord);");
+        int dither = source.indexOf("color = dither(color, vTexCoord);");
+        assertTrue(luminance > 0);
+        assertTrue(dither > luminance);
+    }
+
+    @Test
+    public void leadingNeighborhoodPassFusesWithFollowingPoints() {
+        List<FilterGraph.Stage> stages = new FilterGraph().add(FilterPass.SKETCH).add(FilterPass.LUMINANCE).compile();
+
+        assertEquals(1, stages.size());
+        assertEquals("oes+sketch+luminance", stages.get(0).getKey());
+        String source = stages.get(0).getFragmentSource();
+        assertTrue(source.contains("vec4 color = sketch(vTexCoord);"));
+        assertFalse(source.contains("vec4 color = sampleInput(vTexCoord);"));
+    }
+
+    @Test
+    public void laterNeighborhoodPassStartsNewStage() {
+        FilterGraph graph = new FilterGraph().add(FilterPass.LUMINANCE).add(FilterPass.SKETCH).add(FilterPass.DITHER);
+        List<FilterGraph.Stage> stages = graph.compile();
+
+        assertEquals(2, stages.size());
+        assertEquals("oes+luminance", stages.get(0).getKey());
+        assertEquals("2d+sketch+dither", stages.get(1).getKey());
+        assertTrue(stages.get(0).hasExternalInput());
+        assertFalse(stages.get(0).hasScreenOutput());
+        assertFalse(stages.get(1).hasExternalInput());
+        assertTrue(stages.get(1).hasScreenOutput());
+        // Offscreen input is a plain texture, read upright
+        String source = stages.get(1).getFragmentSource();
+        assertTrue(source.contains("uniform sampler2D uTexture;"));
+        assertTrue(source.contains("texture(uTexture, uv)"));
+        assertFalse(source.contains("GL_OES_EGL_image_external_essl3"));
+    }
+
+    @Test
+    public void disabledFusionGivesEveryPassItsOwnStage() {
+        FilterGraph graph = new FilterGraph().add(FilterPass.LUMINANCE).add(FilterPass.DITHER).setFusionEnabled(false);
+
+        assertEquals(Arrays.asList("oes+luminance", "2d+dither"), keys(graph.compile()));
+    }
+
+    @Test
+    public void scaledCompileAddsUpscaleStage() {
+        FilterGraph graph = new FilterGraph().add(FilterPass.SKETCH);
+        List<FilterGraph.Stage> stages = graph.compile(true);
+
+        assertEquals(Arrays.asList("oes+sketch", "2d"), keys(stages));
+        assertFalse(stages.get(0).hasScreenOutput());
+        assertTrue(stages.get(1).hasScreenOutput());
+        assertTrue(stages.get(1).getPasses().isEmpty());
+    }
+
+    @Test
+    public void repeatedPassIsDeclaredOnce() {
+        List<FilterGraph.Stage> stages = new FilterGraph().add(FilterPass.LUMINANCE).add(FilterPass.LUMINANCE).compile();
+
+        String source = stages.get(0).getFragmentSource();
+        assertEquals(1, occurrences(source, "vec4 luminance(vec4 color, vec2 uv) {"));
+        assertEquals(2, occurrences(source, "color = luminance(color, vTexCoord);"));
+    }
+
+    @Test
+    public void equalKeysMeanEqualSources() {
+        FilterGraph.Stage a = new FilterGraph().add(FilterPass.SKETCH).add(FilterPass.DITHER).compile().get(0);
+        FilterGraph.Stage b = new FilterGraph().add(FilterPass.SKETCH).add(FilterPass.DITHER).compile().get(0);
+        assertEquals(a.getKey(), b.getKey());
+        assertEquals(a.getFragmentSource(), b.getFragmentSource());
+    }
+
+    @Test
+    public void reducedDropsNeighborhoodPassesAndKeepsFusionSetting() {
+        FilterGraph graph = new FilterGraph().add(FilterPass.LUMINANCE).add(FilterPass.SKETCH).add(FilterPass.DITHER)
+                .setFusionEnabled(false);
+        assertTrue(graph.isCostly());
+
+        FilterGraph reduced = graph.reduced();
+
+        assertFalse(reduced.isCostly());
+        assertEquals(Arrays.asList(FilterPass.LUMINANCE, FilterPass.DITHER), reduced.getPasses());
+        assertEquals(2, reduced.compile().size());
+        // The original is left untouched
+        assertEquals(3, graph.getPasses().size());
+    }
+
+    @Test
+    public void presetsMatchTheFilterMenu() {
+        assertEquals(Arrays.asList("oes"), keys(FilterGraph.forFilter(FILTERS.NONE.ordinal()).compile()));
+        assertEquals(Arrays.asList("oes+luminance"), keys(FilterGraph.forFilter(FILTERS.FILTER1.ordinal()).compile()));
+        assertEquals(Arrays.asList("oes+luminance+dither"), keys(FilterGraph.forFilter(FILTERS.FILTER2.ordinal()).compile()));
+        assertEquals(Arrays.asList("oes+sketch"), keys(FilterGraph.forFilter(FILTERS.FILTER3.ordinal()).compile()));
+        assertFalse(FilterGraph.forFilter(FILTERS.FILTER2.ordinal()).isCostly());
+        assertTrue(FilterGraph.forFilter(FILTERS.FILTER3.ordinal()).isCostly());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void passNameMustBeAGlslIdentifier() {
+        FilterPass.point("2tone", "vec4 2tone(vec4 color, vec2 uv) { return color; }\n");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void passesAreReadOnly() {
+        new FilterGraph().add(FilterPass.LUMINANCE).getPasses().clear();
+    }
+}
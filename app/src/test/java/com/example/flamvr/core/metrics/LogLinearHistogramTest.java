@@ -0,0 +1,172 @@
+package com.example.flamvr.core.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bucket bounds of LogLinearHistogram around every power of two, and percentiles read from snapshots.
+ */
+public class LogLinearHistogramTest {
+
+    private static final int SUB = LogLinearHistogram.SUB_BUCKETS;
+
+    @Test
+    public void smallValuesHaveABucketEach() {
+        for (int value = 0; value < SUB; value++) {
+            int bucket = LogLinearHistogram.bucketOf(value);
+            assertEquals(value, bucket);
+            assertEquals(value, LogLinearHistogram.bucketLowerBound(bucket));
+            assertEquals(value, LogLinearHistogram.bucketUpperBound(bucket));
+        }
+    }
+
+    @Test
+    public void powersOfTwoStartABucket() {
+        for (int power = LogLinearHistogram.SUB_BUCKET_BITS; power < 62; power++) {
+            long value = 1L << power;
+            int bucket = LogLinearHistogram.bucketOf(value);
+            assertEquals("2^" + power, value, LogLinearHistogram.bucketLowerBound(bucket));
+            // The value just below ends the previous bucket
+            assertEquals("2^" + power + " - 1", bucket - 1, LogLinearHistogram.bucketOf(value - 1));
+            assertEquals("2^" + power + " - 1", value - 1, LogLinearHistogram.bucketUpperBound(bucket - 1));
+            // and the value just above shares the bucket once buckets are wider than one
+            if (power > LogLinearHistogram.SUB_BUCKET_BITS) {
+                assertEquals("2^" + power + " + 1", bucket, LogLinearHistogram.bucketOf(value + 1));
+            }
+            // Each power of two opens SUB_BUCKETS buckets of width 2^(power - SUB_BUCKET_BITS)
+            assertEquals(bucket + SUB, LogLinearHistogram.bucketOf(value * 2 == 0 ? Long.MAX_VALUE : value * 2));
+            long width = 1L << (power - LogLinearHistogram.SUB_BUCKET_BITS);
+            assertEquals(value + width - 1, LogLinearHistogram.bucketUpperBound(bucket));
+        }
+    }
+
+    @Test
+    public void bucketsAreContiguousAndTight() {
+        int last = LogLinearHistogram.bucketOf(1L << 61);
+        for (int bucket = 0; bucket < last; bucket++) {
+            long lower = LogLinearHistogram.bucketLowerBound(bucket);
+            long upper = LogLinearHistogram.bucketUpperBound(bucket);
+            assertEquals(upper + 1, LogLinearHistogram.bucketLowerBound(bucket + 1));
+            assertEquals(bucket, LogLinearHistogram.bucketOf(lower));
+            assertEquals(bucket, LogLinearHistogram.bucketOf(upper));
+            // Relative error stays below 1/SUB_BUCKETS
+            assertTrue((upper - lower) * SUB <= Math.max(lower, 1));
+        }
+    }
+
+    @Test
+    public void everySmallValueIsWithinItsBucketBounds() {
+        for (long value = 0; value < 1 << 16; value++) {
+            int bucket = LogLinearHistogram.bucketOf(value);
+            assertTrue(LogLinearHistogram.bucketLowerBound(bucket) <= value);
+            assertTrue(LogLinearHistogram.bucketUpperBound(bucket) >= value);
+        }
+    }
+
+    @Test
+    public void emptySnapshotReadsZero() {
+        LogLinearHistogram.Snapshot snapshot = new LogLinearHistogram(1000).snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentile(50));
+        assertEquals(0, snapshot.getMean());
+        assertEquals(0, snapshot.getMax());
+    }
+
+    @Test
+    public void percentilesOfUniformValues() {
+        LogLinearHistogram histogram = new LogLinearHistogram(1_000_000);
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        LogLinearHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500, snapshot.getMean());
+        assertEquals(1000, snapshot.getMax());
+        assertEquals(1, snapshot.getPercentile(0));
+        for (int percentile = 1; percentile <= 100; percentile++) {
+            long exact = percentile * 10L;
+            long reported = snapshot.getPercentile(percentile);
+            // The bucket's upper bound: never below the exact value, at most one bucket width above
+            assertTrue(percentile + ": " + reported, reported >= exact);
+            assertTrue(percentile + ": " + reported, reported <= exact + exact / SUB);
+        }
+        // Capped at the largest value recorded
+        assertEquals(1000, snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void percentileOfSkewedValues() {
+        LogLinearHistogram histogram = new LogLinearHistogram(10_000_000);
+        for (int i = 0; i < 990; i++) {
+            histogram.record(100);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(50_000);
+        }
+        LogLinearHistogram.Snapshot snapshot = histogram.snapshot();
+
+        // Reported as the upper bound of the bucket of 100
+        long upper = LogLinearHistogram.bucketUpperBound(LogLinearHistogram.bucketOf(100));
+        assertEquals(103, upper);
+        assertEquals(upper, snapshot.getPercentile(50));
+        assertEquals(upper, snapshot.getPercentile(99));
+        assertEquals(50_000, snapshot.getPercentile(99.5), 50_000 / SUB);
+        assertEquals(50_000, snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        LogLinearHistogram histogram = new LogLinearHistogram(1000);
+        histogram.record(-5);
+        histogram.record(5_000);
+        LogLinearHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(1, snapshot.getCountInBucket(0));
+        assertEquals(1, snapshot.getCountInBucket(snapshot.getBucketCount() - 1));
+        // The true maximum is kept even though its bucket is capped
+        assertEquals(5_000, snapshot.getMax());
+        assertEquals(5_000, snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void tinyRangeStillCoversLinearBuckets() {
+        LogLinearHistogram histogram = new LogLinearHistogram(3);
+        assertEquals(SUB, histogram.getMaxValue());
+        assertEquals(SUB + 1, histogram.getBucketCount());
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        LogLinearHistogram histogram = new LogLinearHistogram(1000);
+        histogram.record(10);
+        histogram.record(900);
+        histogram.reset();
+        LogLinearHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getMean());
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        LogLinearHistogram histogram = new LogLinearHistogram(1_000_000);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    histogram.record(i % 1000 + offset);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        LogLinearHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(400_000, snapshot.getCount());
+        assertEquals(999 + threads.length - 1, snapshot.getMax());
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.flamvr.core.metrics;
+
+import com.example.flamvr.core.clock.FrameScheduler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Startup stages, frame counters and the presentation error histogram of PlaybackMetrics.
+ */
+public class PlaybackMetricsTest {
+
+    private static final long START_NS = 1_000_000_000L;
+
+    private final PlaybackMetrics metrics = new PlaybackMetrics();
+
+    @Test
+    public void stagesAreTimedFromSessionStart() {
+        metrics.startSession(START_NS);
+        metrics.markStage(PlaybackMetrics.Stage.DATA_SOURCE, START_NS + 5_000_000);
+        metrics.markStage(PlaybackMetrics.Stage.PREPARED, START_NS + 80_000_000);
+
+        PlaybackMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(5_000, snapshot.getStageUs(PlaybackMetrics.Stage.DATA_SOURCE));
+        assertEquals(80_000, snapshot.getPrepareUs());
+        assertEquals(-1, snapshot.getStageUs(PlaybackMetrics.Stage.CONFIGURE));
+        assertEquals(-1, snapshot.getTimeToFirstFrameUs());
+    }
+
+    @Test
+    public void onlyFirstMarkOfAStageCounts() {
+        metrics.startSession(START_NS);
+        metrics.markStage(PlaybackMetrics.Stage.FIRST_OUTPUT, START_NS + 10_000_000);
+        metrics.markStage(PlaybackMetrics.Stage.FIRST_OUTPUT, START_NS + 90_000_000);
+        assertEquals(10_000, metrics.snapshot().getStageUs(PlaybackMetrics.Stage.FIRST_OUTPUT));
+    }
+
+    @Test
+    public void shownFramesRecordErrorAndFirstFrame() {
+        metrics.startSession(START_NS);
+        metrics.onFrameShown(1_000, START_NS + 120_000_000);
+        metrics.onFrameShown(-3_000, START_NS + 150_000_000);
+        metrics.onFrameShown(PlaybackMetrics.LATE_FRAME_US, START_NS + 180_000_000);
+        metrics.onFrameShown(PlaybackMetrics.LATE_FRAME_US + 1, START_NS + 210_000_000);
+        // Early by a lot is off, but not late
+        metrics.onFrameShown(-20_000, START_NS + 240_000_000);
+
+        PlaybackMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(120_000, snapshot.getTimeToFirstFrameUs());
+        assertEquals(5, snapshot.getFramesShown());
+        assertEquals(1, snapshot.getFramesLate());
+        LogLinearHistogram.Snapshot error = snapshot.getPresentationErrorUs();
+        assertEquals(5, error.getCount());
+        assertEquals(20_000, error.getMax());
+        // Absolute errors 1000, 3000, 8000, 8001, 20000
+        assertEquals(3_000, error.getPercentile(40), 3_000 / LogLinearHistogram.SUB_BUCKETS);
+    }
+
+    @Test
+    public void dropsAreCountedByReason() {
+        metrics.onFrameDropped(FrameScheduler.DropReason.LATE);
+        metrics.onFrameDropped(FrameScheduler.DropReason.VSYNC_TAKEN);
+        metrics.onFrameDropped(FrameScheduler.DropReason.VSYNC_TAKEN);
+
+        PlaybackMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(3, snapshot.getFramesDropped());
+        assertEquals(1, snapshot.getFramesDropped(FrameScheduler.DropReason.LATE));
+        assertEquals(2, snapshot.getFramesDropped(FrameScheduler.DropReason.VSYNC_TAKEN));
+        assertEquals(0, snapshot.getFramesDropped(FrameScheduler.DropReason.NONE));
+    }
+
+    @Test
+    public void queueDepthPercentiles() {
+        for (int i = 0; i < 100; i++) {
+            metrics.onDecoderQueueDepth(i < 90 ? 2 : 12);
+        }
+        LogLinearHistogram.Snapshot depth = metrics.snapshot().getDecoderQueueDepth();
+        assertEquals(2, depth.getPercentile(50));
+        assertEquals(2, depth.getPercentile(90));
+        assertEquals(12, depth.getPercentile(95));
+    }
+
+    @Test
+    public void newSessionClearsEverything() {
+        metrics.startSession(START_NS);
+        metrics.onFrameShown(50_000, START_NS + 1);
+        metrics.onFrameDropped(FrameScheduler.DropReason.LATE);
+        metrics.onDecoderQueueDepth(4);
+        metrics.setAudioUnderruns(3);
+        metrics.setPlayLatencyUs(70_000);
+
+        metrics.startSession(START_NS * 2);
+
+        PlaybackMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(0, snapshot.getFramesShown());
+        assertEquals(0, snapshot.getFramesLate());
+        assertEquals(0, snapshot.getFramesDropped());
+        assertEquals(0, snapshot.getPresentationErrorUs().getCount());
+        assertEquals(0, snapshot.getDecoderQueueDepth().getCount());
+        assertEquals(0, snapshot.getAudioUnderruns());
+        assertEquals(-1, snapshot.getPlayLatencyUs());
+        assertEquals(-1, snapshot.getTimeToFirstFrameUs());
+    }
+}
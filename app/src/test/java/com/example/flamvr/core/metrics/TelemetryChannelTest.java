@@ -0,0 +1,97 @@
+package com.example.flamvr.core.metrics;
+
+import com.example.flamvr.core.state.PlayerStateMachine;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sequence-locked snapshots of TelemetryChannel: reads racing a publishing thread never mix two
+ * publishes, and a read overlapping a publish gives up without touching its snapshot.
+ */
+public class TelemetryChannelTest {
+
+    private static final PlayerStateMachine.State[] STATES = PlayerStateMachine.State.values();
+
+    private final TelemetryChannel channel = new TelemetryChannel();
+
+    // Publish i carries i in every field, so a torn snapshot has fields that disagree
+    private void publish(long i) {
+        channel.publish(i, i, i, i, STATES[(int) (i % STATES.length)]);
+    }
+
+    @Test
+    public void read_beforePublishSeesInitialFields() {
+        TelemetryChannel.Snapshot snapshot = new TelemetryChannel.Snapshot();
+        assertTrue(channel.read(snapshot));
+        assertEquals(0, snapshot.getSequence());
+        assertEquals(PlayerStateMachine.State.IDLE, snapshot.getState());
+    }
+
+    @Test
+    public void read_copiesLatestPublish() {
+        publish(4);
+        publish(9);
+        TelemetryChannel.Snapshot snapshot = new TelemetryChannel.Snapshot();
+        assertTrue(channel.read(snapshot));
+        assertEquals(4, snapshot.getSequence());
+        assertEquals(9, snapshot.getPositionUs());
+        assertEquals(9, snapshot.getFrame());
+        assertEquals(STATES[9 % STATES.length], snapshot.getState());
+    }
+
+    @Test
+    public void read_duringPublishGivesUpAndKeepsSnapshot() {
+        publish(3);
+        TelemetryChannel.Snapshot snapshot = new TelemetryChannel.Snapshot();
+        assertTrue(channel.read(snapshot));
+
+        long s = channel.beginPublish();
+        assertFalse(channel.read(snapshot));
+        assertEquals(2, snapshot.getSequence());
+        assertEquals(3, snapshot.getPositionUs());
+
+        channel.endPublish(s);
+        assertTrue(channel.read(snapshot));
+        assertEquals(4, snapshot.getSequence());
+    }
+
+    @Test
+    public void concurrentReads_neverSeeTornSnapshot() throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            long i = 0;
+            while (!stop.get()) {
+                publish(++i);
+            }
+        }, "telemetry-writer");
+        writer.start();
+        TelemetryChannel.Snapshot snapshot = new TelemetryChannel.Snapshot();
+        int consistent = 0;
+        long lastSequence = -1;
+        try {
+            for (int n = 0; n < 200_000; n++) {
+                if (!channel.read(snapshot)) {
+                    continue;
+                }
+                consistent++;
+                long i = snapshot.getPositionUs();
+                assertEquals(i, snapshot.getFrame());
+                assertEquals(i, snapshot.getBufferedStartUs());
+                assertEquals(i, snapshot.getBufferedEndUs());
+                assertEquals(STATES[(int) (i % STATES.length)], snapshot.getState());
+                // Publish i completes sequence 2 * i
+                assertEquals(2 * i, snapshot.getSequence());
+                assertTrue(snapshot.getSequence() >= lastSequence);
+                lastSequence = snapshot.getSequence();
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        assertTrue(consistent > 0);
+    }
+}
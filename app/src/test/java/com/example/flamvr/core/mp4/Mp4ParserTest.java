@@ -0,0 +1,433 @@
+package com.example.flamvr.core.mp4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sample tables parsed from small MP4s built in memory: chunk offsets, sample-to-chunk runs,
+ * composition offsets, edit lists, sync samples, malformed boxes and the keyframe lookups,
+ * plus sample reads through a mapped Mp4File.
+ */
+public class Mp4ParserTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // ---------------------------------------------------------------- MP4 building
+
+    private static byte[] box(String type, byte[]... payloads) {
+        int size = 8;
+        for (byte[] payload : payloads) {
+            size += payload.length;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(size);
+            out.writeBytes(type);
+            for (byte[] payload : payloads) {
+                out.write(payload);
+            }
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Big-endian fields: Integer as 32 bits, Long as 64 bits, Short as 16 bits, Byte as 8 bits
+    private static byte[] fields(Object... values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (Object value : values) {
+                if (value instanceof Long) {
+                    out.writeLong((Long) value);
+                } else if (value instanceof Short) {
+                    out.writeShort((Short) value);
+                } else if (value instanceof Byte) {
+                    out.writeByte((Byte) value);
+                } else if (value instanceof String) {
+                    out.writeBytes((String) value);
+                } else {
+                    out.writeInt((Integer) value);
+                }
+            }
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Full box table of (count, value) int pairs after the entry count
+    private static byte[] pairTable(String type, int... pairs) {
+        Object[] values = new Object[2 + pairs.length];
+        values[0] = 0; // version and flags
+        values[1] = pairs.length / 2;
+        for (int i = 0; i < pairs.length; i++) {
+            values[2 + i] = pairs[i];
+        }
+        return box(type, fields(values));
+    }
+
+    private static byte[] stsz(int... sizes) {
+        Object[] values = new Object[3 + sizes.length];
+        values[0] = 0;
+        values[1] = 0; // no constant size
+        values[2] = sizes.length;
+        for (int i = 0; i < sizes.length; i++) {
+            values[3 + i] = sizes[i];
+        }
+        return box("stsz", fields(values));
+    }
+
+    private static byte[] stco(int... offsets) {
+        Object[] values = new Object[2 + offsets.length];
+        values[0] = 0;
+        values[1] = offsets.length;
+        for (int i = 0; i < offsets.length; i++) {
+            values[2 + i] = offsets[i];
+        }
+        return box("stco", fields(values));
+    }
+
+    private static byte[] co64(long... offsets) {
+        Object[] values = new Object[2 + offsets.length];
+        values[0] = 0;
+        values[1] = offsets.length;
+        for (int i = 0; i < offsets.length; i++) {
+            values[2 + i] = offsets[i];
+        }
+        return box("co64", fields(values));
+    }
+
+    // stsc entries as (first chunk, samples per chunk) pairs, description index 1
+    private static byte[] stsc(int... entries) {
+        Object[] values = new Object[2 + entries.length / 2 * 3];
+        values[0] = 0;
+        values[1] = entries.length / 2;
+        for (int e = 0; e < entries.length / 2; e++) {
+            values[2 + e * 3] = entries[e * 2];
+            values[3 + e * 3] = entries[e * 2 + 1];
+            values[4 + e * 3] = 1;
+        }
+        return box("stsc", fields(values));
+    }
+
+    private static byte[] stss(int... oneBasedSamples) {
+        Object[] values = new Object[2 + oneBasedSamples.length];
+        values[0] = 0;
+        values[1] = oneBasedSamples.length;
+        for (int i = 0; i < oneBasedSamples.length; i++) {
+            values[2 + i] = oneBasedSamples[i];
+        }
+        return box("stss", fields(values));
+    }
+
+    // elst version 0 entries as (segment duration, media time) pairs, rate 1.0
+    private static byte[] edts(int... entries) {
+        Object[] values = new Object[2 + entries.length / 2 * 3];
+        values[0] = 0;
+        values[1] = entries.length / 2;
+        for (int e = 0; e < entries.length / 2; e++) {
+            values[2 + e * 3] = entries[e * 2];
+            values[3 + e * 3] = entries[e * 2 + 1];
+            values[4 + e * 3] = 0x00010000;
+        }
+        return box("edts", box("elst", fields(values)));
+    }
+
+    private static byte[] trak(int trackId, String handler, int timescale, int duration, byte[] edts, byte[]... stblBoxes) {
+        byte[] tkhd = box("tkhd", fields(0, 0, 0, trackId, 0, duration));
+        byte[] mdhd = box("mdhd", fields(0, 0, 0, timescale, duration, 0));
+        byte[] hdlr = box("hdlr", fields(0, 0, handler, 0, 0, 0, (byte) 0));
+        byte[] mdia = box("mdia", mdhd, hdlr, box("minf", box("stbl", stblBoxes)));
+        return edts == null ? box("trak", tkhd, mdia) : box("trak", tkhd, edts, mdia);
+    }
+
+    private static List<SampleIndex> parse(byte[]... traks) throws IOException {
+        ByteBuffer moov = ByteBuffer.wrap(box("moov", traks));
+        moov.position(8);
+        return Mp4Parser.parseMoov(moov.slice());
+    }
+
+    private static SampleIndex parseOne(byte[] trak) throws IOException {
+        List<SampleIndex> tracks = parse(trak);
+        assertEquals(1, tracks.size());
+        return tracks.get(0);
+    }
+
+    // Video track of n samples of the given sizes in one chunk at offset, 40 ms apart
+    private static byte[] simpleVideo(int offset, byte[] stss, int... sizes) {
+        byte[] stts = pairTable("stts", sizes.length, 40);
+        byte[] stsc = stsc(1, sizes.length);
+        return stss == null
+                ? trak(1, "vide", 1000, sizes.length * 40, null, stts, stsz(sizes), stsc, stco(offset))
+                : trak(1, "vide", 1000, sizes.length * 40, null, stts, stss, stsz(sizes), stsc, stco(offset));
+    }
+
+    // ---------------------------------------------------------------- sample tables
+
+    @Test
+    public void trackHeader_fieldsParsed() throws IOException {
+        SampleIndex track = parseOne(simpleVideo(100, null, 10, 20));
+        assertEquals(1, track.getTrackId());
+        assertEquals(SampleIndex.TYPE_VIDEO, track.getHandlerType());
+        assertEquals(1000, track.getTimescale());
+        assertEquals(80_000, track.getDurationUs());
+        assertEquals(2, track.getSampleCount());
+        assertEquals(40_000, track.getPtsUs(1));
+    }
+
+    @Test
+    public void multiEntryStsc_expandsOverStcoChunks() throws IOException {
+        // Chunks 1-2 hold two samples each, chunk 3 onwards three
+        SampleIndex track = parseOne(trak(1, "soun", 1000, 280, null,
+                pairTable("stts", 7, 40),
+                stsz(10, 11, 12, 13, 14, 15, 16),
+                stsc(1, 2, 3, 3),
+                stco(1000, 2000, 3000)));
+        long[] expected = {1000, 1010, 2000, 2012, 3000, 3014, 3029};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("sample " + i, expected[i], track.getOffset(i));
+            assertEquals(10 + i, track.getSize(i));
+        }
+    }
+
+    @Test
+    public void co64_keepsOffsetsAbove4GB() throws IOException {
+        long base = 5_000_000_000L;
+        SampleIndex track = parseOne(trak(1, "vide", 1000, 120, null,
+                pairTable("stts", 3, 40), stsz(100, 200, 300), stsc(1, 2), co64(base, base + 10_000)));
+        assertEquals(base, track.getOffset(0));
+        assertEquals(base + 100, track.getOffset(1));
+        assertEquals(base + 10_000, track.getOffset(2));
+    }
+
+    @Test
+    public void stz2_packedSizes() throws IOException {
+        // 4-bit fields, two per byte
+        byte[] stz2 = box("stz2", fields(0, 4, 3, (byte) 0x52, (byte) 0x90));
+        SampleIndex track = parseOne(trak(1, "soun", 1000, 120, null,
+                pairTable("stts", 3, 40), stz2, stsc(1, 3), stco(0)));
+        assertEquals(5, track.getSize(0));
+        assertEquals(2, track.getSize(1));
+        assertEquals(9, track.getSize(2));
+        assertEquals(7, track.getOffset(2));
+    }
+
+    @Test
+    public void ctts_reordersPresentationTimes() throws IOException {
+        // I P B B in decode order, presented I B B P
+        SampleIndex track = parseOne(trak(1, "vide", 1000, 160, null,
+                pairTable("stts", 4, 40),
+                pairTable("ctts", 1, 40, 1, 120, 2, 0),
+                stss(1),
+                stsz(10, 10, 10, 10), stsc(1, 4), stco(0)));
+        assertEquals(40_000, track.getPtsUs(0));
+        assertEquals(160_000, track.getPtsUs(1));
+        assertEquals(80_000, track.getPtsUs(2));
+        assertEquals(120_000, track.getPtsUs(3));
+    }
+
+    @Test
+    public void elst_shiftsToFirstNonEmptyEdit() throws IOException {
+        // An empty edit (media time -1) is skipped, the next one starts at the composition offset
+        SampleIndex track = parseOne(trak(1, "vide", 1000, 160, edts(100, -1, 160, 40),
+                pairTable("stts", 4, 40),
+                pairTable("ctts", 1, 40, 1, 120, 2, 0),
+                stsz(10, 10, 10, 10), stsc(1, 4), stco(0)));
+        assertEquals(0, track.getPtsUs(0));
+        assertEquals(120_000, track.getPtsUs(1));
+        assertEquals(40_000, track.getPtsUs(2));
+        assertEquals(80_000, track.getPtsUs(3));
+        assertEquals(0, track.keyframeTimeAtOrBefore(10_000));
+    }
+
+    @Test
+    public void missingStss_everySampleIsSync() throws IOException {
+        SampleIndex track = parseOne(simpleVideo(0, null, 1, 2, 3));
+        assertEquals(3, track.getKeyframeCount());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(track.isSync(i));
+            assertEquals(i, track.getKeyframeSample(i));
+        }
+    }
+
+    @Test
+    public void stss_marksSyncSamplesAndDropsOutOfRange() throws IOException {
+        SampleIndex track = parseOne(simpleVideo(0, stss(1, 4, 99), 1, 1, 1, 1, 1, 1));
+        assertEquals(2, track.getKeyframeCount());
+        assertTrue(track.isSync(0));
+        assertFalse(track.isSync(1));
+        assertTrue(track.isSync(3));
+        assertEquals(3, track.getKeyframeSample(1));
+    }
+
+    @Test
+    public void trackWithoutSampleTables_isSkipped() throws IOException {
+        byte[] textTrack = box("trak", box("tkhd", fields(0, 0, 0, 2, 0, 0)));
+        List<SampleIndex> tracks = parse(textTrack, simpleVideo(0, null, 1));
+        assertEquals(1, tracks.size());
+        assertEquals(1, tracks.get(0).getTrackId());
+    }
+
+    // ---------------------------------------------------------------- malformed input
+
+    @Test(expected = IOException.class)
+    public void oversizedChildBox_isRejected() throws IOException {
+        byte[] trak = simpleVideo(0, null, 1, 2);
+        // Claim the stsz box is larger than what is left of stbl
+        int at = indexOf(trak, "stsz") - 4;
+        ByteBuffer.wrap(trak).putInt(at, 4096);
+        parse(trak);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedLargeSizeHeader_isRejected() throws IOException {
+        // size 1 announces a 64-bit size that is cut off
+        ByteBuffer moov = ByteBuffer.wrap(fields(1, "trak", 0));
+        Mp4Parser.parseMoov(moov);
+    }
+
+    @Test(expected = IOException.class)
+    public void missingChunkOffsets_isRejected() throws IOException {
+        parse(trak(1, "vide", 1000, 40, null, pairTable("stts", 1, 40), stsz(1), stsc(1, 1)));
+    }
+
+    @Test(expected = IOException.class)
+    public void stscShortOfSamples_isRejected() throws IOException {
+        // One chunk of two samples for three samples
+        parse(trak(1, "vide", 1000, 120, null, pairTable("stts", 3, 40), stsz(1, 1, 1), stsc(1, 2), stco(0)));
+    }
+
+    @Test(expected = IOException.class)
+    public void zeroTimescale_isRejected() throws IOException {
+        parse(trak(1, "vide", 0, 40, null, pairTable("stts", 1, 40), stsz(1), stsc(1, 1), stco(0)));
+    }
+
+    private static int indexOf(byte[] data, String type) {
+        outer:
+        for (int i = 0; i + 4 <= data.length; i++) {
+            for (int j = 0; j < 4; j++) {
+                if (data[i + j] != type.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new AssertionError(type + " not found");
+    }
+
+    // ---------------------------------------------------------------- keyframe lookups
+
+    @Test
+    public void keyframeLookup_boundaries() throws IOException {
+        // Keyframes at samples 1, 4 and 7 (40 ms apart, 0 ms based): 40, 160 and 280 ms
+        SampleIndex track = parseOne(trak(1, "vide", 1000, 320, null,
+                pairTable("stts", 8, 40),
+                pairTable("ctts", 8, 40),
+                stss(1, 4, 7),
+                stsz(1, 1, 1, 1, 1, 1, 1, 1), stsc(1, 8), stco(0)));
+        // Before the first keyframe: the first one
+        assertEquals(0, track.findKeyframeAtOrBefore(0));
+        assertEquals(40_000, track.keyframeTimeAtOrBefore(-5_000));
+        // Exact hits and just before
+        assertEquals(0, track.findKeyframeAtOrBefore(40_000));
+        assertEquals(1, track.findKeyframeAtOrBefore(160_000));
+        assertEquals(0, track.findKeyframeAtOrBefore(159_999));
+        assertEquals(160_000, track.keyframeTimeAtOrBefore(200_000));
+        // Past the end: the last one
+        assertEquals(2, track.findKeyframeAtOrBefore(10_000_000));
+        assertEquals(280_000, track.keyframeTimeAtOrBefore(Long.MAX_VALUE));
+        assertEquals(6, track.getKeyframeSample(track.findKeyframeAtOrBefore(290_000)));
+    }
+
+    @Test
+    public void keyframeLookup_withoutKeyframes() throws IOException {
+        SampleIndex track = parseOne(simpleVideo(0, stss(), 1, 1));
+        assertEquals(-1, track.findKeyframeAtOrBefore(40_000));
+        assertEquals(40_000, track.keyframeTimeAtOrBefore(40_000));
+    }
+
+    // ---------------------------------------------------------------- Mp4File
+
+    private File write(byte[]... boxes) throws IOException {
+        File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (byte[] box : boxes) {
+                out.write(box);
+            }
+        }
+        return file;
+    }
+
+    private static Mp4File open(File file) throws IOException {
+        return Mp4File.open(new RandomAccessFile(file, "r").getChannel());
+    }
+
+    @Test
+    public void mp4File_readsSamplesFromMdatBeforeMoov() throws IOException {
+        byte[] ftyp = box("ftyp", fields("isom", 0));
+        byte[] payload = "firstsecond-third".getBytes(StandardCharsets.US_ASCII);
+        int dataStart = ftyp.length + 8;
+        byte[] moov = box("moov", simpleVideo(dataStart, null, 5, 6, 6));
+        File file = write(ftyp, box("mdat", payload), moov);
+        try (Mp4File mp4 = open(file)) {
+            SampleIndex track = mp4.getTrack(SampleIndex.TYPE_VIDEO);
+            assertNotNull(track);
+            assertNull(mp4.getTrack(SampleIndex.TYPE_AUDIO));
+            assertEquals(file.length(), mp4.getFileSize());
+            assertEquals("first", ascii(mp4.readSample(track, 0)));
+            assertEquals("second", ascii(mp4.readSample(track, 1)));
+            assertEquals("-third", ascii(mp4.readSample(track, 2)));
+            assertTrue(mp4.readSample(track, 0).isReadOnly());
+        }
+    }
+
+    @Test
+    public void mp4File_skipsLargeSizeBoxes() throws IOException {
+        // An mdat with a 64-bit size ahead of moov
+        byte[] mdat = fields(1, "mdat", 16L + 4, "data");
+        File file = write(mdat, box("moov", simpleVideo(16, null, 4)));
+        try (Mp4File mp4 = open(file)) {
+            assertEquals("data", ascii(mp4.readSample(mp4.getTracks().get(0), 0)));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void mp4File_sampleOutsideFile_isRejected() throws IOException {
+        File file = write(box("moov", simpleVideo(1_000_000, null, 4)));
+        try (Mp4File mp4 = open(file)) {
+            mp4.readSample(mp4.getTracks().get(0), 0);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void mp4File_withoutMoov_isRejected() throws IOException {
+        open(write(box("ftyp", fields("isom", 0)), box("mdat", fields(0))));
+    }
+
+    @Test(expected = IOException.class)
+    public void mp4File_topLevelBoxPastEnd_isRejected() throws IOException {
+        open(write(fields(4096, "mdat", 0)));
+    }
+
+    private static String ascii(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.flamvr.core.mp4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * On-disk round trip of sample indexes, cache keys, LRU eviction under the byte cap, corrupt
+ * entries and hit-rate accounting.
+ */
+public class SampleIndexCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Track of count samples, a keyframe every third one, presented out of decode order
+    private static SampleIndex track(int trackId, String handler, int count) {
+        long[] offsets = new long[count];
+        int[] sizes = new int[count];
+        long[] pts = new long[count];
+        int[] sync = new int[(count + 2) / 3];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = 5_000_000_000L + i * 1000L;
+            sizes[i] = 100 + i;
+            pts[i] = (i ^ 1) * 33_333L;
+        }
+        for (int k = 0; k < sync.length; k++) {
+            sync[k] = k * 3;
+        }
+        return new SampleIndex(trackId, handler, 90_000, count * 33_333L, offsets, sizes, pts, sync);
+    }
+
+    private static void assertSameIndex(SampleIndex expected, SampleIndex actual) {
+        assertEquals(expected.getTrackId(), actual.getTrackId());
+        assertEquals(expected.getHandlerType(), actual.getHandlerType());
+        assertEquals(expected.getTimescale(), actual.getTimescale());
+        assertEquals(expected.getDurationUs(), actual.getDurationUs());
+        assertEquals(expected.getSampleCount(), actual.getSampleCount());
+        for (int i = 0; i < expected.getSampleCount(); i++) {
+            assertEquals(expected.getOffset(i), actual.getOffset(i));
+            assertEquals(expected.getSize(i), actual.getSize(i));
+            assertEquals(expected.getPtsUs(i), actual.getPtsUs(i));
+            assertEquals(expected.isSync(i), actual.isSync(i));
+        }
+        assertEquals(expected.getKeyframeCount(), actual.getKeyframeCount());
+        for (int k = 0; k < expected.getKeyframeCount(); k++) {
+            assertEquals(expected.getKeyframeSample(k), actual.getKeyframeSample(k));
+            assertEquals(expected.getKeyframePtsUs(k), actual.getKeyframePtsUs(k));
+        }
+    }
+
+    private File entry(File directory, String key) {
+        return new File(directory, key + ".idx");
+    }
+
+    @Test
+    public void roundTrip_keepsEveryArray() throws IOException {
+        File directory = folder.newFolder();
+        SampleIndexCache cache = new SampleIndexCache(directory, 1 << 20);
+        List<SampleIndex> tracks = Arrays.asList(track(1, SampleIndex.TYPE_VIDEO, 100), track(2, SampleIndex.TYPE_AUDIO, 7));
+        String key = SampleIndexCache.key("content://video/1", 1234, 5678);
+        cache.put(key, tracks);
+
+        // A fresh instance reads what the previous one wrote
+        List<SampleIndex> loaded = new SampleIndexCache(directory, 1 << 20).get(key);
+        assertNotNull(loaded);
+        assertEquals(2, loaded.size());
+        assertSameIndex(tracks.get(0), loaded.get(0));
+        assertSameIndex(tracks.get(1), loaded.get(1));
+    }
+
+    @Test
+    public void key_changesWithUriSizeAndModifiedTime() {
+        String key = SampleIndexCache.key("content://video/1", 1234, 5678);
+        assertEquals(key, SampleIndexCache.key("content://video/1", 1234, 5678));
+        assertEquals(40, key.length());
+        assertNotEquals(key, SampleIndexCache.key("content://video/2", 1234, 5678));
+        assertNotEquals(key, SampleIndexCache.key("content://video/1", 1235, 5678));
+        assertNotEquals(key, SampleIndexCache.key("content://video/1", 1234, 5679));
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedBeyondCap() throws IOException {
+        File directory = folder.newFolder();
+        List<SampleIndex> tracks = Collections.singletonList(track(1, SampleIndex.TYPE_VIDEO, 50));
+        int entryBytes = 12 + tracks.get(0).serializedSize();
+        // Room for two entries, not three
+        SampleIndexCache cache = new SampleIndexCache(directory, entryBytes * 2 + entryBytes / 2);
+        cache.put("a", tracks);
+        cache.put("b", tracks);
+        // a was written first but read since, b is the least recently used
+        assertTrue(entry(directory, "a").setLastModified(1_000_000_000L));
+        assertTrue(entry(directory, "b").setLastModified(2_000_000_000L));
+        assertNotNull(cache.get("a"));
+        cache.put("c", tracks);
+
+        assertTrue(entry(directory, "a").isFile());
+        assertFalse(entry(directory, "b").isFile());
+        assertTrue(entry(directory, "c").isFile());
+    }
+
+    @Test
+    public void put_entryLargerThanCapIsNotStored() throws IOException {
+        File directory = folder.newFolder();
+        SampleIndexCache cache = new SampleIndexCache(directory, 100);
+        cache.put("big", Collections.singletonList(track(1, SampleIndex.TYPE_VIDEO, 50)));
+        assertFalse(entry(directory, "big").exists());
+    }
+
+    @Test
+    public void corruptEntry_isDeletedAndMissed() throws IOException {
+        File directory = folder.newFolder();
+        SampleIndexCache cache = new SampleIndexCache(directory, 1 << 20);
+        try (FileOutputStream out = new FileOutputStream(entry(directory, "garbage"))) {
+            out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+        }
+        assertNull(cache.get("garbage"));
+        assertFalse(entry(directory, "garbage").exists());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void truncatedEntry_isDeletedAndMissed() throws IOException {
+        File directory = folder.newFolder();
+        SampleIndexCache cache = new SampleIndexCache(directory, 1 << 20);
+        cache.put("cut", Collections.singletonList(track(1, SampleIndex.TYPE_VIDEO, 50)));
+        File file = entry(directory, "cut");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+        assertNull(cache.get("cut"));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void hitRate_countsHitsAndMisses() throws IOException {
+        File directory = folder.newFolder();
+        SampleIndexCache cache = new SampleIndexCache(directory, 1 << 20);
+        assertEquals(0.0f, cache.getHitRate(), 0.0f);
+        assertNull(cache.get("k"));
+        cache.put("k", Collections.singletonList(track(1, SampleIndex.TYPE_VIDEO, 10)));
+        assertNotNull(cache.get("k"));
+        assertNotNull(cache.get("k"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(2 / 3.0f, cache.getHitRate(), 1e-6f);
+        assertTrue(cache.getLastLoadTimeNs() > 0);
+    }
+}
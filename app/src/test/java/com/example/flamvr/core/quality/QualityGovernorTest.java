@@ -0,0 +1,176 @@
+package com.example.flamvr.core.quality;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * QualityGovernor replayed against the frame-time traces in test resources (quality/*.txt).
+ * Open-loop replays feed the trace as is; closed-loop replays scale each frame by the cost of
+ * the level the governor is at, the way render scale and skipped passes shorten a draw.
+ */
+public class QualityGovernorTest {
+
+    // 60 Hz
+    private static final long BUDGET_NS = 16_666_667L;
+
+    // Draw cost of each default level relative to full quality, for a filter dominated by a neighborhood pass
+    private static final double[] LEVEL_COST = {1.0, 0.76, 0.56, 0.33, 0.15};
+
+    private final QualityGovernor governor = new QualityGovernor(BUDGET_NS);
+    // Level after every frame of the last replay
+    private final List<Integer> levels = new ArrayList<>();
+
+    // Frame times in ns, one per line in ms, '#' starts a comment
+    private static long[] load(String name) throws IOException {
+        InputStream in = QualityGovernorTest.class.getResourceAsStream("/quality/" + name);
+        assertNotNull("Missing trace " + name, in);
+        List<Long> frames = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    frames.add(Math.round(Double.parseDouble(line) * 1_000_000));
+                }
+            }
+        }
+        long[] result = new long[frames.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = frames.get(i);
+        }
+        return result;
+    }
+
+    private void replay(long[] trace, double[] levelCost) {
+        for (long frameNs : trace) {
+            double cost = levelCost != null ? levelCost[governor.getLevelIndex()] : 1.0;
+            governor.onFrame((long) (frameNs * cost));
+            levels.add(governor.getLevelIndex());
+        }
+    }
+
+    // Frames between consecutive upgrades of the last replay
+    private List<Integer> upgradeIntervals() {
+        List<Integer> intervals = new ArrayList<>();
+        int last = -1;
+        for (int i = 1; i < levels.size(); i++) {
+            if (levels.get(i) < levels.get(i - 1)) {
+                if (last >= 0) {
+                    intervals.add(i - last);
+                }
+                last = i;
+            }
+        }
+        return intervals;
+    }
+
+    private long overBudgetFrom(long[] trace, double[] levelCost, int from) {
+        long over = 0;
+        for (int i = from; i < trace.length; i++) {
+            over += trace[i] * levelCost[levels.get(i)] > BUDGET_NS ? 1 : 0;
+        }
+        return over;
+    }
+
+    @Test
+    public void lightLoadWithGcPausesNeverDegrades() throws IOException {
+        replay(load("light_with_gc.txt"), null);
+        assertEquals(0, governor.getDowngrades());
+        assertEquals(0, governor.getLevelIndex());
+        assertTrue(governor.getFramesOverBudget() > 0);
+    }
+
+    @Test
+    public void shortBurstsOverBudgetAreAbsorbed() throws IOException {
+        replay(load("decode_bursts.txt"), null);
+        assertEquals(0, governor.getDowngrades());
+    }
+
+    @Test
+    public void borderlineLoadDoesNotFlap() throws IOException {
+        replay(load("borderline.txt"), LEVEL_COST);
+        // At most one step down, and never back up: the lower level is not far enough under budget
+        assertTrue("downgrades " + governor.getDowngrades(), governor.getDowngrades() <= 1);
+        assertEquals(0, governor.getUpgrades());
+    }
+
+    @Test
+    public void thermalThrottlingSettlesOnALevelThatFits() throws IOException {
+        long[] trace = load("thermal_throttle.txt");
+        replay(trace, LEVEL_COST);
+
+        // Full quality while the GPU keeps up
+        for (int i = 0; i < 600; i++) {
+            assertEquals("frame " + i, 0, (int) levels.get(i));
+        }
+        assertTrue(governor.getLevelIndex() > 0);
+        assertEquals(0, governor.getUpgrades());
+        // Steps down one level at a time as the draw time climbs, never further than needed
+        assertTrue(governor.getDowngrades() <= 3);
+        assertEquals(governor.getDowngrades(), governor.getLevelIndex());
+        // The last 10 s mostly fit in the budget
+        long over = overBudgetFrom(trace, LEVEL_COST, trace.length - 600);
+        assertTrue("over budget " + over, over < 600 / 10);
+    }
+
+    @Test
+    public void recoversOneLevelAtATimeAfterLoadDrops() throws IOException {
+        long[] trace = load("heavy_then_light.txt");
+        replay(trace, null);
+
+        int heavyFrames = 900;
+        assertEquals(QualityGovernor.DEFAULT_LEVELS.length - 1, (int) levels.get(heavyFrames - 1));
+        // No upgrade before a full run of light frames
+        for (int i = heavyFrames; i < heavyFrames + QualityGovernor.UPGRADE_FRAMES; i++) {
+            assertEquals("frame " + i, QualityGovernor.DEFAULT_LEVELS.length - 1, (int) levels.get(i));
+        }
+        assertEquals(0, governor.getLevelIndex());
+        assertEquals(QualityGovernor.DEFAULT_LEVELS.length - 1, governor.getUpgrades());
+        for (int interval : upgradeIntervals()) {
+            assertTrue(interval >= QualityGovernor.UPGRADE_FRAMES);
+        }
+    }
+
+    @Test
+    public void failedUpgradesBackOff() throws IOException {
+        // Full quality costs about 18 ms, the next level about 9 ms: far enough under budget to try
+        // upgrading, too slow to stay there
+        long[] trace = load("borderline.txt");
+        long[] twice = new long[trace.length * 2];
+        System.arraycopy(trace, 0, twice, 0, trace.length);
+        System.arraycopy(trace, 0, twice, trace.length, trace.length);
+        replay(twice, new double[]{1.2, 0.6, 0.6, 0.6, 0.6});
+
+        List<Integer> intervals = upgradeIntervals();
+        assertTrue(governor.getUpgrades() >= 3);
+        // Each failed upgrade doubles the wait, up to MAX_UPGRADE_BACKOFF
+        for (int i = 1; i < intervals.size(); i++) {
+            assertTrue("intervals " + intervals, intervals.get(i) >= intervals.get(i - 1));
+        }
+        assertTrue(intervals.get(intervals.size() - 1) >= 4 * QualityGovernor.UPGRADE_FRAMES);
+        // Most of the time is spent at the level that fits
+        int atLevel1 = 0;
+        for (int level : levels) {
+            atLevel1 += level == 1 ? 1 : 0;
+        }
+        assertTrue(atLevel1 > levels.size() * 3 / 4);
+    }
+
+    @Test
+    public void resetReturnsToFullQuality() throws IOException {
+        replay(load("heavy_then_light.txt"), null);
+        governor.onFrame(30_000_000L);
+        governor.reset();
+        assertEquals(0, governor.getLevelIndex());
+        assertEquals(-1, governor.getAverageFrameNs());
+    }
+}
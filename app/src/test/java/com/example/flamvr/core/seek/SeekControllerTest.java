@@ -0,0 +1,92 @@
+package com.example.flamvr.core.seek;
+
+import com.example.flamvr.globals.SeekMode;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Latest-wins seeking: a burst collapses to its newest target, a request in flight is superseded
+ * mid decode-to-target, and every track applies each generation it sees exactly once.
+ */
+public class SeekControllerTest {
+
+    private static final long INITIAL_GENERATION = 7;
+
+    private final SeekController seeks = new SeekController(INITIAL_GENERATION);
+
+    private SeekController.Request submit(long targetUs) {
+        return seeks.submit(targetUs, targetUs, SeekMode.EXACT, 0);
+    }
+
+    @Test
+    public void noSeek_nothingToPoll() {
+        assertNull(seeks.poll(INITIAL_GENERATION));
+        assertEquals(INITIAL_GENERATION, seeks.getGeneration());
+    }
+
+    @Test
+    public void burst_collapsesToNewestTarget() {
+        for (int i = 1; i <= 5; i++) {
+            submit(i * 1_000_000L);
+        }
+        SeekController.Request request = seeks.poll(INITIAL_GENERATION);
+        assertNotNull(request);
+        assertEquals(5_000_000L, request.getTargetUs());
+        assertEquals(INITIAL_GENERATION + 5, request.getGeneration());
+        assertEquals(5, seeks.getRequested());
+        assertEquals(4, seeks.getSuperseded());
+        // One flush for the whole burst
+        assertEquals(1, seeks.getApplied());
+    }
+
+    @Test
+    public void identicalRequestInFlight_isCoalesced() {
+        SeekController.Request first = submit(2_000_000L);
+        assertNull(submit(2_000_000L));
+        assertEquals(1, seeks.getCoalesced());
+        assertEquals(first.getGeneration(), seeks.getGeneration());
+        // Once it has shown its frame, the same position is a new seek
+        assertTrue(seeks.complete(first, 1) >= 0);
+        assertNotNull(submit(2_000_000L));
+    }
+
+    @Test
+    public void newRequest_supersedesDecodeToTarget() {
+        SeekController.Request first = seeks.submit(0, 3_000_000L, SeekMode.EXACT, 100);
+        SeekController.Request applied = seeks.poll(INITIAL_GENERATION);
+        assertSame(first, applied);
+        // The track is still decoding towards 3 s when the user moves on
+        SeekController.Request second = seeks.submit(8_000_000L, 9_000_000L, SeekMode.EXACT, 200);
+        assertSame(second, seeks.poll(applied.getGeneration()));
+        // The abandoned request never completes, the new one does
+        assertEquals(-1, seeks.complete(first, 300));
+        assertEquals(150, seeks.complete(second, 350));
+        assertEquals(1, seeks.getCompleted());
+        assertEquals(1, seeks.getSuperseded());
+        assertEquals(-1, seeks.complete(second, 400));
+    }
+
+    @Test
+    public void eachTrack_pollsGenerationOnce() {
+        submit(1_000_000L);
+        long video = INITIAL_GENERATION;
+        long audio = INITIAL_GENERATION;
+
+        SeekController.Request videoSeek = seeks.poll(video);
+        video = videoSeek.getGeneration();
+        assertNull(seeks.poll(video));
+        SeekController.Request audioSeek = seeks.poll(audio);
+        assertSame(videoSeek, audioSeek);
+        audio = audioSeek.getGeneration();
+        assertNull(seeks.poll(audio));
+        assertEquals(2, seeks.getApplied());
+
+        // A newer seek is picked up once more by each track
+        submit(4_000_000L);
+        assertNotNull(seeks.poll(video));
+        assertNotNull(seeks.poll(audio));
+        assertEquals(4, seeks.getApplied());
+    }
+}
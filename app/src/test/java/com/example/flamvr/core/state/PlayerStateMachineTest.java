@@ -0,0 +1,280 @@
+package com.example.flamvr.core.state;
+
+import com.example.flamvr.core.demux.SampleQueue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Transitions of PlayerStateMachine, and a seek through full read-ahead queues with consumers
+ * following the decode loops' rules: video decodes while isDecoding(), audio keeps draining
+ * while isDecoding() rather than only while playing.
+ */
+public class PlayerStateMachineTest {
+
+    private static final long AUDIO_STEP_US = 20_000;
+    private static final long VIDEO_STEP_US = 33_333;
+
+    private final PlayerStateMachine state = new PlayerStateMachine();
+    private Thread[] threads = new Thread[0];
+
+    @After
+    public void tearDown() throws InterruptedException {
+        state.stop();
+        for (Thread thread : threads) {
+            thread.interrupt();
+            thread.join(1000);
+        }
+    }
+
+    @Test
+    public void prepare_endsInPlayingOrPaused() {
+        state.prepare(true);
+        assertEquals(PlayerStateMachine.State.PREPARING, state.getState());
+        assertTrue(state.isPlayWhenReady());
+        assertTrue(state.prepared());
+        assertEquals(PlayerStateMachine.State.PLAYING, state.getState());
+
+        state.prepare(false);
+        assertFalse(state.isPlayWhenReady());
+        assertTrue(state.prepared());
+        assertEquals(PlayerStateMachine.State.PAUSED, state.getState());
+    }
+
+    @Test
+    public void playDuringPrepare_isRemembered() {
+        state.prepare(false);
+        assertFalse(state.play());
+        assertTrue(state.isPlayWhenReady());
+        state.prepared();
+        assertTrue(state.isPlaying());
+    }
+
+    @Test
+    public void seek_decodesButDoesNotPlay() {
+        state.prepare(true);
+        state.prepared();
+        assertTrue(state.seek());
+        assertEquals(PlayerStateMachine.State.SEEKING, state.getState());
+        assertTrue(state.isDecoding());
+        assertFalse(state.isPlaying());
+        assertTrue(state.seekCompleted());
+        assertEquals(PlayerStateMachine.State.PLAYING, state.getState());
+    }
+
+    @Test
+    public void seekFromPaused_returnsToPaused() {
+        state.prepare(false);
+        state.prepared();
+        assertTrue(state.seek());
+        assertTrue(state.seekCompleted());
+        assertEquals(PlayerStateMachine.State.PAUSED, state.getState());
+    }
+
+    @Test
+    public void pauseDuringSeek_isRemembered() {
+        state.prepare(true);
+        state.prepared();
+        state.seek();
+        assertFalse(state.pause());
+        assertEquals(PlayerStateMachine.State.SEEKING, state.getState());
+        state.seekCompleted();
+        assertEquals(PlayerStateMachine.State.PAUSED, state.getState());
+    }
+
+    @Test
+    public void seekWithoutFile_isRejected() {
+        assertFalse(state.seek());
+        state.prepare(true);
+        assertFalse(state.seek());
+    }
+
+    @Test(timeout = 5000)
+    public void awaitDecoding_wakesOnSeek() throws InterruptedException {
+        state.prepare(false);
+        state.prepared();
+        CountDownLatch woken = new CountDownLatch(1);
+        Thread waiter = start(() -> {
+            state.awaitDecoding();
+            woken.countDown();
+        });
+        threads = new Thread[]{waiter};
+        assertFalse(woken.await(50, TimeUnit.MILLISECONDS));
+        state.seek();
+        assertTrue(woken.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 10_000)
+    public void exactSeekWithFullQueues_completes() throws InterruptedException {
+        assertTrue(seekThroughFullQueues(false));
+    }
+
+    // Guards the test itself: with audio waiting for PLAYING the demuxer stalls on the full audio queue
+    @Test(timeout = 10_000)
+    public void exactSeekWithFullQueues_stallsIfAudioOnlyDrainsWhilePlaying() throws InterruptedException {
+        assertFalse(seekThroughFullQueues(true));
+    }
+
+    /**
+     * Reads ahead until the audio queue is full, then seeks exactly to a target well past what the video
+     * queue holds. Returns whether the seek completed.
+     */
+    private boolean seekThroughFullQueues(boolean audioWaitsForPlaying) throws InterruptedException {
+        SampleQueue video = new SampleQueue(8, 1 << 20);
+        SampleQueue audio = new SampleQueue(8, 1 << 20);
+        FakeDemuxer demuxer = new FakeDemuxer(video, audio);
+        long targetUs = 2_000_000;
+        CountDownLatch seekDone = new CountDownLatch(1);
+
+        state.prepare(true);
+        state.prepared();
+        // Consumers stay paused until the queues have filled up
+        state.pause();
+
+        Thread demuxThread = start(demuxer::run);
+        Thread videoThread = start(() -> {
+            long generation = 0;
+            while (true) {
+                if (!state.isDecoding()) {
+                    state.awaitDecoding();
+                    continue;
+                }
+                long requested = demuxer.generation;
+                if (requested != generation) {
+                    generation = requested;
+                }
+                SampleQueue.Sample sample = video.peek(generation);
+                if (sample == null) {
+                    Thread.sleep(1);
+                    continue;
+                }
+                long ptsUs = sample.getPtsUs();
+                video.release();
+                if (generation > 0 && ptsUs >= targetUs) {
+                    state.seekCompleted();
+                    seekDone.countDown();
+                    return;
+                }
+            }
+        });
+        Thread audioThread = start(() -> {
+            long generation = 0;
+            while (true) {
+                boolean consuming = audioWaitsForPlaying ? state.isPlaying() : state.isDecoding();
+                if (!consuming) {
+                    if (audioWaitsForPlaying) {
+                        state.awaitPlaying();
+                    } else {
+                        state.awaitDecoding();
+                    }
+                    continue;
+                }
+                generation = demuxer.generation;
+                if (audio.peek(generation) != null) {
+                    audio.release();
+                } else {
+                    Thread.sleep(1);
+                }
+            }
+        });
+        threads = new Thread[]{demuxThread, videoThread, audioThread};
+
+        // Audio samples come more often, so the demuxer ends up blocked on the full audio queue
+        long deadlineNs = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (audio.getOccupancy() < audio.getCapacity() && System.nanoTime() < deadlineNs) {
+            Thread.sleep(1);
+        }
+        assertEquals(audio.getCapacity(), audio.getOccupancy());
+
+        // Seek back to the start, then decode up to a target 60 video frames in
+        demuxer.seekTo(0);
+        assertTrue(state.seek());
+        assertFalse(state.isPlayWhenReady());
+        boolean done = seekDone.await(audioWaitsForPlaying ? 300 : 5000, TimeUnit.MILLISECONDS);
+        if (done) {
+            assertEquals(PlayerStateMachine.State.PAUSED, state.getState());
+        }
+        return done;
+    }
+
+    private interface Body {
+        void run() throws InterruptedException;
+    }
+
+    private static Thread start(Body body) {
+        Thread thread = new Thread(() -> {
+            try {
+                body.run();
+            } catch (InterruptedException e) {
+                // Test over
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Single reader interleaving audio and video samples by timestamp into their queues like
+     * Demuxer: it waits for room in the queue of the next sample, giving up on it when a seek arrives.
+     */
+    private static final class FakeDemuxer {
+        private final SampleQueue video;
+        private final SampleQueue audio;
+        private final ByteBuffer payload = ByteBuffer.allocate(16);
+        volatile long generation = 0;
+        private volatile long seekTimeUs = 0;
+
+        FakeDemuxer(SampleQueue video, SampleQueue audio) {
+            this.video = video;
+            this.audio = audio;
+        }
+
+        void seekTo(long timeUs) {
+            seekTimeUs = timeUs;
+            generation++;
+        }
+
+        void run() throws InterruptedException {
+            long applied = -1;
+            long videoUs = 0;
+            long audioUs = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                long requested = generation;
+                if (requested != applied) {
+                    applied = requested;
+                    videoUs = seekTimeUs;
+                    audioUs = seekTimeUs;
+                }
+                boolean isVideo = videoUs <= audioUs;
+                SampleQueue queue = isVideo ? video : audio;
+                long ptsUs = isVideo ? videoUs : audioUs;
+                boolean queued = false;
+                while (generation == applied) {
+                    payload.position(0);
+                    if (queue.offer(payload, payload.capacity(), ptsUs, 0, applied)) {
+                        queued = true;
+                        break;
+                    }
+                    queue.awaitSpace(1_000_000);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+                if (queued) {
+                    if (isVideo) {
+                        videoUs += VIDEO_STEP_US;
+                    } else {
+                        audioUs += AUDIO_STEP_US;
+                    }
+                }
+            }
+        }
+    }
+}
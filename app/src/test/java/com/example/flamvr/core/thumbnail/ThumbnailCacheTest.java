@@ -0,0 +1,84 @@
+package com.example.flamvr.core.thumbnail;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Byte bound, LRU order and trim levels of ThumbnailCache, with byte arrays standing in for bitmaps.
+ */
+public class ThumbnailCacheTest {
+
+    private final ThumbnailCache<byte[]> cache = new ThumbnailCache<>(1000, value -> value.length);
+
+    private void fill(int count, int bytes) {
+        for (int i = 0; i < count; i++) {
+            cache.put(i, new byte[bytes]);
+        }
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedBeyondByteBound() {
+        fill(4, 250);
+        assertEquals(1000, cache.getSizeBytes());
+        // Touching key 0 makes key 1 the eldest
+        assertNotNull(cache.get(0));
+        cache.put(4, new byte[300]);
+        assertNull(cache.get(1));
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(0));
+        assertNotNull(cache.get(3));
+        assertNotNull(cache.get(4));
+        assertEquals(800, cache.getSizeBytes());
+    }
+
+    @Test
+    public void put_replacingKeyCountsNewSizeOnly() {
+        cache.put(7, new byte[600]);
+        cache.put(7, new byte[100]);
+        assertEquals(100, cache.getSizeBytes());
+        assertEquals(1, cache.getCount());
+    }
+
+    @Test
+    public void put_frameLargerThanBoundIsNotKept() {
+        fill(2, 100);
+        cache.put(9, new byte[1001]);
+        assertNull(cache.get(9));
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void trimMemory_moderateKeepsEverything() {
+        fill(4, 250);
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        assertEquals(1000, cache.getSizeBytes());
+    }
+
+    @Test
+    public void trimMemory_lowHalvesKeepingRecentFrames() {
+        fill(4, 250);
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(500, cache.getSizeBytes());
+        assertNull(cache.get(0));
+        assertNotNull(cache.get(3));
+    }
+
+    @Test
+    public void trimMemory_criticalAndHiddenClear() {
+        int[] levels = {
+                ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL,
+                ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN,
+                ComponentCallbacks2.TRIM_MEMORY_BACKGROUND,
+                ComponentCallbacks2.TRIM_MEMORY_COMPLETE
+        };
+        for (int level : levels) {
+            fill(4, 250);
+            cache.trimMemory(level);
+            assertEquals("level " + level, 0, cache.getSizeBytes());
+            assertEquals(0, cache.getCount());
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.example.flamvr.core.trace;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Chrome JSON exports of TraceRecorder: valid JSON with escaped names, balanced slices after the
+ * ring wrapped, clear(), and consistent records while another thread keeps writing.
+ * Each test records on its own thread, so it reads only that thread's ring.
+ */
+public class TraceRecorderTest {
+
+    private static final int SLICE = TraceRecorder.event("test.slice");
+    private static final int OUTER = TraceRecorder.event("test.outer");
+    private static final int TICK = TraceRecorder.event("test.tick");
+    private static final int[] PATTERN = {
+            TraceRecorder.event("test.pattern0"),
+            TraceRecorder.event("test.pattern1"),
+            TraceRecorder.event("test.pattern2")
+    };
+
+    @Before
+    public void setUp() {
+        TraceRecorder.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        TraceRecorder.setEnabled(false);
+    }
+
+    // Runs body on a fresh thread and returns that thread's id
+    private static long recordOnThread(Runnable body) throws InterruptedException {
+        Thread thread = new Thread(body, "trace-test");
+        thread.start();
+        thread.join();
+        return thread.getId();
+    }
+
+    private static List<Map<String, Object>> export() throws IOException {
+        StringWriter out = new StringWriter();
+        TraceRecorder.exportChromeJson(out);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> root = (Map<String, Object>) new Json(out.toString()).parse();
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> events = (List<Map<String, Object>>) root.get("traceEvents");
+        return events;
+    }
+
+    private static List<Map<String, Object>> eventsOf(List<Map<String, Object>> events, long tid) {
+        List<Map<String, Object>> own = new ArrayList<>();
+        for (Map<String, Object> event : events) {
+            if (((Number) event.get("tid")).longValue() == tid && !"M".equals(event.get("ph"))) {
+                own.add(event);
+            }
+        }
+        return own;
+    }
+
+    @Test
+    public void slicesStayBalancedAfterWraparound() throws Exception {
+        long tid = recordOnThread(() -> {
+            // The outer begin is overwritten by the instants, its end must not close anything
+            TraceRecorder.begin(OUTER);
+            for (int i = 0; i < TraceRecorder.RING_CAPACITY + 100; i++) {
+                TraceRecorder.instant(TICK, i);
+            }
+            TraceRecorder.begin(SLICE);
+            TraceRecorder.end(SLICE);
+            TraceRecorder.end(OUTER);
+        });
+        int depth = 0;
+        int slices = 0;
+        for (Map<String, Object> event : eventsOf(export(), tid)) {
+            if ("B".equals(event.get("ph"))) {
+                depth++;
+                slices++;
+                assertEquals("test.slice", event.get("name"));
+            } else if ("E".equals(event.get("ph"))) {
+                depth--;
+                assertTrue("end without begin", depth >= 0);
+            }
+        }
+        assertEquals(0, depth);
+        assertEquals(1, slices);
+    }
+
+    @Test
+    public void clear_leavesEarlierRecordsOut() throws Exception {
+        long tid = recordOnThread(() -> {
+            TraceRecorder.instant(TICK, 1);
+            TraceRecorder.clear();
+            TraceRecorder.instant(TICK, 2);
+            TraceRecorder.counter(TICK, 3);
+        });
+        List<Map<String, Object>> events = eventsOf(export(), tid);
+        assertEquals(2, events.size());
+        assertEquals("i", events.get(0).get("ph"));
+        assertEquals(2.0, ((Number) ((Map<?, ?>) events.get(0).get("args")).get("arg")).doubleValue(), 0.0);
+        assertEquals("C", events.get(1).get("ph"));
+        assertEquals(3.0, ((Number) ((Map<?, ?>) events.get(1).get("args")).get("test.tick")).doubleValue(), 0.0);
+    }
+
+    @Test
+    public void namesAreEscaped() throws Exception {
+        String name = "quote\" back\\slash new\nline \u0001";
+        int odd = TraceRecorder.event(name);
+        long tid = recordOnThread(() -> TraceRecorder.instant(odd, 0));
+        StringWriter out = new StringWriter();
+        TraceRecorder.exportChromeJson(out);
+        assertTrue(out.toString().contains("quote\\\" back\\\\slash new\\u000aline \\u0001"));
+        // Parses back to the original name
+        List<Map<String, Object>> events = eventsOf(export(), tid);
+        assertEquals(name, events.get(events.size() - 1).get("name"));
+    }
+
+    @Test
+    public void event_sameNameSameId() {
+        assertEquals(SLICE, TraceRecorder.event("test.slice"));
+        assertNotEquals(SLICE, OUTER);
+    }
+
+    @Test
+    public void exportDuringWrites_hasNoTornRecords() throws Exception {
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            // Record r is pattern event r % 3 with arg r. RING_CAPACITY is not a multiple of 3, so a
+            // record mixing two writes to the same slot shows up as a mismatch
+            long r = 0;
+            while (!stop.get()) {
+                TraceRecorder.instant(PATTERN[(int) (r % 3)], r);
+                r++;
+            }
+        }, "trace-writer");
+        writer.start();
+        try {
+            for (int export = 0; export < 20; export++) {
+                long previous = -1;
+                for (Map<String, Object> event : eventsOf(export(), writer.getId())) {
+                    long arg = ((Number) ((Map<?, ?>) event.get("args")).get("arg")).longValue();
+                    assertEquals("test.pattern" + arg % 3, event.get("name"));
+                    assertTrue("records out of order", arg > previous);
+                    previous = arg;
+                }
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+    }
+
+    /**
+     * Minimal strict JSON parser: objects, arrays, strings, numbers, true, false and null.
+     */
+    private static final class Json {
+        private final String s;
+        private int pos = 0;
+
+        Json(String s) {
+            this.s = s;
+        }
+
+        Object parse() {
+            Object value = value();
+            skipSpace();
+            if (pos != s.length()) {
+                throw error("trailing data");
+            }
+            return value;
+        }
+
+        private Object value() {
+            skipSpace();
+            if (pos >= s.length()) {
+                throw error("unexpected end");
+            }
+            char c = s.charAt(pos);
+            if (c == '{') {
+                return object();
+            } else if (c == '[') {
+                return array();
+            } else if (c == '"') {
+                return string();
+            } else if (s.startsWith("true", pos)) {
+                pos += 4;
+                return Boolean.TRUE;
+            } else if (s.startsWith("false", pos)) {
+                pos += 5;
+                return Boolean.FALSE;
+            } else if (s.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            }
+            return number();
+        }
+
+        private Map<String, Object> object() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            pos++;
+            skipSpace();
+            if (s.charAt(pos) == '}') {
+                pos++;
+                return map;
+            }
+            while (true) {
+                skipSpace();
+                String key = string();
+                skipSpace();
+                expect(':');
+                map.put(key, value());
+                skipSpace();
+                if (s.charAt(pos) == '}') {
+                    pos++;
+                    return map;
+                }
+                expect(',');
+            }
+        }
+
+        private List<Object> array() {
+            List<Object> list = new ArrayList<>();
+            pos++;
+            skipSpace();
+            if (s.charAt(pos) == ']') {
+                pos++;
+                return list;
+            }
+            while (true) {
+                list.add(value());
+                skipSpace();
+                if (s.charAt(pos) == ']') {
+                    pos++;
+                    return list;
+                }
+                expect(',');
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = s.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                } else if (c < 0x20) {
+                    throw error("unescaped control character");
+                } else if (c == '\\') {
+                    char e = s.charAt(pos++);
+                    switch (e) {
+                        case '"':
+                        case '\\':
+                        case '/':
+                            sb.append(e);
+                            break;
+                        case 'n':
+                            sb.append('\n');
+                            break;
+                        case 't':
+                            sb.append('\t');
+                            break;
+                        case 'r':
+                            sb.append('\r');
+                            break;
+                        case 'b':
+                            sb.append('\b');
+                            break;
+                        case 'f':
+                            sb.append('\f');
+                            break;
+                        case 'u':
+                            sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                            pos += 4;
+                            break;
+                        default:
+                            throw error("bad escape");
+                    }
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+
+        private Double number() {
+            int start = pos;
+            while (pos < s.length() && "+-0123456789.eE".indexOf(s.charAt(pos)) >= 0) {
+                pos++;
+            }
+            if (start == pos) {
+                throw error("unexpected character");
+            }
+            return Double.valueOf(s.substring(start, pos));
+        }
+
+        private void expect(char c) {
+            if (pos >= s.length() || s.charAt(pos) != c) {
+                throw error("expected " + c);
+            }
+            pos++;
+        }
+
+        private void skipSpace() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at " + pos);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.flamvr.platform.canvas;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * YUV to ARGB conversion of the CPU fallback renderer, BT.601 limited range.
+ */
+public class CanvasRendererTest {
+
+    @Test
+    public void yuvToArgb_mapsLimitedRangeEndsToBlackAndWhite() {
+        assertEquals(0xFF000000, CanvasRenderer.yuvToArgb(16, 128, 128));
+        assertEquals(0xFF000000, CanvasRenderer.yuvToArgb(0, 128, 128));
+        assertEquals(0xFFFFFFFF, CanvasRenderer.yuvToArgb(235, 128, 128));
+        assertEquals(0xFFFFFFFF, CanvasRenderer.yuvToArgb(255, 128, 128));
+    }
+
+    @Test
+    public void yuvToArgb_neutralChromaIsGray() {
+        int argb = CanvasRenderer.yuvToArgb(126, 128, 128);
+        int r = (argb >> 16) & 0xFF;
+        assertEquals(r, (argb >> 8) & 0xFF);
+        assertEquals(r, argb & 0xFF);
+        assertEquals(128, r, 1);
+    }
+
+    @Test
+    public void yuvToArgb_primaries() {
+        // BT.601 limited range red, green and blue, within rounding
+        assertColor(0xFFFF0000, CanvasRenderer.yuvToArgb(81, 90, 240));
+        assertColor(0xFF00FF00, CanvasRenderer.yuvToArgb(145, 54, 34));
+        assertColor(0xFF0000FF, CanvasRenderer.yuvToArgb(41, 240, 110));
+    }
+
+    private static void assertColor(int expected, int actual) {
+        for (int shift = 0; shift <= 16; shift += 8) {
+            assertEquals(Integer.toHexString(actual), (expected >> shift) & 0xFF, (actual >> shift) & 0xFF, 3);
+        }
+        assertEquals(0xFF, actual >>> 24);
+    }
+}
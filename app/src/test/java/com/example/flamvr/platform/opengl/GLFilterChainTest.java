@@ -0,0 +1,136 @@
+package com.example.flamvr.platform.opengl;
+
+import com.example.flamvr.core.filter.FilterGraph;
+import com.example.flamvr.core.filter.FilterPass;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * GL calls per frame of GLFilterChain, counted with the headless CountingGL.
+ * The first frame builds programs and targets; from the second frame on only the draws and the
+ * binds that change between stages may reach GL.
+ */
+public class GLFilterChainTest {
+
+    private static final int EXTERNAL_TEXTURE = 1000;
+    private static final int SCREEN_VAO = 1001;
+    private static final int FULLSCREEN_VAO = 1002;
+    private static final int INDEX_COUNT = 6;
+    private static final float[] IDENTITY = {
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0,
+            0, 0, 0, 1,
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CountingGL gl;
+    private GLStateCache glState;
+    private GLFilterChain chain;
+
+    @Before
+    public void setUp() throws IOException {
+        gl = new CountingGL();
+        glState = new GLStateCache(gl);
+        OpenGLShader shader = new OpenGLShader(gl, fileName -> "// " + fileName + "\n", folder.newFolder("programs"));
+        chain = new GLFilterChain(gl, glState, shader);
+        chain.onContextCreated();
+        // 4:3 video pillarboxed on a 16:9 screen, offscreen targets are smaller than the screen
+        chain.setOutputSize(1920, 1080, 1440, 1080);
+    }
+
+    private void drawFrame() {
+        chain.draw(EXTERNAL_TEXTURE, IDENTITY, SCREEN_VAO, FULLSCREEN_VAO, INDEX_COUNT);
+    }
+
+    // Draws the warm-up frame, then returns the GL calls of one steady-state frame
+    private int steadyFrameCalls() {
+        drawFrame();
+        gl.resetCounts();
+        drawFrame();
+        return gl.getCallCount();
+    }
+
+    @Test
+    public void passThrough_steadyFrameIsClearAndDraw() {
+        assertEquals(1, chain.getStageCount());
+        assertEquals(2, steadyFrameCalls());
+        assertEquals(1, gl.getCallCount("glClear"));
+        assertEquals(1, gl.getCallCount("glDrawElements"));
+    }
+
+    @Test
+    public void fusedGraph_costsTheSameAsPassThrough() {
+        chain.setGraph(new FilterGraph().add(FilterPass.LUMINANCE).add(FilterPass.DITHER));
+        assertEquals(1, chain.getStageCount());
+        assertEquals(2, steadyFrameCalls());
+    }
+
+    @Test
+    public void firstFrame_buildsProgramAndSetsItUp() {
+        drawFrame();
+        assertEquals(1, gl.getCallCount("glLinkProgram"));
+        assertEquals(1, gl.getCallCount("glUseProgram"));
+        assertEquals(1, gl.getCallCount("glUniform1i"));
+        assertEquals(1, gl.getCallCount("glUniformMatrix4fv"));
+        assertEquals(1, gl.getCallCount("glBindVertexArray"));
+    }
+
+    @Test
+    public void twoStages_onlyRebindWhatDiffersBetweenStages() {
+        chain.setGraph(new FilterGraph().add(FilterPass.LUMINANCE).add(FilterPass.DITHER).setFusionEnabled(false));
+        assertEquals(2, chain.getStageCount());
+        int calls = steadyFrameCalls();
+        // Each stage switches framebuffer, viewport, vertex array, program and input texture, then draws
+        assertEquals(2, gl.getCallCount("glDrawElements"));
+        assertEquals(2, gl.getCallCount("glBindFramebuffer"));
+        assertEquals(2, gl.getCallCount("glViewport"));
+        assertEquals(2, gl.getCallCount("glBindVertexArray"));
+        assertEquals(2, gl.getCallCount("glUseProgram"));
+        assertEquals(2, gl.getCallCount("glBindTexture"));
+        // Only the screen is cleared, offscreen stages overwrite every pixel
+        assertEquals(1, gl.getCallCount("glClear"));
+        assertEquals(13, calls);
+    }
+
+    @Test
+    public void steadyFrames_doNotQueryOrAllocate() {
+        chain.setGraph(new FilterGraph().add(FilterPass.SKETCH).add(FilterPass.LUMINANCE).setFusionEnabled(false));
+        steadyFrameCalls();
+        assertEquals(0, gl.getCallCount("glGetUniformLocation"));
+        assertEquals(0, gl.getCallCount("glGetAttribLocation"));
+        assertEquals(0, gl.getCallCount("glUniform1i"));
+        assertEquals(0, gl.getCallCount("glUniformMatrix4fv"));
+        assertEquals(0, gl.getCallCount("glGenTextures"));
+        assertEquals(0, gl.getCallCount("glGenFramebuffers"));
+        assertEquals(0, gl.getCallCount("glCreateProgram"));
+    }
+
+    @Test
+    public void changedTransform_isUploadedOnce() {
+        drawFrame();
+        float[] flipped = IDENTITY.clone();
+        flipped[5] = -1;
+        gl.resetCounts();
+        chain.draw(EXTERNAL_TEXTURE, flipped, SCREEN_VAO, FULLSCREEN_VAO, INDEX_COUNT);
+        chain.draw(EXTERNAL_TEXTURE, flipped, SCREEN_VAO, FULLSCREEN_VAO, INDEX_COUNT);
+        assertEquals(1, gl.getCallCount("glUniformMatrix4fv"));
+    }
+
+    @Test
+    public void stateCache_countsSkippedBinds() {
+        drawFrame();
+        long skipped = glState.getCallsSkipped();
+        drawFrame();
+        assertTrue(glState.getCallsSkipped() > skipped);
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.flamvr.platform.opengl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Program builds of OpenGLShader on the headless CountingGL: the binary cache on a second build and
+ * no shader left behind when a compile fails.
+ */
+public class OpenGLShaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // CountingGL that fails every fragment shader compile
+    private static class BadFragmentGL extends CountingGL {
+        private int fragmentShader = -1;
+
+        @Override
+        public int glCreateShader(int type) {
+            int shader = super.glCreateShader(type);
+            if (type == GL_FRAGMENT_SHADER) {
+                fragmentShader = shader;
+            }
+            return shader;
+        }
+
+        @Override
+        public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+            super.glGetShaderiv(shader, pname, params, offset);
+            if (shader == fragmentShader) {
+                params[offset] = 0;
+            }
+        }
+    }
+
+    private OpenGLShader shader(CountingGL gl) throws IOException {
+        return new OpenGLShader(gl, fileName -> "// " + fileName + "\n", folder.newFolder());
+    }
+
+    @Test
+    public void secondBuild_loadsFromBinaryCache() throws IOException {
+        CountingGL gl = new CountingGL();
+        OpenGLShader shader = shader(gl);
+        assertNotEquals(0, shader.buildProgramFromSource("simple", "test", "// frag\n"));
+        assertEquals(1, gl.getCallCount("glLinkProgram"));
+        // Both shaders are released once linked
+        assertEquals(2, gl.getCallCount("glDeleteShader"));
+
+        gl.resetCounts();
+        assertNotEquals(0, shader.buildProgramFromSource("simple", "test", "// frag\n"));
+        assertEquals(0, gl.getCallCount("glLinkProgram"));
+        assertEquals(1, gl.getCallCount("glProgramBinary"));
+        assertEquals(1, shader.getBinaryCache().getHits());
+    }
+
+    @Test
+    public void failedCompile_deletesBothShaders() throws IOException {
+        BadFragmentGL gl = new BadFragmentGL();
+        OpenGLShader shader = shader(gl);
+        assertEquals(0, shader.buildProgramFromSource("simple", "test", "// frag\n"));
+        assertEquals(2, gl.getCallCount("glCreateShader"));
+        assertEquals(2, gl.getCallCount("glDeleteShader"));
+        assertEquals(0, gl.getCallCount("glCreateProgram"));
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.flamvr.platform.opengl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Program binaries saved and loaded through the headless CountingGL: round trip, keys, binaries the
+ * driver rejects, damaged entries and LRU eviction under the byte cap.
+ */
+public class ProgramBinaryCacheTest {
+
+    // Header plus CountingGL's binary
+    private static final int ENTRY_BYTES = 16 + CountingGL.BINARY_LENGTH;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // CountingGL whose driver can change and whose binaries can be refused
+    private static class DriverGL extends CountingGL {
+        String renderer = "Renderer 1";
+        boolean rejectBinaries = false;
+        private boolean fromBinary = false;
+
+        @Override
+        public String glGetString(int name) {
+            super.glGetString(name);
+            return name == GL_RENDERER ? renderer : "CountingGL";
+        }
+
+        @Override
+        public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+            super.glProgramBinary(program, binaryFormat, binary, length);
+            fromBinary = true;
+        }
+
+        @Override
+        public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+            super.glGetProgramiv(program, pname, params, offset);
+            if (pname == GL_LINK_STATUS && fromBinary && rejectBinaries) {
+                params[offset] = 0;
+            }
+            fromBinary = false;
+        }
+    }
+
+    private File entry(File directory, String key) {
+        return new File(directory, key + ".bin");
+    }
+
+    @Test
+    public void saveThenLoad_createsProgramFromBinary() throws IOException {
+        File directory = folder.newFolder();
+        CountingGL gl = new CountingGL();
+        ProgramBinaryCache cache = new ProgramBinaryCache(directory, 1 << 20);
+        cache.save(gl, gl.glCreateProgram(), "k");
+        assertEquals(ENTRY_BYTES, entry(directory, "k").length());
+
+        gl.resetCounts();
+        // A fresh instance reads what the previous one wrote
+        ProgramBinaryCache reloaded = new ProgramBinaryCache(directory, 1 << 20);
+        assertNotEquals(0, reloaded.load(gl, "k"));
+        assertEquals(1, gl.getCallCount("glProgramBinary"));
+        assertEquals(0, gl.getCallCount("glLinkProgram"));
+        assertEquals(1, reloaded.getHits());
+        assertEquals(0, reloaded.getMisses());
+    }
+
+    @Test
+    public void load_missingEntryIsMiss() throws IOException {
+        CountingGL gl = new CountingGL();
+        ProgramBinaryCache cache = new ProgramBinaryCache(folder.newFolder(), 1 << 20);
+        assertEquals(0, cache.load(gl, "absent"));
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, gl.getCallCount("glCreateProgram"));
+    }
+
+    @Test
+    public void key_changesWithSourcesAndDriver() {
+        DriverGL gl = new DriverGL();
+        String driver = ProgramBinaryCache.driverString(gl);
+        String key = ProgramBinaryCache.key("vert", "frag", driver);
+        assertEquals(key, ProgramBinaryCache.key("vert", "frag", ProgramBinaryCache.driverString(gl)));
+        assertNotEquals(key, ProgramBinaryCache.key("vert2", "frag", driver));
+        assertNotEquals(key, ProgramBinaryCache.key("vert", "frag2", driver));
+        // Moving text between the two shaders is a different program
+        assertNotEquals(key, ProgramBinaryCache.key("ver", "tfrag", driver));
+
+        gl.renderer = "Renderer 2";
+        assertNotEquals(key, ProgramBinaryCache.key("vert", "frag", ProgramBinaryCache.driverString(gl)));
+    }
+
+    @Test
+    public void rejectedBinary_isDeletedAndMissed() throws IOException {
+        File directory = folder.newFolder();
+        DriverGL gl = new DriverGL();
+        ProgramBinaryCache cache = new ProgramBinaryCache(directory, 1 << 20);
+        cache.save(gl, gl.glCreateProgram(), "k");
+
+        gl.rejectBinaries = true;
+        gl.resetCounts();
+        assertEquals(0, cache.load(gl, "k"));
+        assertEquals(1, gl.getCallCount("glDeleteProgram"));
+        assertFalse(entry(directory, "k").exists());
+        assertEquals(1, cache.getRejected());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void unknownHeader_isDeletedWithoutTouchingGL() throws IOException {
+        File directory = folder.newFolder();
+        CountingGL gl = new CountingGL();
+        ProgramBinaryCache cache = new ProgramBinaryCache(directory, 1 << 20);
+        try (FileOutputStream out = new FileOutputStream(entry(directory, "garbage"))) {
+            out.write(new byte[ENTRY_BYTES]);
+        }
+        assertEquals(0, cache.load(gl, "garbage"));
+        assertFalse(entry(directory, "garbage").exists());
+        assertEquals(0, gl.getCallCount("glCreateProgram"));
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, cache.getRejected());
+    }
+
+    @Test
+    public void lengthMismatch_isDeleted() throws IOException {
+        File directory = folder.newFolder();
+        CountingGL gl = new CountingGL();
+        ProgramBinaryCache cache = new ProgramBinaryCache(directory, 1 << 20);
+        cache.save(gl, gl.glCreateProgram(), "cut");
+        cache.save(gl, gl.glCreateProgram(), "long");
+        try (RandomAccessFile raf = new RandomAccessFile(entry(directory, "cut"), "rw")) {
+            raf.setLength(ENTRY_BYTES - 1);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(entry(directory, "long"), "rw")) {
+            raf.setLength(ENTRY_BYTES + 1);
+        }
+        gl.resetCounts();
+        assertEquals(0, cache.load(gl, "cut"));
+        assertEquals(0, cache.load(gl, "long"));
+        assertFalse(entry(directory, "cut").exists());
+        assertFalse(entry(directory, "long").exists());
+        assertEquals(0, gl.getCallCount("glProgramBinary"));
+    }
+
+    @Test
+    public void save_evictsLeastRecentlyUsedBeyondCap() throws IOException {
+        File directory = folder.newFolder();
+        CountingGL gl = new CountingGL();
+        // Room for two entries, not three
+        ProgramBinaryCache cache = new ProgramBinaryCache(directory, ENTRY_BYTES * 2 + ENTRY_BYTES / 2);
+        cache.save(gl, gl.glCreateProgram(), "a");
+        cache.save(gl, gl.glCreateProgram(), "b");
+        // a was written first but loaded since, b is the least recently used
+        assertTrue(entry(directory, "a").setLastModified(1_000_000_000L));
+        assertTrue(entry(directory, "b").setLastModified(2_000_000_000L));
+        assertNotEquals(0, cache.load(gl, "a"));
+        cache.save(gl, gl.glCreateProgram(), "c");
+
+        assertTrue(entry(directory, "a").isFile());
+        assertFalse(entry(directory, "b").isFile());
+        assertTrue(entry(directory, "c").isFile());
+    }
+
+    @Test
+    public void save_binaryLargerThanCapIsNotStored() throws IOException {
+        File directory = folder.newFolder();
+        CountingGL gl = new CountingGL();
+        ProgramBinaryCache cache = new ProgramBinaryCache(directory, CountingGL.BINARY_LENGTH - 1);
+        cache.save(gl, gl.glCreateProgram(), "big");
+        assertFalse(entry(directory, "big").exists());
+        assertEquals(0, gl.getCallCount("glGetProgramBinary"));
+    }
+}